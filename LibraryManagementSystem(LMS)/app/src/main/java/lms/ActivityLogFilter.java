@@ -0,0 +1,28 @@
+package lms;
+
+import java.time.LocalDate;
+
+// Server-side filter for the activity log view; null fields are not filtered on
+class ActivityLogFilter {
+    static final ActivityLogFilter NONE = new ActivityLogFilter(null, null, null, null);
+
+    final LocalDate from;
+    final LocalDate to;
+    final String registrationNo;
+    final String activity;
+
+    ActivityLogFilter(LocalDate from, LocalDate to, String registrationNo, String activity) {
+        this.from = from;
+        this.to = to;
+        this.registrationNo = registrationNo;
+        this.activity = activity;
+    }
+
+    boolean matches(ActivityRow row) {
+        LocalDate date = LocalDate.parse(row.date);
+        return (from == null || !date.isBefore(from))
+                && (to == null || !date.isAfter(to))
+                && (registrationNo == null || registrationNo.equals(row.registrationNo))
+                && (activity == null || activity.equals(row.activity));
+    }
+}
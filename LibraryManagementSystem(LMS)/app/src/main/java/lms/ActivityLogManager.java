@@ -0,0 +1,182 @@
+package lms;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads and deletes activity_log rows for the Activity Tracker view (inserts go through ActivityLogWriter).
+// Pages run newest first with keyset pagination on id; every filter combination is backed by an index
+// (see Database Structure.txt), so a page costs the same however large the log grows.
+class ActivityLogManager {
+    private static final String PAGE_QUERY_PREFIX = "SELECT id, registration_no, name, activity, date, time FROM activity_log WHERE id < ?";
+    // A delete takes the entries up to the newest one seen when it starts; entries logged meanwhile stay, counted
+    private static final String LAST_ENTRY_QUERY = "SELECT MAX(id) FROM activity_log WHERE registration_no = ?";
+    // What the deleted entries added to the report totals (activity_hours), to take back out
+    private static final String HOURS_OF_QUERY = "SELECT date, HOUR(time) AS hour_of_day, activity, COUNT(*) AS entries"
+            + " FROM activity_log WHERE registration_no = ? AND id <= ? GROUP BY date, HOUR(time), activity";
+    private static final String UNCOUNT_HOURS_QUERY = "UPDATE activity_hours SET entries = GREATEST(entries - ?, 0)"
+            + " WHERE stat_date = ? AND hour_of_day = ? AND activity = ?";
+    private static final String DELETE_QUERY = "DELETE FROM activity_log WHERE registration_no = ? AND id <= ?";
+    private static final String CLEAR_VISITS_QUERY = "UPDATE patrons SET visits = 0, last_visit_date = NULL WHERE registration_number = ?";
+
+    // Deleted entries of one day, hour and activity
+    private static final class HourCount {
+        final LocalDate date;
+        final int hour;
+        final String activity;
+        final long entries;
+
+        HourCount(LocalDate date, int hour, String activity, long entries) {
+            this.date = date;
+            this.hour = hour;
+            this.activity = activity;
+            this.entries = entries;
+        }
+    }
+
+    private final DatabaseConnection db;
+    private final PatronIndex patrons; // optional, null when there is no patron index to keep current
+    private final CirculationStats stats; // optional, null when report totals are not kept in memory
+
+    ActivityLogManager(DatabaseConnection db) {
+        this(db, null, null);
+    }
+
+    ActivityLogManager(DatabaseConnection db, PatronIndex patrons, CirculationStats stats) {
+        this.db = db;
+        this.patrons = patrons;
+        this.stats = stats;
+        db.getStatementRegistry().register("activityLog.lastEntry", LAST_ENTRY_QUERY);
+        db.getStatementRegistry().register("activityLog.hoursOf", HOURS_OF_QUERY);
+        db.getStatementRegistry().register("stats.uncountHours", UNCOUNT_HOURS_QUERY);
+        db.getStatementRegistry().register("activityLog.delete", DELETE_QUERY);
+        db.getStatementRegistry().register("patrons.clearVisits", CLEAR_VISITS_QUERY);
+        db.getOperationMetrics().register("activity.page");
+        db.getOperationMetrics().register("activity.delete");
+    }
+
+    public List<ActivityRow> getPage(ActivityLogFilter filter, int beforeId, int limit) throws SQLException {
+        return db.getOperationMetrics().time("activity.page", () -> {
+            StringBuilder sql = new StringBuilder(PAGE_QUERY_PREFIX);
+            StringBuilder name = new StringBuilder("activityLog.page");
+            if (filter.from != null) {
+                sql.append(" AND date >= ?");
+                name.append(".from");
+            }
+            if (filter.to != null) {
+                sql.append(" AND date <= ?");
+                name.append(".to");
+            }
+            if (filter.registrationNo != null) {
+                sql.append(" AND registration_no = ?");
+                name.append(".reg");
+            }
+            if (filter.activity != null) {
+                sql.append(" AND activity = ?");
+                name.append(".activity");
+            }
+            sql.append(" ORDER BY id DESC LIMIT ?");
+            // At most 16 shapes, so each one is worth preparing once per connection
+            db.getStatementRegistry().register(name.toString(), sql.toString());
+
+            List<ActivityRow> page = new ArrayList<>(limit);
+            try (Connection connection = db.getConnection();
+                 PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+                int index = 1;
+                ps.setInt(index++, beforeId);
+                if (filter.from != null) {
+                    ps.setDate(index++, Date.valueOf(filter.from));
+                }
+                if (filter.to != null) {
+                    ps.setDate(index++, Date.valueOf(filter.to));
+                }
+                if (filter.registrationNo != null) {
+                    ps.setString(index++, filter.registrationNo);
+                }
+                if (filter.activity != null) {
+                    ps.setString(index++, filter.activity);
+                }
+                ps.setInt(index, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        page.add(new ActivityRow(rs.getInt("id"), rs.getString("registration_no"), rs.getString("name"),
+                                rs.getString("activity"), rs.getString("date"), rs.getString("time")));
+                    }
+                }
+            }
+            return page;
+        });
+    }
+
+    // Deletes the patron's entries and, with them, their visit count and what they added to the report totals
+    public int deleteByRegistration(String registrationNo) throws SQLException {
+        List<HourCount> uncounted = new ArrayList<>();
+        int deleted = db.getOperationMetrics().time("activity.delete", () -> {
+            try (Connection connection = db.getConnection();
+                 PreparedStatement psLast = connection.prepareStatement(LAST_ENTRY_QUERY);
+                 PreparedStatement psHours = connection.prepareStatement(HOURS_OF_QUERY);
+                 PreparedStatement psUncount = connection.prepareStatement(UNCOUNT_HOURS_QUERY);
+                 PreparedStatement ps = connection.prepareStatement(DELETE_QUERY);
+                 PreparedStatement psVisits = connection.prepareStatement(CLEAR_VISITS_QUERY)) {
+                connection.setAutoCommit(false);
+                try {
+                    int lastId;
+                    psLast.setString(1, registrationNo);
+                    try (ResultSet rs = psLast.executeQuery()) {
+                        rs.next();
+                        lastId = rs.getInt(1); // 0 when there are none
+                    }
+                    long counted = 0;
+                    psHours.setString(1, registrationNo);
+                    psHours.setInt(2, lastId);
+                    try (ResultSet rs = psHours.executeQuery()) {
+                        while (rs.next()) {
+                            HourCount hour = new HourCount(rs.getDate("date").toLocalDate(), rs.getInt("hour_of_day"),
+                                    rs.getString("activity"), rs.getLong("entries"));
+                            psUncount.setLong(1, hour.entries);
+                            psUncount.setDate(2, Date.valueOf(hour.date));
+                            psUncount.setInt(3, hour.hour);
+                            psUncount.setString(4, hour.activity);
+                            psUncount.addBatch();
+                            uncounted.add(hour);
+                            counted += hour.entries;
+                        }
+                    }
+                    if (!uncounted.isEmpty()) {
+                        psUncount.executeBatch();
+                    }
+                    ps.setString(1, registrationNo);
+                    ps.setInt(2, lastId);
+                    int rows = ps.executeUpdate();
+                    if (rows != counted) {
+                        // Another desk deleted some of them after they were counted
+                        throw new SQLException("The activity log of " + registrationNo
+                                + " changed while it was being deleted. Try again.");
+                    }
+                    psVisits.setString(1, registrationNo);
+                    psVisits.executeUpdate();
+                    connection.commit();
+                    return rows;
+                } catch (SQLException e) {
+                    uncounted.clear();
+                    connection.rollback();
+                    throw e;
+                }
+            }
+        });
+        if (patrons != null) {
+            patrons.visitsCleared(registrationNo);
+        }
+        if (stats != null) {
+            for (HourCount hour : uncounted) {
+                stats.activityRemoved(hour.date, hour.hour, hour.activity, hour.entries);
+            }
+        }
+        return deleted;
+    }
+}
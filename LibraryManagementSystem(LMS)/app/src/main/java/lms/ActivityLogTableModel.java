@@ -0,0 +1,53 @@
+package lms;
+
+// Paged, newest-first model behind the Activity Tracker table
+class ActivityLogTableModel extends KeysetTableModel<ActivityRow> {
+    static final String[] COLUMNS = {"Registration No", "Name", "Activity", "Date", "Time", "Delete"};
+    static final int DELETE_COLUMN = 5;
+
+    // Entries logged from this kiosk are shown before the writer has stored them and they have a real id;
+    // they get keys counting down from the top so they sort above every stored row.
+    private int nextPendingKey = Integer.MAX_VALUE - 1;
+    private ActivityLogFilter filter = ActivityLogFilter.NONE;
+
+    ActivityLogTableModel(PageFetcher<ActivityRow> fetcher) {
+        super(COLUMNS, fetcher, true);
+    }
+
+    public ActivityLogFilter getFilter() {
+        return filter;
+    }
+
+    public void setFilter(ActivityLogFilter filter) {
+        this.filter = filter;
+        reload();
+    }
+
+    @Override
+    protected int keyOf(ActivityRow row) {
+        return row.id;
+    }
+
+    @Override
+    protected Object columnValue(ActivityRow row, int column) {
+        switch (column) {
+            case 0: return row.registrationNo;
+            case 1: return row.name;
+            case 2: return row.activity;
+            case 3: return row.date;
+            case 4: return row.time;
+            default: return "Delete";
+        }
+    }
+
+    public void addPending(String registrationNo, String name, String activity, String date, String time) {
+        ActivityRow row = new ActivityRow(nextPendingKey--, registrationNo, name, activity, date, time);
+        if (filter.matches(row)) {
+            upsert(row);
+        }
+    }
+
+    public void removeRegistration(String registrationNo) {
+        removeWhere(row -> registrationNo.equals(row.registrationNo));
+    }
+}
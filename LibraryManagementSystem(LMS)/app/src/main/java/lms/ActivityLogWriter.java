@@ -0,0 +1,340 @@
+package lms;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Writes activity_log rows in the background. Entries are queued in memory and a single writer thread
+// inserts them in JDBC batches, flushing when a batch fills up or the oldest entry has waited maxDelayMillis.
+// The queue is bounded: when the database falls behind, log() waits briefly and then refuses the entry.
+// Each entry also counts as a visit in the patrons table, updated in the same transaction as the rows, and is
+// announced on the change bus once that transaction commits. When the database is unreachable, a fallback (the
+// desk journal, OfflineDesk) can take the batch and everything queued behind it instead of holding them in memory.
+class ActivityLogWriter {
+    static final String INSERT_QUERY = "INSERT INTO activity_log (registration_no, name, activity, date, time) VALUES (?, ?, ?, ?, ?)";
+    static final String VISIT_QUERY = "INSERT INTO patrons (registration_number, name, visits, last_visit_date) VALUES (?, ?, ?, ?)"
+            + " ON DUPLICATE KEY UPDATE name = VALUES(name), visits = visits + VALUES(visits),"
+            + " last_visit_date = GREATEST(COALESCE(last_visit_date, VALUES(last_visit_date)), VALUES(last_visit_date))";
+    // Entries per day, hour and activity for the reports (CirculationStats)
+    static final String HOURS_QUERY = "INSERT INTO activity_hours (stat_date, hour_of_day, activity, entries) VALUES (?, ?, ?, ?)"
+            + " ON DUPLICATE KEY UPDATE entries = entries + VALUES(entries)";
+    // What is already logged for the days a replay covers
+    static final String LOGGED_QUERY = "SELECT registration_no, activity, date, time FROM activity_log WHERE date BETWEEN ? AND ?";
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 30000;
+
+    // Takes entries the writer cannot get to the database; false leaves them with the writer to retry
+    interface Fallback {
+        boolean keep(List<ActivityEntry> entries, Throwable cause);
+    }
+
+    // One row of activity_log
+    static final class ActivityEntry {
+        final String registrationNo;
+        final String name;
+        final String activity;
+        final String date;
+        final String time;
+
+        ActivityEntry(String registrationNo, String name, String activity, String date, String time) {
+            this.registrationNo = registrationNo;
+            this.name = name;
+            this.activity = activity;
+            this.date = date;
+            this.time = time;
+        }
+    }
+
+    private final DatabaseConnection db;
+    private final BlockingQueue<ActivityEntry> queue;
+    private final int batchSize;
+    private final long maxDelayMillis;
+    private final long enqueueTimeoutMillis;
+    private final Consumer<String> errorListener;
+    private final ChangeBus changes; // optional, null when entries are not announced
+    private final Thread writerThread;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private volatile Fallback fallback; // optional, null when entries wait in memory for the database
+    private volatile boolean accepting = true;
+    private volatile boolean running = true;
+
+    ActivityLogWriter(DatabaseConnection db, int capacity, int batchSize, long maxDelayMillis,
+                      long enqueueTimeoutMillis, Consumer<String> errorListener) {
+        this(db, capacity, batchSize, maxDelayMillis, enqueueTimeoutMillis, errorListener, null);
+    }
+
+    ActivityLogWriter(DatabaseConnection db, int capacity, int batchSize, long maxDelayMillis,
+                      long enqueueTimeoutMillis, Consumer<String> errorListener, ChangeBus changes) {
+        this.db = db;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.enqueueTimeoutMillis = enqueueTimeoutMillis;
+        this.errorListener = errorListener;
+        this.changes = changes;
+        db.getStatementRegistry().register("activityLog.insert", INSERT_QUERY);
+        db.getStatementRegistry().register("patrons.visit", VISIT_QUERY);
+        db.getStatementRegistry().register("stats.hours", HOURS_QUERY);
+        db.getStatementRegistry().register("activityLog.logged", LOGGED_QUERY);
+        db.getOperationMetrics().register("activity.write");
+        this.writerThread = new Thread(this::run, "lms-activity-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    void setFallback(Fallback fallback) {
+        this.fallback = fallback;
+    }
+
+    // Queues an entry for writing; returns false if the queue stayed full for enqueueTimeoutMillis or the writer is shut down
+    public boolean log(ActivityEntry entry) {
+        if (!accepting) {
+            return false;
+        }
+        try {
+            if (queue.offer(entry, enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        refused.incrementAndGet();
+        return false;
+    }
+
+    // Stops accepting entries, writes everything still queued, and waits up to timeoutMillis for that to finish
+    public void shutdown(long timeoutMillis) {
+        accepting = false;
+        // No interrupt: it could abort the final flush. The writer notices within maxDelayMillis.
+        running = false;
+        try {
+            writerThread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            System.err.println("Activity log writer stopped with " + queue.size() + " unwritten entries.");
+        }
+    }
+
+    // Writes entries journaled while the database was unreachable (OfflineDesk), now and in one transaction. Entries
+    // already in the log are skipped, so replaying the same ones twice is harmless: the log for the days they
+    // cover is read once (idx_activity_log_date) to find them. Returns how many were written.
+    public int replay(List<ActivityEntry> entries) throws SQLException {
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        String from = entries.get(0).date;
+        String to = from;
+        for (ActivityEntry entry : entries) {
+            from = entry.date.compareTo(from) < 0 ? entry.date : from;
+            to = entry.date.compareTo(to) > 0 ? entry.date : to;
+        }
+        String firstDay = from;
+        String lastDay = to;
+        int inserted = db.getOperationMetrics().time("activity.write", () -> {
+            List<ActivityEntry> fresh = new ArrayList<>(entries.size());
+            try (Connection connection = db.getConnection();
+                 PreparedStatement logged = connection.prepareStatement(LOGGED_QUERY);
+                 PreparedStatement pstmt = connection.prepareStatement(INSERT_QUERY);
+                 PreparedStatement visitStmt = connection.prepareStatement(VISIT_QUERY);
+                 PreparedStatement hoursStmt = connection.prepareStatement(HOURS_QUERY)) {
+                connection.setAutoCommit(false);
+                Set<String> present = new HashSet<>();
+                logged.setString(1, firstDay);
+                logged.setString(2, lastDay);
+                try (ResultSet rs = logged.executeQuery()) {
+                    while (rs.next()) {
+                        present.add(key(rs.getString("registration_no"), rs.getString("activity"),
+                                rs.getString("date"), rs.getString("time")));
+                    }
+                }
+                for (ActivityEntry entry : entries) {
+                    if (!present.add(key(entry.registrationNo, entry.activity, entry.date, entry.time))) {
+                        continue;
+                    }
+                    pstmt.setString(1, entry.registrationNo);
+                    pstmt.setString(2, entry.name);
+                    pstmt.setString(3, entry.activity);
+                    pstmt.setString(4, entry.date);
+                    pstmt.setString(5, entry.time);
+                    pstmt.addBatch();
+                    fresh.add(entry);
+                }
+                pstmt.executeBatch();
+                addVisits(visitStmt, fresh);
+                addHours(hoursStmt, fresh);
+                connection.commit();
+            }
+            return fresh.size();
+        });
+        written.addAndGet(inserted);
+        return inserted;
+    }
+
+    private static String key(String registrationNo, String activity, String date, String time) {
+        return registrationNo + '\u0000' + activity + '\u0000' + date + '\u0000' + time;
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ActivityLogWriter[written=" + written.get() + ", batches=" + batches.get() + ", queued=" + queue.size()
+                + ", refused=" + refused.get() + "]";
+    }
+
+    private void run() {
+        List<ActivityEntry> batch = new ArrayList<>(batchSize);
+        long backoff = RETRY_BACKOFF_MILLIS;
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    ActivityEntry first = running ? queue.poll(maxDelayMillis, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                }
+                // Gather more entries until the batch is full or the oldest one has waited long enough
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    ActivityEntry next = running && remaining > 0
+                            ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                running = false; // treat an interrupt like shutdown: flush what we have and drain
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            try {
+                flush(batch);
+                batch.clear();
+                backoff = RETRY_BACKOFF_MILLIS;
+            } catch (SQLException e) {
+                Fallback keeper = fallback;
+                if (keeper != null && OfflineDesk.isOutage(e)) {
+                    queue.drainTo(batch);
+                    if (keeper.keep(batch, e)) {
+                        batch.clear();
+                        backoff = RETRY_BACKOFF_MILLIS;
+                        continue;
+                    }
+                }
+                if (backoff == RETRY_BACKOFF_MILLIS) {
+                    errorListener.accept("Error logging activity: " + e.getMessage()); // once per outage
+                }
+                if (!running) {
+                    System.err.println("Dropping " + batch.size() + " activity entries at shutdown: " + e.getMessage());
+                    batch.clear();
+                    continue;
+                }
+                // Keep the batch and try again; meanwhile the bounded queue pushes back on new entries
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ignored) {
+                    running = false;
+                }
+                backoff = Math.min(backoff * 2, MAX_RETRY_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    // Recorded as operation activity.write, with one row per entry; the entries are announced once committed
+    private void flush(List<ActivityEntry> batch) throws SQLException {
+        db.getOperationMetrics().time("activity.write", () -> {
+            try (Connection connection = db.getConnection();
+                 PreparedStatement pstmt = connection.prepareStatement(INSERT_QUERY);
+                 PreparedStatement visitStmt = connection.prepareStatement(VISIT_QUERY);
+                 PreparedStatement hoursStmt = connection.prepareStatement(HOURS_QUERY)) {
+                connection.setAutoCommit(false);
+                for (ActivityEntry entry : batch) {
+                    pstmt.setString(1, entry.registrationNo);
+                    pstmt.setString(2, entry.name);
+                    pstmt.setString(3, entry.activity);
+                    pstmt.setString(4, entry.date);
+                    pstmt.setString(5, entry.time);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                addVisits(visitStmt, batch);
+                addHours(hoursStmt, batch);
+                connection.commit();
+            }
+            return batch;
+        });
+        written.addAndGet(batch.size());
+        batches.incrementAndGet();
+        if (changes != null) {
+            for (ActivityEntry entry : batch) {
+                changes.publish(ChangeEvent.activityLogged(entry));
+            }
+        }
+    }
+
+    // One patrons upsert per student in the batch, however many entries they have in it
+    private static void addVisits(PreparedStatement visitStmt, List<ActivityEntry> entries) throws SQLException {
+        Map<String, ActivityEntry> latest = new LinkedHashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (ActivityEntry entry : entries) {
+            latest.merge(entry.registrationNo, entry, (a, b) -> b.date.compareTo(a.date) >= 0 ? b : a);
+            counts.merge(entry.registrationNo, 1, Integer::sum);
+        }
+        for (ActivityEntry entry : latest.values()) {
+            visitStmt.setString(1, entry.registrationNo);
+            visitStmt.setString(2, entry.name);
+            visitStmt.setInt(3, counts.get(entry.registrationNo));
+            visitStmt.setString(4, entry.date);
+            visitStmt.addBatch();
+        }
+        visitStmt.executeBatch();
+    }
+
+    // One activity_hours upsert per day, hour and activity in the batch
+    private static void addHours(PreparedStatement hoursStmt, List<ActivityEntry> entries) throws SQLException {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        Map<String, ActivityEntry> first = new HashMap<>();
+        for (ActivityEntry entry : entries) {
+            String key = entry.date + '\u0000' + hourOf(entry) + '\u0000' + entry.activity;
+            counts.merge(key, 1, Integer::sum);
+            first.putIfAbsent(key, entry);
+        }
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            ActivityEntry entry = first.get(count.getKey());
+            hoursStmt.setString(1, entry.date);
+            hoursStmt.setInt(2, hourOf(entry));
+            hoursStmt.setString(3, entry.activity);
+            hoursStmt.setInt(4, count.getValue());
+            hoursStmt.addBatch();
+        }
+        hoursStmt.executeBatch();
+    }
+
+    // The hour of the day an entry was logged, from its HH:mm:ss time
+    static int hourOf(ActivityEntry entry) {
+        return Integer.parseInt(entry.time.substring(0, entry.time.indexOf(':')));
+    }
+}
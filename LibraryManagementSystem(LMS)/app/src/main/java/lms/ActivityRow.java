@@ -0,0 +1,20 @@
+package lms;
+
+// One row of the Activity Tracker table
+class ActivityRow {
+    final int id;
+    final String registrationNo;
+    final String name;
+    final String activity;
+    final String date;
+    final String time;
+
+    ActivityRow(int id, String registrationNo, String name, String activity, String date, String time) {
+        this.id = id;
+        this.registrationNo = registrationNo;
+        this.name = name;
+        this.activity = activity;
+        this.date = date;
+        this.time = time;
+    }
+}
@@ -0,0 +1,219 @@
+package lms;
+
+import javax.swing.*;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+// Runs BookManager and other JDBC work on background threads so the Swing event dispatch thread never blocks.
+// Results are delivered back on the EDT with onEdt(...). With an OfflineDesk the catalog and loan calls go through
+// it, so they carry on from the desk journal while the database is unreachable.
+class AsyncBookManager {
+    // Work that may fail with a checked database or library error
+    interface SqlTask<T> {
+        T run() throws SQLException, LibraryException;
+    }
+
+    private final BookManager bookManager;
+    private final OfflineDesk desk; // null when the desk cannot work offline
+    private final ExecutorService executor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final List<IntConsumer> inFlightListeners = new CopyOnWriteArrayList<>();
+    private final Map<String, CompletableFuture<?>> latestRefresh = new ConcurrentHashMap<>();
+
+    public AsyncBookManager(BookManager bookManager, int threads) {
+        this(bookManager, null, threads);
+    }
+
+    public AsyncBookManager(BookManager bookManager, OfflineDesk desk, int threads) {
+        this.bookManager = bookManager;
+        this.desk = desk;
+        AtomicInteger counter = new AtomicInteger();
+        // Platform daemon threads: the app still targets Java 8, so virtual threads are not available here.
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "lms-db-worker-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public CompletableFuture<BookRow> addBook(int id, String title, String author, String publisher, int year) {
+        return submitSql(() -> desk != null ? desk.addBook(id, title, author, publisher, year)
+                : bookManager.addBook(id, title, author, publisher, year));
+    }
+
+    public CompletableFuture<Void> deleteBook(int bookId) {
+        return submitSql(() -> {
+            if (desk != null) {
+                desk.deleteBook(bookId);
+            } else {
+                bookManager.deleteBook(bookId);
+            }
+            return null;
+        });
+    }
+
+    public CompletableFuture<IssuedBookRow> issueBook(int bookId, String studentName, String registrationNumber) {
+        return submitSql(() -> desk != null ? desk.issueBook(bookId, studentName, registrationNumber)
+                : bookManager.issueBook(bookId, studentName, registrationNumber));
+    }
+
+    // Completes with the hold the returned copy is now kept for, or null
+    public CompletableFuture<HoldQueue.Hold> returnBook(int bookId) {
+        return submitSql(() -> desk != null ? desk.returnBook(bookId) : bookManager.returnBook(bookId));
+    }
+
+    public CompletableFuture<HoldQueue.Hold> placeHold(int bookId, String studentName, String registrationNumber) {
+        return submitSql(() -> desk != null ? desk.placeHold(bookId, studentName, registrationNumber)
+                : bookManager.placeHold(bookId, studentName, registrationNumber));
+    }
+
+    // Completes with the hold the copy passed to when the cancelled one was ready, or null
+    public CompletableFuture<HoldQueue.Hold> cancelHold(int bookId, String registrationNumber) {
+        return submitSql(() -> desk != null ? desk.cancelHold(bookId, registrationNumber)
+                : bookManager.cancelHold(bookId, registrationNumber));
+    }
+
+    public CompletableFuture<BookRow> getBook(int bookId) {
+        return refreshSql("books", () -> desk != null ? desk.getBook(bookId) : bookManager.getBook(bookId));
+    }
+
+    public CompletableFuture<List<BookRow>> getBooksPage(int afterId, int limit) {
+        return submitSql(() -> desk != null ? desk.getBooksPage(afterId, limit) : bookManager.getBooksPage(afterId, limit));
+    }
+
+    public CompletableFuture<List<IssuedBookRow>> getIssuedBooksPage(int afterId, int limit) {
+        return submitSql(() -> desk != null ? desk.getIssuedBooksPage(afterId, limit)
+                : bookManager.getIssuedBooksPage(afterId, limit));
+    }
+
+    public CompletableFuture<List<BookRow>> searchBooks(String query, int limit) {
+        return refreshSql("search", () -> desk != null ? desk.searchBooks(query, limit) : bookManager.searchBooks(query, limit));
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        inFlight.incrementAndGet();
+        inFlightChanged();
+        Future<?> worker = executor.submit(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                result.complete(task.get());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                worker.cancel(true);
+            }
+            inFlight.decrementAndGet();
+            inFlightChanged();
+        });
+        return result;
+    }
+
+    public <T> CompletableFuture<T> submitSql(SqlTask<T> task) {
+        return submit(() -> {
+            try {
+                return task.run();
+            } catch (SQLException | LibraryException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    // Like submit, but a newer refresh with the same key cancels the one still running,
+    // so a burst of clicks only ever paints the latest result.
+    public <T> CompletableFuture<T> refresh(String key, Supplier<T> task) {
+        CompletableFuture<T> result = submit(task);
+        CompletableFuture<?> stale = latestRefresh.put(key, result);
+        if (stale != null) {
+            stale.cancel(true);
+        }
+        result.whenComplete((value, error) -> latestRefresh.remove(key, result));
+        return result;
+    }
+
+    public <T> CompletableFuture<T> refreshSql(String key, SqlTask<T> task) {
+        return refresh(key, () -> {
+            try {
+                return task.run();
+            } catch (SQLException | LibraryException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    // Listener receives the number of operations still running; called on the EDT.
+    public void addInFlightListener(IntConsumer listener) {
+        inFlightListeners.add(listener);
+    }
+
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Library errors already carry a message for the user; anything else is reported as a database failure
+    public static <T> void onEdt(CompletableFuture<T> future, Consumer<T> action) {
+        onEdt(future, action, error -> {
+            if (error instanceof LibraryException) {
+                JOptionPane.showMessageDialog(null, error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            } else {
+                JOptionPane.showMessageDialog(null, "Database operation failed: " + error.getMessage(),
+                        "Database Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+
+    // Delivers the result (or the unwrapped failure) on the EDT; cancelled work is dropped silently.
+    public static <T> void onEdt(CompletableFuture<T> future, Consumer<T> action, Consumer<Throwable> onError) {
+        future.whenComplete((value, error) -> SwingUtilities.invokeLater(() -> {
+            if (future.isCancelled() || error instanceof CancellationException) {
+                return;
+            }
+            if (error == null) {
+                action.accept(value);
+            } else {
+                onError.accept(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            }
+        }));
+    }
+
+    private void inFlightChanged() {
+        if (inFlightListeners.isEmpty()) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            int count = inFlight.get();
+            for (IntConsumer listener : inFlightListeners) {
+                listener.accept(count);
+            }
+        });
+    }
+}
@@ -0,0 +1,18 @@
+package lms;
+
+// Book details as entered by a librarian or read from an import file
+class Book {
+    final int id;
+    final String title;
+    final String author;
+    final String publisher;
+    final int year;
+
+    Book(int id, String title, String author, String publisher, int year) {
+        this.id = id;
+        this.title = title;
+        this.author = author;
+        this.publisher = publisher;
+        this.year = year;
+    }
+}
@@ -0,0 +1,212 @@
+package lms;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Column-wise storage for the books table. Ids, years and status codes live in primitive arrays, and authors and
+// publishers are codes into a StringPool, so a loaded catalog is a handful of arrays rather than a BookRow per row
+// each holding its own copies of the author and publisher strings read from JDBC. Titles are nearly all distinct
+// and are kept as they are.
+class BookColumns implements RowStore<BookRow> {
+    static final String ISSUED = "Issued";
+    static final String AVAILABLE = "Available";
+    static final String HELD = "Held"; // back on the shelf but kept for a student's hold
+    // Status codes in the order the statuses sort by name
+    private static final String[] STATUSES = {AVAILABLE, HELD, ISSUED};
+    private static final int INITIAL_CAPACITY = KeysetTableModel.PAGE_SIZE;
+
+    private final StringPool authors = new StringPool();
+    private final StringPool publishers = new StringPool();
+    private final DisplayText text = new DisplayText();
+    private int size;
+    private int[] ids;
+    private String[] titles;
+    private int[] authorCodes;
+    private int[] publisherCodes;
+    private int[] years;
+    private byte[] statuses;
+
+    BookColumns() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public BookRow get(int index) {
+        checkIndex(index);
+        return new BookRow(ids[index], titles[index], authors.get(authorCodes[index]),
+                publishers.get(publisherCodes[index]), years[index], STATUSES[statuses[index]]);
+    }
+
+    @Override
+    public int keyAt(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    // Cell text for the table; ids and years come from the DisplayText cache rather than being boxed
+    @Override
+    public Object valueAt(int index, int column) {
+        checkIndex(index);
+        switch (column) {
+            case 0: return text.of(ids[index]);
+            case 1: return titles[index];
+            case 2: return authors.get(authorCodes[index]);
+            case 3: return publishers.get(publisherCodes[index]);
+            case 4: return text.of(years[index]);
+            default: return STATUSES[statuses[index]];
+        }
+    }
+
+    @Override
+    public void add(int index, BookRow row) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        int moved = size - index;
+        if (moved > 0) {
+            System.arraycopy(ids, index, ids, index + 1, moved);
+            System.arraycopy(titles, index, titles, index + 1, moved);
+            System.arraycopy(authorCodes, index, authorCodes, index + 1, moved);
+            System.arraycopy(publisherCodes, index, publisherCodes, index + 1, moved);
+            System.arraycopy(years, index, years, index + 1, moved);
+            System.arraycopy(statuses, index, statuses, index + 1, moved);
+        }
+        size++;
+        write(index, row);
+    }
+
+    @Override
+    public void set(int index, BookRow row) {
+        checkIndex(index);
+        write(index, row);
+    }
+
+    @Override
+    public void remove(int index) {
+        checkIndex(index);
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(ids, index + 1, ids, index, moved);
+            System.arraycopy(titles, index + 1, titles, index, moved);
+            System.arraycopy(authorCodes, index + 1, authorCodes, index, moved);
+            System.arraycopy(publisherCodes, index + 1, publisherCodes, index, moved);
+            System.arraycopy(years, index + 1, years, index, moved);
+            System.arraycopy(statuses, index + 1, statuses, index, moved);
+        }
+        size--;
+        titles[size] = null;
+    }
+
+    @Override
+    public void addAll(List<BookRow> page) {
+        ensureCapacity(size + page.size());
+        for (BookRow row : page) {
+            write(size++, row);
+        }
+    }
+
+    // Codes are only dropped here: a deleted book's author stays in the pool until the next reload
+    @Override
+    public void clear() {
+        size = 0;
+        authors.clear();
+        publishers.clear();
+        allocate(INITIAL_CAPACITY);
+    }
+
+    int id(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    String title(int index) {
+        checkIndex(index);
+        return titles[index];
+    }
+
+    int authorCode(int index) {
+        checkIndex(index);
+        return authorCodes[index];
+    }
+
+    int publisherCode(int index) {
+        checkIndex(index);
+        return publisherCodes[index];
+    }
+
+    int year(int index) {
+        checkIndex(index);
+        return years[index];
+    }
+
+    String status(int index) {
+        checkIndex(index);
+        return STATUSES[statuses[index]];
+    }
+
+    // Compares like the status names, without looking them up
+    int statusCode(int index) {
+        checkIndex(index);
+        return statuses[index];
+    }
+
+    void setStatus(int index, String status) {
+        checkIndex(index);
+        statuses[index] = codeOf(status);
+    }
+
+    StringPool authors() {
+        return authors;
+    }
+
+    StringPool publishers() {
+        return publishers;
+    }
+
+    private void write(int index, BookRow row) {
+        ids[index] = row.id;
+        titles[index] = row.title;
+        authorCodes[index] = authors.code(row.author);
+        publisherCodes[index] = publishers.code(row.publisher);
+        years[index] = row.year;
+        statuses[index] = codeOf(row.status);
+    }
+
+    // Anything not issued or held is on the shelf
+    private static byte codeOf(String status) {
+        return (byte) (ISSUED.equals(status) ? 2 : HELD.equals(status) ? 1 : 0);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > ids.length) {
+            int capacity = Math.max(needed, ids.length + (ids.length >> 1));
+            ids = Arrays.copyOf(ids, capacity);
+            titles = Arrays.copyOf(titles, capacity);
+            authorCodes = Arrays.copyOf(authorCodes, capacity);
+            publisherCodes = Arrays.copyOf(publisherCodes, capacity);
+            years = Arrays.copyOf(years, capacity);
+            statuses = Arrays.copyOf(statuses, capacity);
+        }
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        titles = new String[capacity];
+        authorCodes = new int[capacity];
+        publisherCodes = new int[capacity];
+        years = new int[capacity];
+        statuses = new byte[capacity];
+    }
+}
@@ -0,0 +1,1126 @@
+package lms;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+// BookManager handles all book-related operations with the database.
+// It has no UI: results come back as rows and failures as LibraryException, so the Swing client and the
+// HTTP API (LibraryHttpApi) share it.
+// The catalog may be split over several branch databases (ShardMap): a book and its loan always live on the
+// shard that owns the book's ID, and catalog pages are read from every shard in parallel and merged by ID.
+// Every committed change is published on a ChangeBus, so open tables and other processes can apply it as a delta;
+// changes relayed from other processes (ChangeFeed) are applied to the cache and indexes here.
+// Each branch counts every patron's open loans in patrons.active_loans, and an issue that would take a student past
+// the loan limit is refused in the loan's own transaction. The in-memory PatronIndex turns most of those away first.
+// Issues and returns also add to the running totals behind the reports (CirculationStats) in their own transaction.
+// Students can queue for an issued book (HoldQueue); a return keeps the copy for the first in line.
+class BookManager {
+    //Mysql commands of operation
+    private final ShardMap shards;
+    private final CatalogCache cache; // optional, null when caching is off
+    private final SearchIndex searchIndex; // optional, null when full-text search is off
+    private final OverdueEngine overdueEngine;
+    private final FineLedger fineLedger; // optional, null when fines are not assessed
+    private final PatronIndex patrons; // optional, null when loans are not limited
+    private final CirculationStats stats; // optional, null when reports are not kept in memory
+    private final HoldQueue holds; // optional, null when holds are not taken
+    private final OperationMetrics operations;
+    private final ChangeBus changes = new ChangeBus();
+    private static final String ADD_BOOK_QUERY = "INSERT INTO books (id, title, author, publisher, year, available) VALUES (?, ?, ?, ?, ?, TRUE)";
+    // The unfiltered views are never run on their own; they are the prefixes of the page and by-ID queries
+    // A copy on the shelf that is kept for a ready hold (at most one per book, the head of its queue) is Held
+    private static final String STATUS_QUERY = "SELECT b.id, (CASE WHEN ib.book_id IS NOT NULL THEN 'Issued' WHEN h.id IS NOT NULL THEN 'Held' ELSE 'Available' END) AS status";
+    private static final String STATUS_JOINS = " FROM books b LEFT JOIN issued_books ib ON b.id = ib.book_id"
+            + " LEFT JOIN holds h ON h.book_id = b.id AND h.pickup_by IS NOT NULL";
+    private static final String VIEW_BOOKS_QUERY = STATUS_QUERY + ", b.title, b.author, b.publisher, b.year" + STATUS_JOINS;
+    private static final String VIEW_BOOK_BY_ID_QUERY = VIEW_BOOKS_QUERY + " WHERE b.id = ?";
+    private static final String DELETE_BOOK_QUERY = "DELETE FROM books WHERE id = ?";
+    // Marks the book's block of IDs changed for the desks' snapshot sync (SnapshotSync), with the write itself
+    private static final String BLOCK_VERSION_QUERY = "INSERT INTO catalog_blocks (block, version) VALUES (?, 1)"
+            + " ON DUPLICATE KEY UPDATE version = version + 1";
+    private static final String ISSUE_BOOK_QUERY_RESERVE = "UPDATE books SET available = FALSE WHERE id = ? AND available = TRUE";
+    private static final String ISSUE_BOOK_QUERY = "INSERT INTO issued_books (book_id, student_name, registration_number, issue_date, return_date) VALUES (?, ?, ?, ?, ?)";
+    private static final String VIEW_ISSUED_BOOKS_QUERY = "SELECT ib.id, ib.book_id, b.title, ib.student_name, ib.registration_number, ib.issue_date, ib.return_date FROM issued_books ib JOIN books b ON ib.book_id = b.id";
+    private static final String RETURN_BOOK_QUERY_UPDATE = "UPDATE books SET available = TRUE WHERE id = ? AND available = FALSE";
+    private static final String RETURN_BOOK_QUERY_DELETE = "DELETE FROM issued_books WHERE book_id = ?";
+    private static final String PATRON_LOAN_QUERY = "INSERT INTO patrons (registration_number, name, total_loans, last_issue_date) VALUES (?, ?, 1, ?)"
+            + " ON DUPLICATE KEY UPDATE name = VALUES(name), total_loans = total_loans + 1, last_issue_date = VALUES(last_issue_date)";
+    // The loan limit itself: counts the loan in only while the patron is under the limit, after the upsert above
+    // has made sure the row exists. The row stays locked until the loan commits, so two desks lending to one
+    // student at once take turns here and the second sees the first's loan.
+    private static final String PATRON_ACTIVE_LOAN_QUERY = "UPDATE patrons SET active_loans = active_loans + 1"
+            + " WHERE registration_number = ? AND active_loans < ?";
+    private static final String PATRON_RETURN_QUERY = "UPDATE patrons SET active_loans = active_loans - 1"
+            + " WHERE registration_number = ? AND active_loans > 0";
+    private static final String LOAN_HOLDER_QUERY = "SELECT registration_number FROM issued_books WHERE book_id = ?";
+    // Title and author for the loan row, read only when there is no search index to take them from
+    private static final String LOAN_TITLE_QUERY = "SELECT title, author FROM books WHERE id = ?";
+    // Running totals for the reports, kept in the loan's own transaction (CirculationStats). Each transaction adds
+    // to one of STATS_STRIPES rows for the day, picked at random, so desks issuing at once rarely wait on one row.
+    static final int STATS_STRIPES = 16;
+    private static final String STATS_LOAN_QUERY = "INSERT INTO loan_stats (stat_date, stripe, loans) VALUES (?, ?, 1)"
+            + " ON DUPLICATE KEY UPDATE loans = loans + 1";
+    // Copies the title and author from the book row itself, so the issue does not have to read them first
+    private static final String STATS_TITLE_QUERY = "INSERT INTO title_loans (book_id, title, author, loans) SELECT id, title, author, 1 FROM books WHERE id = ?"
+            + " ON DUPLICATE KEY UPDATE loans = loans + 1";
+    private static final String STATS_RETURN_QUERY = "INSERT INTO loan_stats (stat_date, stripe, returns, loan_days, late_returns) VALUES (?, ?, 1, ?, ?)"
+            + " ON DUPLICATE KEY UPDATE returns = returns + 1, loan_days = loan_days + VALUES(loan_days), late_returns = late_returns + VALUES(late_returns)";
+    private static final String[] OPERATIONS = {"books.add", "books.import", "books.delete", "books.get", "books.search",
+            "books.page", "loans.issue", "loans.return", "loans.page", "loans.get", "holds.place", "holds.cancel", "holds.get"};
+    private static final int MAX_TRANSACTION_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 20;
+    // Keyset pagination: each page starts strictly after the last key of the previous one. Loans page by book ID,
+    // which is unique among open loans and, unlike issued_books.id, unique across branches. The loans are paged
+    // before the join: with the range only on ib.book_id, H2 scans books for every page.
+    private static final String VIEW_BOOKS_PAGE_QUERY = VIEW_BOOKS_QUERY + " WHERE b.id > ? ORDER BY b.id LIMIT ?";
+    private static final String VIEW_ISSUED_BOOKS_PAGE_QUERY = "SELECT ib.id, ib.book_id, b.title, ib.student_name, ib.registration_number, ib.issue_date, ib.return_date"
+            + " FROM (SELECT id, book_id, student_name, registration_number, issue_date, return_date FROM issued_books"
+            + " WHERE book_id > ? ORDER BY book_id LIMIT ?) ib JOIN books b ON ib.book_id = b.id ORDER BY ib.book_id";
+    private static final String STATUS_IN_QUERY_PREFIX = STATUS_QUERY + STATUS_JOINS + " WHERE b.id IN (";
+    private static final String VIEW_ISSUED_BOOK_BY_BOOK_QUERY = VIEW_ISSUED_BOOKS_QUERY + " WHERE ib.book_id = ?";
+   
+
+    // What a BookManager works with besides its database. Only the shards are required; the overdue engine
+    // defaults to one on the system clock, and every other part is off until given.
+    static final class Builder {
+        private final ShardMap shards;
+        private CatalogCache cache;
+        private SearchIndex searchIndex;
+        private OverdueEngine overdueEngine = new OverdueEngine();
+        private FineLedger fineLedger;
+        private PatronIndex patrons;
+        private CirculationStats stats;
+        private HoldQueue holds;
+
+        private Builder(ShardMap shards) {
+            this.shards = shards;
+        }
+
+        public Builder cache(CatalogCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        public Builder searchIndex(SearchIndex searchIndex) {
+            this.searchIndex = searchIndex;
+            return this;
+        }
+
+        public Builder overdueEngine(OverdueEngine overdueEngine) {
+            this.overdueEngine = overdueEngine;
+            return this;
+        }
+
+        public Builder fineLedger(FineLedger fineLedger) {
+            this.fineLedger = fineLedger;
+            return this;
+        }
+
+        // Limits loans to the index's loan limit
+        public Builder patrons(PatronIndex patrons) {
+            this.patrons = patrons;
+            return this;
+        }
+
+        public Builder stats(CirculationStats stats) {
+            this.stats = stats;
+            return this;
+        }
+
+        public Builder holds(HoldQueue holds) {
+            this.holds = holds;
+            return this;
+        }
+
+        public BookManager build() throws DatabaseException {
+            return new BookManager(this);
+        }
+    }
+
+    public static Builder builder(ShardMap shards) {
+        return new Builder(shards);
+    }
+
+    public static Builder builder(DatabaseConnection db) {
+        return new Builder(db == null ? null : ShardMap.single(db));
+    }
+
+    // Just the database: no cache, indexes, fines, loan limit, report totals or holds
+    public BookManager(DatabaseConnection db) throws DatabaseException {
+        this(builder(db));
+    }
+
+    private BookManager(Builder builder) throws DatabaseException {
+        ShardMap shards = builder.shards;
+        if (shards == null) {
+            throw new DatabaseException("Failed to initialize BookManager: database is null.");
+        }
+        this.shards = shards;
+        this.cache = builder.cache;
+        this.searchIndex = builder.searchIndex;
+        this.overdueEngine = builder.overdueEngine;
+        this.fineLedger = builder.fineLedger;
+        this.patrons = builder.patrons;
+        this.stats = builder.stats;
+        this.holds = builder.holds;
+        this.operations = shards.home().db.getOperationMetrics();
+        for (String operation : OPERATIONS) {
+            operations.register(operation);
+        }
+        for (Shard shard : shards.all()) {
+            StatementRegistry statements = shard.db.getStatementRegistry();
+            statements.register("books.add", ADD_BOOK_QUERY);
+            statements.register("books.delete", DELETE_BOOK_QUERY);
+            statements.register("books.blockVersion", BLOCK_VERSION_QUERY);
+            statements.register("books.viewById", VIEW_BOOK_BY_ID_QUERY);
+            statements.register("books.page", VIEW_BOOKS_PAGE_QUERY);
+            statements.register("loans.reserve", ISSUE_BOOK_QUERY_RESERVE);
+            statements.register("loans.issue", ISSUE_BOOK_QUERY);
+            statements.register("loans.page", VIEW_ISSUED_BOOKS_PAGE_QUERY);
+            statements.register("loans.byBook", VIEW_ISSUED_BOOK_BY_BOOK_QUERY);
+            statements.register("loans.returnDelete", RETURN_BOOK_QUERY_DELETE);
+            statements.register("loans.returnRelease", RETURN_BOOK_QUERY_UPDATE);
+            statements.register("patrons.loan", PATRON_LOAN_QUERY);
+            statements.register("patrons.activeLoan", PATRON_ACTIVE_LOAN_QUERY);
+            statements.register("patrons.return", PATRON_RETURN_QUERY);
+            statements.register("stats.loanTitle", LOAN_TITLE_QUERY);
+            statements.register("holds.loanHolder", LOAN_HOLDER_QUERY);
+            statements.register("stats.loan", STATS_LOAN_QUERY);
+            statements.register("stats.title", STATS_TITLE_QUERY);
+            statements.register("stats.return", STATS_RETURN_QUERY);
+        }
+        changes.subscribe(this::applyRemoteChange);
+    }
+
+    public ChangeBus getChanges() {
+        return changes;
+    }
+
+    public ShardMap getShards() {
+        return shards;
+    }
+
+    public CatalogCache getCache() {
+        return cache;
+    }
+
+    public OverdueEngine getOverdueEngine() {
+        return overdueEngine;
+    }
+
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    public PatronIndex getPatrons() {
+        return patrons;
+    }
+
+    public CirculationStats getStats() {
+        return stats;
+    }
+
+    public HoldQueue getHolds() {
+        return holds;
+    }
+
+    // A student's open loans and history, straight from the patron index
+    public PatronIndex.Patron getPatron(String registrationNumber) throws LibraryException {
+        if (patrons == null) {
+            throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Patron records are not kept by this server.");
+        }
+        PatronIndex.Patron patron = patrons.get(registrationNumber);
+        if (patron == null) {
+            throw new LibraryException(LibraryException.Reason.NOT_FOUND, "No patron with registration number " + registrationNumber + ".");
+        }
+        return patron;
+    }
+    //Add book function
+    public BookRow addBook(int id, String title, String author, String publisher, int year) throws LibraryException {
+        return operations.time("books.add", () -> {
+            if (!isValidBook(id, title, author, publisher, year)) {
+                throw new LibraryException(LibraryException.Reason.INVALID, "Invalid input, please check the book details.");
+            }
+            Shard shard = shards.forBook(id);
+            if (shard == null) {
+                throw new LibraryException(LibraryException.Reason.INVALID, "Book ID " + id + " is outside every branch's ID range.");
+            }
+
+            Book book = new Book(id, title, author, publisher, year);
+            try {
+                boolean added = inTransaction(shard.db, connection -> {
+                    try (PreparedStatement ps = connection.prepareStatement(ADD_BOOK_QUERY)) {
+                        bindBook(ps, book);
+                        if (ps.executeUpdate() == 0) {
+                            return false;
+                        }
+                    }
+                    bumpBlocks(connection, Collections.singleton(book.id / CatalogSnapshot.BLOCK_IDS));
+                    return true;
+                });
+                if (!added) {
+                    throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Failed to add the book.");
+                }
+                return bookAdded(book);
+            } catch (SQLIntegrityConstraintViolationException e) {
+                throw new LibraryException(LibraryException.Reason.CONFLICT, "Error: Book with ID " + id + " already exists.", e);
+            } catch (SQLException e) {
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error while adding book: " + e.getMessage(), e);
+            }
+        });
+    }
+    public ImportReport addBooks(Iterable<Book> books, int batchSize) {
+        ImportReport report = new ImportReport();
+        addBooks(books, batchSize, report);
+        return report;
+    }
+
+    public ImportReport addBooks(Stream<Book> books, int batchSize) {
+        return addBooks(books::iterator, batchSize);
+    }
+
+    // Bulk add: rows go to the server batchSize at a time with addBatch/executeBatch, one transaction per batch.
+    // Invalid rows and rows the database refuses (duplicate IDs) are written to the report instead of stopping the load.
+    // No dialogs are shown; the caller presents the report. Each branch gets its own batches over its own connection.
+    public void addBooks(Iterable<Book> books, int batchSize, ImportReport report) {
+        operations.time("books.import", () -> {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+            }
+            Map<Shard, ImportBatch> batches = new LinkedHashMap<>();
+            try {
+                for (Book book : books) {
+                    if (!isValidBook(book.id, book.title, book.author, book.publisher, book.year)) {
+                        report.reject("Book ID " + book.id, "missing title, author or publisher, or ID/year not positive");
+                        continue;
+                    }
+                    Shard shard = shards.forBook(book.id);
+                    if (shard == null) {
+                        report.reject("Book ID " + book.id, "outside every branch's ID range");
+                        continue;
+                    }
+                    ImportBatch batch = batches.get(shard);
+                    if (batch == null) {
+                        batch = new ImportBatch(shard, batchSize);
+                        batches.put(shard, batch);
+                    }
+                    batch.books.add(book);
+                    if (batch.books.size() == batchSize) {
+                        batch.flush(report);
+                    }
+                }
+                for (ImportBatch batch : batches.values()) {
+                    if (!batch.books.isEmpty()) {
+                        batch.flush(report);
+                    }
+                }
+            } catch (SQLException e) {
+                report.fail("Import stopped: " + e.getMessage());
+            } finally {
+                for (ImportBatch batch : batches.values()) {
+                    batch.close();
+                }
+            }
+            return null;
+        });
+    }
+
+    // One branch's pending rows during addBooks, with a connection held from the first row to the end of the import
+    private final class ImportBatch {
+        final Shard shard;
+        final List<Book> books;
+        private Connection connection;
+        private PreparedStatement ps;
+
+        ImportBatch(Shard shard, int batchSize) {
+            this.shard = shard;
+            this.books = new ArrayList<>(batchSize);
+        }
+
+        void flush(ImportReport report) throws SQLException {
+            if (connection == null) {
+                connection = shard.db.getConnection();
+                connection.setAutoCommit(false);
+                ps = connection.prepareStatement(ADD_BOOK_QUERY);
+            }
+            flushBatch(connection, ps, books, report);
+            books.clear();
+        }
+
+        void close() {
+            try {
+                if (ps != null) {
+                    ps.close();
+                }
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                System.err.println("Error releasing import connection for branch " + shard.name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void flushBatch(Connection connection, PreparedStatement ps, List<Book> batch, ImportReport report) throws SQLException {
+        try {
+            Set<Integer> blocks = new TreeSet<>(); // in order, so concurrent imports lock them in the same order
+            for (Book book : batch) {
+                bindBook(ps, book);
+                ps.addBatch();
+                blocks.add(book.id / CatalogSnapshot.BLOCK_IDS);
+            }
+            ps.executeBatch();
+            bumpBlocks(connection, blocks);
+            connection.commit();
+            report.recordImported(batch.size());
+            for (Book book : batch) {
+                bookAdded(book);
+            }
+        } catch (BatchUpdateException | SQLIntegrityConstraintViolationException e) {
+            connection.rollback();
+            ps.clearBatch();
+            // Something in this batch was refused; replay it row by row to find out which rows
+            for (Book book : batch) {
+                try {
+                    bindBook(ps, book);
+                    ps.executeUpdate();
+                    bumpBlocks(connection, Collections.singleton(book.id / CatalogSnapshot.BLOCK_IDS));
+                    connection.commit();
+                    report.recordImported(1);
+                    bookAdded(book);
+                } catch (SQLIntegrityConstraintViolationException duplicate) {
+                    connection.rollback();
+                    report.reject("Book ID " + book.id, "a book with this ID already exists");
+                }
+            }
+        }
+    }
+
+    private static void bumpBlocks(Connection connection, Set<Integer> blocks) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(BLOCK_VERSION_QUERY)) {
+            for (int block : blocks) {
+                ps.setInt(1, block);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static void bindBook(PreparedStatement ps, Book book) throws SQLException {
+        ps.setInt(1, book.id);
+        ps.setString(2, book.title);
+        ps.setString(3, book.author);
+        ps.setString(4, book.publisher);
+        ps.setInt(5, book.year);
+    }
+
+    // Keeps the in-memory structures in step after a successful insert and announces the new row
+    private BookRow bookAdded(Book book) {
+        BookRow row = new BookRow(book.id, book.title, book.author, book.publisher, book.year, BookColumns.AVAILABLE);
+        indexBook(row);
+        changes.publish(ChangeEvent.bookAdded(row));
+        return row;
+    }
+
+    private void indexBook(BookRow row) {
+        if (cache != null) {
+            cache.put(row.id, row.title, row.author, row.publisher, row.year);
+        }
+        if (searchIndex != null) {
+            searchIndex.add(row.id, row.title, row.author, row.publisher, row.year);
+        }
+    }
+
+    private void unindexBook(int bookId) {
+        if (cache != null) {
+            cache.remove(bookId);
+        }
+        if (searchIndex != null) {
+            searchIndex.remove(bookId);
+        }
+    }
+
+    private void loanOpened(int bookId, LocalDate returnDate) {
+        if (cache != null) {
+            cache.markIssued(bookId);
+        }
+        overdueEngine.loanOpened(bookId, returnDate);
+    }
+
+    private void loanClosed(int bookId) {
+        if (cache != null) {
+            cache.markReturned(bookId);
+        }
+        overdueEngine.loanClosed(bookId);
+        if (patrons != null) {
+            patrons.loanClosed(bookId);
+        }
+    }
+
+    // Another desk or server changed the shared database; bring this process's cache and indexes up to date.
+    // After a RESYNC the cache catches up at its next reconciliation.
+    private void applyRemoteChange(ChangeEvent event) {
+        if (event.type == ChangeEvent.Type.ACTIVITY_LOGGED) {
+            // Visits are counted from the bus for local entries too: ActivityLogWriter announces every one
+            if (patrons != null) {
+                ActivityLogWriter.ActivityEntry entry = event.activity;
+                patrons.visited(entry.registrationNo, entry.name, LocalDate.parse(entry.date));
+            }
+            if (stats != null) {
+                stats.activityLogged(LocalDate.parse(event.activity.date), ActivityLogWriter.hourOf(event.activity),
+                        event.activity.activity, event.sequence);
+            }
+            return;
+        }
+        if (event.type == ChangeEvent.Type.BOOK_HELD || event.type == ChangeEvent.Type.BOOK_RELEASED) {
+            // Likewise for kept copies, which HoldSweeper announces as well as this class
+            if (cache != null && event.type == ChangeEvent.Type.BOOK_HELD) {
+                cache.markHeld(event.bookId);
+            } else if (cache != null) {
+                cache.markReleased(event.bookId);
+            }
+            return;
+        }
+        if (changes.isLocal(event)) {
+            return;
+        }
+        switch (event.type) {
+            case BOOK_ADDED:
+                indexBook(event.book);
+                break;
+            case BOOK_DELETED:
+                unindexBook(event.bookId);
+                break;
+            case BOOK_ISSUED:
+                loanOpened(event.bookId, event.loan.returnDate);
+                if (patrons != null) {
+                    patrons.loanOpened(event.loan.registrationNumber, event.loan.studentName, event.bookId, event.loan.issueDate);
+                }
+                if (stats != null) {
+                    stats.loanIssued(event.bookId, event.loan.title, null, event.loan.issueDate, event.sequence);
+                }
+                break;
+            case BOOK_RETURNED:
+                loanClosed(event.bookId);
+                if (stats != null && event.loan != null) {
+                    stats.loanReturned(event.loan.issueDate, event.loan.returnDate, overdueEngine.today(), event.sequence);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    public void deleteBook(int bookId) throws LibraryException {
+        operations.time("books.delete", () -> {
+            Shard shard = shards.forBook(bookId);
+            if (shard == null) {
+                throw new LibraryException(LibraryException.Reason.NOT_FOUND, "Book ID not found.");
+            }
+            boolean deleted;
+            try {
+                deleted = inTransaction(shard.db, connection -> {
+                    try (PreparedStatement stmt = connection.prepareStatement(DELETE_BOOK_QUERY)) {
+                        stmt.setInt(1, bookId);
+                        if (stmt.executeUpdate() == 0) {
+                            return false;
+                        }
+                    }
+                    bumpBlocks(connection, Collections.singleton(bookId / CatalogSnapshot.BLOCK_IDS));
+                    return true;
+                });
+            } catch (SQLIntegrityConstraintViolationException e) {
+                // fk_issued_books_book: an open loan still points at the book
+                throw new LibraryException(LibraryException.Reason.CONFLICT, "Book is issued; return it before deleting.", e);
+            } catch (SQLException e) {
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error deleting book: " + e.getMessage(), e);
+            }
+            if (!deleted) {
+                throw new LibraryException(LibraryException.Reason.NOT_FOUND, "Book ID not found.");
+            }
+            unindexBook(bookId);
+            changes.publish(ChangeEvent.bookDeleted(bookId));
+            return null;
+        });
+    }
+
+    // Single book by ID, served from the cache when it holds the record
+    public BookRow getBook(int bookId) throws LibraryException {
+        return operations.time("books.get", () -> {
+            if (cache != null) {
+                BookRow cached = cache.get(bookId);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            Shard shard = shards.forBook(bookId);
+            if (shard == null) {
+                throw new LibraryException(LibraryException.Reason.NOT_FOUND, "Book ID not found.");
+            }
+            try (Connection connection = shard.db.getConnection();
+                 PreparedStatement ps = connection.prepareStatement(VIEW_BOOK_BY_ID_QUERY)) {
+                ps.setInt(1, bookId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new LibraryException(LibraryException.Reason.NOT_FOUND, "Book ID not found.");
+                    }
+                    BookRow row = new BookRow(rs.getInt("id"), rs.getString("title"), rs.getString("author"),
+                            rs.getString("publisher"), rs.getInt("year"), rs.getString("status"));
+                    if (cache != null) {
+                        cache.put(row.id, row.title, row.author, row.publisher, row.year);
+                    }
+                    return row;
+                }
+            } catch (SQLException e) {
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error while retrieving books: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    // Ranked title/author/publisher search served from the in-memory index; no LIKE scans
+    public List<BookRow> searchBooks(String query, int limit) throws LibraryException {
+        return operations.time("books.search", () -> {
+            List<BookRow> rows = new ArrayList<>();
+            if (searchIndex == null) {
+                return rows;
+            }
+            List<SearchIndex.Doc> hits = searchIndex.search(query, limit);
+            if (hits.isEmpty()) {
+                return rows;
+            }
+            Map<Integer, String> statuses = new HashMap<>();
+            if (cache != null && cache.isStatusLoaded()) {
+                for (SearchIndex.Doc hit : hits) {
+                    statuses.put(hit.id, cache.status(hit.id));
+                }
+            } else {
+                Map<Shard, List<Integer>> idsByShard = new LinkedHashMap<>();
+                for (SearchIndex.Doc hit : hits) {
+                    Shard shard = shards.forBook(hit.id);
+                    if (shard != null) {
+                        idsByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(hit.id);
+                    }
+                }
+                try {
+                    for (Map<Integer, String> read : shards.scatter(new ArrayList<>(idsByShard.keySet()),
+                            shard -> readStatuses(shard, idsByShard.get(shard)))) {
+                        statuses.putAll(read);
+                    }
+                } catch (SQLException e) {
+                    throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error while searching books: " + e.getMessage(), e);
+                }
+            }
+            for (SearchIndex.Doc hit : hits) {
+                rows.add(new BookRow(hit.id, hit.title, hit.author, hit.publisher, hit.year,
+                        statuses.getOrDefault(hit.id, BookColumns.AVAILABLE)));
+            }
+            return rows;
+        });
+    }
+
+    private static Map<Integer, String> readStatuses(Shard shard, List<Integer> bookIds) throws SQLException {
+        Map<Integer, String> statuses = new HashMap<>();
+        StringBuilder sql = new StringBuilder(STATUS_IN_QUERY_PREFIX);
+        for (int i = 0; i < bookIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+        try (Connection connection = shard.db.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < bookIds.size(); i++) {
+                ps.setInt(i + 1, bookIds.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    statuses.put(rs.getInt("id"), rs.getString("status"));
+                }
+            }
+        }
+        return statuses;
+    }
+
+    // Returns the new loan as it would appear in the issued-books table
+    public IssuedBookRow issueBook(int bookId, String studentName, String registrationNumber) throws LibraryException {
+        return issueBook(bookId, studentName, registrationNumber, null);
+    }
+
+    // issuedOn replays a loan made on that day while the desk was offline (OfflineDesk): the book is already in the
+    // student's hands, so the loan limit is not applied. null issues it today, within the limit.
+    public IssuedBookRow issueBook(int bookId, String studentName, String registrationNumber, LocalDate issuedOn) throws LibraryException {
+        return operations.time("loans.issue", () -> {
+            if (bookId <= 0 || studentName == null || studentName.trim().isEmpty()
+                    || registrationNumber == null || registrationNumber.trim().isEmpty()) {
+                throw new LibraryException(LibraryException.Reason.INVALID, "Please enter valid details for issuing the book.");
+            }
+            LocalDate issueDate = issuedOn != null ? issuedOn : overdueEngine.today();
+            LocalDate returnDate = OverdueEngine.returnDateFor(issueDate);
+            Shard shard = shards.forBook(bookId);
+            boolean limited = patrons != null && issuedOn == null;
+            // A quick check in memory spares the database most refusals; the database has the final say below,
+            // since other desks lend to the same students
+            if (limited && !patrons.reserveLoan(registrationNumber, studentName)) {
+                throw overLimit(registrationNumber);
+            }
+            int loanLimit = limited ? patrons.getLoanLimit() : Integer.MAX_VALUE;
+
+            boolean issued = false;
+            // The search index already holds every book's title and author; the database is asked only without it
+            SearchIndex.Doc indexed = searchIndex == null ? null : searchIndex.get(bookId);
+            String[] titleAuthor = indexed == null ? new String[2] : new String[] {indexed.title, indexed.author};
+            IssuedBookRow[] opened = new IssuedBookRow[1];
+            HoldQueue.Hold[] heldForOther = new HoldQueue.Hold[1];
+            boolean[] atLimit = new boolean[1];
+            try {
+                // Claim the copy and record the loan in one transaction on the book's branch; the conditional
+                // UPDATE is the availability check, so two desks can never issue the same book
+                issued = shard != null && inTransaction(shard.db, connection -> {
+                    try (PreparedStatement psReserve = connection.prepareStatement(ISSUE_BOOK_QUERY_RESERVE);
+                         PreparedStatement ps = connection.prepareStatement(ISSUE_BOOK_QUERY, Statement.RETURN_GENERATED_KEYS);
+                         PreparedStatement psPatron = connection.prepareStatement(PATRON_LOAN_QUERY);
+                         PreparedStatement psActiveLoan = connection.prepareStatement(PATRON_ACTIVE_LOAN_QUERY);
+                         PreparedStatement psLoanStats = connection.prepareStatement(STATS_LOAN_QUERY);
+                         PreparedStatement psTitleStats = connection.prepareStatement(STATS_TITLE_QUERY)) {
+                        psReserve.setInt(1, bookId);
+                        if (psReserve.executeUpdate() == 0) {
+                            System.err.println("ISSUEFAIL reserve " + bookId);
+                            return false;
+                        }
+                        // A copy kept for a hold goes to that student only, who collects the hold by borrowing it; the
+                        // reserve has locked the book row, so the queue cannot change under this check
+                        HoldQueue.Hold ready = holds == null ? null : holds.readyHold(connection, bookId);
+                        if (ready != null) {
+                            if (!ready.registrationNumber.equals(registrationNumber)) {
+                                heldForOther[0] = ready;
+                                return false;
+                            }
+                            holds.remove(connection, ready);
+                        }
+                        ps.setInt(1, bookId);
+                        ps.setString(2, studentName);
+                        ps.setString(3, registrationNumber);
+                        ps.setDate(4, java.sql.Date.valueOf(issueDate));
+                        ps.setDate(5, java.sql.Date.valueOf(returnDate));
+                        if (ps.executeUpdate() == 0) {
+                            return false;
+                        }
+                        int loanId;
+                        try (ResultSet keys = ps.getGeneratedKeys()) {
+                            if (!keys.next()) {
+                                throw new SQLException("No ID generated for the loan of book " + bookId);
+                            }
+                            loanId = keys.getInt(1);
+                        }
+                        psPatron.setString(1, registrationNumber);
+                        psPatron.setString(2, studentName);
+                        psPatron.setDate(3, java.sql.Date.valueOf(issueDate));
+                        psPatron.executeUpdate();
+                        psActiveLoan.setString(1, registrationNumber);
+                        psActiveLoan.setInt(2, loanLimit);
+                        if (psActiveLoan.executeUpdate() == 0) {
+                            atLimit[0] = true;
+                            return false;
+                        }
+                        if (indexed == null) {
+                            readTitle(connection, bookId, titleAuthor);
+                        }
+                        psLoanStats.setDate(1, java.sql.Date.valueOf(issueDate));
+                        psLoanStats.setInt(2, ThreadLocalRandom.current().nextInt(STATS_STRIPES));
+                        psLoanStats.executeUpdate();
+                        psTitleStats.setInt(1, bookId);
+                        psTitleStats.executeUpdate();
+                        // The row the caller and the change bus get, from what was just written, with no read-back
+                        LocalDate overdueDate = OverdueEngine.overdueDateFor(returnDate);
+                        opened[0] = new IssuedBookRow(loanId, bookId, titleAuthor[0], studentName, registrationNumber,
+                                issueDate, returnDate, overdueDate, OverdueEngine.isOverdue(overdueDate, overdueEngine.today()));
+                        return true;
+                    } catch (SQLIntegrityConstraintViolationException e) {
+                        System.err.println("ISSUEFAIL " + e.getMessage().split("\n")[0]);
+                        return false; // issued_books.book_id is unique: an open loan already exists
+                    }
+                });
+            } catch (SQLException e) {
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error while issuing book: " + e.getMessage(), e);
+            } finally {
+                if (limited && !issued) {
+                    patrons.releaseLoan(registrationNumber);
+                }
+            }
+            if (atLimit[0]) {
+                throw overLimit(registrationNumber);
+            }
+            if (heldForOther[0] != null) {
+                throw new LibraryException(LibraryException.Reason.CONFLICT, "Book " + bookId + " is being kept for "
+                        + heldForOther[0].registrationNumber + " until " + heldForOther[0].pickupBy + ".");
+            }
+            if (!issued) {
+                throw new LibraryException(LibraryException.Reason.CONFLICT, "Book cannot be issued (either does not exist or is already issued).");
+            }
+            loanOpened(bookId, returnDate);
+            if (limited) {
+                patrons.loanConfirmed(registrationNumber, studentName, bookId, issueDate);
+            } else if (patrons != null) {
+                patrons.loanOpened(registrationNumber, studentName, bookId, issueDate);
+            }
+            ChangeEvent published = changes.publish(ChangeEvent.bookIssued(opened[0]));
+            if (stats != null && titleAuthor[0] != null) {
+                stats.loanIssued(bookId, titleAuthor[0], titleAuthor[1], issueDate, published.sequence);
+            }
+            return opened[0];
+        });
+    }
+
+    private LibraryException overLimit(String registrationNumber) {
+        return new LibraryException(LibraryException.Reason.CONFLICT, "Student " + registrationNumber
+                + " already has " + patrons.getLoanLimit() + " books out, the most allowed. Return one first.");
+    }
+
+    private static void readTitle(Connection connection, int bookId, String[] titleAuthor) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(LOAN_TITLE_QUERY)) {
+            ps.setInt(1, bookId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    titleAuthor[0] = rs.getString("title");
+                    titleAuthor[1] = rs.getString("author");
+                }
+            }
+        }
+    }
+
+    // Every branch that can hold later IDs is asked for a full page at once, and the answers are merged by ID
+    public List<BookRow> getBooksPage(int afterId, int limit) throws LibraryException {
+        return operations.time("books.page", () -> {
+            try {
+                return ShardMap.merge(shards.scatter(shards.after(afterId), shard -> readBooksPage(shard, afterId, limit)),
+                        row -> row.id, limit);
+            } catch (SQLException e) {
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error while retrieving books: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    // One branch's share of a page: its books with IDs after afterId, at most limit of them
+    public List<BookRow> getBranchBooksPage(String branch, int afterId, int limit) throws LibraryException {
+        Shard shard = shards.forBranch(branch);
+        if (shard == null) {
+            throw new LibraryException(LibraryException.Reason.NOT_FOUND, "No branch named " + branch + ".");
+        }
+        return operations.time("books.page", () -> {
+            try {
+                return readBooksPage(shard, afterId, limit);
+            } catch (SQLException e) {
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error while retrieving books: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    private List<BookRow> readBooksPage(Shard shard, int afterId, int limit) throws SQLException {
+        List<BookRow> page = new ArrayList<>(limit);
+        try (Connection connection = shard.db.getConnection();
+             PreparedStatement ps = connection.prepareStatement(VIEW_BOOKS_PAGE_QUERY)) {
+            ps.setInt(1, afterId);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    BookRow row = new BookRow(rs.getInt("id"), rs.getString("title"), rs.getString("author"),
+                            rs.getString("publisher"), rs.getInt("year"), rs.getString("status"));
+                    page.add(row);
+                    if (cache != null) {
+                        cache.put(row.id, row.title, row.author, row.publisher, row.year);
+                    }
+                }
+            }
+        }
+        return page;
+    }
+
+    // Open loans for books with IDs after afterBookId, in book ID order, gathered from every branch like getBooksPage
+    public List<IssuedBookRow> getIssuedBooksPage(int afterBookId, int limit) throws LibraryException {
+        return operations.time("loans.page", () -> {
+            LocalDate today = overdueEngine.today();
+            try {
+                return ShardMap.merge(shards.scatter(shards.after(afterBookId), shard -> {
+                    List<IssuedBookRow> page = new ArrayList<>(limit);
+                    try (Connection connection = shard.db.getConnection();
+                         PreparedStatement ps = connection.prepareStatement(VIEW_ISSUED_BOOKS_PAGE_QUERY)) {
+                        ps.setInt(1, afterBookId);
+                        ps.setInt(2, limit);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                page.add(readIssuedBookRow(rs, today));
+                            }
+                        }
+                    }
+                    return page;
+                }), row -> row.bookId, limit);
+            } catch (SQLException e) {
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error while retrieving issued books: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    // Single issued row, used to patch the issued-books table after an issue instead of reloading it
+    public IssuedBookRow getIssuedBook(int bookId) throws LibraryException {
+        return operations.time("loans.get", () -> {
+            Shard shard = shards.forBook(bookId);
+            if (shard == null) {
+                return null;
+            }
+            try (Connection connection = shard.db.getConnection();
+                 PreparedStatement ps = connection.prepareStatement(VIEW_ISSUED_BOOK_BY_BOOK_QUERY)) {
+                ps.setInt(1, bookId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? readIssuedBookRow(rs, overdueEngine.today()) : null;
+                }
+            } catch (SQLException e) {
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error while retrieving the loan: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    private IssuedBookRow readIssuedBookRow(ResultSet rs, LocalDate today) throws SQLException {
+        LocalDate returnDate = rs.getDate("return_date").toLocalDate();
+        LocalDate overdueDate = OverdueEngine.overdueDateFor(returnDate);
+        return new IssuedBookRow(rs.getInt("id"), rs.getInt("book_id"), rs.getString("title"),
+                rs.getString("student_name"), rs.getString("registration_number"),
+                rs.getDate("issue_date").toLocalDate(), returnDate, overdueDate,
+                OverdueEngine.isOverdue(overdueDate, today));
+    }
+
+    public HoldQueue.Hold returnBook(int bookId) throws LibraryException {
+        return returnBook(bookId, null);
+    }
+
+    // returnedOn replays a return made on that day while the desk was offline; any fine is assessed as of then.
+    // Returns the hold the copy is now kept for, or null when nobody was waiting for it.
+    public HoldQueue.Hold returnBook(int bookId, LocalDate returnedOn) throws LibraryException {
+        return operations.time("loans.return", () -> {
+            Shard shard = shards.forBook(bookId);
+            LocalDate returnDay = returnedOn != null ? returnedOn : overdueEngine.today();
+            IssuedBookRow[] closed = new IssuedBookRow[1];
+            HoldQueue.Hold[] promoted = new HoldQueue.Hold[1];
+            boolean returned;
+            try {
+                // Settling the fine, closing the loan, freeing the copy, counting the return and passing the copy to
+                // the first student on hold commit together or not at all, on the branch that owns the book
+                returned = shard != null && inTransaction(shard.db, connection -> {
+                    // First, so a hold placed or cancelled meanwhile is either fully seen or waits for this commit
+                    if (holds != null) {
+                        holds.lockBook(connection, bookId);
+                    }
+                    if (fineLedger != null) {
+                        fineLedger.assessOnReturn(connection, bookId, returnDay);
+                    }
+                    try (PreparedStatement psLoan = connection.prepareStatement(VIEW_ISSUED_BOOK_BY_BOOK_QUERY);
+                         PreparedStatement psDelete = connection.prepareStatement(RETURN_BOOK_QUERY_DELETE);
+                         PreparedStatement psUpdate = connection.prepareStatement(RETURN_BOOK_QUERY_UPDATE);
+                         PreparedStatement psPatron = connection.prepareStatement(PATRON_RETURN_QUERY);
+                         PreparedStatement psStats = connection.prepareStatement(STATS_RETURN_QUERY)) {
+                        psLoan.setInt(1, bookId);
+                        try (ResultSet rs = psLoan.executeQuery()) {
+                            closed[0] = rs.next() ? readIssuedBookRow(rs, returnDay) : null;
+                        }
+                        psDelete.setInt(1, bookId);
+                        if (psDelete.executeUpdate() == 0) {
+                            return false;
+                        }
+                        psUpdate.setInt(1, bookId);
+                        psUpdate.executeUpdate();
+                        if (closed[0] != null) {
+                            psPatron.setString(1, closed[0].registrationNumber);
+                            psPatron.executeUpdate();
+                            psStats.setDate(1, java.sql.Date.valueOf(returnDay));
+                            psStats.setInt(2, ThreadLocalRandom.current().nextInt(STATS_STRIPES));
+                            psStats.setLong(3, CirculationStats.loanDays(closed[0].issueDate, returnDay));
+                            psStats.setInt(4, CirculationStats.isLate(closed[0].returnDate, returnDay) ? 1 : 0);
+                            psStats.executeUpdate();
+                        }
+                        // The pickup time starts when the hold is known, which is the replay for an offline return
+                        if (holds != null) {
+                            promoted[0] = holds.promoteNext(connection, bookId, overdueEngine.today());
+                        }
+                        return true;
+                    }
+                });
+            } catch (SQLException e) {
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error while returning book: " + e.getMessage(), e);
+            }
+            if (!returned) {
+                throw new LibraryException(LibraryException.Reason.CONFLICT, "Book cannot be returned (either does not exist or was not issued).");
+            }
+            loanClosed(bookId);
+            ChangeEvent published = changes.publish(
+                    closed[0] != null ? ChangeEvent.bookReturned(closed[0]) : ChangeEvent.bookReturned(bookId));
+            if (stats != null && closed[0] != null) {
+                stats.loanReturned(closed[0].issueDate, closed[0].returnDate, returnDay, published.sequence);
+            }
+            if (promoted[0] != null) {
+                changes.publish(ChangeEvent.bookHeld(promoted[0]));
+            }
+            return promoted[0];
+        });
+    }
+
+    // Puts the student at the end of the queue for a book that is out. A book on the shelf is issued instead, and a
+    // student who has the book or is already queued for it is refused.
+    public HoldQueue.Hold placeHold(int bookId, String studentName, String registrationNumber) throws LibraryException {
+        return operations.time("holds.place", () -> {
+            if (bookId <= 0 || studentName == null || studentName.trim().isEmpty()
+                    || registrationNumber == null || registrationNumber.trim().isEmpty()) {
+                throw new LibraryException(LibraryException.Reason.INVALID, "Please enter valid details for the hold.");
+            }
+            Shard shard = holdShard(bookId);
+            LocalDate today = overdueEngine.today();
+            HoldQueue.Hold[] placed = new HoldQueue.Hold[1];
+            LibraryException[] refused = new LibraryException[1];
+            try {
+                inTransaction(shard.db, connection -> {
+                    try (PreparedStatement psHolder = connection.prepareStatement(LOAN_HOLDER_QUERY)) {
+                        if (!holds.lockBook(connection, bookId)) {
+                            refused[0] = new LibraryException(LibraryException.Reason.NOT_FOUND, "Book ID not found.");
+                            return false;
+                        }
+                        psHolder.setInt(1, bookId);
+                        String holder;
+                        try (ResultSet rs = psHolder.executeQuery()) {
+                            holder = rs.next() ? rs.getString("registration_number") : null;
+                        }
+                        if (registrationNumber.equals(holder)) {
+                            refused[0] = new LibraryException(LibraryException.Reason.CONFLICT, "Student " + registrationNumber + " already has book " + bookId + ".");
+                            return false;
+                        }
+                        if (holder == null && holds.readyHold(connection, bookId) == null) {
+                            refused[0] = new LibraryException(LibraryException.Reason.CONFLICT, "Book " + bookId + " is on the shelf; issue it instead.");
+                            return false;
+                        }
+                        placed[0] = holds.place(connection, bookId, registrationNumber, studentName, today);
+                        return true;
+                    } catch (SQLIntegrityConstraintViolationException e) {
+                        refused[0] = new LibraryException(LibraryException.Reason.CONFLICT,
+                                "Student " + registrationNumber + " is already on hold for book " + bookId + ".", e);
+                        return false;
+                    }
+                });
+            } catch (SQLException e) {
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error while placing hold: " + e.getMessage(), e);
+            }
+            if (refused[0] != null) {
+                throw refused[0];
+            }
+            return placed[0];
+        });
+    }
+
+    // Takes the student out of the book's queue. If the copy was being kept for them, it is kept for the next
+    // student instead, whose hold is returned; otherwise null.
+    public HoldQueue.Hold cancelHold(int bookId, String registrationNumber) throws LibraryException {
+        return operations.time("holds.cancel", () -> {
+            Shard shard = holdShard(bookId);
+            HoldQueue.Hold[] cancelled = new HoldQueue.Hold[1];
+            HoldQueue.Hold[] promoted = new HoldQueue.Hold[1];
+            try {
+                inTransaction(shard.db, connection -> {
+                    HoldQueue.Hold hold = holds.lockBook(connection, bookId) ? holds.find(connection, bookId, registrationNumber) : null;
+                    cancelled[0] = hold;
+                    if (hold == null) {
+                        return false;
+                    }
+                    holds.remove(connection, hold);
+                    if (hold.isReady()) {
+                        promoted[0] = holds.promoteNext(connection, bookId, overdueEngine.today());
+                    }
+                    return true;
+                });
+            } catch (SQLException e) {
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error while cancelling hold: " + e.getMessage(), e);
+            }
+            if (cancelled[0] == null) {
+                throw new LibraryException(LibraryException.Reason.NOT_FOUND, "Student " + registrationNumber + " has no hold on book " + bookId + ".");
+            }
+            if (cancelled[0].isReady()) {
+                changes.publish(promoted[0] != null ? ChangeEvent.bookHeld(promoted[0]) : ChangeEvent.bookReleased(bookId));
+            }
+            return promoted[0];
+        });
+    }
+
+    // The book's queue in the order it is served: the student the copy is kept for, if any, then those waiting
+    public List<HoldQueue.Hold> getHolds(int bookId) throws LibraryException {
+        return operations.time("holds.get", () -> {
+            Shard shard = holdShard(bookId);
+            try (Connection connection = shard.db.getConnection()) {
+                return holds.readQueue(connection, bookId);
+            } catch (SQLException e) {
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Error while reading holds: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    private Shard holdShard(int bookId) throws LibraryException {
+        if (holds == null) {
+            throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Holds are not taken by this server.");
+        }
+        Shard shard = shards.forBook(bookId);
+        if (shard == null) {
+            throw new LibraryException(LibraryException.Reason.NOT_FOUND, "Book ID not found.");
+        }
+        return shard;
+    }
+
+    // Unit of work run inside inTransaction; returning false rolls it back
+    private interface TransactionWork {
+        boolean run(Connection connection) throws SQLException;
+    }
+
+    // Runs work in a single transaction: commit when it returns true, roll back when it returns false or throws.
+    // Deadlocks and lock wait timeouts are retried with a short randomized backoff.
+    private static boolean inTransaction(DatabaseConnection db, TransactionWork work) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try (Connection connection = db.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    boolean done = work.run(connection);
+                    if (done) {
+                        connection.commit();
+                    } else {
+                        connection.rollback();
+                    }
+                    return done;
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                if (attempt >= MAX_TRANSACTION_ATTEMPTS || !isRetryable(e)) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MILLIS * attempt + ThreadLocalRandom.current().nextInt((int) RETRY_BACKOFF_MILLIS));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // MySQL reports deadlocks as 1213 (SQLState 40001) and lock wait timeouts as 1205
+    private static boolean isRetryable(SQLException e) {
+        return e instanceof SQLTransactionRollbackException || "40001".equals(e.getSQLState())
+                || e.getErrorCode() == 1213 || e.getErrorCode() == 1205;
+    }
+
+    static boolean isValidBook(int id, String title, String author, String publisher, int year) {
+        return title != null && !title.isEmpty() && author != null && !author.isEmpty() &&
+               publisher != null && !publisher.isEmpty() && year > 0 && id > 0;
+    }
+}
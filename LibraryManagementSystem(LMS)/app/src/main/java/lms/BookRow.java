@@ -0,0 +1,24 @@
+package lms;
+
+// One row of the "View Books" table
+class BookRow {
+    final int id;
+    final String title;
+    final String author;
+    final String publisher;
+    final int year;
+    final String status;
+
+    BookRow(int id, String title, String author, String publisher, int year, String status) {
+        this.id = id;
+        this.title = title;
+        this.author = author;
+        this.publisher = publisher;
+        this.year = year;
+        this.status = status;
+    }
+
+    BookRow withStatus(String newStatus) {
+        return new BookRow(id, title, author, publisher, year, newStatus);
+    }
+}
@@ -0,0 +1,351 @@
+package lms;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Sorts and filters the books table straight off its columns: ids, years and status compare as primitives, authors
+// and publishers by the sorted rank of their dictionary codes, and titles case-insensitively, so a sort never
+// materialises rows or boxes values. Sorting a partly loaded catalog would be misleading, so while a sort or filter
+// is set the model keeps loading until it has every row; pages are shown filtered in model order as they arrive, and
+// the view is sorted once, when the model reports the last page. After that single-row changes are placed by binary
+// search instead of re-sorting. Unsorted and unfiltered, the view is the model order and no index arrays are kept.
+class BooksRowSorter extends RowSorter<BooksTableModel> {
+    // Decides whether the book at a model index is shown
+    interface Filter {
+        boolean include(BookColumns columns, int row);
+    }
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final BooksTableModel model;
+    private List<SortKey> sortKeys = Collections.emptyList();
+    private Filter filter;
+    private int[] viewToModel; // null while the view is the model order
+    private int[] modelToView;
+    private boolean sorted; // whether viewToModel is in sort order rather than model order
+    // The sort keys unpacked for compare(), which runs millions of times per sort
+    private int[] sortColumns = new int[0];
+    private boolean[] sortDescending = new boolean[0];
+    private int[] authorRanks;
+    private int[] publisherRanks;
+
+    BooksRowSorter(BooksTableModel model) {
+        this.model = model;
+        model.setLoadedListener(this::loaded);
+    }
+
+    @Override
+    public BooksTableModel getModel() {
+        return model;
+    }
+
+    // Ascending first, then flips between ascending and descending
+    @Override
+    public void toggleSortOrder(int column) {
+        SortOrder order = SortOrder.ASCENDING;
+        if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column
+                && sortKeys.get(0).getSortOrder() == SortOrder.ASCENDING) {
+            order = SortOrder.DESCENDING;
+        }
+        setSortKeys(Collections.singletonList(new SortKey(column, order)));
+    }
+
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        return sortKeys;
+    }
+
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        List<SortKey> active = new ArrayList<>();
+        if (keys != null) {
+            for (SortKey key : keys) {
+                if (key.getColumn() < 0 || key.getColumn() >= model.getColumnCount()) {
+                    throw new IllegalArgumentException("Invalid sort column: " + key.getColumn());
+                }
+                if (key.getSortOrder() != SortOrder.UNSORTED) {
+                    active.add(key);
+                }
+            }
+        }
+        sortKeys = Collections.unmodifiableList(active);
+        sortColumns = new int[active.size()];
+        sortDescending = new boolean[active.size()];
+        for (int i = 0; i < active.size(); i++) {
+            sortColumns[i] = active.get(i).getColumn();
+            sortDescending[i] = active.get(i).getSortOrder() == SortOrder.DESCENDING;
+        }
+        fireSortOrderChanged();
+        update();
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    // null shows every row
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+        update();
+    }
+
+    @Override
+    public int convertRowIndexToModel(int index) {
+        if (viewToModel == null) {
+            checkModelIndex(index);
+            return index;
+        }
+        return viewToModel[index];
+    }
+
+    @Override
+    public int convertRowIndexToView(int index) {
+        if (modelToView == null) {
+            checkModelIndex(index);
+            return index;
+        }
+        return modelToView[index];
+    }
+
+    @Override
+    public int getViewRowCount() {
+        return viewToModel == null ? model.getRowCount() : viewToModel.length;
+    }
+
+    @Override
+    public int getModelRowCount() {
+        return model.getRowCount();
+    }
+
+    // Whole-model changes rebuild the view; row changes are applied to it in place
+
+    @Override
+    public void modelStructureChanged() {
+        rebuild();
+    }
+
+    @Override
+    public void allRowsChanged() {
+        rebuild();
+    }
+
+    @Override
+    public void rowsInserted(int firstRow, int endRow) {
+        if (!isActive()) {
+            return;
+        }
+        int count = endRow - firstRow + 1;
+        int[] previous = viewToModel;
+        int[] rows = new int[previous.length + count];
+        int shown = 0;
+        for (int row : previous) {
+            rows[shown++] = row >= firstRow ? row + count : row;
+        }
+        shown = place(rows, shown, firstRow, endRow);
+        changed(previous, rows, shown);
+    }
+
+    @Override
+    public void rowsDeleted(int firstRow, int endRow) {
+        if (!isActive()) {
+            return;
+        }
+        int count = endRow - firstRow + 1;
+        int[] previous = viewToModel;
+        int[] rows = new int[previous.length];
+        int shown = 0;
+        for (int row : previous) {
+            if (row < firstRow) {
+                rows[shown++] = row;
+            } else if (row > endRow) {
+                rows[shown++] = row - count;
+            }
+        }
+        if (!model.isFullyLoaded()) {
+            sorted = false; // a reload: the rows are all gone and arrive again in model order
+        }
+        changed(previous, rows, shown);
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow) {
+        if (!isActive()) {
+            return;
+        }
+        // Take the rows out and put them back where their new values belong, if the filter still shows them
+        int[] previous = viewToModel;
+        int[] rows = new int[previous.length + endRow - firstRow + 1];
+        int shown = 0;
+        for (int row : previous) {
+            if (row < firstRow || row > endRow) {
+                rows[shown++] = row;
+            }
+        }
+        shown = place(rows, shown, firstRow, endRow);
+        changed(previous, rows, shown);
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+        rowsUpdated(firstRow, endRow);
+    }
+
+    private void update() {
+        model.setLoadAll(isActive());
+        rebuild();
+    }
+
+    private boolean isActive() {
+        return sortColumns.length > 0 || filter != null;
+    }
+
+    // The model has its last page: time for the one full sort
+    private void loaded() {
+        if (isActive() && !sorted) {
+            rebuild();
+        }
+    }
+
+    // Filters every row, and sorts them once the model holds them all
+    private void rebuild() {
+        // JTable expects the old view-to-model mapping, or an empty array when there was none
+        int[] previous = viewToModel == null ? new int[0] : viewToModel;
+        if (!isActive()) {
+            if (viewToModel != null) {
+                viewToModel = null;
+                modelToView = null;
+                fireRowSorterChanged(previous);
+            }
+            return;
+        }
+        BookColumns columns = model.getColumns();
+        int rowCount = model.getRowCount();
+        int[] rows = new int[rowCount];
+        int shown = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (filter == null || filter.include(columns, row)) {
+                rows[shown++] = row;
+            }
+        }
+        sorted = model.isFullyLoaded();
+        if (sorted && sortColumns.length > 0) {
+            authorRanks = columns.authors().ranks();
+            publisherRanks = columns.publishers().ranks();
+            mergeSort(rows, Arrays.copyOf(rows, shown), 0, shown, columns);
+        }
+        changed(previous, rows, shown);
+    }
+
+    // Adds the shown model rows first..end to rows[0, shown), keeping its order; returns the new count
+    private int place(int[] rows, int shown, int first, int end) {
+        BookColumns columns = model.getColumns();
+        boolean bySort = sorted && sortColumns.length > 0;
+        if (bySort) {
+            // New dictionary codes may have arrived; existing codes keep their relative rank
+            authorRanks = columns.authors().ranks();
+            publisherRanks = columns.publishers().ranks();
+        }
+        for (int row = first; row <= end; row++) {
+            if (filter != null && !filter.include(columns, row)) {
+                continue;
+            }
+            int low = 0;
+            int high = shown;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int cmp = bySort ? compare(columns, rows[mid], row) : Integer.compare(rows[mid], row);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            System.arraycopy(rows, low, rows, low + 1, shown - low);
+            rows[low] = row;
+            shown++;
+        }
+        return shown;
+    }
+
+    // Installs rows[0, shown) as the view and tells the table, which needs the mapping it replaces
+    private void changed(int[] previous, int[] rows, int shown) {
+        if (shown < rows.length) {
+            rows = Arrays.copyOf(rows, shown);
+        }
+        int[] inverse = new int[model.getRowCount()];
+        Arrays.fill(inverse, -1);
+        for (int view = 0; view < shown; view++) {
+            inverse[rows[view]] = view;
+        }
+        viewToModel = rows;
+        modelToView = inverse;
+        fireRowSorterChanged(previous);
+    }
+
+    // Sorts rows[from, to) using source as scratch; both hold the same values on entry
+    private void mergeSort(int[] rows, int[] source, int from, int to, BookColumns columns) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int row = rows[i];
+                int j = i - 1;
+                while (j >= from && compare(columns, rows[j], row) > 0) {
+                    rows[j + 1] = rows[j];
+                    j--;
+                }
+                rows[j + 1] = row;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        // Sort the halves into source, then merge them back into rows
+        mergeSort(source, rows, from, mid, columns);
+        mergeSort(source, rows, mid, to, columns);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && compare(columns, source[left], source[right]) <= 0)) {
+                rows[i] = source[left++];
+            } else {
+                rows[i] = source[right++];
+            }
+        }
+    }
+
+    private int compare(BookColumns columns, int a, int b) {
+        for (int k = 0; k < sortColumns.length; k++) {
+            int cmp = compareColumn(columns, sortColumns[k], a, b);
+            if (cmp != 0) {
+                return sortDescending[k] ? -cmp : cmp;
+            }
+        }
+        return Integer.compare(a, b); // ties keep id order
+    }
+
+    private int compareColumn(BookColumns columns, int column, int a, int b) {
+        switch (column) {
+            case 0: return Integer.compare(columns.id(a), columns.id(b));
+            case 1: return compareTitles(columns.title(a), columns.title(b));
+            case 2: return Integer.compare(authorRanks[columns.authorCode(a)], authorRanks[columns.authorCode(b)]);
+            case 3: return Integer.compare(publisherRanks[columns.publisherCode(a)], publisherRanks[columns.publisherCode(b)]);
+            case 4: return Integer.compare(columns.year(a), columns.year(b));
+            default: return Integer.compare(columns.statusCode(a), columns.statusCode(b));
+        }
+    }
+
+    private static int compareTitles(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return a.compareToIgnoreCase(b);
+    }
+
+    private void checkModelIndex(int index) {
+        if (index < 0 || index >= model.getRowCount()) {
+            throw new IndexOutOfBoundsException("Invalid index: " + index);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package lms;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Paged model behind the "View Books" table, keyed on books.id. Rows are stored column by column (BookColumns) and
+// cells are served as ready-made text, so painting neither boxes nor formats; typed access for sorting and
+// filtering goes through getColumns().
+class BooksTableModel extends KeysetTableModel<BookRow> {
+    static final String[] COLUMNS = {"ID", "Title", "Author", "Publisher", "Year", "Status"};
+    static final int ID_COLUMN = 0;
+    static final int YEAR_COLUMN = 4;
+
+    private final BookColumns columns;
+
+    BooksTableModel(PageFetcher<BookRow> fetcher) {
+        this(fetcher, new BookColumns());
+    }
+
+    private BooksTableModel(PageFetcher<BookRow> fetcher, BookColumns columns) {
+        super(COLUMNS, fetcher, false, columns);
+        this.columns = columns;
+    }
+
+    // A fixed result, such as search hits, shown with the same storage and sorter as the catalog
+    static BooksTableModel of(List<BookRow> rows) {
+        BooksTableModel model = new BooksTableModel((afterKey, limit) ->
+                CompletableFuture.completedFuture(afterKey == 0 ? rows : Collections.emptyList()));
+        model.reload();
+        return model;
+    }
+
+    BookColumns getColumns() {
+        return columns;
+    }
+
+    @Override
+    protected int keyOf(BookRow row) {
+        return row.id;
+    }
+
+    @Override
+    protected Object columnValue(BookRow row, int column) {
+        switch (column) {
+            case 0: return row.id;
+            case 1: return row.title;
+            case 2: return row.author;
+            case 3: return row.publisher;
+            case 4: return row.year;
+            default: return row.status;
+        }
+    }
+
+    public void setStatus(int bookId, String status) {
+        int index = indexOfKey(bookId);
+        if (index >= 0) {
+            columns.setStatus(index, status);
+            fireTableRowsUpdated(index, index);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package lms;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-memory copy of the catalog used by BookManager for lookups by book ID.
+// Book records are kept in LRU maps bounded by maxEntries in all, striped by book ID over SEGMENTS locks so
+// lookups of different books do not queue on one monitor. Issued and held status live in two ID bitmaps under a
+// lock of their own, so issueBook/returnBook and the hold queue can flip them without touching the records. All
+// writes go through BookManager, which updates the cache after the database write succeeds; a periodic
+// reconciliation pass repairs any drift, keeping whatever was written to the cache while it read the database.
+class CatalogCache {
+    private static final String ISSUED_IDS_QUERY = "SELECT book_id FROM issued_books";
+    private static final String HELD_IDS_QUERY = "SELECT book_id FROM holds WHERE pickup_by IS NOT NULL";
+    private static final String BOOKS_BY_ID_QUERY_PREFIX = "SELECT id, title, author, publisher, year FROM books WHERE id IN (";
+    private static final int RECONCILE_CHUNK = 500;
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+
+    // Book fields only; the status is derived from the bitmaps
+    private static final class CachedBook {
+        final String title;
+        final String author;
+        final String publisher;
+        final int year;
+
+        CachedBook(String title, String author, String publisher, int year) {
+            this.title = title;
+            this.author = author;
+            this.publisher = publisher;
+            this.year = year;
+        }
+    }
+
+    // One stripe of the records, guarded by itself
+    private static final class Segment {
+        final IntLruMap<CachedBook> books;
+        IdBitmap touched; // records put or removed while a reconciliation reads the database; null otherwise
+
+        Segment(int maxEntries) {
+            books = new IntLruMap<>(maxEntries);
+        }
+    }
+
+    private final int maxEntries;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final Object statusLock = new Object();
+    private IdBitmap issued = new IdBitmap(); // guarded by statusLock, like the four fields below
+    private IdBitmap held = new IdBitmap(); // on the shelf but kept for a ready hold
+    // Status changes made while a reconciliation reads the database; null otherwise
+    private IdBitmap issuedTouched;
+    private IdBitmap heldTouched;
+    // The bitmaps only answer status questions once a full reconciliation has loaded it
+    private volatile boolean statusLoaded;
+    private final Object reconcileLock = new Object(); // one pass at a time
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong reconciliations = new AtomicLong();
+    private ScheduledExecutorService reconciler;
+
+    public CatalogCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS));
+        }
+    }
+
+    // Returns the cached row, or null if the book is not cached or its status is not known yet
+    public BookRow get(int bookId) {
+        CachedBook book = null;
+        if (statusLoaded) {
+            Segment segment = segmentFor(bookId);
+            synchronized (segment) {
+                book = segment.books.get(bookId);
+            }
+        }
+        if (book == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new BookRow(bookId, book.title, book.author, book.publisher, book.year, status(bookId));
+    }
+
+    // Status is left alone: only issue/return, holds and reconciliation change the bitmaps
+    public void put(int bookId, String title, String author, String publisher, int year) {
+        Segment segment = segmentFor(bookId);
+        synchronized (segment) {
+            if (segment.books.put(bookId, new CachedBook(title, author, publisher, year))) {
+                evictions.incrementAndGet();
+            }
+            touch(segment.touched, bookId);
+        }
+    }
+
+    public void remove(int bookId) {
+        Segment segment = segmentFor(bookId);
+        synchronized (segment) {
+            segment.books.remove(bookId);
+            touch(segment.touched, bookId);
+        }
+        synchronized (statusLock) {
+            issued.clear(bookId);
+            held.clear(bookId);
+            touch(issuedTouched, bookId);
+            touch(heldTouched, bookId);
+        }
+    }
+
+    // Issuing a kept copy collects its hold
+    public void markIssued(int bookId) {
+        synchronized (statusLock) {
+            issued.set(bookId);
+            held.clear(bookId);
+            touch(issuedTouched, bookId);
+            touch(heldTouched, bookId);
+        }
+    }
+
+    public void markReturned(int bookId) {
+        synchronized (statusLock) {
+            issued.clear(bookId);
+            touch(issuedTouched, bookId);
+        }
+    }
+
+    public void markHeld(int bookId) {
+        synchronized (statusLock) {
+            held.set(bookId);
+            touch(heldTouched, bookId);
+        }
+    }
+
+    public void markReleased(int bookId) {
+        synchronized (statusLock) {
+            held.clear(bookId);
+            touch(heldTouched, bookId);
+        }
+    }
+
+    // The book's status as the bitmaps have it; only meaningful once isStatusLoaded()
+    public String status(int bookId) {
+        synchronized (statusLock) {
+            return issued.get(bookId) ? BookColumns.ISSUED : held.get(bookId) ? BookColumns.HELD : BookColumns.AVAILABLE;
+        }
+    }
+
+    public boolean isStatusLoaded() {
+        return statusLoaded;
+    }
+
+    // Reloads the status bitmaps and re-reads every cached record from the database, one branch at a time. Writes
+    // made to the cache meanwhile are newer than what the pass read, so the IDs they touched keep their values.
+    public void reconcile(ShardMap shards) throws SQLException {
+        synchronized (reconcileLock) {
+            // From here on every write is noted, so none made after the database was read can be undone below
+            synchronized (statusLock) {
+                issuedTouched = new IdBitmap();
+                heldTouched = new IdBitmap();
+            }
+            int[][] cachedIds = new int[SEGMENTS][];
+            for (int i = 0; i < SEGMENTS; i++) {
+                synchronized (segments[i]) {
+                    segments[i].touched = new IdBitmap();
+                    cachedIds[i] = segments[i].books.keys();
+                }
+            }
+            try {
+                IdBitmap freshIssued = new IdBitmap();
+                IdBitmap freshHeld = new IdBitmap();
+                IntLruMap<CachedBook> freshBooks = new IntLruMap<>(Integer.MAX_VALUE);
+                for (Shard shard : shards.all()) {
+                    reconcileShard(shard, cachedIds, freshIssued, freshHeld, freshBooks);
+                }
+                synchronized (statusLock) {
+                    keepTouched(issuedTouched, issued, freshIssued);
+                    keepTouched(heldTouched, held, freshHeld);
+                    issued = freshIssued;
+                    held = freshHeld;
+                    statusLoaded = true;
+                }
+                for (int i = 0; i < SEGMENTS; i++) {
+                    Segment segment = segments[i];
+                    synchronized (segment) {
+                        for (int id : cachedIds[i]) {
+                            if (segment.touched.get(id)) {
+                                continue;
+                            }
+                            CachedBook fresh = freshBooks.get(id);
+                            if (fresh == null) {
+                                segment.books.remove(id);
+                            } else {
+                                segment.books.replace(id, fresh);
+                            }
+                        }
+                    }
+                }
+                reconciliations.incrementAndGet();
+            } finally {
+                synchronized (statusLock) {
+                    issuedTouched = null;
+                    heldTouched = null;
+                }
+                for (Segment segment : segments) {
+                    synchronized (segment) {
+                        segment.touched = null;
+                    }
+                }
+            }
+        }
+    }
+
+    // Copies the current bit of every touched ID over what the pass read
+    private static void keepTouched(IdBitmap touched, IdBitmap current, IdBitmap fresh) {
+        for (int id = touched.nextSetBit(0); id >= 0; id = touched.nextSetBit(id + 1)) {
+            fresh.set(id, current.get(id));
+        }
+    }
+
+    // The issued and held IDs of one branch, and fresh copies of the cached records it owns
+    private static void reconcileShard(Shard shard, int[][] cachedIds, IdBitmap freshIssued, IdBitmap freshHeld,
+                                       IntLruMap<CachedBook> freshBooks) throws SQLException {
+        int owned = 0;
+        for (int[] ids : cachedIds) {
+            for (int id : ids) {
+                owned += shard.owns(id) ? 1 : 0;
+            }
+        }
+        int[] ownedIds = new int[owned];
+        owned = 0;
+        for (int[] ids : cachedIds) {
+            for (int id : ids) {
+                if (shard.owns(id)) {
+                    ownedIds[owned++] = id;
+                }
+            }
+        }
+        try (Connection connection = shard.db.getConnection()) {
+            readIds(connection, ISSUED_IDS_QUERY, freshIssued);
+            readIds(connection, HELD_IDS_QUERY, freshHeld);
+            for (int from = 0; from < ownedIds.length; from += RECONCILE_CHUNK) {
+                int to = Math.min(from + RECONCILE_CHUNK, ownedIds.length);
+                StringBuilder sql = new StringBuilder(BOOKS_BY_ID_QUERY_PREFIX);
+                for (int i = from; i < to; i++) {
+                    sql.append(i == from ? "?" : ", ?");
+                }
+                sql.append(')');
+                try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+                    for (int i = from; i < to; i++) {
+                        ps.setInt(i - from + 1, ownedIds[i]);
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            freshBooks.put(rs.getInt("id"), new CachedBook(rs.getString("title"),
+                                    rs.getString("author"), rs.getString("publisher"), rs.getInt("year")));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void readIds(Connection connection, String sql, IdBitmap ids) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                ids.set(rs.getInt(1));
+            }
+        }
+    }
+
+    private Segment segmentFor(int bookId) {
+        return segments[(bookId * 0x9E3779B9) >>> (32 - SEGMENT_BITS)];
+    }
+
+    private static void touch(IdBitmap touched, int bookId) {
+        if (touched != null && bookId >= 0) {
+            touched.set(bookId);
+        }
+    }
+
+    public synchronized void startReconciliation(ShardMap shards, long periodMillis) {
+        if (reconciler != null) {
+            return;
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lms-cache-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile(shards);
+            } catch (SQLException e) {
+                System.err.println("Catalog cache reconciliation failed: " + e.getMessage());
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.books.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogCache[size=" + size() + "/" + maxEntries + ", hits=" + hits.get() + ", misses=" + misses.get()
+                + ", evictions=" + evictions.get() + ", reconciliations=" + reconciliations.get()
+                + ", statusBytes=" + statusBytes() + "]";
+    }
+
+    private long statusBytes() {
+        synchronized (statusLock) {
+            return issued.allocatedBytes() + held.allocatedBytes();
+        }
+    }
+}
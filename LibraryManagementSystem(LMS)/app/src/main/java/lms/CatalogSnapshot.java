@@ -0,0 +1,358 @@
+package lms;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// The catalog, open loans and copies kept for holds saved on the desk's own disk, laid out to be memory-mapped and
+// read in place: the search index is seeded from it at startup instead of from the database, and the offline view
+// (OfflineDesk) pages through it without loading it. Every column is a run of ints in ID order; the strings of all columns are
+// stored once in a shared dictionary, so an author, publisher or student repeated on many rows costs four bytes a
+// row. The version of each BLOCK_IDS-wide block of book IDs it was built from (catalog_blocks) lets SnapshotSync
+// find the blocks that changed since without reading them. A CRC32 over the file catches damage; the bus origin and sequence say which changes it is missing.
+//
+//   header   int MAGIC, int VERSION, long sequence, int origin, int books, int loans, int held, int blocks,
+//            int strings, int stringBytes
+//   strings  int[strings + 1] offsets, byte[stringBytes] UTF-8, padded to a multiple of 4
+//   books    int[books] each of: id (ascending), title, author, publisher, year
+//   loans    int[loans] each of: bookId (ascending), loanId, studentName, registrationNumber, issueDay, returnDay
+//   held     int[held] each of: bookId (ascending), registrationNumber of the ready hold the copy is kept for
+//   blocks   per block in catalog_blocks: int block, long version
+//   int crc of everything before it
+class CatalogSnapshot {
+    static final int BLOCK_IDS = 4096;
+    private static final int MAGIC = 0x4c4d5353; // "LMSS"
+    private static final int VERSION = 4;
+    private static final int HEADER_BYTES = 44;
+    private static final int BOOK_COLUMNS = 5;
+    private static final int LOAN_COLUMNS = 6;
+    private static final int HELD_COLUMNS = 2;
+    private static final int BLOCK_BYTES = 12;
+
+    final String origin;
+    final long sequence;
+    private final ByteBuffer data;
+    private final int bookCount;
+    private final int loanCount;
+    private final int heldCount;
+    private final int blockCount;
+    private final int stringOffsets;
+    private final int stringData;
+    private final int books;
+    private final int loans;
+    private final int held;
+    private final int blocks;
+
+    private CatalogSnapshot(ByteBuffer data, Path path) throws IOException {
+        this.data = data;
+        if (data.capacity() < HEADER_BYTES + 4 || data.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a catalog snapshot");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException(path + " is a version " + data.getInt(4) + " catalog snapshot, expected " + VERSION);
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer content = data.duplicate();
+        content.position(0).limit(data.capacity() - 4);
+        crc.update(content);
+        if ((int) crc.getValue() != data.getInt(data.capacity() - 4)) {
+            throw new IOException(path + " is damaged (checksum mismatch)");
+        }
+        sequence = data.getLong(8);
+        bookCount = data.getInt(20);
+        loanCount = data.getInt(24);
+        heldCount = data.getInt(28);
+        blockCount = data.getInt(32);
+        int stringCount = data.getInt(36);
+        int stringBytes = data.getInt(40);
+        stringOffsets = HEADER_BYTES;
+        stringData = stringOffsets + 4 * (stringCount + 1);
+        books = stringData + stringBytes + padding(stringBytes);
+        loans = books + 4 * BOOK_COLUMNS * bookCount;
+        held = loans + 4 * LOAN_COLUMNS * loanCount;
+        blocks = held + 4 * HELD_COLUMNS * heldCount;
+        if (blocks + (long) BLOCK_BYTES * blockCount + 4 != data.capacity()) {
+            throw new IOException(path + " is damaged (sections do not add up to the file size)");
+        }
+        origin = string(data.getInt(16));
+    }
+
+    // Maps the snapshot at path and checks it; nothing is read into memory beyond what the checksum touches
+    static CatalogSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large for a catalog snapshot");
+            }
+            return new CatalogSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path);
+        }
+    }
+
+    public int getBookCount() {
+        return bookCount;
+    }
+
+    public int getLoanCount() {
+        return loanCount;
+    }
+
+    public int getBookId(int index) {
+        return column(books, bookCount, 0, index);
+    }
+
+    // Position of the first book with an ID above afterId; getBookCount() when there is none
+    public int indexAfter(int afterId) {
+        return search(books, bookCount, afterId + 1L);
+    }
+
+    // Position of the book, or -1
+    public int indexOf(int bookId) {
+        int index = search(books, bookCount, bookId);
+        return index < bookCount && getBookId(index) == bookId ? index : -1;
+    }
+
+    // The book at index, Issued when the snapshot has an open loan for it and Held when its copy is kept for a hold
+    public BookRow getBookAt(int index) {
+        int id = getBookId(index);
+        return new BookRow(id, string(column(books, bookCount, 1, index)), string(column(books, bookCount, 2, index)),
+                string(column(books, bookCount, 3, index)), column(books, bookCount, 4, index),
+                loanIndexOf(id) >= 0 ? BookColumns.ISSUED : heldIndexOf(id) >= 0 ? BookColumns.HELD : BookColumns.AVAILABLE);
+    }
+
+    public int getHeldCount() {
+        return heldCount;
+    }
+
+    public int getHeldBookId(int index) {
+        return column(held, heldCount, 0, index);
+    }
+
+    // The registration number of the student the copy at index of the held section is kept for
+    public String getHeldFor(int index) {
+        return string(column(held, heldCount, 1, index));
+    }
+
+    // The loan at index; its overdue flag is worked out against today
+    public IssuedBookRow getLoanAt(int index, LocalDate today) {
+        int bookId = column(loans, loanCount, 0, index);
+        int bookIndex = indexOf(bookId);
+        LocalDate returnDate = LocalDate.ofEpochDay(column(loans, loanCount, 5, index));
+        LocalDate overdueDate = OverdueEngine.overdueDateFor(returnDate);
+        return new IssuedBookRow(column(loans, loanCount, 1, index), bookId,
+                bookIndex < 0 ? "" : string(column(books, bookCount, 1, bookIndex)),
+                string(column(loans, loanCount, 2, index)), string(column(loans, loanCount, 3, index)),
+                LocalDate.ofEpochDay(column(loans, loanCount, 4, index)), returnDate, overdueDate,
+                OverdueEngine.isOverdue(overdueDate, today));
+    }
+
+    // The version of every block as of this snapshot, by block number
+    public Map<Integer, Long> getBlockVersions() {
+        Map<Integer, Long> versions = new HashMap<>(blockCount * 2);
+        for (int i = 0, at = blocks; i < blockCount; i++, at += BLOCK_BYTES) {
+            versions.put(data.getInt(at), data.getLong(at + 4));
+        }
+        return versions;
+    }
+
+    private int loanIndexOf(int bookId) {
+        int index = search(loans, loanCount, bookId);
+        return index < loanCount && column(loans, loanCount, 0, index) == bookId ? index : -1;
+    }
+
+    private int heldIndexOf(int bookId) {
+        int index = search(held, heldCount, bookId);
+        return index < heldCount && column(held, heldCount, 0, index) == bookId ? index : -1;
+    }
+
+    // First position in the sorted ID column at start whose ID is at least id
+    private int search(int start, int count, long id) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (column(start, count, 0, mid) < id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int column(int section, int rows, int column, int index) {
+        return data.getInt(section + 4 * (column * rows + index));
+    }
+
+    private String string(int code) {
+        int start = data.getInt(stringOffsets + 4 * code);
+        int end = data.getInt(stringOffsets + 4 * (code + 1));
+        byte[] bytes = new byte[end - start];
+        ByteBuffer slice = data.duplicate();
+        slice.position(stringData + start);
+        slice.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int padding(int bytes) {
+        return (4 - bytes % 4) % 4;
+    }
+
+    // Collects a snapshot in memory, books, loans and kept copies each in book ID order, and writes it in one go
+    static final class Writer {
+        private final String origin;
+        private final long sequence;
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<byte[]> strings = new ArrayList<>();
+        private int stringBytes;
+        private final IntColumns books = new IntColumns(BOOK_COLUMNS);
+        private final IntColumns loans = new IntColumns(LOAN_COLUMNS);
+        private final IntColumns held = new IntColumns(HELD_COLUMNS);
+        private final TreeMap<Integer, Long> blockVersions;
+        private int lastBookId;
+        private int lastLoanBookId;
+        private int lastHeldBookId;
+
+        // blockVersions are the catalog_blocks versions read before any of the books
+        Writer(String origin, long sequence, Map<Integer, Long> blockVersions) {
+            this.origin = origin;
+            this.sequence = sequence;
+            this.blockVersions = new TreeMap<>(blockVersions);
+            code(origin);
+        }
+
+        void addBook(BookRow book) {
+            if (book.id <= lastBookId) {
+                throw new IllegalArgumentException("Books must be added in ID order: " + book.id + " after " + lastBookId);
+            }
+            lastBookId = book.id;
+            books.add(book.id, code(book.title), code(book.author), code(book.publisher), book.year);
+        }
+
+        void addLoan(IssuedBookRow loan) {
+            if (loan.bookId <= lastLoanBookId) {
+                throw new IllegalArgumentException("Loans must be added in book ID order: " + loan.bookId + " after " + lastLoanBookId);
+            }
+            lastLoanBookId = loan.bookId;
+            loans.add(loan.bookId, loan.id, code(loan.studentName), code(loan.registrationNumber),
+                    (int) loan.issueDate.toEpochDay(), (int) loan.returnDate.toEpochDay());
+        }
+
+        void addHeld(int bookId, String registrationNumber) {
+            if (bookId <= lastHeldBookId) {
+                throw new IllegalArgumentException("Kept copies must be added in book ID order: " + bookId + " after " + lastHeldBookId);
+            }
+            lastHeldBookId = bookId;
+            held.add(bookId, code(registrationNumber));
+        }
+
+        int getBookCount() {
+            return books.size;
+        }
+
+        // Writes a temporary file that replaces the one at path only once complete, and maps the result. A
+        // snapshot still mapped by this process cannot be replaced on Windows; the next write then tries again.
+        CatalogSnapshot write(Path path) throws IOException {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            CRC32 crc = new CRC32();
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)) {
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(file, crc));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(sequence);
+                out.writeInt(codes.get(origin));
+                out.writeInt(books.size);
+                out.writeInt(loans.size);
+                out.writeInt(held.size);
+                out.writeInt(blockVersions.size());
+                out.writeInt(strings.size());
+                out.writeInt(stringBytes);
+                int offset = 0;
+                out.writeInt(offset);
+                for (byte[] string : strings) {
+                    offset += string.length;
+                    out.writeInt(offset);
+                }
+                for (byte[] string : strings) {
+                    out.write(string);
+                }
+                out.write(new byte[padding(stringBytes)]);
+                books.writeTo(out);
+                loans.writeTo(out);
+                held.writeTo(out);
+                for (Map.Entry<Integer, Long> block : blockVersions.entrySet()) {
+                    out.writeInt(block.getKey());
+                    out.writeLong(block.getValue());
+                }
+                out.flush();
+                new DataOutputStream(file).writeInt((int) crc.getValue());
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return open(path);
+        }
+
+        private int code(String text) {
+            Integer code = codes.get(text);
+            if (code == null) {
+                code = strings.size();
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                strings.add(bytes);
+                stringBytes += bytes.length;
+                codes.put(text, code);
+            }
+            return code;
+        }
+    }
+
+    // Growable int columns of equal length, written one column after another
+    private static final class IntColumns {
+        private int[][] columns;
+        private int size;
+
+        IntColumns(int count) {
+            columns = new int[count][1024];
+        }
+
+        void add(int... values) {
+            if (size == columns[0].length) {
+                for (int c = 0; c < columns.length; c++) {
+                    columns[c] = Arrays.copyOf(columns[c], size * 2);
+                }
+            }
+            for (int c = 0; c < columns.length; c++) {
+                columns[c][size] = values[c];
+            }
+            size++;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            for (int[] column : columns) {
+                for (int i = 0; i < size; i++) {
+                    out.writeInt(column[i]);
+                }
+            }
+        }
+    }
+}
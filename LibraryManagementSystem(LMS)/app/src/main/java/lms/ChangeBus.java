@@ -0,0 +1,95 @@
+package lms;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+// In-process publish/subscribe for ChangeEvents. BookManager and ActivityLogWriter publish once a change has
+// committed (or been queued, for the activity log); the desktop tables, the HTTP event stream and ChangeFeed
+// subscribe. Events are numbered and delivered in order on the publishing thread, under the bus lock, so a
+// subscriber must only hand the event off (queue it, invokeLater) and never block. The most recent events are kept
+// so that a stream client that reconnects can pick up where it left off.
+class ChangeBus {
+    static final int DEFAULT_RETAINED = 4096;
+
+    private final String origin;
+    private final ChangeEvent[] retained;
+    private final List<Consumer<ChangeEvent>> subscribers = new CopyOnWriteArrayList<>();
+    private long lastSequence; // guarded by this
+
+    ChangeBus() {
+        this(newOrigin(), DEFAULT_RETAINED);
+    }
+
+    ChangeBus(String origin, int retainedCount) {
+        if (retainedCount <= 0) {
+            throw new IllegalArgumentException("Retained event count must be positive: " + retainedCount);
+        }
+        this.origin = origin;
+        this.retained = new ChangeEvent[retainedCount];
+    }
+
+    // "pid@host" plus a random suffix, so two runs on one machine are told apart
+    private static String newOrigin() {
+        return ManagementFactory.getRuntimeMXBean().getName() + "-"
+                + Integer.toHexString(ThreadLocalRandom.current().nextInt() & 0xfffff);
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    // True for changes made by this process, false for ones relayed from another
+    public boolean isLocal(ChangeEvent event) {
+        return origin.equals(event.origin);
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    // Numbers the event, keeps it for replay and hands it to every subscriber; returns it as delivered.
+    // An event that already has an origin (relayed from another process) keeps it.
+    public synchronized ChangeEvent publish(ChangeEvent event) {
+        ChangeEvent published = event.published(++lastSequence, origin);
+        retained[(int) (lastSequence % retained.length)] = published;
+        for (Consumer<ChangeEvent> subscriber : subscribers) {
+            try {
+                subscriber.accept(published);
+            } catch (RuntimeException e) {
+                System.err.println("Change subscriber failed on " + published + ": " + e);
+            }
+        }
+        return published;
+    }
+
+    public void subscribe(Consumer<ChangeEvent> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    // Replays the retained events after afterSequence and then subscribes, with nothing published in between.
+    // Returns the sequence after which the subscriber sees every event: afterSequence itself, unless some of the
+    // events after it are no longer retained (or it is from an earlier run). Then nothing is replayed, the
+    // subscriber only gets new events and has to reload instead. A negative afterSequence asks for no replay.
+    public synchronized long subscribe(long afterSequence, Consumer<ChangeEvent> subscriber) {
+        long resumedAfter = lastSequence;
+        if (afterSequence >= 0 && afterSequence <= lastSequence && lastSequence - afterSequence <= retained.length) {
+            for (long sequence = afterSequence + 1; sequence <= lastSequence; sequence++) {
+                subscriber.accept(retained[(int) (sequence % retained.length)]);
+            }
+            resumedAfter = afterSequence;
+        }
+        subscribers.add(subscriber);
+        return resumedAfter;
+    }
+
+    public void unsubscribe(Consumer<ChangeEvent> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+}
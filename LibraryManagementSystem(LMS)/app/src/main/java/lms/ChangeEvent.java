@@ -0,0 +1,186 @@
+package lms;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+
+// One change to the catalog, the loans or the activity log, as published on the ChangeBus and streamed to other
+// processes. Events carry the whole new row, so a receiver can patch its tables and indexes without a query.
+// origin names the process that made the change; sequence is assigned by each bus the event passes through.
+final class ChangeEvent {
+    enum Type {
+        BOOK_ADDED,     // book
+        BOOK_DELETED,   // bookId
+        BOOK_ISSUED,    // bookId, loan
+        BOOK_RETURNED,  // bookId, and the loan it closed when known
+        BOOK_HELD,      // bookId, hold: the copy is now kept for that ready hold
+        BOOK_RELEASED,  // bookId: the copy kept for a hold is back on the shelf for anyone
+        ACTIVITY_LOGGED, // activity
+        RESYNC          // events were lost; reload everything
+    }
+
+    final long sequence;
+    final String origin;
+    final Type type;
+    final int bookId;
+    final BookRow book;
+    final IssuedBookRow loan;
+    final HoldQueue.Hold hold;
+    final ActivityLogWriter.ActivityEntry activity;
+
+    private ChangeEvent(long sequence, String origin, Type type, int bookId, BookRow book, IssuedBookRow loan,
+                        HoldQueue.Hold hold, ActivityLogWriter.ActivityEntry activity) {
+        this.sequence = sequence;
+        this.origin = origin;
+        this.type = type;
+        this.bookId = bookId;
+        this.book = book;
+        this.loan = loan;
+        this.hold = hold;
+        this.activity = activity;
+    }
+
+    static ChangeEvent bookAdded(BookRow book) {
+        return new ChangeEvent(0, null, Type.BOOK_ADDED, book.id, book, null, null, null);
+    }
+
+    static ChangeEvent bookDeleted(int bookId) {
+        return new ChangeEvent(0, null, Type.BOOK_DELETED, bookId, null, null, null, null);
+    }
+
+    static ChangeEvent bookIssued(IssuedBookRow loan) {
+        return new ChangeEvent(0, null, Type.BOOK_ISSUED, loan.bookId, null, loan, null, null);
+    }
+
+    static ChangeEvent bookReturned(int bookId) {
+        return new ChangeEvent(0, null, Type.BOOK_RETURNED, bookId, null, null, null, null);
+    }
+
+    static ChangeEvent bookReturned(IssuedBookRow loan) {
+        return new ChangeEvent(0, null, Type.BOOK_RETURNED, loan.bookId, null, loan, null, null);
+    }
+
+    static ChangeEvent bookHeld(HoldQueue.Hold hold) {
+        return new ChangeEvent(0, null, Type.BOOK_HELD, hold.bookId, null, null, hold, null);
+    }
+
+    static ChangeEvent bookReleased(int bookId) {
+        return new ChangeEvent(0, null, Type.BOOK_RELEASED, bookId, null, null, null, null);
+    }
+
+    static ChangeEvent activityLogged(ActivityLogWriter.ActivityEntry activity) {
+        return new ChangeEvent(0, null, Type.ACTIVITY_LOGGED, 0, null, null, null, activity);
+    }
+
+    static ChangeEvent resync() {
+        return new ChangeEvent(0, null, Type.RESYNC, 0, null, null, null, null);
+    }
+
+    // The same change as published on a bus: keeps an origin it already has, otherwise takes the bus's own
+    ChangeEvent published(long sequence, String busOrigin) {
+        return new ChangeEvent(sequence, origin != null ? origin : busOrigin, type, bookId, book, loan, hold, activity);
+    }
+
+    // Flat JSON, so Json.parseObject can read it back
+    String toJson() {
+        Json.ObjectWriter json = Json.object().put("sequence", sequence).put("origin", origin)
+                .put("type", type.name()).put("bookId", bookId);
+        if (book != null) {
+            json.put("title", book.title).put("author", book.author).put("publisher", book.publisher)
+                .put("year", book.year).put("status", book.status);
+        }
+        if (loan != null) {
+            json.put("loanId", loan.id).put("title", loan.title).put("studentName", loan.studentName)
+                .put("registrationNumber", loan.registrationNumber).put("issueDate", loan.issueDate.toString())
+                .put("returnDate", loan.returnDate.toString());
+        }
+        if (hold != null) {
+            json.put("holdId", hold.id).put("studentName", hold.studentName)
+                .put("registrationNumber", hold.registrationNumber).put("placedOn", hold.placedOn.toString())
+                .put("readyOn", hold.readyOn.toString()).put("pickupBy", hold.pickupBy.toString());
+        }
+        if (activity != null) {
+            json.put("registrationNo", activity.registrationNo).put("name", activity.name)
+                .put("activity", activity.activity).put("date", activity.date).put("time", activity.time);
+        }
+        return json.toString();
+    }
+
+    // Reads an event written by toJson; the sequence is the sender's and is replaced when it is published here.
+    // A loan's overdue flag is worked out against today.
+    static ChangeEvent fromJson(String text, LocalDate today) {
+        Map<String, Object> json = Json.parseObject(text);
+        Type type;
+        try {
+            type = Type.valueOf(string(json, "type"));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown change type: " + json.get("type"));
+        }
+        String origin = json.get("origin") == null ? null : string(json, "origin"); // none before it is published
+        int bookId = (int) number(json, "bookId");
+        BookRow book = null;
+        IssuedBookRow loan = null;
+        HoldQueue.Hold hold = null;
+        ActivityLogWriter.ActivityEntry activity = null;
+        switch (type) {
+            case BOOK_ADDED:
+                book = new BookRow(bookId, string(json, "title"), string(json, "author"), string(json, "publisher"),
+                        (int) number(json, "year"), string(json, "status"));
+                break;
+            case BOOK_ISSUED:
+                loan = loan(json, bookId, today);
+                break;
+            case BOOK_RETURNED:
+                loan = json.containsKey("loanId") ? loan(json, bookId, today) : null;
+                break;
+            case BOOK_HELD:
+                hold = new HoldQueue.Hold(number(json, "holdId"), bookId, string(json, "registrationNumber"),
+                        string(json, "studentName"), date(json, "placedOn"), date(json, "readyOn"), date(json, "pickupBy"));
+                break;
+            case ACTIVITY_LOGGED:
+                activity = new ActivityLogWriter.ActivityEntry(string(json, "registrationNo"), string(json, "name"),
+                        string(json, "activity"), string(json, "date"), string(json, "time"));
+                break;
+            default:
+                break;
+        }
+        return new ChangeEvent(number(json, "sequence"), origin, type, bookId, book, loan, hold, activity);
+    }
+
+    private static IssuedBookRow loan(Map<String, Object> json, int bookId, LocalDate today) {
+        LocalDate returnDate = date(json, "returnDate");
+        LocalDate overdueDate = OverdueEngine.overdueDateFor(returnDate);
+        return new IssuedBookRow((int) number(json, "loanId"), bookId, string(json, "title"),
+                string(json, "studentName"), string(json, "registrationNumber"), date(json, "issueDate"),
+                returnDate, overdueDate, OverdueEngine.isOverdue(overdueDate, today));
+    }
+
+    private static String string(Map<String, Object> json, String name) {
+        Object value = json.get(name);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("'" + name + "' must be a string");
+        }
+        return (String) value;
+    }
+
+    private static long number(Map<String, Object> json, String name) {
+        Object value = json.get(name);
+        if (!(value instanceof Long)) {
+            throw new IllegalArgumentException("'" + name + "' must be a whole number");
+        }
+        return (Long) value;
+    }
+
+    private static LocalDate date(Map<String, Object> json, String name) {
+        try {
+            return LocalDate.parse(string(json, name));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("'" + name + "' must be a yyyy-MM-dd date");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type + " #" + sequence + (bookId != 0 ? " book " + bookId : "") + " from " + origin;
+    }
+}
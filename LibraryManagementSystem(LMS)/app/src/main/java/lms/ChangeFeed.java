@@ -0,0 +1,272 @@
+package lms;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Joins this process's ChangeBus to a LibraryServer's, so desks that each talk to the database directly still see
+// each other's changes without polling. Changes made here are sent to POST /api/events in batches and the server
+// streams them on to everyone else; GET /api/events is read as Server-Sent Events, and every change made elsewhere
+// is published on the local bus for BookManager and the open tables to apply. A dropped stream resumes from its
+// Last-Event-ID; anything lost on the way (a full send queue, events the server no longer keeps) becomes a RESYNC.
+// The server takes changes only from desks that send its shared secret, or from its own machine when it has none.
+//   -Dlms.events.url=http://library-server:8080/api/events
+//   -Dlms.events.secret=...   the same secret as the server's
+class ChangeFeed {
+    static final String URL_PROPERTY = "lms.events.url";
+    static final String SECRET_PROPERTY = "lms.events.secret";
+    static final String SECRET_HEADER = "X-LMS-Events-Secret";
+    private static final int SEND_QUEUE_CAPACITY = 10000;
+    private static final int SEND_BATCH_SIZE = 100; // well inside the server's request size limit
+    private static final long SEND_POLL_MILLIS = 1000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 45000; // three missed keepalives
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 30000;
+
+    private final URL eventsUrl;
+    private final String secret; // null when the server takes changes without one
+    private final ChangeBus bus;
+    private final OverdueEngine overdueEngine;
+    private final BlockingQueue<ChangeEvent> outgoing = new ArrayBlockingQueue<>(SEND_QUEUE_CAPACITY);
+    private final Consumer<ChangeEvent> subscriber = this::queueOutgoing;
+    private final Thread receiverThread;
+    private final Thread senderThread;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private volatile boolean sendOverflowed;
+    private volatile boolean running = true;
+    private volatile HttpURLConnection stream;
+    private long lastEventId = -1; // receiver thread only
+
+    ChangeFeed(String eventsUrl, String secret, ChangeBus bus, OverdueEngine overdueEngine) throws MalformedURLException {
+        this.eventsUrl = new URL(eventsUrl);
+        this.secret = secret;
+        this.bus = bus;
+        this.overdueEngine = overdueEngine;
+        this.receiverThread = new Thread(this::receive, "lms-feed-receiver");
+        this.senderThread = new Thread(this::send, "lms-feed-sender");
+        receiverThread.setDaemon(true);
+        senderThread.setDaemon(true);
+    }
+
+    // The feed named by -Dlms.events.url and -Dlms.events.secret, not yet started; null when there is no URL
+    static ChangeFeed fromSystemProperties(BookManager bookManager) throws DatabaseException {
+        String url = System.getProperty(URL_PROPERTY);
+        if (url == null || url.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return new ChangeFeed(url.trim(), System.getProperty(SECRET_PROPERTY), bookManager.getChanges(),
+                    bookManager.getOverdueEngine());
+        } catch (MalformedURLException e) {
+            throw new DatabaseException("Invalid " + URL_PROPERTY + " " + url + ": " + e.getMessage());
+        }
+    }
+
+    public void start() {
+        bus.subscribe(subscriber);
+        receiverThread.start();
+        senderThread.start();
+    }
+
+    // Stops both directions; changes not yet sent are dropped, and the other desks reload when they reconnect
+    public void shutdown() {
+        running = false;
+        bus.unsubscribe(subscriber);
+        senderThread.interrupt();
+        HttpURLConnection connection = stream;
+        if (connection != null) {
+            connection.disconnect();
+        }
+        receiverThread.interrupt();
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeFeed[" + eventsUrl + ", sent=" + sent.get() + ", received=" + received.get()
+                + ", queued=" + outgoing.size() + ", reconnects=" + reconnects.get() + "]";
+    }
+
+    // Called by the bus: only changes made in this process go out, so relayed ones never loop back
+    private void queueOutgoing(ChangeEvent event) {
+        if (bus.isLocal(event) && !outgoing.offer(event)) {
+            sendOverflowed = true;
+        }
+    }
+
+    private void send() {
+        List<ChangeEvent> batch = new ArrayList<>(SEND_BATCH_SIZE);
+        long backoff = RETRY_BACKOFF_MILLIS;
+        while (running) {
+            try {
+                if (batch.isEmpty()) {
+                    ChangeEvent first = outgoing.poll(SEND_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                }
+                outgoing.drainTo(batch, SEND_BATCH_SIZE - batch.size());
+                if (sendOverflowed) {
+                    // Some changes never made it into the queue; tell everyone to reload instead
+                    sendOverflowed = false;
+                    batch.add(ChangeEvent.resync().published(0, bus.getOrigin()));
+                }
+                post(batch);
+                sent.addAndGet(batch.size());
+                batch.clear();
+                backoff = RETRY_BACKOFF_MILLIS;
+            } catch (IOException e) {
+                if (backoff == RETRY_BACKOFF_MILLIS) {
+                    System.err.println("Cannot send changes to " + eventsUrl + ": " + e.getMessage()); // once per outage
+                }
+                // Keep the batch and try again; meanwhile the bounded queue fills and overflows into a RESYNC
+                sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_RETRY_BACKOFF_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void post(List<ChangeEvent> batch) throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (ChangeEvent event : batch) {
+            body.append(event.toJson()).append('\n');
+        }
+        HttpURLConnection connection = (HttpURLConnection) eventsUrl.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/x-ndjson; charset=utf-8");
+            if (secret != null) {
+                connection.setRequestProperty(SECRET_HEADER, secret);
+            }
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            int status = connection.getResponseCode();
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            if (status >= 500) {
+                throw new IOException("server answered " + status);
+            }
+            if (status >= 400) {
+                // Refused outright (a server from another version, or a wrong secret): resending will not help
+                System.err.println("Server refused " + batch.size() + " changes with status " + status + "; dropped.");
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void receive() {
+        long backoff = RETRY_BACKOFF_MILLIS;
+        boolean connectedBefore = false;
+        while (running) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) eventsUrl.openConnection();
+                connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+                connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+                connection.setRequestProperty("Accept", "text/event-stream");
+                if (lastEventId >= 0) {
+                    connection.setRequestProperty("Last-Event-ID", Long.toString(lastEventId));
+                }
+                stream = connection;
+                if (connection.getResponseCode() != 200) {
+                    drain(connection.getErrorStream());
+                    throw new IOException("server answered " + connection.getResponseCode());
+                }
+                if (connectedBefore) {
+                    reconnects.incrementAndGet();
+                }
+                connectedBefore = true;
+                backoff = RETRY_BACKOFF_MILLIS;
+                readEvents(connection.getInputStream());
+            } catch (IOException | RuntimeException e) {
+                if (running && backoff == RETRY_BACKOFF_MILLIS) {
+                    System.err.println("Change stream from " + eventsUrl + " interrupted: " + e.getMessage());
+                }
+            } finally {
+                HttpURLConnection connection = stream;
+                stream = null;
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+            if (running) {
+                sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_RETRY_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    // Server-Sent Events: "id:" and "data:" lines, an event ends at a blank line, ":" lines are keepalives
+    private void readEvents(InputStream in) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            long id = -1;
+            StringBuilder data = new StringBuilder();
+            String line;
+            while (running && (line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    if (data.length() > 0) {
+                        deliver(data.toString());
+                        data.setLength(0);
+                    }
+                    if (id >= 0) {
+                        lastEventId = id;
+                        id = -1;
+                    }
+                } else if (line.startsWith("id:")) {
+                    id = Long.parseLong(line.substring(3).trim());
+                } else if (line.startsWith("data:")) {
+                    data.append(line.substring(5).trim());
+                }
+            }
+        }
+    }
+
+    private void deliver(String json) {
+        ChangeEvent event = ChangeEvent.fromJson(json, overdueEngine.today());
+        if (!bus.isLocal(event)) {
+            received.incrementAndGet();
+            bus.publish(event);
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try (InputStream body = in) {
+            byte[] skip = new byte[4096];
+            while (body.read(skip) >= 0) {
+                // discard
+            }
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+}
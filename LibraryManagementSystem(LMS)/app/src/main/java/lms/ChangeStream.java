@@ -0,0 +1,125 @@
+package lms;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// One client of GET /api/events: a Server-Sent Events response held open and fed from the ChangeBus. Each client
+// has its own queue and writer thread, so a slow or stalled client never holds up the bus or the request threads.
+// A client that falls a full queue behind is sent a RESYNC (reload everything) and carries on from there. An idle
+// stream gets a comment line every KEEPALIVE_MILLIS, so a client that vanished is noticed within two of them.
+class ChangeStream implements Consumer<ChangeEvent> {
+    static final int QUEUE_CAPACITY = 10000;
+    private static final long KEEPALIVE_MILLIS = 15000;
+    private static final long RECONNECT_MILLIS = 2000;
+
+    private final ChangeBus bus;
+    private final HttpExchange exchange;
+    private final BlockingQueue<ChangeEvent> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Consumer<ChangeStream> onClose;
+    private long lastSequence; // guarded by this: the newest event accepted or dropped
+    private boolean overflowed; // guarded by this
+    private volatile boolean open = true;
+    private Thread thread;
+
+    ChangeStream(ChangeBus bus, HttpExchange exchange, Consumer<ChangeStream> onClose) {
+        this.bus = bus;
+        this.exchange = exchange;
+        this.onClose = onClose;
+    }
+
+    // Called by the bus, under its lock: never blocks
+    @Override
+    public synchronized void accept(ChangeEvent event) {
+        lastSequence = event.sequence;
+        if (!queue.offer(event)) {
+            overflowed = true;
+        }
+    }
+
+    // Starts streaming on a daemon thread of its own. afterSequence is the client's Last-Event-ID, or -1 to start
+    // from now.
+    synchronized void start(long afterSequence, String threadName) {
+        thread = new Thread(() -> run(afterSequence), threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops the stream and ends the response
+    synchronized void close() {
+        open = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    // Streams until the client goes away or close() is called
+    private void run(long afterSequence) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+        } catch (IOException e) {
+            exchange.close();
+            onClose.accept(this);
+            return;
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            write(out, "retry: " + RECONNECT_MILLIS + "\n\n");
+            long resumedAfter = bus.subscribe(afterSequence, this);
+            if (afterSequence >= 0 && resumedAfter != afterSequence) {
+                writeEvent(out, ChangeEvent.resync().published(resumedAfter, bus.getOrigin()));
+            }
+            out.flush();
+            while (open) {
+                ChangeEvent resync = takeOverflow();
+                if (resync != null) {
+                    writeEvent(out, resync);
+                }
+                ChangeEvent event = queue.poll(KEEPALIVE_MILLIS, TimeUnit.MILLISECONDS);
+                if (event == null) {
+                    write(out, ": keepalive\n\n");
+                } else {
+                    // Everything already queued goes out in one flush
+                    do {
+                        writeEvent(out, event);
+                    } while ((event = queue.poll()) != null);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client disconnected
+        } catch (InterruptedException e) {
+            // closed
+        } finally {
+            bus.unsubscribe(this);
+            exchange.close();
+            onClose.accept(this);
+        }
+    }
+
+    // After an overflow, whatever is still queued is dropped too and replaced by one RESYNC numbered as the
+    // newest event seen, so the client's Last-Event-ID stays meaningful
+    private synchronized ChangeEvent takeOverflow() {
+        if (!overflowed) {
+            return null;
+        }
+        overflowed = false;
+        queue.clear();
+        return ChangeEvent.resync().published(lastSequence, bus.getOrigin());
+    }
+
+    private static void writeEvent(OutputStream out, ChangeEvent event) throws IOException {
+        write(out, "id: " + event.sequence + "\ndata: " + event.toJson() + "\n\n");
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
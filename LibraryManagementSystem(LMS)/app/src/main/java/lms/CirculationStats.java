@@ -0,0 +1,429 @@
+package lms;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+// Circulation figures for the Reports tab and GET /api/reports: loans and returns per day and week, how long books
+// stay out and how many come back late, the most-borrowed titles and authors, and Activity Tracker entries per
+// hour. They are running totals: each issue and return adds to loan_stats (one of the day's stripe rows) and
+// title_loans in its own transaction (BookManager), and each activity batch to activity_hours (ActivityLogWriter),
+// so the history survives a restart and is read back once at startup from those small tables. After that every
+// change is counted here as it happens, and a report adds up a few hundred totals instead of grouping issued_books
+// or activity_log. Changes are counted under the change bus sequence that announced them, which is how a build
+// tells the ones the tables already hold from the ones it must add.
+class CirculationStats {
+    static final int MAX_REPORT_DAYS = 3660;
+    static final int MAX_RANKED = 100;
+    // A day's figures are spread over stripes (BookManager.STATS_STRIPES) and added up here
+    private static final String LOANS_QUERY = "SELECT stat_date, SUM(loans) AS loans, SUM(returns) AS returns,"
+            + " SUM(loan_days) AS loan_days, SUM(late_returns) AS late_returns FROM loan_stats GROUP BY stat_date";
+    private static final String TITLES_QUERY = "SELECT book_id, title, author, loans FROM title_loans";
+    private static final String HOURS_QUERY = "SELECT stat_date, hour_of_day, activity, entries FROM activity_hours";
+    private static final int LOANS = 0;
+    private static final int RETURNS = 1;
+    private static final int LOAN_DAYS = 2;
+    private static final int LATE_RETURNS = 3;
+
+    // Loans and returns over one day, one week or a whole report
+    static final class Period {
+        final LocalDate start;
+        final long loans;
+        final long returns;
+        final long loanDays; // days out, summed over the returns
+        final long lateReturns;
+
+        Period(LocalDate start, long[] totals) {
+            this.start = start;
+            this.loans = totals[LOANS];
+            this.returns = totals[RETURNS];
+            this.loanDays = totals[LOAN_DAYS];
+            this.lateReturns = totals[LATE_RETURNS];
+        }
+
+        // Average days a book returned in the period was out; 0 without returns
+        double getAverageLoanDays() {
+            return returns == 0 ? 0 : (double) loanDays / returns;
+        }
+
+        // Share of the period's returns that came back overdue
+        double getLateReturnRate() {
+            return returns == 0 ? 0 : (double) lateReturns / returns;
+        }
+    }
+
+    // A title or author and how often it has been borrowed
+    static final class Ranked {
+        final String name;
+        final String author; // null when ranking authors
+        final long loans;
+
+        Ranked(String name, String author, long loans) {
+            this.name = name;
+            this.author = author;
+            this.loans = loans;
+        }
+    }
+
+    // Everything the Reports tab shows, for the days from..to; titles and authors are over all time
+    static final class Report {
+        final LocalDate from;
+        final LocalDate to;
+        final Period total;
+        final List<Period> days;
+        final List<Period> weeks; // starting on Mondays; the first and last may be cut short by the range
+        final List<Ranked> titles;
+        final List<Ranked> authors;
+        final int openLoans;
+        final int overdueLoans;
+        final Map<String, long[]> activityByHour; // activity -> entries in each hour of the day
+
+        Report(LocalDate from, LocalDate to, Period total, List<Period> days, List<Period> weeks, List<Ranked> titles,
+               List<Ranked> authors, int openLoans, int overdueLoans, Map<String, long[]> activityByHour) {
+            this.from = from;
+            this.to = to;
+            this.total = total;
+            this.days = Collections.unmodifiableList(days);
+            this.weeks = Collections.unmodifiableList(weeks);
+            this.titles = Collections.unmodifiableList(titles);
+            this.authors = Collections.unmodifiableList(authors);
+            this.openLoans = openLoans;
+            this.overdueLoans = overdueLoans;
+            this.activityByHour = Collections.unmodifiableMap(activityByHour);
+        }
+
+        // Share of the open loans that are overdue now
+        double getOverdueRate() {
+            return openLoans == 0 ? 0 : (double) overdueLoans / openLoans;
+        }
+
+        // One row per figure (report,key,detail,value), so every report fits one sheet and one header
+        void writeCsv(Writer out) throws IOException {
+            out.write("report,key,detail,value\n");
+            row(out, "summary", "from", "", from.toString());
+            row(out, "summary", "to", "", to.toString());
+            row(out, "summary", "loans", "", Long.toString(total.loans));
+            row(out, "summary", "returns", "", Long.toString(total.returns));
+            row(out, "summary", "average_loan_days", "", decimal(total.getAverageLoanDays()));
+            row(out, "summary", "late_return_rate", "", decimal(total.getLateReturnRate()));
+            row(out, "summary", "open_loans", "", Integer.toString(openLoans));
+            row(out, "summary", "overdue_loans", "", Integer.toString(overdueLoans));
+            row(out, "summary", "overdue_rate", "", decimal(getOverdueRate()));
+            for (Period day : days) {
+                row(out, "loans_per_day", day.start.toString(), "loans", Long.toString(day.loans));
+                row(out, "loans_per_day", day.start.toString(), "returns", Long.toString(day.returns));
+            }
+            for (Period week : weeks) {
+                row(out, "loans_per_week", week.start.toString(), "loans", Long.toString(week.loans));
+                row(out, "loans_per_week", week.start.toString(), "returns", Long.toString(week.returns));
+                row(out, "loans_per_week", week.start.toString(), "average_loan_days", decimal(week.getAverageLoanDays()));
+                row(out, "loans_per_week", week.start.toString(), "late_return_rate", decimal(week.getLateReturnRate()));
+            }
+            for (Ranked title : titles) {
+                row(out, "top_titles", title.name, title.author, Long.toString(title.loans));
+            }
+            for (Ranked author : authors) {
+                row(out, "top_authors", author.name, "", Long.toString(author.loans));
+            }
+            for (Map.Entry<String, long[]> activity : activityByHour.entrySet()) {
+                for (int hour = 0; hour < 24; hour++) {
+                    if (activity.getValue()[hour] > 0) {
+                        row(out, "activity_by_hour", String.format(Locale.ROOT, "%02d:00", hour), activity.getKey(),
+                                Long.toString(activity.getValue()[hour]));
+                    }
+                }
+            }
+        }
+
+        private static void row(Writer out, String report, String key, String detail, String value) throws IOException {
+            out.write(report + "," + CsvBookImporter.quote(key) + "," + CsvBookImporter.quote(detail) + "," + value + "\n");
+        }
+
+        private static String decimal(double value) {
+            return String.format(Locale.ROOT, "%.4f", value);
+        }
+    }
+
+    // Loans of one book, under the title and author it had when first lent; also a title's or an author's total
+    private static final class BookLoans {
+        final String title;
+        final String author;
+        long loans;
+
+        BookLoans(String title, String author) {
+            this.title = title;
+            this.author = author;
+        }
+    }
+
+    // The running totals stored on one branch
+    private static final class Stored {
+        final Map<LocalDate, long[]> days = new HashMap<>();
+        final Map<Integer, BookLoans> books = new HashMap<>();
+        final Map<LocalDate, Map<String, long[]>> hours = new HashMap<>();
+    }
+
+    private final TreeMap<LocalDate, long[]> days = new TreeMap<>();
+    private final Map<Integer, BookLoans> books = new HashMap<>();
+    private final Map<String, BookLoans> titles = new HashMap<>(); // by title and author
+    private final Map<String, BookLoans> authors = new HashMap<>();
+    private final TreeMap<LocalDate, Map<String, long[]>> hours = new TreeMap<>();
+    private long countedThrough = -1; // changes up to this bus sequence are in the totals a build read
+    private long buildSequence; // while a build runs, the last sequence taken before it read the tables
+    private List<Runnable> sinceBuild; // changes after buildSequence, counted again over what the build read
+    private volatile boolean ready;
+
+    // Reads the running totals from every branch in parallel; called once at startup. Each branch holds the loans
+    // of its own books, so the branches' figures are added up; activity_hours is kept with the activity log on this
+    // process's own branch. As in SnapshotSync, the bus sequence is taken before the tables are read: changes
+    // announced after it are counted again over the stored figures, while earlier ones committed before the read and
+    // are in them. A change that committed before the read but was announced after the sequence was taken (a
+    // window of microseconds) is counted twice.
+    public void build(ShardMap shards, ChangeBus changes) throws SQLException {
+        synchronized (this) {
+            buildSequence = changes.getLastSequence();
+            sinceBuild = new ArrayList<>();
+        }
+        List<Stored> branches;
+        try {
+            branches = read(shards);
+        } catch (SQLException | RuntimeException e) {
+            synchronized (this) {
+                sinceBuild = null;
+            }
+            throw e;
+        }
+        Map<LocalDate, long[]> storedDays = new HashMap<>();
+        for (Stored branch : branches) {
+            for (Map.Entry<LocalDate, long[]> day : branch.days.entrySet()) {
+                add(storedDays.computeIfAbsent(day.getKey(), d -> new long[4]), day.getValue());
+            }
+        }
+        synchronized (this) {
+            days.clear();
+            days.putAll(storedDays);
+            books.clear();
+            hours.clear();
+            for (Stored branch : branches) {
+                books.putAll(branch.books); // a book lives on one branch
+                for (Map.Entry<LocalDate, Map<String, long[]>> day : branch.hours.entrySet()) {
+                    Map<String, long[]> counted = hours.computeIfAbsent(day.getKey(), d -> new HashMap<>());
+                    for (Map.Entry<String, long[]> activity : day.getValue().entrySet()) {
+                        add(counted.computeIfAbsent(activity.getKey(), a -> new long[24]), activity.getValue());
+                    }
+                }
+            }
+            titles.clear();
+            authors.clear();
+            for (BookLoans book : books.values()) {
+                countTitle(book, book.loans);
+            }
+            countedThrough = buildSequence;
+            List<Runnable> replay = sinceBuild;
+            sinceBuild = null;
+            for (Runnable change : replay) {
+                change.run();
+            }
+        }
+        ready = true;
+    }
+
+    private List<Stored> read(ShardMap shards) throws SQLException {
+        return shards.scatter(shards.all(), shard -> {
+            Stored branch = new Stored();
+            try (Connection connection = shard.db.getConnection();
+                 Statement stmt = connection.createStatement()) {
+                try (ResultSet rs = stmt.executeQuery(LOANS_QUERY)) {
+                    while (rs.next()) {
+                        branch.days.put(rs.getDate("stat_date").toLocalDate(), new long[] {rs.getLong("loans"),
+                                rs.getLong("returns"), rs.getLong("loan_days"), rs.getLong("late_returns")});
+                    }
+                }
+                try (ResultSet rs = stmt.executeQuery(TITLES_QUERY)) {
+                    while (rs.next()) {
+                        BookLoans book = new BookLoans(rs.getString("title"), rs.getString("author"));
+                        book.loans = rs.getLong("loans");
+                        branch.books.put(rs.getInt("book_id"), book);
+                    }
+                }
+                if (shard == shards.home()) {
+                    try (ResultSet rs = stmt.executeQuery(HOURS_QUERY)) {
+                        while (rs.next()) {
+                            branch.hours.computeIfAbsent(rs.getDate("stat_date").toLocalDate(), d -> new HashMap<>())
+                                    .computeIfAbsent(rs.getString("activity"), a -> new long[24])
+                                    [rs.getInt("hour_of_day")] += rs.getLong("entries");
+                        }
+                    }
+                }
+            }
+            return branch;
+        });
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // A loan committed and announced as sequence. author is null for a loan made at another desk, whose event does
+    // not carry it; the author is then the one recorded for an earlier loan of the book, if any.
+    public synchronized void loanIssued(int bookId, String title, String author, LocalDate issueDate, long sequence) {
+        count(sequence, () -> countLoan(bookId, title, author, issueDate));
+    }
+
+    // A loan due back on dueDate ended on returnedOn, announced as sequence
+    public synchronized void loanReturned(LocalDate issueDate, LocalDate dueDate, LocalDate returnedOn, long sequence) {
+        count(sequence, () -> countReturn(issueDate, dueDate, returnedOn));
+    }
+
+    public synchronized void activityLogged(LocalDate date, int hour, String activity, long sequence) {
+        count(sequence, () -> hours.computeIfAbsent(date, d -> new HashMap<>()).computeIfAbsent(activity, a -> new long[24])[hour]++);
+    }
+
+    // Entries deleted from the activity log. Deletions are not announced on the bus, so one made during a build is
+    // taken off again over what the build read, which may already be without them; totals stop at zero.
+    public synchronized void activityRemoved(LocalDate date, int hour, String activity, long entries) {
+        Runnable change = () -> {
+            Map<String, long[]> day = hours.get(date);
+            long[] counted = day == null ? null : day.get(activity);
+            if (counted != null) {
+                counted[hour] = Math.max(0, counted[hour] - entries);
+            }
+        };
+        if (sinceBuild != null) {
+            sinceBuild.add(change);
+        }
+        change.run();
+    }
+
+    // Counts a change unless a build has read it from the tables, and keeps it for the build in progress if that
+    // build may not have; called holding the lock
+    private void count(long sequence, Runnable change) {
+        if (sequence <= countedThrough) {
+            return;
+        }
+        if (sinceBuild != null && sequence > buildSequence) {
+            sinceBuild.add(change);
+        }
+        change.run();
+    }
+
+    private void countLoan(int bookId, String title, String author, LocalDate issueDate) {
+        days.computeIfAbsent(issueDate, d -> new long[4])[LOANS]++;
+        BookLoans book = books.get(bookId);
+        if (book == null) {
+            book = new BookLoans(title, author == null ? "" : author);
+            books.put(bookId, book);
+        }
+        book.loans++;
+        countTitle(book, 1);
+    }
+
+    private void countReturn(LocalDate issueDate, LocalDate dueDate, LocalDate returnedOn) {
+        long[] day = days.computeIfAbsent(returnedOn, d -> new long[4]);
+        day[RETURNS]++;
+        day[LOAN_DAYS] += loanDays(issueDate, returnedOn);
+        if (isLate(dueDate, returnedOn)) {
+            day[LATE_RETURNS]++;
+        }
+    }
+
+    // The figures for from..to, with the limit most-borrowed titles and authors; overdue is read as of today
+    public Report report(LocalDate from, LocalDate to, int limit, OverdueEngine overdue) {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("The report must start on or before " + to + ".");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= MAX_REPORT_DAYS) {
+            throw new IllegalArgumentException("A report covers at most " + MAX_REPORT_DAYS + " days.");
+        }
+        if (limit < 1 || limit > MAX_RANKED) {
+            throw new IllegalArgumentException("The number of top titles must be between 1 and " + MAX_RANKED + ".");
+        }
+        int openLoans = overdue.isReady() ? overdue.size() : 0;
+        int overdueLoans = overdue.isReady() ? overdue.getOverdueCount(overdue.today()) : 0;
+        synchronized (this) {
+            List<Period> dayList = new ArrayList<>();
+            List<Period> weekList = new ArrayList<>();
+            long[] total = new long[4];
+            long[] week = new long[4];
+            LocalDate weekStart = from;
+            for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+                if (day.getDayOfWeek() == DayOfWeek.MONDAY && !day.equals(weekStart)) {
+                    weekList.add(new Period(weekStart, week));
+                    week = new long[4];
+                    weekStart = day;
+                }
+                long[] counted = days.getOrDefault(day, new long[4]);
+                dayList.add(new Period(day, counted));
+                add(week, counted);
+                add(total, counted);
+            }
+            weekList.add(new Period(weekStart, week));
+            Map<String, long[]> activityByHour = new TreeMap<>();
+            for (Map<String, long[]> day : hours.subMap(from, true, to, true).values()) {
+                for (Map.Entry<String, long[]> activity : day.entrySet()) {
+                    add(activityByHour.computeIfAbsent(activity.getKey(), a -> new long[24]), activity.getValue());
+                }
+            }
+            return new Report(from, to, new Period(from, total), dayList, weekList, top(titles, limit),
+                    top(authors, limit), openLoans, overdueLoans, activityByHour);
+        }
+    }
+
+    static long loanDays(LocalDate issueDate, LocalDate returnedOn) {
+        return Math.max(0, ChronoUnit.DAYS.between(issueDate, returnedOn));
+    }
+
+    // Overdue as the rest of the library counts it: after the grace period that follows the due date
+    static boolean isLate(LocalDate dueDate, LocalDate returnedOn) {
+        return OverdueEngine.isOverdue(OverdueEngine.overdueDateFor(dueDate), returnedOn);
+    }
+
+    private void countTitle(BookLoans book, long loans) {
+        titles.computeIfAbsent(book.title + '\u0000' + book.author, k -> new BookLoans(book.title, book.author)).loans += loans;
+        authors.computeIfAbsent(book.author, a -> new BookLoans(a, null)).loans += loans;
+    }
+
+    // The limit entries with the most loans, most first; ties go alphabetically
+    private static List<Ranked> top(Map<String, BookLoans> totals, int limit) {
+        Comparator<Map.Entry<String, BookLoans>> order = Comparator.<Map.Entry<String, BookLoans>>comparingLong(e -> e.getValue().loans)
+                .thenComparing(Map.Entry::getKey, Comparator.reverseOrder());
+        PriorityQueue<Map.Entry<String, BookLoans>> best = new PriorityQueue<>(order);
+        for (Map.Entry<String, BookLoans> total : totals.entrySet()) {
+            if (total.getValue().loans <= 0) {
+                continue;
+            }
+            best.add(total);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        List<Ranked> ranked = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            BookLoans total = best.poll().getValue();
+            ranked.add(new Ranked(total.title, total.author, total.loans));
+        }
+        Collections.reverse(ranked);
+        return ranked;
+    }
+
+    private static void add(long[] into, long[] values) {
+        for (int i = 0; i < into.length; i++) {
+            into[i] += values[i];
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package lms;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Bounded pool of JDBC connections shared by BookManager and the GUI panels.
+// Connections handed out are proxies: close() returns them to the pool instead of closing the socket.
+// SQL registered in the StatementRegistry is prepared once per physical connection and reused; those
+// statements are also proxies whose close() only resets them, and their executions are timed.
+class ConnectionPool {
+    // Set to true to record where each connection was checked out, so leak reports carry the stack trace
+    static final String LEAK_TRACES_PROPERTY = "lms.pool.leakTraces";
+    private static final boolean LEAK_TRACES = Boolean.getBoolean(LEAK_TRACES_PROPERTY);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final int MAX_CONNECT_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final String KEYS_PREFIX = "keys:";
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final long checkoutTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final Semaphore permits;
+    private final StatementRegistry statements;
+    private final BlockingDeque<PhysicalConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledHandle> inUse = ConcurrentHashMap.newKeySet();
+    private final PoolMetrics metrics = new PoolMetrics();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String user, String password, int maxSize,
+                          long checkoutTimeoutMillis, long leakThresholdMillis, StatementRegistry statements) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.checkoutTimeoutMillis = checkoutTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.statements = statements;
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lms-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, leakThresholdMillis / 2);
+        housekeeper.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // Opens one connection up front so a bad URL or password fails at startup, not at the first click.
+    public void warmUp() throws SQLException {
+        Connection connection = checkout();
+        connection.close();
+    }
+
+    public Connection checkout() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(checkoutTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.");
+        }
+        if (!acquired) {
+            metrics.timeouts.incrementAndGet();
+            throw new SQLTransientConnectionException(
+                    "Timed out after " + checkoutTimeoutMillis + " ms waiting for a database connection.");
+        }
+        metrics.recordWait(System.nanoTime() - start);
+        try {
+            PhysicalConnection physical = takeValidIdle();
+            if (physical == null) {
+                physical = new PhysicalConnection(openWithBackoff());
+            }
+            PooledHandle handle = new PooledHandle(physical);
+            inUse.add(handle);
+            metrics.checkouts.incrementAndGet();
+            return handle.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return inUse.size();
+    }
+
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            physical.discard();
+        }
+        for (PooledHandle handle : inUse) {
+            handle.physical.discard();
+        }
+        inUse.clear();
+    }
+
+    private PhysicalConnection takeValidIdle() {
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            try {
+                if (physical.raw.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    return physical;
+                }
+            } catch (SQLException ignored) {
+                // treated as a dead connection below
+            }
+            metrics.validationFailures.incrementAndGet();
+            physical.discard();
+        }
+        return null;
+    }
+
+    private Connection openWithBackoff() throws SQLException {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        SQLException last = null;
+        for (int attempt = 1; attempt <= MAX_CONNECT_ATTEMPTS; attempt++) {
+            try {
+                Connection raw = DriverManager.getConnection(url, user, password);
+                metrics.connectionsOpened.incrementAndGet();
+                return raw;
+            } catch (SQLException e) {
+                last = e;
+                metrics.connectFailures.incrementAndGet();
+                if (attempt == MAX_CONNECT_ATTEMPTS || closed) {
+                    break;
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+        throw last != null ? last : new SQLException("Interrupted while connecting to the database.");
+    }
+
+    private void release(PooledHandle handle) {
+        inUse.remove(handle);
+        metrics.recordHold(System.nanoTime() - handle.checkedOutAt);
+        Connection raw = handle.physical.raw;
+        try {
+            if (closed || raw.isClosed()) {
+                handle.physical.discard();
+            } else {
+                // Never hand the next borrower a half-finished transaction.
+                if (!raw.getAutoCommit()) {
+                    raw.rollback();
+                    raw.setAutoCommit(true);
+                }
+                handle.physical.resetStatements();
+                idle.offerFirst(handle.physical);
+            }
+        } catch (SQLException e) {
+            handle.physical.discard();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void detectLeaks() {
+        long now = System.nanoTime();
+        for (PooledHandle handle : inUse) {
+            long heldMillis = TimeUnit.NANOSECONDS.toMillis(now - handle.checkedOutAt);
+            if (heldMillis > leakThresholdMillis && handle.reportedLeak.compareAndSet(false, true)) {
+                metrics.leaksDetected.incrementAndGet();
+                if (handle.checkoutSite == null) {
+                    System.err.println("Possible connection leak: connection held for " + heldMillis + " ms by "
+                            + handle.owner + " (start with -D" + LEAK_TRACES_PROPERTY + "=true to see where it was checked out)");
+                } else {
+                    System.err.println("Possible connection leak: connection held for " + heldMillis + " ms by "
+                            + handle.owner + ", checked out at:");
+                    handle.checkoutSite.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // nothing useful to do with a connection we are discarding
+        }
+    }
+
+    // A socket to the database plus the statements prepared on it, which live as long as the socket does
+    private final class PhysicalConnection {
+        final Connection raw;
+        // Keyed by SQL, or by KEYS_PREFIX + SQL for statements prepared to return generated keys
+        final Map<String, CachedStatement> statementsBySql = new HashMap<>();
+
+        PhysicalConnection(Connection raw) {
+            this.raw = raw;
+        }
+
+        PreparedStatement prepare(String sql, int autoGeneratedKeys, String name, Connection owner) throws SQLException {
+            StatementRegistry.StatementStats stats = statements.statsFor(name);
+            String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? KEYS_PREFIX + sql : sql;
+            CachedStatement cached = statementsBySql.get(key);
+            if (cached == null) {
+                stats.prepares.incrementAndGet();
+                cached = new CachedStatement(raw.prepareStatement(sql, autoGeneratedKeys), stats, owner, true);
+                statementsBySql.put(key, cached);
+            } else if (cached.inUse) {
+                // Same SQL open twice in one checkout: give out a private, uncached copy
+                stats.prepares.incrementAndGet();
+                return new CachedStatement(raw.prepareStatement(sql, autoGeneratedKeys), stats, owner, false).proxy;
+            }
+            cached.owner = owner;
+            cached.inUse = true;
+            return cached.proxy;
+        }
+
+        // Called on release so the next borrower never sees a statement the last one forgot to close
+        void resetStatements() throws SQLException {
+            for (CachedStatement cached : statementsBySql.values()) {
+                if (cached.inUse) {
+                    cached.reset();
+                }
+            }
+        }
+
+        void discard() {
+            statementsBySql.clear(); // closing the connection closes its statements
+            closeQuietly(raw);
+        }
+    }
+
+    // A prepared statement handed out through a proxy: close() resets it for reuse and executions are timed
+    private static final class CachedStatement implements InvocationHandler {
+        final PreparedStatement statement;
+        final PreparedStatement proxy;
+        final StatementRegistry.StatementStats stats;
+        final boolean reusable;
+        Connection owner;
+        boolean inUse;
+
+        CachedStatement(PreparedStatement statement, StatementRegistry.StatementStats stats, Connection owner, boolean reusable) {
+            this.statement = statement;
+            this.stats = stats;
+            this.owner = owner;
+            this.reusable = reusable;
+            this.inUse = true;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        void reset() throws SQLException {
+            inUse = false;
+            statement.clearParameters();
+            statement.clearBatch();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (reusable) {
+                        if (inUse) {
+                            reset();
+                        }
+                    } else {
+                        statement.close();
+                    }
+                    return null;
+                case "isClosed":
+                    return reusable ? !inUse : statement.isClosed();
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + statement + "]";
+                default:
+                    break;
+            }
+            if (reusable && !inUse) {
+                throw new SQLException("Statement has already been closed.");
+            }
+            boolean timed = name.startsWith("execute");
+            long start = timed ? System.nanoTime() : 0;
+            try {
+                Object result = method.invoke(statement, args);
+                if (timed) {
+                    stats.recordExecution(System.nanoTime() - start);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                if (timed) {
+                    stats.errors.incrementAndGet();
+                }
+                throw e.getCause();
+            }
+        }
+    }
+
+    // One checkout of a physical connection; the proxy routes close() back to the pool.
+    private final class PooledHandle implements InvocationHandler {
+        final PhysicalConnection physical;
+        final Connection raw;
+        final Connection proxy;
+        final long checkedOutAt = System.nanoTime();
+        final String owner = Thread.currentThread().getName();
+        // Capturing a stack costs more than the rest of a checkout, so only when leak traces are asked for
+        final Throwable checkoutSite = LEAK_TRACES ? new Throwable("connection checkout") : null;
+        final AtomicBoolean returned = new AtomicBoolean();
+        final AtomicBoolean reportedLeak = new AtomicBoolean();
+
+        PooledHandle(PhysicalConnection physical) {
+            this.physical = physical;
+            this.raw = physical.raw;
+            this.proxy = (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) {
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned.get() || raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + raw + "]";
+                default:
+                    if (returned.get()) {
+                        throw new SQLException("Connection has already been returned to the pool.");
+                    }
+                    // prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) are served from the cache
+                    if ("prepareStatement".equals(method.getName()) && (args.length == 1
+                            || args.length == 2 && method.getParameterTypes()[1] == int.class)) {
+                        String name = statements.nameOf((String) args[0]);
+                        if (name != null) {
+                            int autoGeneratedKeys = args.length == 2 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS;
+                            return physical.prepare((String) args[0], autoGeneratedKeys, name, (Connection) proxy);
+                        }
+                    }
+                    try {
+                        return method.invoke(raw, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package lms;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// Streams books out of a CSV file (id,title,author,publisher,year) into BookManager.addBooks.
+// The file is read one line at a time, so memory use does not depend on its size. A header line is skipped if
+// its first column is not a number; lines that cannot be parsed go into the reject report with their line number.
+class CsvBookImporter {
+    private final BookManager bookManager;
+    private final int batchSize;
+
+    CsvBookImporter(BookManager bookManager, int batchSize) {
+        this.bookManager = bookManager;
+        this.batchSize = batchSize;
+    }
+
+    public ImportReport importFile(Path file) throws IOException {
+        ImportReport report = new ImportReport();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            bookManager.addBooks(() -> new LineIterator(reader, report), batchSize, report);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return report;
+    }
+
+    // Lazily parses the next valid line, recording malformed ones as rejects
+    private static final class LineIterator implements Iterator<Book> {
+        private final BufferedReader reader;
+        private final ImportReport report;
+        private int lineNumber;
+        private Book next;
+        private boolean done;
+
+        LineIterator(BufferedReader reader, ImportReport report) {
+            this.reader = reader;
+            this.report = report;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !done) {
+                String line;
+                try {
+                    line = reader.readLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (line == null) {
+                    done = true;
+                    break;
+                }
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                List<String> fields = parseLine(line);
+                if (lineNumber == 1 && !fields.isEmpty() && !isInteger(fields.get(0))) {
+                    continue; // header
+                }
+                if (fields.size() != 5) {
+                    report.reject("line " + lineNumber, "expected 5 columns but found " + fields.size());
+                    continue;
+                }
+                try {
+                    next = new Book(Integer.parseInt(fields.get(0).trim()), fields.get(1).trim(),
+                            fields.get(2).trim(), fields.get(3).trim(), Integer.parseInt(fields.get(4).trim()));
+                } catch (NumberFormatException e) {
+                    report.reject("line " + lineNumber, "ID and year must be whole numbers");
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Book book = next;
+            next = null;
+            return book;
+        }
+    }
+
+    // Splits one CSV line, honouring double-quoted fields and "" escapes; quoted fields may not span lines
+    static List<String> parseLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static boolean isInteger(String value) {
+        try {
+            Integer.parseInt(value.trim());
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
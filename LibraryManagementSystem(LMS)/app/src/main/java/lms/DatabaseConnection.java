@@ -0,0 +1,144 @@
+package lms;
+
+import javax.management.JMException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// Database connection manager, backed by a bounded connection pool over a StorageBackend (MySQL or embedded).
+// Callers borrow with getConnection() and must close() the result to hand it back. Opened with allowOffline, a
+// database that cannot be reached yet is not an error: the schema is brought up to date on the first connection
+// that succeeds, and until then getConnection() fails like it would during any outage.
+class DatabaseConnection {
+    static final int DEFAULT_POOL_SIZE = 10;
+    private static final long CHECKOUT_TIMEOUT_MILLIS = 5000;
+    private static final long LEAK_THRESHOLD_MILLIS = 30000;
+    private final StorageBackend backend;
+    private final ConnectionPool pool;
+    private final SlowQueryLog slowQueryLog = SlowQueryLog.fromSystemProperties();
+    private final StatementRegistry statements = new StatementRegistry(slowQueryLog);
+    private final OperationMetrics operations = new OperationMetrics(slowQueryLog);
+    private final boolean allowOffline;
+    private volatile boolean schemaReady;
+    private MetricsJmx jmx;
+
+    public DatabaseConnection(String url, String user, String password) throws DatabaseException {
+        this(new MySqlBackend(url, user, password), DEFAULT_POOL_SIZE);
+    }
+
+    public DatabaseConnection(String url, String user, String password, int poolSize) throws DatabaseException {
+        this(new MySqlBackend(url, user, password), poolSize);
+    }
+
+    public DatabaseConnection(StorageBackend backend) throws DatabaseException {
+        this(backend, DEFAULT_POOL_SIZE);
+    }
+
+    public DatabaseConnection(StorageBackend backend, int poolSize) throws DatabaseException {
+        this(backend, poolSize, false);
+    }
+
+    public DatabaseConnection(StorageBackend backend, int poolSize, boolean allowOffline) throws DatabaseException {
+        this.backend = backend;
+        this.allowOffline = allowOffline;
+        try {
+            Class.forName(backend.getDriverClassName());
+            pool = new ConnectionPool(backend.getUrl(), backend.getUser(), backend.getPassword(), poolSize,
+                    CHECKOUT_TIMEOUT_MILLIS, LEAK_THRESHOLD_MILLIS, statements);
+        } catch (ClassNotFoundException e) {
+            throw new DatabaseException(backend.getName() + " Driver not found: " + e.getMessage());
+        }
+        try {
+            pool.warmUp();
+            try (Connection connection = pool.checkout()) {
+                migrate(connection);
+            }
+        } catch (SQLException e) {
+            if (allowOffline && OfflineDesk.isOutage(e)) {
+                System.err.println(backend.getName() + " database unreachable, starting offline: " + e.getMessage());
+                return;
+            }
+            pool.close();
+            throw new DatabaseException("Failed to connect to the database: " + e.getMessage());
+        }
+    }
+
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    public Connection getConnection() throws SQLException {
+        Connection connection = pool.checkout();
+        if (!schemaReady) {
+            try {
+                migrate(connection);
+            } catch (SQLException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+        }
+        return connection;
+    }
+
+    // False until the database has been reached once; only an allowOffline connection can be in that state
+    public boolean hasConnected() {
+        return schemaReady;
+    }
+
+    public boolean isOfflineAllowed() {
+        return allowOffline;
+    }
+
+    public PoolMetrics getPoolMetrics() {
+        return pool.getMetrics();
+    }
+
+    // SQL registered here is prepared once per pooled connection and reused
+    public StatementRegistry getStatementRegistry() {
+        return statements;
+    }
+
+    // Timings for BookManager and activity-log operations, one level above the statements
+    public OperationMetrics getOperationMetrics() {
+        return operations;
+    }
+
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    // Publishes pool, statement and operation metrics over JMX until the connection is closed
+    public synchronized void registerMBeans() throws DatabaseException {
+        if (jmx != null) {
+            return;
+        }
+        MetricsJmx exporter = new MetricsJmx(this);
+        try {
+            exporter.start();
+        } catch (JMException e) {
+            exporter.stop();
+            throw new DatabaseException("Failed to register metrics MBeans: " + e.getMessage());
+        }
+        jmx = exporter;
+    }
+
+    private synchronized void migrate(Connection connection) throws SQLException {
+        if (schemaReady) {
+            return;
+        }
+        int version = SchemaMigrations.apply(connection);
+        schemaReady = true;
+        System.out.println("Database connected successfully! (" + backend.getName() + ", schema version " + version + ")");
+    }
+
+    public void closeConnection() throws DatabaseException {
+        synchronized (this) {
+            if (jmx != null) {
+                jmx.stop();
+                jmx = null;
+            }
+        }
+        // Pool, statement and operation figures are read over JMX or /api/metrics while running
+        pool.close();
+        System.out.println("Database connection closed.");
+    }
+}
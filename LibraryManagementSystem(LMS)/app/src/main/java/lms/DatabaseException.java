@@ -0,0 +1,8 @@
+package lms;
+
+// Custom exception for database operations
+class DatabaseException extends Exception {
+    public DatabaseException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,245 @@
+package lms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Append-only file of the changes a desk made while the database was unreachable, kept until they have been
+// replayed. Each record is a ChangeEvent with the day it happened, framed by its length and a CRC32, so a record
+// torn by a crash is found and cut off when the file is next opened. Appends are durable when record() returns;
+// threads appending at the same moment share one fsync (group commit), so a busy desk does not pay one per entry.
+// The header holds the sequence replayed through, which makes an interrupted replay resume after the last entry
+// that reached the database.
+//
+//   header: int MAGIC, int VERSION, long replayedThrough
+//   record: int length, int crc (of the rest), long sequence, long epochDay, byte[length] event JSON (UTF-8)
+class DeskJournal {
+    private static final int MAGIC = 0x4c4d534a; // "LMSJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int REPLAYED_OFFSET = 8;
+    private static final int RECORD_HEADER_BYTES = 24;
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+    // One journaled change
+    static final class Entry {
+        final long sequence;
+        final LocalDate day;
+        final ChangeEvent event;
+
+        Entry(long sequence, LocalDate day, ChangeEvent event) {
+            this.sequence = sequence;
+            this.day = day;
+            this.event = event;
+        }
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Object syncLock = new Object();
+    private volatile long end; // written under this: where the next record goes
+    private long lastSequence; // guarded by this
+    private long replayedThrough; // guarded by this
+    private int pending; // guarded by this: records after replayedThrough
+    private long syncedTo; // guarded by syncLock
+
+    // Opens the journal, creating it if needed, and drops a torn record at the end
+    DeskJournal(Path path) throws IOException {
+        this.path = path;
+        if (path.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_BYTES) {
+                writeHeader(0);
+                end = HEADER_BYTES;
+            } else {
+                ByteBuffer header = readFully(0, HEADER_BYTES);
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException(path + " is not a desk journal");
+                }
+                replayedThrough = header.getLong();
+                lastSequence = replayedThrough;
+                List<Entry> entries = new ArrayList<>();
+                end = scan(entries);
+                for (Entry entry : entries) {
+                    lastSequence = entry.sequence;
+                    if (entry.sequence > replayedThrough) {
+                        pending++;
+                    }
+                }
+                if (channel.size() > end) {
+                    System.err.println("Desk journal " + path + ": dropped " + (channel.size() - end) + " bytes of a torn record.");
+                    channel.truncate(end);
+                    channel.force(true);
+                }
+            }
+            syncedTo = end;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // Appends the change and returns once it is on disk
+    public long record(LocalDate day, ChangeEvent event) throws IOException {
+        byte[] json = event.toJson().getBytes(StandardCharsets.UTF_8);
+        if (json.length > MAX_RECORD_BYTES) {
+            throw new IOException("Journal record too large: " + json.length + " bytes");
+        }
+        long sequence;
+        long recordEnd;
+        synchronized (this) {
+            sequence = ++lastSequence;
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + json.length);
+            record.putInt(json.length).putInt(0).putLong(sequence).putLong(day.toEpochDay()).put(json);
+            record.putInt(4, crc(record.array(), 8, record.capacity() - 8));
+            record.flip();
+            writeFully(record, end);
+            end += record.capacity();
+            pending++;
+            recordEnd = end;
+        }
+        sync(recordEnd);
+        return sequence;
+    }
+
+    // Records not yet replayed, oldest first
+    public List<Entry> readPending() throws IOException {
+        long replayed;
+        synchronized (this) {
+            replayed = replayedThrough;
+        }
+        List<Entry> entries = new ArrayList<>();
+        scan(entries);
+        entries.removeIf(entry -> entry.sequence <= replayed);
+        return entries;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    // Every record up to sequence has reached the database
+    public synchronized void markReplayed(long sequence) throws IOException {
+        if (sequence <= replayedThrough) {
+            return;
+        }
+        ByteBuffer value = ByteBuffer.allocate(8).putLong(sequence);
+        value.flip();
+        writeFully(value, REPLAYED_OFFSET);
+        channel.force(false);
+        pending = (int) Math.max(0, pending - (sequence - replayedThrough)); // sequences have no gaps
+        replayedThrough = sequence;
+    }
+
+    // Empties the journal once everything in it is replayed; false when records arrived meanwhile
+    public synchronized boolean clearIfReplayed() throws IOException {
+        if (replayedThrough < lastSequence) {
+            return false;
+        }
+        channel.truncate(HEADER_BYTES);
+        writeHeader(0);
+        end = HEADER_BYTES;
+        lastSequence = 0;
+        replayedThrough = 0;
+        pending = 0;
+        synchronized (syncLock) {
+            syncedTo = HEADER_BYTES;
+        }
+        return true;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DeskJournal[" + path + ", pending=" + pending + ", bytes=" + end + "]";
+    }
+
+    // Group commit: a thread whose record an earlier fsync already covered returns without another
+    private void sync(long upTo) throws IOException {
+        synchronized (syncLock) {
+            if (syncedTo >= upTo) {
+                return;
+            }
+            long target = end; // read before forcing, so everything below it is covered
+            channel.force(false);
+            syncedTo = target;
+        }
+    }
+
+    // Reads every valid record into entries and returns the offset just after the last one. A record still being
+    // appended by another thread fails its length or CRC check and ends the scan.
+    private long scan(List<Entry> entries) throws IOException {
+        long size = channel.size();
+        long position = HEADER_BYTES;
+        LocalDate today = LocalDate.now();
+        while (position + RECORD_HEADER_BYTES <= size) {
+            ByteBuffer header = readFully(position, RECORD_HEADER_BYTES);
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (length < 0 || length > MAX_RECORD_BYTES || position + RECORD_HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(16 + length);
+            record.put(header.array(), 8, 16);
+            record.put(readFully(position + RECORD_HEADER_BYTES, length));
+            if (crc(record.array(), 0, record.capacity()) != crc) {
+                break;
+            }
+            record.flip();
+            long sequence = record.getLong();
+            LocalDate day = LocalDate.ofEpochDay(record.getLong());
+            String json = new String(record.array(), 16, length, StandardCharsets.UTF_8);
+            entries.add(new Entry(sequence, day, ChangeEvent.fromJson(json, today)));
+            position += RECORD_HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private void writeHeader(long replayed) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putLong(replayed);
+        header.flip();
+        writeFully(header, 0);
+        channel.force(true);
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + path);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
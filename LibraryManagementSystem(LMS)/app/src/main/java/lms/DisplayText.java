@@ -0,0 +1,42 @@
+package lms;
+
+import java.time.LocalDate;
+
+// Small direct-mapped caches of cell text. A repaint asks for the same visible cells again and again, and handing
+// the renderer a cached String means painting allocates nothing, where boxing an int or formatting a date would
+// create garbage for every cell on every paint. Only used on the EDT.
+class DisplayText {
+    // Well above the cells on screen, so scrolling back and forth keeps hitting
+    private static final int SLOTS = 4096;
+
+    private final int[] intKeys = new int[SLOTS];
+    private final String[] intTexts = new String[SLOTS];
+    private final long[] dateKeys = new long[SLOTS];
+    private final String[] dateTexts = new String[SLOTS];
+
+    String of(int value) {
+        int slot = value & (SLOTS - 1);
+        String text = intTexts[slot];
+        if (text == null || intKeys[slot] != value) {
+            text = Integer.toString(value);
+            intKeys[slot] = value;
+            intTexts[slot] = text;
+        }
+        return text;
+    }
+
+    String of(LocalDate date) {
+        if (date == null) {
+            return "";
+        }
+        long day = date.toEpochDay();
+        int slot = (int) day & (SLOTS - 1);
+        String text = dateTexts[slot];
+        if (text == null || dateKeys[slot] != day) {
+            text = date.toString();
+            dateKeys[slot] = day;
+            dateTexts[slot] = text;
+        }
+        return text;
+    }
+}
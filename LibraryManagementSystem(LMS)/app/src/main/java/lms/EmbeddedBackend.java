@@ -0,0 +1,53 @@
+package lms;
+
+import java.nio.file.Path;
+
+// In-process H2 database running in MySQL compatibility mode, so the same SQL (LIMIT, ON DUPLICATE KEY UPDATE,
+// AUTO_INCREMENT) works without a server. In-memory databases live until the JVM exits; file databases persist.
+// The tables are created by SchemaMigrations on first use, as on MySQL.
+class EmbeddedBackend implements StorageBackend {
+    // YEAR is a keyword in H2 but a column name here
+    private static final String OPTIONS = ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=YEAR";
+
+    private final String name;
+    private final String url;
+
+    private EmbeddedBackend(String name, String url) {
+        this.name = name;
+        this.url = url;
+    }
+
+    // A private database for this JVM; DB_CLOSE_DELAY keeps it alive while the pool has no open connections
+    static EmbeddedBackend inMemory(String database) {
+        return new EmbeddedBackend("H2 (in-memory)", "jdbc:h2:mem:" + database + OPTIONS + ";DB_CLOSE_DELAY=-1");
+    }
+
+    static EmbeddedBackend file(Path path) {
+        return new EmbeddedBackend("H2 (" + path + ")", "jdbc:h2:file:" + path.toAbsolutePath() + OPTIONS);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getDriverClassName() {
+        return "org.h2.Driver";
+    }
+
+    @Override
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public String getUser() {
+        return "sa";
+    }
+
+    @Override
+    public String getPassword() {
+        return "";
+    }
+}
@@ -0,0 +1,127 @@
+package lms;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+// Fines owed on overdue loans, one fines row per loan (keyed on issued_books.id).
+// A fine is finePerDay for every day past the overdue date. Assessments are upserts that only ever raise the
+// recorded days and amount, so running the same assessment twice, or after the loan was returned, changes nothing.
+class FineLedger {
+    private static final String UPSERT_QUERY = "INSERT INTO fines (issued_id, book_id, registration_number, days_overdue, amount, assessed_on) VALUES (?, ?, ?, ?, ?, ?)"
+            + " ON DUPLICATE KEY UPDATE days_overdue = GREATEST(days_overdue, VALUES(days_overdue)),"
+            + " amount = GREATEST(amount, VALUES(amount)), assessed_on = VALUES(assessed_on)";
+    private static final String LOAN_BY_BOOK_QUERY = "SELECT id, book_id, registration_number, return_date FROM issued_books WHERE book_id = ?";
+    private static final String LOANS_BY_BOOK_QUERY_PREFIX = "SELECT id, book_id, registration_number, return_date FROM issued_books WHERE book_id IN (";
+
+    // The issued_books fields a fine is worked out from
+    static final class Loan {
+        final int issuedId;
+        final int bookId;
+        final String registrationNumber;
+        final LocalDate returnDate;
+
+        Loan(int issuedId, int bookId, String registrationNumber, LocalDate returnDate) {
+            this.issuedId = issuedId;
+            this.bookId = bookId;
+            this.registrationNumber = registrationNumber;
+            this.returnDate = returnDate;
+        }
+    }
+
+    private final BigDecimal finePerDay;
+
+    FineLedger(DatabaseConnection db, BigDecimal finePerDay) {
+        this(ShardMap.single(db), finePerDay);
+    }
+
+    // Fines are written on the branch that owns the loan, through the connection the caller passes in
+    FineLedger(ShardMap shards, BigDecimal finePerDay) {
+        this.finePerDay = finePerDay;
+        for (Shard shard : shards.all()) {
+            shard.db.getStatementRegistry().register("fines.upsert", UPSERT_QUERY);
+            shard.db.getStatementRegistry().register("fines.loanByBook", LOAN_BY_BOOK_QUERY);
+        }
+    }
+
+    static long daysOverdue(Loan loan, LocalDate today) {
+        return Math.max(0, ChronoUnit.DAYS.between(OverdueEngine.overdueDateFor(loan.returnDate), today));
+    }
+
+    // Current loans for the given books; books that are no longer issued are simply absent
+    public List<Loan> readLoans(Connection connection, List<Integer> bookIds) throws SQLException {
+        List<Loan> loans = new ArrayList<>(bookIds.size());
+        if (bookIds.isEmpty()) {
+            return loans;
+        }
+        StringBuilder sql = new StringBuilder(LOANS_BY_BOOK_QUERY_PREFIX);
+        for (int i = 0; i < bookIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+        try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < bookIds.size(); i++) {
+                ps.setInt(i + 1, bookIds.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    loans.add(readLoan(rs));
+                }
+            }
+        }
+        return loans;
+    }
+
+    // Writes fines for the overdue loans among the given ones in a single batch; the caller commits.
+    // Returns how many loans were assessed.
+    public int assess(Connection connection, List<Loan> loans, LocalDate today) throws SQLException {
+        int assessed = 0;
+        try (PreparedStatement ps = connection.prepareStatement(UPSERT_QUERY)) {
+            for (Loan loan : loans) {
+                long days = daysOverdue(loan, today);
+                if (days <= 0) {
+                    continue;
+                }
+                ps.setInt(1, loan.issuedId);
+                ps.setInt(2, loan.bookId);
+                ps.setString(3, loan.registrationNumber);
+                ps.setLong(4, days);
+                ps.setBigDecimal(5, finePerDay.multiply(BigDecimal.valueOf(days)));
+                ps.setDate(6, Date.valueOf(today));
+                ps.addBatch();
+                assessed++;
+            }
+            if (assessed > 0) {
+                ps.executeBatch();
+            }
+        }
+        return assessed;
+    }
+
+    // Settles the fine for a book that is being returned, inside the caller's return transaction,
+    // so days accrued since the last sweep are not lost when the loan row is deleted
+    public void assessOnReturn(Connection connection, int bookId, LocalDate today) throws SQLException {
+        List<Loan> loans = new ArrayList<>(1);
+        try (PreparedStatement ps = connection.prepareStatement(LOAN_BY_BOOK_QUERY)) {
+            ps.setInt(1, bookId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    loans.add(readLoan(rs));
+                }
+            }
+        }
+        assess(connection, loans, today);
+    }
+
+    private static Loan readLoan(ResultSet rs) throws SQLException {
+        return new Loan(rs.getInt("id"), rs.getInt("book_id"), rs.getString("registration_number"),
+                rs.getDate("return_date").toLocalDate());
+    }
+}
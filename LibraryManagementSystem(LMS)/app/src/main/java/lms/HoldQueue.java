@@ -0,0 +1,227 @@
+package lms;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Holds on issued books: for each book, the students waiting for it, first come first served. The queue is the
+// holds table on the branch that owns the book, and every method works inside the caller's transaction
+// (BookManager), so a return promotes the next student in the commit that frees the copy, and an issue collects
+// the hold in the commit that lends the book. Every transaction that changes a book's queue first locks the book
+// row, which orders them without locking the queue itself. Only the oldest hold is ever promoted, so the head
+// of the queue (lowest id) is the hold the copy is kept for, if any, or else the next one to serve: placing a
+// hold appends one row, and promoting or collecting one reads a single entry of idx_holds_queue, however long
+// the queue is.
+// A promoted hold keeps the copy for its student until pickup_by; HoldSweeper passes on the ones not collected.
+class HoldQueue {
+    static final String PICKUP_DAYS_PROPERTY = "lms.holdPickupDays";
+    static final int DEFAULT_PICKUP_DAYS = 3;
+    private static final String HOLD_COLUMNS = "SELECT id, book_id, registration_number, student_name, placed_on, ready_on, pickup_by FROM holds";
+    private static final String PLACE_QUERY = "INSERT INTO holds (book_id, registration_number, student_name, placed_on) VALUES (?, ?, ?, ?)";
+    private static final String LOCK_BOOK_QUERY = "SELECT id FROM books WHERE id = ? FOR UPDATE";
+    private static final String HEAD_QUERY = HOLD_COLUMNS + " WHERE book_id = ? ORDER BY id LIMIT 1";
+    private static final String FIND_QUERY = HOLD_COLUMNS + " WHERE book_id = ? AND registration_number = ?";
+    private static final String QUEUE_QUERY = HOLD_COLUMNS + " WHERE book_id = ? ORDER BY id";
+    private static final String PROMOTE_QUERY = "UPDATE holds SET ready_on = ?, pickup_by = ? WHERE id = ?";
+    private static final String REMOVE_QUERY = "DELETE FROM holds WHERE id = ?";
+    private static final String EXPIRED_QUERY = HOLD_COLUMNS + " WHERE pickup_by < ? ORDER BY pickup_by, id LIMIT ?";
+    // Conditional, so a hold collected since the sweep read it is left alone
+    private static final String EXPIRE_QUERY = "DELETE FROM holds WHERE id = ? AND pickup_by < ?";
+
+    // One student's place in a book's queue; readyOn and pickupBy are set once the copy is kept for them
+    static final class Hold {
+        final long id;
+        final int bookId;
+        final String registrationNumber;
+        final String studentName;
+        final LocalDate placedOn;
+        final LocalDate readyOn;
+        final LocalDate pickupBy;
+
+        Hold(long id, int bookId, String registrationNumber, String studentName, LocalDate placedOn,
+             LocalDate readyOn, LocalDate pickupBy) {
+            this.id = id;
+            this.bookId = bookId;
+            this.registrationNumber = registrationNumber;
+            this.studentName = studentName;
+            this.placedOn = placedOn;
+            this.readyOn = readyOn;
+            this.pickupBy = pickupBy;
+        }
+
+        boolean isReady() {
+            return readyOn != null;
+        }
+
+        @Override
+        public String toString() {
+            return "Book " + bookId + " held for " + studentName + " (" + registrationNumber + ")"
+                    + (isReady() ? " until " + pickupBy : ", waiting since " + placedOn);
+        }
+    }
+
+    private final int pickupDays;
+
+    HoldQueue(DatabaseConnection db, int pickupDays) {
+        this(ShardMap.single(db), pickupDays);
+    }
+
+    // Holds are written on the branch that owns the book, through the connection the caller passes in
+    HoldQueue(ShardMap shards, int pickupDays) {
+        if (pickupDays <= 0) {
+            throw new IllegalArgumentException("Pickup days must be positive: " + pickupDays);
+        }
+        this.pickupDays = pickupDays;
+        for (Shard shard : shards.all()) {
+            StatementRegistry statements = shard.db.getStatementRegistry();
+            statements.register("holds.place", PLACE_QUERY);
+            statements.register("holds.lockBook", LOCK_BOOK_QUERY);
+            statements.register("holds.head", HEAD_QUERY);
+            statements.register("holds.find", FIND_QUERY);
+            statements.register("holds.queue", QUEUE_QUERY);
+            statements.register("holds.promote", PROMOTE_QUERY);
+            statements.register("holds.remove", REMOVE_QUERY);
+            statements.register("holds.expired", EXPIRED_QUERY);
+            statements.register("holds.expire", EXPIRE_QUERY);
+        }
+    }
+
+    // The pickup time set with -Dlms.holdPickupDays, DEFAULT_PICKUP_DAYS days by default
+    static HoldQueue fromSystemProperties(ShardMap shards) {
+        return new HoldQueue(shards, Integer.getInteger(PICKUP_DAYS_PROPERTY, DEFAULT_PICKUP_DAYS));
+    }
+
+    public int getPickupDays() {
+        return pickupDays;
+    }
+
+    // Locks the book row until the caller commits, before anything else in the transaction reads, so the queue
+    // it then sees stays as it is; false when the book does not exist
+    public boolean lockBook(Connection connection, int bookId) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(LOCK_BOOK_QUERY)) {
+            ps.setInt(1, bookId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    // Adds the student to the end of the book's queue. A second hold by the same student on the same book
+    // violates the (book_id, registration_number) key and is left to the caller to report.
+    public Hold place(Connection connection, int bookId, String registrationNumber, String studentName, LocalDate today) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(PLACE_QUERY, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setInt(1, bookId);
+            ps.setString(2, registrationNumber);
+            ps.setString(3, studentName);
+            ps.setDate(4, Date.valueOf(today));
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("No ID generated for the hold on book " + bookId);
+                }
+                return new Hold(keys.getLong(1), bookId, registrationNumber, studentName, today, null, null);
+            }
+        }
+    }
+
+    // The hold the book's copy is being kept for; null when there is none
+    public Hold readyHold(Connection connection, int bookId) throws SQLException {
+        Hold head = readOne(connection, HEAD_QUERY, bookId, null);
+        return head != null && head.isReady() ? head : null;
+    }
+
+    // The student's hold on the book; null when there is none
+    public Hold find(Connection connection, int bookId, String registrationNumber) throws SQLException {
+        return readOne(connection, FIND_QUERY, bookId, registrationNumber);
+    }
+
+    // Keeps the copy for the first student waiting, who has pickupDays from today to collect it. Returns that
+    // hold, or null when nobody is waiting and the copy goes back on the shelf. A copy already kept for someone
+    // stays theirs.
+    public Hold promoteNext(Connection connection, int bookId, LocalDate today) throws SQLException {
+        Hold next = readOne(connection, HEAD_QUERY, bookId, null);
+        if (next == null || next.isReady()) {
+            return next;
+        }
+        LocalDate pickupBy = today.plusDays(pickupDays);
+        try (PreparedStatement ps = connection.prepareStatement(PROMOTE_QUERY)) {
+            ps.setDate(1, Date.valueOf(today));
+            ps.setDate(2, Date.valueOf(pickupBy));
+            ps.setLong(3, next.id);
+            ps.executeUpdate();
+        }
+        return new Hold(next.id, bookId, next.registrationNumber, next.studentName, next.placedOn, today, pickupBy);
+    }
+
+    // Drops a hold that was collected or cancelled
+    public void remove(Connection connection, Hold hold) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(REMOVE_QUERY)) {
+            ps.setLong(1, hold.id);
+            ps.executeUpdate();
+        }
+    }
+
+    // The book's queue in the order it is served: the ready hold first, if any, then the waiting ones
+    public List<Hold> readQueue(Connection connection, int bookId) throws SQLException {
+        List<Hold> queue = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(QUEUE_QUERY)) {
+            ps.setInt(1, bookId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    queue.add(readHold(rs));
+                }
+            }
+        }
+        return queue;
+    }
+
+    // Up to limit ready holds whose pickup date has passed, oldest first
+    public List<Hold> readExpired(Connection connection, LocalDate today, int limit) throws SQLException {
+        List<Hold> expired = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(EXPIRED_QUERY)) {
+            ps.setDate(1, Date.valueOf(today));
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    expired.add(readHold(rs));
+                }
+            }
+        }
+        return expired;
+    }
+
+    // Drops a hold that was not collected in time; false when it was collected or cancelled meanwhile
+    public boolean expire(Connection connection, Hold hold, LocalDate today) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(EXPIRE_QUERY)) {
+            ps.setLong(1, hold.id);
+            ps.setDate(2, Date.valueOf(today));
+            return ps.executeUpdate() > 0;
+        }
+    }
+
+    private static Hold readOne(Connection connection, String sql, int bookId, String registrationNumber) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setInt(1, bookId);
+            if (registrationNumber != null) {
+                ps.setString(2, registrationNumber);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? readHold(rs) : null;
+            }
+        }
+    }
+
+    private static Hold readHold(ResultSet rs) throws SQLException {
+        Date readyOn = rs.getDate("ready_on");
+        Date pickupBy = rs.getDate("pickup_by");
+        return new Hold(rs.getLong("id"), rs.getInt("book_id"), rs.getString("registration_number"),
+                rs.getString("student_name"), rs.getDate("placed_on").toLocalDate(),
+                readyOn == null ? null : readyOn.toLocalDate(), pickupBy == null ? null : pickupBy.toLocalDate());
+    }
+}
@@ -0,0 +1,124 @@
+package lms;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Periodically drops holds that were not collected by their pickup date and keeps each copy for the next student
+// waiting, on a background thread. Expired holds are read chunkSize at a time from idx_holds_pickup on every
+// branch; each one is expired and its successor promoted in a short transaction of its own, so a collection or a
+// cancellation at the desk never waits on the sweep for long. Each copy passed on or put back on the shelf is
+// announced on the change bus once its transaction commits.
+class HoldSweeper {
+    // Outcome of one sweep, handed to the listener
+    static final class SweepResult {
+        final LocalDate day;
+        final int expired;
+        final List<HoldQueue.Hold> promoted; // the students who now have a copy waiting
+        final long elapsedMillis;
+
+        SweepResult(LocalDate day, int expired, List<HoldQueue.Hold> promoted, long elapsedMillis) {
+            this.day = day;
+            this.expired = expired;
+            this.promoted = Collections.unmodifiableList(promoted);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Hold sweep " + day + ": " + expired + " expired, " + promoted.size() + " passed on in " + elapsedMillis + " ms";
+        }
+    }
+
+    private final ShardMap shards;
+    private final HoldQueue holds;
+    private final OverdueEngine overdueEngine; // for today's date
+    private final ChangeBus changes;
+    private final int chunkSize;
+    // Called on the sweeper thread; UI listeners must hop to the EDT themselves
+    private final Consumer<SweepResult> listener;
+    private ScheduledExecutorService scheduler;
+
+    HoldSweeper(ShardMap shards, HoldQueue holds, OverdueEngine overdueEngine, ChangeBus changes, int chunkSize,
+                Consumer<SweepResult> listener) {
+        this.shards = shards;
+        this.holds = holds;
+        this.overdueEngine = overdueEngine;
+        this.changes = changes;
+        this.chunkSize = chunkSize;
+        this.listener = listener;
+    }
+
+    public synchronized void start(long initialDelayMillis, long periodMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lms-hold-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                listener.accept(sweep());
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Hold sweep failed: " + e.getMessage());
+            }
+        }, initialDelayMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs one sweep now
+    public SweepResult sweep() throws SQLException {
+        long start = System.nanoTime();
+        LocalDate today = overdueEngine.today();
+        int expired = 0;
+        List<HoldQueue.Hold> promoted = new ArrayList<>();
+        for (Shard shard : shards.all()) {
+            try (Connection connection = shard.db.getConnection()) {
+                List<HoldQueue.Hold> chunk;
+                do {
+                    connection.setAutoCommit(true);
+                    chunk = holds.readExpired(connection, today, chunkSize);
+                    connection.setAutoCommit(false);
+                    for (HoldQueue.Hold hold : chunk) {
+                        boolean wasExpired;
+                        HoldQueue.Hold next = null;
+                        try {
+                            holds.lockBook(connection, hold.bookId);
+                            wasExpired = holds.expire(connection, hold, today);
+                            if (wasExpired) {
+                                next = holds.promoteNext(connection, hold.bookId, today);
+                            }
+                            connection.commit();
+                        } catch (SQLException | RuntimeException e) {
+                            connection.rollback();
+                            throw e;
+                        }
+                        if (wasExpired) {
+                            expired++;
+                            if (next != null) {
+                                promoted.add(next);
+                            }
+                            changes.publish(next != null ? ChangeEvent.bookHeld(next) : ChangeEvent.bookReleased(hold.bookId));
+                        }
+                    }
+                } while (chunk.size() == chunkSize);
+            }
+        }
+        return new SweepResult(today, expired, promoted, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
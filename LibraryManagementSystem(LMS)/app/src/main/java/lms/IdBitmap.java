@@ -0,0 +1,89 @@
+package lms;
+
+import java.util.Arrays;
+
+// A set of non-negative int IDs as a bitmap cut into pages of 65536 bits (8 KB), allocated only where IDs are set.
+// A plain BitSet indexed by ID costs memory up to the highest ID ever set, about 256 MB for an ID near
+// Integer.MAX_VALUE; here that ID costs one page plus a page directory of at most 128 KB. Not thread-safe.
+class IdBitmap {
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_WORDS = (1 << PAGE_SHIFT) / 64;
+    private static final int IN_PAGE = (1 << PAGE_SHIFT) - 1;
+
+    private long[][] pages = new long[0][];
+
+    boolean get(int id) {
+        long[] page = id < 0 ? null : page(id >>> PAGE_SHIFT);
+        return page != null && (page[(id & IN_PAGE) >>> 6] & (1L << id)) != 0;
+    }
+
+    void set(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative ID: " + id);
+        }
+        int index = id >>> PAGE_SHIFT;
+        if (index >= pages.length) {
+            pages = Arrays.copyOf(pages, index + 1);
+        }
+        if (pages[index] == null) {
+            pages[index] = new long[PAGE_WORDS];
+        }
+        pages[index][(id & IN_PAGE) >>> 6] |= 1L << id;
+    }
+
+    void clear(int id) {
+        long[] page = id < 0 ? null : page(id >>> PAGE_SHIFT);
+        if (page != null) {
+            page[(id & IN_PAGE) >>> 6] &= ~(1L << id);
+        }
+    }
+
+    void set(int id, boolean value) {
+        if (value) {
+            set(id);
+        } else {
+            clear(id);
+        }
+    }
+
+    // The first ID at or above from that is set, or -1
+    int nextSetBit(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        for (int index = from >>> PAGE_SHIFT; index < pages.length; index++) {
+            long[] page = pages[index];
+            if (page == null) {
+                continue;
+            }
+            int start = index == from >>> PAGE_SHIFT ? from & IN_PAGE : 0;
+            int word = start >>> 6;
+            long bits = page[word] & (-1L << start);
+            while (true) {
+                if (bits != 0) {
+                    return (index << PAGE_SHIFT) + word * 64 + Long.numberOfTrailingZeros(bits);
+                }
+                if (++word == PAGE_WORDS) {
+                    break;
+                }
+                bits = page[word];
+            }
+        }
+        return -1;
+    }
+
+    // Bytes held by pages, for reports
+    long allocatedBytes() {
+        long bytes = 0;
+        for (long[] page : pages) {
+            if (page != null) {
+                bytes += 8L * PAGE_WORDS;
+            }
+        }
+        return bytes;
+    }
+
+    private long[] page(int index) {
+        return index < pages.length ? pages[index] : null;
+    }
+}
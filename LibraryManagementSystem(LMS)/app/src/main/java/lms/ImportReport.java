@@ -0,0 +1,85 @@
+package lms;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Outcome of a bulk load: how many books went in, and which rows were rejected and why
+class ImportReport {
+    // Rejected rows beyond this are counted but not kept, so a bad file cannot exhaust the heap
+    private static final int MAX_KEPT_REJECTS = 10000;
+
+    static final class Reject {
+        final String source;
+        final String reason;
+
+        Reject(String source, String reason) {
+            this.source = source;
+            this.reason = reason;
+        }
+    }
+
+    private int imported;
+    private int rejectedCount;
+    private String failure;
+    private final List<Reject> rejects = new ArrayList<>();
+
+    synchronized void recordImported(int count) {
+        imported += count;
+    }
+
+    synchronized void reject(String source, String reason) {
+        rejectedCount++;
+        if (rejects.size() < MAX_KEPT_REJECTS) {
+            rejects.add(new Reject(source, reason));
+        }
+    }
+
+    // The load stopped early (e.g. the connection dropped); rows committed before that stay in
+    synchronized void fail(String reason) {
+        failure = reason;
+    }
+
+    public synchronized String getFailure() {
+        return failure;
+    }
+
+    public synchronized int getImported() {
+        return imported;
+    }
+
+    public synchronized int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public synchronized List<Reject> getRejects() {
+        return Collections.unmodifiableList(new ArrayList<>(rejects));
+    }
+
+    public synchronized void writeRejects(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("source,reason");
+            out.newLine();
+            for (Reject reject : rejects) {
+                out.write(CsvBookImporter.quote(reject.source) + "," + CsvBookImporter.quote(reject.reason));
+                out.newLine();
+            }
+            if (rejectedCount > rejects.size()) {
+                out.write(CsvBookImporter.quote("(truncated)") + ","
+                        + CsvBookImporter.quote((rejectedCount - rejects.size()) + " more rejected rows not listed"));
+                out.newLine();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        String summary = "Imported " + imported + " book(s), rejected " + rejectedCount + ".";
+        return failure == null ? summary : summary + " " + failure;
+    }
+}
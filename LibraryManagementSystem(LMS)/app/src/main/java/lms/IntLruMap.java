@@ -0,0 +1,204 @@
+package lms;
+
+import java.util.Arrays;
+
+// Map from int keys to values that drops the least recently used entry once it holds maxEntries, without boxing a
+// key per entry or per lookup. Entries live in parallel arrays and are chained in access order; an open-addressing
+// table with linear probing maps a key to its entry, and removal shifts later keys back instead of leaving
+// tombstones. Not thread-safe: CatalogCache guards each map with its own lock.
+class IntLruMap<V> {
+    private static final int NONE = -1;
+    private static final int MIN_TABLE = 16;
+
+    private final int maxEntries;
+    private int[] table = new int[MIN_TABLE]; // entry + 1 for each slot, 0 when the slot is empty
+    private int[] keys = new int[MIN_TABLE / 2];
+    private Object[] values = new Object[MIN_TABLE / 2];
+    private int[] older = new int[MIN_TABLE / 2];
+    private int[] newer = new int[MIN_TABLE / 2];
+    private int eldest = NONE;
+    private int youngest = NONE;
+    private int freeEntries = NONE; // removed entries, chained through newer
+    private int entriesUsed; // entries ever handed out; the rest of the arrays is untouched
+    private int size;
+
+    IntLruMap(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean containsKey(int key) {
+        return slotOf(key) >= 0;
+    }
+
+    // The value, now the most recently used; null when absent
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return null;
+        }
+        int entry = table[slot] - 1;
+        unlink(entry);
+        linkYoungest(entry);
+        return (V) values[entry];
+    }
+
+    // Adds or replaces the value as the most recently used; returns true when the eldest entry made way for it
+    boolean put(int key, V value) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            int entry = table[slot] - 1;
+            values[entry] = value;
+            unlink(entry);
+            linkYoungest(entry);
+            return false;
+        }
+        boolean evicted = false;
+        if (size == maxEntries) {
+            remove(keys[eldest]);
+            evicted = true;
+        }
+        if ((size + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        int entry = newEntry();
+        keys[entry] = key;
+        values[entry] = value;
+        linkYoungest(entry);
+        insert(entry);
+        size++;
+        return evicted;
+    }
+
+    // Replaces the value of a present key without making it more recently used; false when absent
+    boolean replace(int key, V value) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return false;
+        }
+        values[table[slot] - 1] = value;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return null;
+        }
+        int entry = table[slot] - 1;
+        deleteSlot(slot);
+        unlink(entry);
+        V value = (V) values[entry];
+        values[entry] = null;
+        newer[entry] = freeEntries;
+        freeEntries = entry;
+        size--;
+        return value;
+    }
+
+    // Every key, least recently used first
+    int[] keys() {
+        int[] result = new int[size];
+        int i = 0;
+        for (int entry = eldest; entry != NONE; entry = newer[entry]) {
+            result[i++] = keys[entry];
+        }
+        return result;
+    }
+
+    private int newEntry() {
+        if (freeEntries != NONE) {
+            int entry = freeEntries;
+            freeEntries = newer[entry];
+            return entry;
+        }
+        if (entriesUsed == keys.length) {
+            int capacity = (int) Math.min((long) keys.length * 2, maxEntries);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            older = Arrays.copyOf(older, capacity);
+            newer = Arrays.copyOf(newer, capacity);
+        }
+        return entriesUsed++;
+    }
+
+    private void linkYoungest(int entry) {
+        older[entry] = youngest;
+        newer[entry] = NONE;
+        if (youngest == NONE) {
+            eldest = entry;
+        } else {
+            newer[youngest] = entry;
+        }
+        youngest = entry;
+    }
+
+    private void unlink(int entry) {
+        if (older[entry] == NONE) {
+            eldest = newer[entry];
+        } else {
+            newer[older[entry]] = newer[entry];
+        }
+        if (newer[entry] == NONE) {
+            youngest = older[entry];
+        } else {
+            older[newer[entry]] = older[entry];
+        }
+    }
+
+    // The slot holding key, or -1
+    private int slotOf(int key) {
+        int mask = table.length - 1;
+        for (int slot = home(key, mask); table[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[table[slot] - 1] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(int entry) {
+        int mask = table.length - 1;
+        int slot = home(keys[entry], mask);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry + 1;
+    }
+
+    // Empties the slot and moves back any later key of the same run that could no longer be found past the gap
+    private void deleteSlot(int slot) {
+        int mask = table.length - 1;
+        table[slot] = 0;
+        for (int next = (slot + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = home(keys[table[next] - 1], mask);
+            // The key stays put when its home lies cyclically in (slot, next]
+            boolean reachable = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+            if (!reachable) {
+                table[slot] = table[next];
+                table[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int entry = eldest; entry != NONE; entry = newer[entry]) {
+            insert(entry);
+        }
+    }
+
+    private static int home(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
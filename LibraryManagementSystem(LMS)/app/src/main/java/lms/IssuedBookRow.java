@@ -0,0 +1,30 @@
+package lms;
+
+import java.time.LocalDate;
+
+// One row of the "View Issued Books" table
+class IssuedBookRow {
+    final int id;
+    final int bookId;
+    final String title;
+    final String studentName;
+    final String registrationNumber;
+    final LocalDate issueDate;
+    final LocalDate returnDate;
+    final LocalDate overdueDate;
+    // Worked out once when the row is read so the renderer does no date work while painting
+    final boolean overdue;
+
+    IssuedBookRow(int id, int bookId, String title, String studentName, String registrationNumber,
+                  LocalDate issueDate, LocalDate returnDate, LocalDate overdueDate, boolean overdue) {
+        this.id = id;
+        this.bookId = bookId;
+        this.title = title;
+        this.studentName = studentName;
+        this.registrationNumber = registrationNumber;
+        this.issueDate = issueDate;
+        this.returnDate = returnDate;
+        this.overdueDate = overdueDate;
+        this.overdue = overdue;
+    }
+}
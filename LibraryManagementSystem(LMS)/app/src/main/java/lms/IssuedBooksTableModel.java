@@ -0,0 +1,36 @@
+package lms;
+
+// Paged model behind the "View Issued Books" table, keyed on the book ID (unique among open loans, and across
+// branches, unlike issued_books.id). Ids and dates are served as cached text so repainting does not box or format.
+class IssuedBooksTableModel extends KeysetTableModel<IssuedBookRow> {
+    static final String[] COLUMNS = {"ID", "Book ID", "Title", "Student Name", "Reg No", "Issue Date", "Return Date", "Overdue Date"};
+
+    private final DisplayText text = new DisplayText();
+
+    IssuedBooksTableModel(PageFetcher<IssuedBookRow> fetcher) {
+        super(COLUMNS, fetcher);
+    }
+
+    @Override
+    protected int keyOf(IssuedBookRow row) {
+        return row.bookId;
+    }
+
+    @Override
+    protected Object columnValue(IssuedBookRow row, int column) {
+        switch (column) {
+            case 0: return text.of(row.id);
+            case 1: return text.of(row.bookId);
+            case 2: return row.title;
+            case 3: return row.studentName;
+            case 4: return row.registrationNumber;
+            case 5: return text.of(row.issueDate);
+            case 6: return text.of(row.returnDate);
+            default: return text.of(row.overdueDate);
+        }
+    }
+
+    public void removeBook(int bookId) {
+        removeKey(bookId);
+    }
+}
@@ -0,0 +1,18 @@
+package lms;
+
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.Color;
+import java.awt.Component;
+
+// Paints overdue loans in red using the flag computed when each row was loaded
+class IssuedBooksTableRenderer extends DefaultTableCellRenderer {
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                   boolean hasFocus, int row, int column) {
+        Component cell = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+        IssuedBookRow loan = ((IssuedBooksTableModel) table.getModel()).getRow(table.convertRowIndexToModel(row));
+        cell.setForeground(loan.overdue ? Color.RED : Color.BLACK);
+        return cell;
+    }
+}
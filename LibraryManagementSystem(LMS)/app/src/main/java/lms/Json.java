@@ -0,0 +1,243 @@
+package lms;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough JSON for the HTTP API: an object writer and a parser for flat request objects
+// (string, number, boolean and null values). Nested objects and arrays in requests are rejected.
+final class Json {
+    private Json() {
+    }
+
+    // Builds one JSON object; values are written as they are put
+    static final class ObjectWriter {
+        private final StringBuilder sb = new StringBuilder("{");
+
+        ObjectWriter put(String name, String value) {
+            key(name);
+            if (value == null) {
+                sb.append("null");
+            } else {
+                quote(sb, value);
+            }
+            return this;
+        }
+
+        ObjectWriter put(String name, long value) {
+            key(name);
+            sb.append(value);
+            return this;
+        }
+
+        ObjectWriter put(String name, double value) {
+            key(name);
+            sb.append(Double.isFinite(value) ? Double.toString(value) : "null");
+            return this;
+        }
+
+        ObjectWriter put(String name, boolean value) {
+            key(name);
+            sb.append(value);
+            return this;
+        }
+
+        // json must already be JSON (an object or array built elsewhere)
+        ObjectWriter putRaw(String name, String json) {
+            key(name);
+            sb.append(json);
+            return this;
+        }
+
+        private void key(String name) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            quote(sb, name);
+            sb.append(':');
+        }
+
+        @Override
+        public String toString() {
+            return sb + "}";
+        }
+    }
+
+    static ObjectWriter object() {
+        return new ObjectWriter();
+    }
+
+    // elements must already be JSON
+    static String array(List<String> elements) {
+        return "[" + String.join(",", elements) + "]";
+    }
+
+    static void quote(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    // Parses {"name": value, ...}; numbers come back as Long or Double
+    static Map<String, Object> parseObject(String text) {
+        Parser parser = new Parser(text);
+        parser.skipWhitespace();
+        Map<String, Object> result = parser.object();
+        parser.skipWhitespace();
+        if (parser.pos != text.length()) {
+            throw parser.error("unexpected trailing content");
+        }
+        return result;
+    }
+
+    private static final class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Map<String, Object> object() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return result;
+            }
+            while (true) {
+                skipWhitespace();
+                String name = string();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                result.put(name, value());
+                skipWhitespace();
+                char c = next();
+                if (c == '}') {
+                    return result;
+                }
+                if (c != ',') {
+                    throw error("expected ',' or '}'");
+                }
+            }
+        }
+
+        private Object value() {
+            char c = peek();
+            if (c == '"') {
+                return string();
+            }
+            if (text.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            }
+            if (text.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            }
+            if (text.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                return number();
+            }
+            throw error("unsupported value");
+        }
+
+        private Object number() {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            try {
+                return literal.indexOf('.') >= 0 || literal.indexOf('e') >= 0 || literal.indexOf('E') >= 0
+                        ? (Object) Double.valueOf(literal) : (Object) Long.valueOf(literal);
+            } catch (NumberFormatException e) {
+                throw error("bad number " + literal);
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("bad unicode escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("bad unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default: sb.append(escaped); // \" \\ \/
+                }
+            }
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            if (pos >= text.length()) {
+                throw error("unexpected end of input");
+            }
+            return text.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw error("expected '" + c + "'");
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid JSON at position " + pos + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package lms;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+// Table model that pulls rows lazily in pages using keyset pagination (WHERE key > ? ORDER BY key LIMIT ?)
+// and accepts single-row changes after a mutation instead of rebuilding the whole model.
+// Rows are kept in ascending key order, or descending for newest-first views; all methods must be called on the EDT.
+abstract class KeysetTableModel<R> extends AbstractTableModel {
+    // Loads up to limit rows that come after afterKey in the model's order (key > afterKey, or key < afterKey
+    // when descending), ordered the same way
+    interface PageFetcher<R> {
+        CompletableFuture<List<R>> fetch(int afterKey, int limit);
+    }
+
+    static final int PAGE_SIZE = 500;
+    // Page size while loading everything for a sort or filter: fewer round trips, and the view is not waiting on it
+    static final int BULK_PAGE_SIZE = 5000;
+    private static final int PREFETCH_MARGIN = 100;
+
+    private final String[] columns;
+    private final PageFetcher<R> fetcher;
+    private final boolean descending;
+    private final RowStore<R> rows;
+    private int lastKey;
+    private boolean exhausted;
+    private boolean loading;
+    private boolean failed;
+    private boolean loadAll;
+    private int generation;
+    private Runnable loadedListener;
+
+    protected KeysetTableModel(String[] columns, PageFetcher<R> fetcher) {
+        this(columns, fetcher, false);
+    }
+
+    protected KeysetTableModel(String[] columns, PageFetcher<R> fetcher, boolean descending) {
+        this(columns, fetcher, descending, null);
+    }
+
+    // A null store keeps the rows in a list
+    protected KeysetTableModel(String[] columns, PageFetcher<R> fetcher, boolean descending, RowStore<R> store) {
+        this.columns = columns;
+        this.fetcher = fetcher;
+        this.descending = descending;
+        this.rows = store != null ? store : new ListStore();
+        this.lastKey = startKey();
+    }
+
+    protected abstract int keyOf(R row);
+
+    protected abstract Object columnValue(R row, int column);
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        // Fetch the next window once the viewport gets close to the end of what is loaded
+        if (rowIndex >= rows.size() - PREFETCH_MARGIN) {
+            loadNextPage();
+        }
+        return rows.valueAt(rowIndex, columnIndex);
+    }
+
+    public R getRow(int rowIndex) {
+        return rows.get(rowIndex);
+    }
+
+    // Drops everything loaded so far and starts again from the first page
+    public void reload() {
+        generation++;
+        int oldSize = rows.size();
+        lastKey = startKey();
+        exhausted = false;
+        loading = false;
+        failed = false;
+        rows.clear();
+        if (oldSize > 0) {
+            fireTableRowsDeleted(0, oldSize - 1);
+        }
+        loadNextPage();
+    }
+
+    // While on, pages keep being fetched (BULK_PAGE_SIZE at a time) until every row is loaded, also after a
+    // reload; sorting or filtering is only meaningful over the whole result
+    public void setLoadAll(boolean loadAll) {
+        this.loadAll = loadAll;
+        if (loadAll) {
+            loadNextPage();
+        }
+    }
+
+    public boolean isFullyLoaded() {
+        return exhausted;
+    }
+
+    // Run once the last page has arrived, after its rows are announced; null for none
+    public void setLoadedListener(Runnable listener) {
+        this.loadedListener = listener;
+    }
+
+    // Inserts or replaces a row. Rows beyond the loaded window are skipped; they arrive with a later page.
+    public void upsert(R row) {
+        int key = keyOf(row);
+        int index = indexOfKey(key);
+        if (index >= 0) {
+            rows.set(index, row);
+            fireTableRowsUpdated(index, index);
+        } else if (exhausted || compareKeys(key, lastKey) <= 0) {
+            int insertAt = -index - 1;
+            rows.add(insertAt, row);
+            fireTableRowsInserted(insertAt, insertAt);
+        }
+    }
+
+    public void removeKey(int key) {
+        int index = indexOfKey(key);
+        if (index >= 0) {
+            removeRow(index);
+        }
+    }
+
+    // Removes every loaded row matching the predicate
+    protected void removeWhere(Predicate<R> predicate) {
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            if (predicate.test(rows.get(i))) {
+                removeRow(i);
+            }
+        }
+    }
+
+    protected void removeRow(int index) {
+        rows.remove(index);
+        fireTableRowsDeleted(index, index);
+    }
+
+    protected void replaceRow(int index, R row) {
+        rows.set(index, row);
+        fireTableRowsUpdated(index, index);
+    }
+
+    // Binary search over the loaded rows; returns -(insertion point) - 1 when absent
+    protected int indexOfKey(int key) {
+        int low = 0;
+        int high = rows.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareKeys(rows.keyAt(mid), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // Keys before every real key in model order: ids start at 1, and a descending view starts above all of them
+    private int startKey() {
+        return descending ? Integer.MAX_VALUE : 0;
+    }
+
+    private int compareKeys(int a, int b) {
+        return descending ? Integer.compare(b, a) : Integer.compare(a, b);
+    }
+
+    private void loadNextPage() {
+        if (loading || exhausted || failed) {
+            return;
+        }
+        loading = true;
+        int requestGeneration = generation;
+        int limit = loadAll ? BULK_PAGE_SIZE : PAGE_SIZE;
+        AsyncBookManager.onEdt(fetcher.fetch(lastKey, limit), page -> {
+            if (requestGeneration != generation) {
+                return; // a reload happened while this page was in flight
+            }
+            loading = false;
+            appendPage(page, limit);
+            if (loadAll) {
+                loadNextPage();
+            }
+        }, error -> {
+            if (requestGeneration != generation) {
+                return;
+            }
+            loading = false;
+            failed = true;
+            JOptionPane.showMessageDialog(null, "Error while loading rows: " + error.getMessage(),
+                    "Database Error", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+
+    private void appendPage(List<R> page, int limit) {
+        if (page.size() < limit) {
+            exhausted = true;
+        }
+        if (!page.isEmpty()) {
+            // Every key in the page comes after lastKey, and deltas only land at or before it, so appending keeps order
+            int first = rows.size();
+            rows.addAll(page);
+            lastKey = keyOf(page.get(page.size() - 1));
+            fireTableRowsInserted(first, rows.size() - 1);
+        }
+        if (exhausted && loadedListener != null) {
+            loadedListener.run();
+        }
+    }
+
+    private class ListStore implements RowStore<R> {
+        private final List<R> list = new ArrayList<>();
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+
+        @Override
+        public R get(int index) {
+            return list.get(index);
+        }
+
+        @Override
+        public int keyAt(int index) {
+            return keyOf(list.get(index));
+        }
+
+        @Override
+        public Object valueAt(int index, int column) {
+            return columnValue(list.get(index), column);
+        }
+
+        @Override
+        public void add(int index, R row) {
+            list.add(index, row);
+        }
+
+        @Override
+        public void set(int index, R row) {
+            list.set(index, row);
+        }
+
+        @Override
+        public void remove(int index) {
+            list.remove(index);
+        }
+
+        @Override
+        public void addAll(List<R> page) {
+            list.addAll(page);
+        }
+
+        @Override
+        public void clear() {
+            list.clear();
+        }
+    }
+}
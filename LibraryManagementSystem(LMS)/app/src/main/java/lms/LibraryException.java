@@ -0,0 +1,28 @@
+package lms;
+
+// Failure of a BookManager operation. The reason lets each front end (Swing dialogs, the HTTP API)
+// present it its own way; the message is written for the person at the desk.
+class LibraryException extends Exception {
+    enum Reason {
+        INVALID,     // the request itself is bad (missing fields, non-positive IDs)
+        NOT_FOUND,   // no such book
+        CONFLICT,    // the book exists but is in the wrong state (already issued, not issued, duplicate ID)
+        UNAVAILABLE  // the database failed
+    }
+
+    private final Reason reason;
+
+    public LibraryException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public LibraryException(Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
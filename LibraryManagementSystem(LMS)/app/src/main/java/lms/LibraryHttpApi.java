@@ -0,0 +1,610 @@
+package lms;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// HTTP/JSON front end for BookManager, so desk terminals, kiosks and self-checkout stations can share one process.
+// Built on the JDK HttpServer: every response is sent with a fixed length, so HTTP/1.1 clients keep their
+// connections open between requests. Latency is recorded per route and served with the pool, operation, statement
+// and slow-query statistics at /api/metrics.
+//
+//   GET    /api/books?after=0&limit=100     page of the catalog, by ID, across every branch
+//   GET    /api/books?branch=north&after=0  the same, for one branch's books only
+//   GET    /api/books/search?q=...&limit=   ranked type-ahead search
+//   GET    /api/books/{id}
+//   POST   /api/books                       {"id", "title", "author", "publisher", "year"}
+//   DELETE /api/books/{id}
+//   GET    /api/loans?after=0&limit=100     page of issued books, by book ID
+//   GET    /api/loans/{bookId}
+//   POST   /api/loans                       {"bookId", "studentName", "registrationNumber"}
+//   DELETE /api/loans/{bookId}              return the book; 200 with the hold it is now kept for, else 204
+//   GET    /api/holds/{bookId}              the book's hold queue, in the order it is served
+//   POST   /api/holds                       {"bookId", "studentName", "registrationNumber"}
+//   DELETE /api/holds/{bookId}/{registrationNumber} cancel; 200 with the hold the copy passed to, else 204
+//   GET    /api/patrons/{registrationNumber} a student's open loans, loan limit, and loan and visit history
+//   GET    /api/reports?from=&to=&limit=    circulation report for a range of days (last 30 by default);
+//                                           &format=csv for the CSV the Reports tab exports
+//   GET    /api/events                      Server-Sent Events stream of ChangeEvents; resumes after Last-Event-ID
+//   POST   /api/events                      ChangeEvents from a desk (ChangeFeed), one JSON object per line
+//   GET    /api/metrics                     plain-text statistics
+//
+// Relayed changes reach every desk's caches and indexes, so POST /api/events needs the shared secret set with
+// -Dlms.events.secret in its X-LMS-Events-Secret header; without a secret it is only taken from this machine.
+class LibraryHttpApi {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int MAX_STREAMS = 256;
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final String TEXT = "text/plain; charset=utf-8";
+    private static final String CSV = "text/csv; charset=utf-8";
+    private static final int DEFAULT_REPORT_DAYS = 30;
+    private static final int DEFAULT_REPORT_LIMIT = 10;
+
+    private static final class Response {
+        final int status;
+        final String contentType;
+        final String body; // null for 204
+
+        Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        static Response json(int status, String body) {
+            return new Response(status, JSON, body);
+        }
+    }
+
+    private final DatabaseConnection db;
+    private final BookManager bookManager;
+    private final HttpServer server;
+    private final byte[] eventsSecret; // null: relayed changes only from loopback addresses
+    private final ExecutorService executor;
+    private final Map<String, LatencyHistogram> latencyByRoute = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicLong> responsesByStatus = new ConcurrentHashMap<>();
+    private final Set<ChangeStream> streams = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger streamCounter = new AtomicInteger();
+
+    LibraryHttpApi(DatabaseConnection db, BookManager bookManager, InetSocketAddress address, int threads) throws IOException {
+        this(db, bookManager, address, threads, System.getProperty(ChangeFeed.SECRET_PROPERTY));
+    }
+
+    LibraryHttpApi(DatabaseConnection db, BookManager bookManager, InetSocketAddress address, int threads,
+                   String eventsSecret) throws IOException {
+        this.db = db;
+        this.eventsSecret = eventsSecret == null || eventsSecret.isEmpty() ? null : eventsSecret.getBytes(StandardCharsets.UTF_8);
+        this.bookManager = bookManager;
+        this.server = HttpServer.create(address, 0);
+        AtomicInteger counter = new AtomicInteger();
+        // Platform daemon threads: the app still targets Java 8, so virtual threads are not available here.
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "lms-http-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/api/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Stops accepting requests and gives the ones in progress up to delaySeconds to finish; event streams end at once
+    public void stop(int delaySeconds) {
+        for (ChangeStream stream : streams) {
+            stream.close();
+        }
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String metricsReport() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(latencyByRoute).entrySet()) {
+            sb.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+        }
+        for (Map.Entry<Integer, AtomicLong> e : new TreeMap<>(responsesByStatus).entrySet()) {
+            sb.append("status ").append(e.getKey()).append(": ").append(e.getValue().get()).append('\n');
+        }
+        sb.append("pool: ").append(db.getPoolMetrics()).append('\n');
+        ShardMap shards = bookManager.getShards();
+        if (shards.isSharded()) {
+            for (Shard shard : shards.all()) {
+                sb.append("branch ").append(shard).append(shard == shards.home() ? " (home)" : "")
+                  .append(" pool: ").append(shard.db.getPoolMetrics()).append('\n');
+            }
+        }
+        PatronIndex patrons = bookManager.getPatrons();
+        if (patrons != null) {
+            sb.append("patrons: ").append(patrons.size()).append(" loanLimit=").append(patrons.getLoanLimit()).append('\n');
+        }
+        sb.append("event streams: open=").append(streams.size()).append(" lastSequence=")
+          .append(bookManager.getChanges().getLastSequence()).append('\n');
+        SlowQueryLog slowQueryLog = db.getSlowQueryLog();
+        sb.append("slow query log: threshold=").append(slowQueryLog.getThresholdMillis()).append("ms logged=")
+          .append(slowQueryLog.getLoggedCount()).append('\n');
+        sb.append(db.getOperationMetrics().report());
+        sb.append(db.getStatementRegistry().report());
+        return sb.toString();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().substring("/api/".length()).split("/");
+        String route = routeOf(method, path);
+        if ("GET /api/events".equals(route) && openStream(exchange)) {
+            // Stays open; the stream's own thread writes the response
+            responsesByStatus.computeIfAbsent(200, s -> new AtomicLong()).incrementAndGet();
+            return;
+        }
+        Response response;
+        try {
+            response = route == null ? error(404, "NOT_FOUND", "No such endpoint: " + method + " " + exchange.getRequestURI().getPath())
+                    : dispatch(route, path, exchange);
+        } catch (LibraryException e) {
+            response = error(statusFor(e.getReason()), e.getReason().name(), e.getMessage());
+        } catch (IllegalArgumentException e) {
+            response = error(400, LibraryException.Reason.INVALID.name(), e.getMessage());
+        } catch (RuntimeException e) {
+            StackTraceElement[] trace = e.getStackTrace();
+            System.err.println("Internal error in " + method + " " + exchange.getRequestURI() + ": " + e
+                    + (trace.length > 0 ? " at " + trace[0] : ""));
+            response = error(500, "INTERNAL", "Internal error");
+        }
+        try {
+            send(exchange, response);
+        } finally {
+            latencyByRoute.computeIfAbsent(route == null ? "unmatched" : route, r -> new LatencyHistogram())
+                    .record(System.nanoTime() - start);
+            responsesByStatus.computeIfAbsent(response.status, s -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    // Route template for metrics and dispatch, or null when nothing matches
+    private static String routeOf(String method, String[] path) {
+        if (path.length == 1 && path[0].equals("books")) {
+            return method.equals("GET") || method.equals("POST") ? method + " /api/books" : null;
+        }
+        if (path.length == 2 && path[0].equals("books")) {
+            if (path[1].equals("search")) {
+                return method.equals("GET") ? "GET /api/books/search" : null;
+            }
+            return method.equals("GET") || method.equals("DELETE") ? method + " /api/books/{id}" : null;
+        }
+        if (path.length == 1 && path[0].equals("loans")) {
+            return method.equals("GET") || method.equals("POST") ? method + " /api/loans" : null;
+        }
+        if (path.length == 2 && path[0].equals("loans")) {
+            return method.equals("GET") || method.equals("DELETE") ? method + " /api/loans/{bookId}" : null;
+        }
+        if (path.length == 1 && path[0].equals("holds")) {
+            return method.equals("POST") ? "POST /api/holds" : null;
+        }
+        if (path.length == 2 && path[0].equals("holds")) {
+            return method.equals("GET") ? "GET /api/holds/{bookId}" : null;
+        }
+        if (path.length == 3 && path[0].equals("holds")) {
+            return method.equals("DELETE") ? "DELETE /api/holds/{bookId}/{registrationNumber}" : null;
+        }
+        if (path.length == 2 && path[0].equals("patrons")) {
+            return method.equals("GET") ? "GET /api/patrons/{registrationNumber}" : null;
+        }
+        if (path.length == 1 && path[0].equals("reports")) {
+            return method.equals("GET") ? "GET /api/reports" : null;
+        }
+        if (path.length == 1 && path[0].equals("events")) {
+            return method.equals("GET") || method.equals("POST") ? method + " /api/events" : null;
+        }
+        if (path.length == 1 && path[0].equals("metrics")) {
+            return method.equals("GET") ? "GET /api/metrics" : null;
+        }
+        return null;
+    }
+
+    private Response dispatch(String route, String[] path, HttpExchange exchange) throws IOException, LibraryException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        switch (route) {
+            case "GET /api/books": {
+                List<String> books = new ArrayList<>();
+                String branch = query.get("branch");
+                List<BookRow> page = branch == null
+                        ? bookManager.getBooksPage(intParam(query, "after", 0), pageSize(query))
+                        : bookManager.getBranchBooksPage(branch, intParam(query, "after", 0), pageSize(query));
+                for (BookRow row : page) {
+                    books.add(bookJson(row));
+                }
+                return Response.json(200, Json.array(books));
+            }
+            case "GET /api/books/search": {
+                List<String> books = new ArrayList<>();
+                int limit = Math.min(intParam(query, "limit", DEFAULT_SEARCH_LIMIT), MAX_PAGE_SIZE);
+                for (BookRow row : bookManager.searchBooks(query.getOrDefault("q", ""), limit)) {
+                    books.add(bookJson(row));
+                }
+                return Response.json(200, Json.array(books));
+            }
+            case "GET /api/books/{id}":
+                return Response.json(200, bookJson(bookManager.getBook(parseId(path[1]))));
+            case "POST /api/books": {
+                Map<String, Object> body = readBody(exchange);
+                BookRow added = bookManager.addBook(intField(body, "id"), stringField(body, "title"),
+                        stringField(body, "author"), stringField(body, "publisher"), intField(body, "year"));
+                return Response.json(201, bookJson(added));
+            }
+            case "DELETE /api/books/{id}":
+                bookManager.deleteBook(parseId(path[1]));
+                return new Response(204, JSON, null);
+            case "GET /api/loans": {
+                List<String> loans = new ArrayList<>();
+                for (IssuedBookRow row : bookManager.getIssuedBooksPage(intParam(query, "after", 0), pageSize(query))) {
+                    loans.add(loanJson(row));
+                }
+                return Response.json(200, Json.array(loans));
+            }
+            case "GET /api/loans/{bookId}": {
+                IssuedBookRow loan = bookManager.getIssuedBook(parseId(path[1]));
+                if (loan == null) {
+                    throw new LibraryException(LibraryException.Reason.NOT_FOUND, "Book " + path[1] + " is not issued.");
+                }
+                return Response.json(200, loanJson(loan));
+            }
+            case "POST /api/loans": {
+                Map<String, Object> body = readBody(exchange);
+                IssuedBookRow loan = bookManager.issueBook(intField(body, "bookId"), stringField(body, "studentName"),
+                        stringField(body, "registrationNumber"));
+                return Response.json(201, loanJson(loan));
+            }
+            case "DELETE /api/loans/{bookId}": {
+                HoldQueue.Hold hold = bookManager.returnBook(parseId(path[1]));
+                return hold == null ? new Response(204, JSON, null) : Response.json(200, holdJson(hold, 1));
+            }
+            case "GET /api/holds/{bookId}": {
+                List<String> holds = new ArrayList<>();
+                for (HoldQueue.Hold hold : bookManager.getHolds(parseId(path[1]))) {
+                    holds.add(holdJson(hold, holds.size() + 1));
+                }
+                return Response.json(200, Json.array(holds));
+            }
+            case "POST /api/holds": {
+                Map<String, Object> body = readBody(exchange);
+                HoldQueue.Hold hold = bookManager.placeHold(intField(body, "bookId"), stringField(body, "studentName"),
+                        stringField(body, "registrationNumber"));
+                return Response.json(201, holdJson(hold, 0));
+            }
+            case "DELETE /api/holds/{bookId}/{registrationNumber}": {
+                HoldQueue.Hold next = bookManager.cancelHold(parseId(path[1]), path[2]);
+                return next == null ? new Response(204, JSON, null) : Response.json(200, holdJson(next, 1));
+            }
+            case "GET /api/patrons/{registrationNumber}": {
+                PatronIndex.Patron patron = bookManager.getPatron(path[1]);
+                List<String> loans = new ArrayList<>();
+                for (int bookId : patron.bookIds) {
+                    IssuedBookRow loan = bookManager.getIssuedBook(bookId);
+                    if (loan != null) { // returned since the patron was read
+                        loans.add(loanJson(loan));
+                    }
+                }
+                return Response.json(200, patronJson(patron, bookManager.getPatrons().getLoanLimit(), loans));
+            }
+            case "GET /api/reports": {
+                CirculationStats stats = bookManager.getStats();
+                if (stats == null || !stats.isReady()) {
+                    throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Report figures are not available.");
+                }
+                LocalDate to = dateParam(query, "to", bookManager.getOverdueEngine().today());
+                LocalDate from = dateParam(query, "from", to.minusDays(DEFAULT_REPORT_DAYS - 1));
+                CirculationStats.Report report = stats.report(from, to, intParam(query, "limit", DEFAULT_REPORT_LIMIT),
+                        bookManager.getOverdueEngine());
+                if ("csv".equals(query.get("format"))) {
+                    StringWriter csv = new StringWriter();
+                    report.writeCsv(csv);
+                    return new Response(200, CSV, csv.toString());
+                }
+                return Response.json(200, reportJson(report));
+            }
+            case "GET /api/events": // only reached when openStream turned it away
+                throw new LibraryException(LibraryException.Reason.UNAVAILABLE, "Too many open event streams.");
+            case "POST /api/events": {
+                if (!mayRelay(exchange)) {
+                    return error(403, "FORBIDDEN", eventsSecret == null
+                            ? "Changes are only taken from this machine; set " + ChangeFeed.SECRET_PROPERTY + " on the server and desks."
+                            : "Missing or wrong " + ChangeFeed.SECRET_HEADER + " header.");
+                }
+                // Published in order; each keeps the origin of the desk that made the change
+                ChangeBus changes = bookManager.getChanges();
+                LocalDate today = bookManager.getOverdueEngine().today();
+                List<ChangeEvent> events = new ArrayList<>();
+                for (String line : readText(exchange).split("\n")) {
+                    if (!line.trim().isEmpty()) {
+                        events.add(ChangeEvent.fromJson(line, today));
+                    }
+                }
+                for (ChangeEvent event : events) {
+                    if (changes.isLocal(event)) {
+                        throw new IllegalArgumentException("Event " + event + " came from this server");
+                    }
+                }
+                for (ChangeEvent event : events) {
+                    changes.publish(event);
+                }
+                return Response.json(202, Json.object().put("accepted", events.size()).toString());
+            }
+            case "GET /api/metrics":
+                return new Response(200, TEXT, metricsReport());
+            default:
+                throw new IllegalStateException("Unrouted " + route);
+        }
+    }
+
+    // Hands the exchange to a new ChangeStream; false when there are already MAX_STREAMS open
+    private boolean openStream(HttpExchange exchange) {
+        if (streams.size() >= MAX_STREAMS) {
+            return false;
+        }
+        long afterSequence = -1;
+        String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        if (lastEventId != null) {
+            try {
+                afterSequence = Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                afterSequence = 0; // not one of ours: replay what is retained, or resync
+            }
+        }
+        ChangeStream stream = new ChangeStream(bookManager.getChanges(), exchange, streams::remove);
+        streams.add(stream);
+        stream.start(afterSequence, "lms-events-" + streamCounter.incrementAndGet());
+        return true;
+    }
+
+    // Whether the request may publish changes: it carries the shared secret, or there is none and it comes from here
+    private boolean mayRelay(HttpExchange exchange) {
+        if (eventsSecret == null) {
+            return exchange.getRemoteAddress().getAddress().isLoopbackAddress();
+        }
+        String sent = exchange.getRequestHeaders().getFirst(ChangeFeed.SECRET_HEADER);
+        // Compared in constant time, so the answer's timing does not give the secret away a byte at a time
+        return sent != null && MessageDigest.isEqual(eventsSecret, sent.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int statusFor(LibraryException.Reason reason) {
+        switch (reason) {
+            case INVALID: return 400;
+            case NOT_FOUND: return 404;
+            case CONFLICT: return 409;
+            default: return 503;
+        }
+    }
+
+    private static Response error(int status, String reason, String message) {
+        return Response.json(status, Json.object().put("error", reason).put("message", message).toString());
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        // Drain whatever the client sent so the connection can be reused
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] skip = new byte[4096];
+            while (in.read(skip) >= 0) {
+                // discard
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", response.contentType);
+        if (response.body == null) {
+            exchange.sendResponseHeaders(response.status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        return Json.parseObject(readText(exchange));
+    }
+
+    private static String readText(HttpExchange exchange) throws IOException {
+        // Left open: send() drains and closes it once the response is ready
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        InputStream in = exchange.getRequestBody();
+        byte[] chunk = new byte[4096];
+        int n;
+        while ((n = in.read(chunk)) >= 0) {
+            buffer.write(chunk, 0, n);
+            if (buffer.size() > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request body is larger than " + MAX_BODY_BYTES + " bytes");
+            }
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        try {
+            for (String pair : rawQuery.split("&")) {
+                int eq = pair.indexOf('=');
+                String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+                String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+                params.put(name, value);
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // UTF-8 is always supported
+        }
+        return params;
+    }
+
+    private static int pageSize(Map<String, String> query) {
+        int limit = intParam(query, "limit", DEFAULT_PAGE_SIZE);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    private static int intParam(Map<String, String> query, String name, int defaultValue) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number: " + value);
+        }
+    }
+
+    private static LocalDate dateParam(Map<String, String> query, String name, LocalDate defaultValue) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be a date (yyyy-mm-dd): " + value);
+        }
+    }
+
+    private static int parseId(String segment) {
+        try {
+            return Integer.parseInt(segment);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a book ID: " + segment);
+        }
+    }
+
+    private static int intField(Map<String, Object> body, String name) {
+        Object value = body.get(name);
+        if (!(value instanceof Long) || (Long) value != ((Long) value).intValue()) {
+            throw new IllegalArgumentException("'" + name + "' must be a whole number");
+        }
+        return ((Long) value).intValue();
+    }
+
+    private static String stringField(Map<String, Object> body, String name) {
+        Object value = body.get(name);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("'" + name + "' must be a string");
+        }
+        return (String) value;
+    }
+
+    private static String bookJson(BookRow row) {
+        return Json.object().put("id", row.id).put("title", row.title).put("author", row.author)
+                .put("publisher", row.publisher).put("year", row.year).put("status", row.status).toString();
+    }
+
+    private static String patronJson(PatronIndex.Patron patron, int loanLimit, List<String> loans) {
+        return Json.object().put("registrationNumber", patron.registrationNumber).put("name", patron.name)
+                .put("activeLoans", patron.getActiveLoans()).put("loanLimit", loanLimit)
+                .put("totalLoans", patron.totalLoans).put("lastIssueDate", dateOrNull(patron.lastIssueDate))
+                .put("visits", patron.visits).put("lastVisitDate", dateOrNull(patron.lastVisitDate))
+                .putRaw("loans", Json.array(loans)).toString();
+    }
+
+    private static String dateOrNull(LocalDate date) {
+        return date == null ? null : date.toString();
+    }
+
+    private static String loanJson(IssuedBookRow row) {
+        return Json.object().put("id", row.id).put("bookId", row.bookId).put("title", row.title)
+                .put("studentName", row.studentName).put("registrationNumber", row.registrationNumber)
+                .put("issueDate", row.issueDate.toString()).put("returnDate", row.returnDate.toString())
+                .put("overdueDate", row.overdueDate.toString()).put("overdue", row.overdue).toString();
+    }
+
+    // position is the hold's place in its queue, 1 for the student the copy is kept for; 0 when not worked out
+    private static String holdJson(HoldQueue.Hold hold, int position) {
+        Json.ObjectWriter json = Json.object().put("id", hold.id).put("bookId", hold.bookId)
+                .put("registrationNumber", hold.registrationNumber).put("studentName", hold.studentName)
+                .put("placedOn", hold.placedOn.toString()).put("ready", hold.isReady())
+                .put("readyOn", dateOrNull(hold.readyOn)).put("pickupBy", dateOrNull(hold.pickupBy));
+        if (position > 0) {
+            json.put("position", position);
+        }
+        return json.toString();
+    }
+
+    private static String reportJson(CirculationStats.Report report) {
+        List<String> days = new ArrayList<>();
+        for (CirculationStats.Period day : report.days) {
+            days.add(periodJson(day));
+        }
+        List<String> weeks = new ArrayList<>();
+        for (CirculationStats.Period week : report.weeks) {
+            weeks.add(periodJson(week));
+        }
+        List<String> titles = new ArrayList<>();
+        for (CirculationStats.Ranked title : report.titles) {
+            titles.add(Json.object().put("title", title.name).put("author", title.author).put("loans", title.loans).toString());
+        }
+        List<String> authors = new ArrayList<>();
+        for (CirculationStats.Ranked author : report.authors) {
+            authors.add(Json.object().put("author", author.name).put("loans", author.loans).toString());
+        }
+        Json.ObjectWriter activity = Json.object();
+        for (Map.Entry<String, long[]> hours : report.activityByHour.entrySet()) {
+            List<String> entries = new ArrayList<>(24);
+            for (long count : hours.getValue()) {
+                entries.add(Long.toString(count));
+            }
+            activity.putRaw(hours.getKey(), Json.array(entries));
+        }
+        return Json.object().put("from", report.from.toString()).put("to", report.to.toString())
+                .putRaw("total", periodJson(report.total))
+                .put("openLoans", report.openLoans).put("overdueLoans", report.overdueLoans)
+                .put("overdueRate", report.getOverdueRate())
+                .putRaw("days", Json.array(days)).putRaw("weeks", Json.array(weeks))
+                .putRaw("topTitles", Json.array(titles)).putRaw("topAuthors", Json.array(authors))
+                .putRaw("activityByHour", activity.toString()).toString();
+    }
+
+    private static String periodJson(CirculationStats.Period period) {
+        return Json.object().put("start", period.start.toString()).put("loans", period.loans)
+                .put("returns", period.returns).put("averageLoanDays", period.getAverageLoanDays())
+                .put("lateReturns", period.lateReturns).put("lateReturnRate", period.getLateReturnRate()).toString();
+    }
+}
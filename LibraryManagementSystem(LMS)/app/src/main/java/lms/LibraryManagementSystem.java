@@ -0,0 +1,1039 @@
+package lms;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Main application class to display the GUI
+public class LibraryManagementSystem extends JFrame {
+    private DatabaseConnection db;
+    private ShardMap shards;
+    private BookManager bookManager;
+    private AsyncBookManager asyncBookManager;
+    private ActivityLogWriter activityLogWriter;
+    private OfflineDesk desk; // null with -Dlms.offline=false
+    private SnapshotSync snapshotSync;
+    private boolean indexesBuilt; // EDT only
+    private ChangeFeed changeFeed; // null unless -Dlms.events.url names a server to share changes through
+    private final Queue<ChangeEvent> pendingChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingChangeCount = new AtomicInteger();
+    private final AtomicBoolean changesScheduled = new AtomicBoolean();
+    private JTable booksTable;
+    private JTable issuedBooksTable;
+    private JLabel overdueCountLabel;
+    private JLabel patronLoansLabel;
+    private JTextField issueRegistrationField;
+    private OverdueSweeper overdueSweeper;
+    private HoldSweeper holdSweeper;
+    private OverdueSweeper.SweepResult lastSweep;
+    private BooksTableModel booksTableModel;
+    private IssuedBooksTableModel issuedBooksTableModel;
+    private JTextField searchField;
+    private ActivityLogTableModel activityLogTableModel;
+    private ActivityLogManager activityLogManager;
+    private JTabbedPane tabbedPane;
+    private String adminUsername = "ADMIN-NAME";//add admin user name for login.
+    private String adminPassword = "ADMIN-PASSWORD";//add admin user password for login.
+    private static final int WORKER_THREADS = 4;
+    private static final int CATALOG_CACHE_SIZE = 100000; // books kept in memory for Search by Book ID
+    private static final long CACHE_RECONCILE_MILLIS = 5 * 60 * 1000L;
+    private static final long SNAPSHOT_SYNC_MILLIS = 10 * 60 * 1000L;
+    private static final long OVERDUE_SWEEP_MILLIS = 15 * 60 * 1000L;
+    private static final int OVERDUE_SWEEP_CHUNK = 500;
+    private static final long HOLD_SWEEP_MILLIS = 15 * 60 * 1000L;
+    private static final int HOLD_SWEEP_CHUNK = 500;
+    private static final BigDecimal FINE_PER_DAY = new BigDecimal("1.00");
+    private static final int SEARCH_DELAY_MILLIS = 150;
+    private static final DateTimeFormatter ACTIVITY_TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final int IMPORT_BATCH_SIZE = 1000;
+    private static final int ACTIVITY_QUEUE_CAPACITY = 10000;
+    private static final int ACTIVITY_BATCH_SIZE = 100;
+    private static final long ACTIVITY_FLUSH_MILLIS = 500;
+    private static final long ACTIVITY_ENQUEUE_TIMEOUT_MILLIS = 500;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+    private static final int SEARCH_RESULT_LIMIT = 200;
+    private static final int REPORT_DAYS = 30; // the range the Reports tab opens with
+    private static final int REPORT_TOP_LIMIT = 10;
+    private static final int MAX_CHANGES_PER_UPDATE = 2000; // a bigger burst (a bulk import) reloads the tables instead
+    private static final String[] STATUS_FILTERS = {"All", BookColumns.AVAILABLE, BookColumns.ISSUED, BookColumns.HELD};
+
+    public LibraryManagementSystem() {
+        try {
+            //DATABASE=library_management , USER=root(for default user) , PASSWORD=Enter you database password which you set.
+            // -Dlms.storage=embedded runs on a local H2 database instead (see StorageBackend)
+            StorageBackend mysql = new MySqlBackend(MySqlBackend.DEFAULT_URL, "root", "ENTER-DATABASE-PASSWORD");
+            // With the offline desk on, an unreachable database is not fatal: the desk starts offline (see OfflineDesk)
+            db = new DatabaseConnection(StorageBackend.select(mysql), DatabaseConnection.DEFAULT_POOL_SIZE, OfflineDesk.isEnabled());
+            // -Dlms.shards spreads the catalog over several branch databases (see ShardMap); db is this branch's own
+            try {
+                shards = ShardMap.fromSystemProperties(db, mysql, DatabaseConnection.DEFAULT_POOL_SIZE);
+            } catch (DatabaseException e) {
+                db.closeConnection();
+                throw e;
+            }
+            CatalogCache catalogCache = new CatalogCache(CATALOG_CACHE_SIZE);
+            catalogCache.startReconciliation(shards, CACHE_RECONCILE_MILLIS);
+            SearchIndex searchIndex = new SearchIndex();
+            OverdueEngine overdueEngine = new OverdueEngine();
+            FineLedger fineLedger = new FineLedger(shards, FINE_PER_DAY);
+            // -Dlms.loanLimit=N caps the books one student can have out
+            PatronIndex patrons = PatronIndex.fromSystemProperties();
+            CirculationStats stats = new CirculationStats();
+            // -Dlms.holdPickupDays=N sets how long a returned copy is kept for the student on hold
+            HoldQueue holds = HoldQueue.fromSystemProperties(shards);
+            bookManager = BookManager.builder(shards).cache(catalogCache).searchIndex(searchIndex)
+                    .overdueEngine(overdueEngine).fineLedger(fineLedger).patrons(patrons).stats(stats).holds(holds).build();
+            // The search index and the offline view start from the catalog snapshot on this desk's disk
+            snapshotSync = SnapshotSync.fromSystemProperties(bookManager, result -> {
+                if (result.foundChanges()) {
+                    System.out.println(result);
+                }
+            });
+            overdueSweeper = new OverdueSweeper(shards, overdueEngine, fineLedger, OVERDUE_SWEEP_CHUNK, result -> {
+                System.out.println(result);
+                SwingUtilities.invokeLater(() -> {
+                    lastSweep = result;
+                    updateOverdueCount();
+                });
+            });
+            holdSweeper = new HoldSweeper(shards, holds, overdueEngine, bookManager.getChanges(), HOLD_SWEEP_CHUNK, result -> System.out.println(result));
+            activityLogWriter = new ActivityLogWriter(db, ACTIVITY_QUEUE_CAPACITY, ACTIVITY_BATCH_SIZE,
+                    ACTIVITY_FLUSH_MILLIS, ACTIVITY_ENQUEUE_TIMEOUT_MILLIS,
+                    message -> SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, message, "Database Error", JOptionPane.ERROR_MESSAGE)),
+                    bookManager.getChanges());
+            activityLogManager = new ActivityLogManager(db, patrons, stats);
+            registerMetrics(db);
+            desk = OfflineDesk.fromSystemProperties(bookManager, activityLogWriter, snapshotSync, new OfflineDesk.Listener() {
+                @Override
+                public void wentOffline(Throwable cause) {
+                    SwingUtilities.invokeLater(LibraryManagementSystem.this::updateDeskStatus);
+                }
+
+                @Override
+                public void replayed(OfflineDesk.ReplayResult result) {
+                    SwingUtilities.invokeLater(() -> backOnline(result));
+                }
+            });
+            asyncBookManager = new AsyncBookManager(bookManager, desk, WORKER_THREADS);
+            changeFeed = ChangeFeed.fromSystemProperties(bookManager);
+            if (db.hasConnected()) {
+                buildIndexes();
+            }
+        } catch (DatabaseException e) {
+            JOptionPane.showMessageDialog(null, e.getMessage(), "Initialization Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        updateDeskStatus();
+        setSize(800, 600);
+        setDefaultCloseOperation(EXIT_ON_CLOSE);
+        // Drain queued activity entries and release database resources before the JVM exits
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                shutdown();
+            }
+        });
+        setLayout(new BorderLayout());
+        //Attendance panel
+        tabbedPane = new JTabbedPane();
+        tabbedPane.addTab("Activity Tracker", createActivityPanel());
+
+       //Initially disable all other tabs except "Activity Tracker"
+        tabbedPane.addTab("Add Book", createAddBookPanel());
+        tabbedPane.addTab("View Books", createViewBooksPanel());
+        tabbedPane.addTab("Issue Book", createIssueBookPanel());
+        tabbedPane.addTab("View Issued Books", createViewIssuedBooksPanel());
+        tabbedPane.addTab("Return Book", createReturnBookPanel());
+        tabbedPane.addTab("Delete Book", createDeleteBookPanel());
+        tabbedPane.addTab("Reports", createReportsPanel());
+        disableTabsExceptActivityTracker();
+
+        
+        // Add Admin and Logout Buttons on Top Right
+        JPanel topPanel = new JPanel(new BorderLayout());
+        JButton adminButton = new JButton("Admin");
+        JButton logoutButton = new JButton("Logout");
+        // Set admin login action
+        adminButton.addActionListener(e -> {
+        showAdminLoginDialog();
+       
+    });
+    // Set logout action
+    logoutButton.addActionListener(e -> {
+        disableTabsExceptActivityTracker();
+        
+        JOptionPane.showMessageDialog(this, "Logged out successfully.");
+    });
+    // Add buttons to the top panel
+    // Busy indicator shown while database work is running in the background
+    JProgressBar busyIndicator = new JProgressBar();
+    busyIndicator.setIndeterminate(true);
+    busyIndicator.setString("Working...");
+    busyIndicator.setStringPainted(true);
+    busyIndicator.setVisible(false);
+    asyncBookManager.addInFlightListener(count -> busyIndicator.setVisible(count > 0));
+    JPanel statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    statusPanel.add(busyIndicator);
+    topPanel.add(statusPanel, BorderLayout.WEST);
+
+    JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+    buttonPanel.add(adminButton);
+    buttonPanel.add(logoutButton);
+    
+    topPanel.add(buttonPanel, BorderLayout.EAST);
+    add(topPanel, BorderLayout.NORTH);
+    add(tabbedPane, BorderLayout.CENTER);
+    // Every change, made here or relayed from another desk, reaches the open tables through the change bus
+    bookManager.getChanges().subscribe(this::changePublished);
+    snapshotSync.start(SNAPSHOT_SYNC_MILLIS);
+    if (desk != null) {
+        desk.start();
+    }
+    if (changeFeed != null) {
+        changeFeed.start();
+        System.out.println("Sharing changes through " + System.getProperty(ChangeFeed.URL_PROPERTY));
+    }
+    setVisible(true);
+    }
+    private void shutdown() {
+        if (changeFeed != null) {
+            changeFeed.shutdown();
+        }
+        activityLogWriter.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+        if (desk != null) {
+            desk.shutdown(); // whatever was not replayed stays in the journal for the next run
+        }
+        overdueSweeper.shutdown();
+        holdSweeper.shutdown();
+        snapshotSync.shutdown();
+        asyncBookManager.shutdown();
+        if (bookManager.getCache() != null) {
+            bookManager.getCache().shutdown();
+        }
+        try {
+            shards.close(); // every branch's pool, this one's included
+        } catch (DatabaseException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void disableTabsExceptActivityTracker() {
+        for (int i = 1; i < tabbedPane.getTabCount(); i++) {
+            tabbedPane.setEnabledAt(i, false);
+        }
+    }
+    private void enableAllTabs() {
+        for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+            tabbedPane.setEnabledAt(i, true);
+        }
+    }
+
+    private JPanel createAddBookPanel() {
+        JPanel panel = new JPanel(new GridLayout(7, 2));
+        JTextField idField = new JTextField(10);
+        JTextField titleField = new JTextField(10);
+        JTextField authorField = new JTextField(10);
+        JTextField publisherField = new JTextField(10);
+        JTextField yearField = new JTextField(10);
+        
+
+        panel.add(new JLabel("Book ID:"));
+        panel.add(idField);
+        panel.add(new JLabel("Title:"));
+        panel.add(titleField);
+        panel.add(new JLabel("Author:"));
+        panel.add(authorField);
+        panel.add(new JLabel("Publisher:"));
+        panel.add(publisherField);
+        panel.add(new JLabel("Year:"));
+        panel.add(yearField);
+
+        JButton addButton = new JButton("Add Book");
+        addButton.addActionListener(e -> {
+            try {
+                int id = Integer.parseInt(idField.getText());
+                String title = titleField.getText();
+                String author = authorField.getText();
+                String publisher = publisherField.getText();
+                int year = Integer.parseInt(yearField.getText());
+
+                // The new row reaches the table as a change event; no reload
+                AsyncBookManager.onEdt(asyncBookManager.addBook(id, title, author, publisher, year), added -> {
+                    JOptionPane.showMessageDialog(this, "Book added successfully!", "Information", JOptionPane.INFORMATION_MESSAGE);
+                });
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(null, "Please enter valid details for the book.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        panel.add(new JLabel());
+        panel.add(addButton);
+
+        // Bulk load from a CSV file (id,title,author,publisher,year); bad rows go to a reject report
+        JButton importButton = new JButton("Import CSV...");
+        importButton.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            Path file = chooser.getSelectedFile().toPath();
+            Path rejectFile = file.resolveSibling(file.getFileName() + ".rejects.csv");
+            CsvBookImporter importer = new CsvBookImporter(bookManager, IMPORT_BATCH_SIZE);
+            AsyncBookManager.onEdt(asyncBookManager.submit(() -> {
+                try {
+                    ImportReport report = importer.importFile(file);
+                    if (report.getRejectedCount() > 0) {
+                        report.writeRejects(rejectFile);
+                    }
+                    return report;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }), report -> {
+                String message = report.toString();
+                if (report.getRejectedCount() > 0) {
+                    message += "\nReject report written to " + rejectFile;
+                }
+                JOptionPane.showMessageDialog(this, message, "Import Finished",
+                        report.getFailure() == null ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
+                refreshBooksTable(-1);
+            }, ex -> JOptionPane.showMessageDialog(this, "Error reading import file: " + ex.getMessage(), "Import Error", JOptionPane.ERROR_MESSAGE));
+        });
+        panel.add(new JLabel());
+        panel.add(importButton);
+        return panel;
+    }
+    private void clearFields(JTextField... fields) {
+        for (JTextField field : fields) {
+            field.setText("");
+        }
+    }
+    private JPanel createDeleteBookPanel() {
+        JPanel panel = new JPanel(new GridLayout(2, 2));
+        JLabel bookIdLabel = new JLabel("Book ID:");
+        JTextField bookIdField = new JTextField();
+    
+        JButton deleteButton = new JButton("Delete Book");
+        deleteButton.addActionListener(e -> {
+            try {
+                int bookId = Integer.parseInt(bookIdField.getText());
+                int confirm = JOptionPane.showConfirmDialog(
+                    this, 
+                    "Are you sure you want to delete the book with ID: " + bookId + "?",
+                    "Confirm Deletion", 
+                    JOptionPane.YES_NO_OPTION
+                );
+    
+                if (confirm == JOptionPane.YES_OPTION) {
+                    AsyncBookManager.onEdt(asyncBookManager.deleteBook(bookId), deleted -> {
+                        bookIdField.setText("");  // Clear the text field after deletion
+
+                        JOptionPane.showMessageDialog(this, "Book deleted successfully.");
+                    });
+                }
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "Please enter a valid numeric Book ID.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    
+        panel.add(bookIdLabel);
+        panel.add(bookIdField);
+        panel.add(new JLabel()); // Empty cell for layout spacing
+        panel.add(deleteButton);
+    
+        return panel;
+    }
+    
+    private JPanel createViewBooksPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JLabel searchLabel = new JLabel("Search by Book ID:");
+        searchField = new JTextField(10);
+        JButton searchButton = new JButton("Search");
+        JButton refreshButton = new JButton("Refresh");
+
+        searchButton.addActionListener(e -> {
+            try {
+                int bookId = Integer.parseInt(searchField.getText());
+                refreshBooksTable(bookId);
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(null, "Please enter a valid book ID.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        refreshButton.addActionListener(e -> refreshBooksTable(-1));
+
+        // Type-ahead search over title, author and publisher; waits for a short pause in typing
+        JLabel textSearchLabel = new JLabel("Title/Author/Publisher:");
+        JTextField textSearchField = new JTextField(15);
+        Timer searchTimer = new Timer(SEARCH_DELAY_MILLIS, e -> searchBooksByText(textSearchField.getText()));
+        searchTimer.setRepeats(false);
+        textSearchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+        });
+
+        searchPanel.add(searchLabel);
+        searchPanel.add(searchField);
+        searchPanel.add(searchButton);
+        searchPanel.add(refreshButton);
+        searchPanel.add(textSearchLabel);
+        searchPanel.add(textSearchField);
+
+        // Filters whatever the table shows, catalog or search hits; picking one loads the rest of the catalog
+        JComboBox<String> statusFilter = new JComboBox<>(STATUS_FILTERS);
+        statusFilter.addActionListener(e -> {
+            BooksRowSorter sorter = (BooksRowSorter) booksTable.getRowSorter();
+            Object selected = statusFilter.getSelectedItem();
+            if (statusFilter.getSelectedIndex() > 0) {
+                sorter.setFilter((columns, row) -> selected.equals(columns.status(row)));
+            } else {
+                sorter.setFilter(null);
+            }
+        });
+        searchPanel.add(new JLabel("Status:"));
+        searchPanel.add(statusFilter);
+
+        booksTableModel = new BooksTableModel(asyncBookManager::getBooksPage);
+        booksTable = new JTable();
+        showBooks(booksTableModel);
+
+        panel.add(searchPanel, BorderLayout.NORTH);
+        panel.add(new JScrollPane(booksTable), BorderLayout.CENTER);
+        refreshBooksTable(-1);
+
+        return panel;
+    }
+
+    private JPanel createIssueBookPanel() {
+        JPanel panel = new JPanel(new GridLayout(7, 2));
+        JTextField bookIdField = new JTextField(10);
+        JTextField studentNameField = new JTextField(10);
+        JTextField registrationNumberField = new JTextField(10);
+        issueRegistrationField = registrationNumberField;
+        patronLoansLabel = new JLabel();
+        // Read from the patron index as the number is typed: no query per keystroke
+        registrationNumberField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                updatePatronLoans();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                updatePatronLoans();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                updatePatronLoans();
+            }
+        });
+
+        panel.add(new JLabel("Book ID:"));
+        panel.add(bookIdField);
+        panel.add(new JLabel("Student Name:"));
+        panel.add(studentNameField);
+        panel.add(new JLabel("Registration Number:"));
+        panel.add(registrationNumberField);
+        panel.add(new JLabel("Books Out:"));
+        panel.add(patronLoansLabel);
+
+        JButton issueButton = new JButton("Issue Book");
+        issueButton.addActionListener(e -> {
+            try {
+                int bookId = Integer.parseInt(bookIdField.getText());
+                String studentName = studentNameField.getText();
+                String registrationNumber = registrationNumberField.getText();
+                AsyncBookManager.onEdt(asyncBookManager.issueBook(bookId, studentName, registrationNumber), loan -> {
+                    JOptionPane.showMessageDialog(this, "Book issued successfully to " + studentName, "Information", JOptionPane.INFORMATION_MESSAGE);
+                });
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(null, "Please enter valid details for issuing the book.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        panel.add(new JLabel());
+        panel.add(issueButton);
+
+        // A book that is out can be held: the student is next in line when it comes back
+        JButton holdButton = new JButton("Place Hold");
+        holdButton.addActionListener(e -> {
+            try {
+                int bookId = Integer.parseInt(bookIdField.getText());
+                AsyncBookManager.onEdt(asyncBookManager.placeHold(bookId, studentNameField.getText(), registrationNumberField.getText()), hold -> {
+                    JOptionPane.showMessageDialog(this, "Hold placed on book " + bookId + " for " + hold.studentName
+                            + ". The book will be kept " + bookManager.getHolds().getPickupDays() + " day(s) for collection when it is their turn.",
+                            "Information", JOptionPane.INFORMATION_MESSAGE);
+                });
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(null, "Please enter valid details for the hold.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        JButton cancelHoldButton = new JButton("Cancel Hold");
+        cancelHoldButton.addActionListener(e -> {
+            try {
+                int bookId = Integer.parseInt(bookIdField.getText());
+                AsyncBookManager.onEdt(asyncBookManager.cancelHold(bookId, registrationNumberField.getText()), next -> {
+                    JOptionPane.showMessageDialog(this, "Hold cancelled." + (next == null ? "" : "\nThe copy is now kept for "
+                            + next.studentName + " (" + next.registrationNumber + ") until " + next.pickupBy + "."),
+                            "Information", JOptionPane.INFORMATION_MESSAGE);
+                });
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(null, "Please enter a valid book ID.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        panel.add(holdButton);
+        panel.add(cancelHoldButton);
+        return panel;
+    }
+    
+    private JPanel createViewIssuedBooksPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        issuedBooksTableModel = new IssuedBooksTableModel(asyncBookManager::getIssuedBooksPage);
+        issuedBooksTable = new JTable(issuedBooksTableModel);
+        issuedBooksTable.setDefaultRenderer(Object.class, new IssuedBooksTableRenderer());
+        overdueCountLabel = new JLabel();
+        panel.add(overdueCountLabel, BorderLayout.NORTH);
+        panel.add(new JScrollPane(issuedBooksTable), BorderLayout.CENTER);
+        refreshIssuedBooksTable();
+        return panel;
+    }
+
+    private JPanel createReturnBookPanel() {
+        JPanel panel = new JPanel(new GridLayout(2,2));
+        JButton returnButton = new JButton("Return Book");
+        JTextField bookIdField = new JTextField();
+        JLabel bookIdLabel=new JLabel("Book ID:");
+        
+        
+        
+        panel.add(bookIdLabel);
+        panel.add(bookIdField);
+        panel.add(new JLabel());
+        panel.add(returnButton);
+        
+        
+        
+
+        returnButton.addActionListener(e -> {
+            try {
+                int bookId = Integer.parseInt(bookIdField.getText());
+                AsyncBookManager.onEdt(asyncBookManager.returnBook(bookId), hold -> {
+                    JOptionPane.showMessageDialog(this, "Book returned successfully!" + (hold == null ? ""
+                            : "\nPut it on the hold shelf for " + hold.studentName + " (" + hold.registrationNumber + "), to collect by " + hold.pickupBy + "."),
+                            "Information", JOptionPane.INFORMATION_MESSAGE);
+                });
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(null, "Please enter a valid book ID.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        return panel;
+    }
+    // Circulation figures for a range of days, from the running totals in memory (CirculationStats)
+    private JPanel createReportsPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        LocalDate today = bookManager.getOverdueEngine().today();
+        JTextField fromField = new JTextField(today.minusDays(REPORT_DAYS - 1).toString(), 10);
+        JTextField toField = new JTextField(today.toString(), 10);
+        JButton showButton = new JButton("Show");
+        JButton exportButton = new JButton("Export CSV...");
+        JTextArea reportText = new JTextArea();
+        reportText.setEditable(false);
+        reportText.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        JPanel rangePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        rangePanel.add(new JLabel("From (yyyy-mm-dd):"));
+        rangePanel.add(fromField);
+        rangePanel.add(new JLabel("To:"));
+        rangePanel.add(toField);
+        rangePanel.add(showButton);
+        rangePanel.add(exportButton);
+
+        showButton.addActionListener(e -> {
+            CirculationStats.Report report = readReport(fromField, toField);
+            if (report != null) {
+                reportText.setText(formatReport(report));
+                reportText.setCaretPosition(0);
+            }
+        });
+        exportButton.addActionListener(e -> {
+            CirculationStats.Report report = readReport(fromField, toField);
+            if (report == null) {
+                return;
+            }
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new File("circulation-" + report.from + "-" + report.to + ".csv"));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            Path file = chooser.getSelectedFile().toPath();
+            AsyncBookManager.onEdt(asyncBookManager.submit(() -> {
+                try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                    report.writeCsv(out);
+                    return file;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }), written -> JOptionPane.showMessageDialog(this, "Report written to " + written, "Information", JOptionPane.INFORMATION_MESSAGE),
+                ex -> JOptionPane.showMessageDialog(this, "Error writing report: " + ex.getMessage(), "Export Error", JOptionPane.ERROR_MESSAGE));
+        });
+
+        panel.add(rangePanel, BorderLayout.NORTH);
+        panel.add(new JScrollPane(reportText), BorderLayout.CENTER);
+        return panel;
+    }
+
+    // The report for the dates in the fields, or null after telling the user what is wrong with them. It only
+    // adds up totals already in memory, so it runs on the event thread.
+    private CirculationStats.Report readReport(JTextField fromField, JTextField toField) {
+        CirculationStats stats = bookManager.getStats();
+        if (!stats.isReady()) {
+            JOptionPane.showMessageDialog(this, "The report figures are still loading, please try again in a moment.", "Information", JOptionPane.INFORMATION_MESSAGE);
+            return null;
+        }
+        try {
+            return stats.report(LocalDate.parse(fromField.getText().trim()), LocalDate.parse(toField.getText().trim()),
+                    REPORT_TOP_LIMIT, bookManager.getOverdueEngine());
+        } catch (DateTimeParseException ex) {
+            JOptionPane.showMessageDialog(this, "Please enter dates as yyyy-mm-dd.", "Input Error", JOptionPane.ERROR_MESSAGE);
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Input Error", JOptionPane.ERROR_MESSAGE);
+        }
+        return null;
+    }
+
+    private static String formatReport(CirculationStats.Report report) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("Circulation from %s to %s%n%n", report.from, report.to));
+        text.append(String.format("Loans: %d   Returns: %d   Average loan: %.1f days   Returned late: %.1f%%%n",
+                report.total.loans, report.total.returns, report.total.getAverageLoanDays(), 100 * report.total.getLateReturnRate()));
+        text.append(String.format("Out now: %d   Overdue now: %d (%.1f%%)%n%n",
+                report.openLoans, report.overdueLoans, 100 * report.getOverdueRate()));
+        text.append(String.format("%-12s %8s %8s %10s %8s%n", "Week of", "Loans", "Returns", "Avg days", "Late"));
+        for (CirculationStats.Period week : report.weeks) {
+            text.append(String.format("%-12s %8d %8d %10.1f %7.1f%%%n", week.start, week.loans, week.returns,
+                    week.getAverageLoanDays(), 100 * week.getLateReturnRate()));
+        }
+        text.append(String.format("%n%-12s %8s %8s%n", "Day", "Loans", "Returns"));
+        for (CirculationStats.Period day : report.days) {
+            if (day.loans > 0 || day.returns > 0) {
+                text.append(String.format("%-12s %8d %8d%n", day.start, day.loans, day.returns));
+            }
+        }
+        text.append(String.format("%nMost borrowed titles (all time)%n"));
+        for (CirculationStats.Ranked title : report.titles) {
+            text.append(String.format("%8d  %s - %s%n", title.loans, title.name, title.author));
+        }
+        text.append(String.format("%nMost borrowed authors (all time)%n"));
+        for (CirculationStats.Ranked author : report.authors) {
+            text.append(String.format("%8d  %s%n", author.loans, author.name));
+        }
+        text.append(String.format("%nActivity Tracker entries by hour%n"));
+        for (Map.Entry<String, long[]> activity : report.activityByHour.entrySet()) {
+            for (int hour = 0; hour < 24; hour++) {
+                if (activity.getValue()[hour] > 0) {
+                    text.append(String.format("%02d:00  %-20s %8d%n", hour, activity.getKey(), activity.getValue()[hour]));
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private JPanel createActivityPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+
+        JPanel formPanel = new JPanel(new GridLayout(4, 2));
+        JLabel regLabel = new JLabel("Registration No:");
+        JTextField regField = new JTextField();
+        JLabel nameLabel = new JLabel("Name:");
+        JTextField nameField = new JTextField();
+        JLabel activityLabel = new JLabel("Activity:");
+        JComboBox<String> activityBox = new JComboBox<>(new String[]{"Self Study", "Reading books","issued book","Return book"});
+        JButton enterButton = new JButton("Enter");
+
+        formPanel.add(regLabel);
+        formPanel.add(regField);
+        formPanel.add(nameLabel);
+        formPanel.add(nameField);
+        formPanel.add(activityLabel);
+        formPanel.add(activityBox);
+        formPanel.add(new JLabel()); // Placeholder
+        formPanel.add(enterButton);
+
+        // Newest entries first, loaded a page at a time; filters run on the server
+        activityLogTableModel = new ActivityLogTableModel((beforeId, limit) -> {
+            ActivityLogFilter filter = activityLogTableModel.getFilter();
+            // Offline only the entries made since show up, as change events
+            return asyncBookManager.submitSql(() -> desk != null && !desk.isOnline()
+                    ? Collections.<ActivityRow>emptyList() : activityLogManager.getPage(filter, beforeId, limit));
+        });
+        JTable activityLogTable = new JTable(activityLogTableModel);
+        JScrollPane tableScrollPane = new JScrollPane(activityLogTable);
+        loadActivityLog();
+
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JTextField fromField = new JTextField(8);
+        JTextField toField = new JTextField(8);
+        JTextField regFilterField = new JTextField(8);
+        JComboBox<String> activityFilterBox = new JComboBox<>(new String[]{"All", "Self Study", "Reading books", "issued book", "Return book", "Admin Login"});
+        JButton applyFilterButton = new JButton("Filter");
+        JButton clearFilterButton = new JButton("Clear");
+        filterPanel.add(new JLabel("From (yyyy-MM-dd):"));
+        filterPanel.add(fromField);
+        filterPanel.add(new JLabel("To:"));
+        filterPanel.add(toField);
+        filterPanel.add(new JLabel("Reg No:"));
+        filterPanel.add(regFilterField);
+        filterPanel.add(activityFilterBox);
+        filterPanel.add(applyFilterButton);
+        filterPanel.add(clearFilterButton);
+        applyFilterButton.addActionListener(e -> {
+            try {
+                String regNo = regFilterField.getText().trim();
+                String activity = (String) activityFilterBox.getSelectedItem();
+                activityLogTableModel.setFilter(new ActivityLogFilter(
+                        fromField.getText().trim().isEmpty() ? null : LocalDate.parse(fromField.getText().trim()),
+                        toField.getText().trim().isEmpty() ? null : LocalDate.parse(toField.getText().trim()),
+                        regNo.isEmpty() ? null : regNo,
+                        "All".equals(activity) ? null : activity));
+            } catch (DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(this, "Please enter dates as yyyy-MM-dd.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        clearFilterButton.addActionListener(e -> {
+            clearFields(fromField, toField, regFilterField);
+            activityFilterBox.setSelectedIndex(0);
+            activityLogTableModel.setFilter(ActivityLogFilter.NONE);
+        });
+        enterButton.addActionListener(e -> {
+            String registrationNumber = regField.getText();
+            String name = nameField.getText();
+            String activity = (String) activityBox.getSelectedItem();
+
+            if (registrationNumber.isEmpty() || name.isEmpty()) {
+                JOptionPane.showMessageDialog(this, "Please enter both Registration No and Name.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            } else {
+                logActivity(registrationNumber, name, activity);
+                clearFields(regField, nameField);
+            }
+        });
+        activityLogTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = activityLogTable.rowAtPoint(e.getPoint());
+                int column = activityLogTable.columnAtPoint(e.getPoint());
+                if (row >= 0 && column == ActivityLogTableModel.DELETE_COLUMN) { // Delete column
+                    String regNo = (String) activityLogTableModel.getValueAt(row, 0);
+                    int confirm = JOptionPane.showConfirmDialog(LibraryManagementSystem.this,
+                            "Delete all activity entries for " + regNo + "?", "Confirm Deletion", JOptionPane.YES_NO_OPTION);
+                    if (confirm == JOptionPane.YES_OPTION) {
+                        deleteActivityLogEntry(regNo);
+                    }
+                }
+            }
+        });
+
+        JPanel northPanel = new JPanel(new BorderLayout());
+        northPanel.add(formPanel, BorderLayout.NORTH);
+        northPanel.add(filterPanel, BorderLayout.SOUTH);
+        panel.add(northPanel, BorderLayout.NORTH);
+        panel.add(tableScrollPane, BorderLayout.CENTER);
+        return panel;}
+        // Shows the most recent page; older entries load as the table is scrolled
+        private void loadActivityLog() {
+            activityLogTableModel.reload();
+        }
+        private void logActivity(String registrationNumber, String name, String activity) {
+            // One reading of the clock, so an entry made at midnight gets the date and time of the same instant
+            LocalDateTime now = LocalDateTime.now();
+            String date = now.toLocalDate().toString();
+            String time = now.format(ACTIVITY_TIME);
+            // Written to the database in the background; the row shows up in the table, as a change event, once it is saved
+            ActivityLogWriter.ActivityEntry entry = new ActivityLogWriter.ActivityEntry(registrationNumber, name, activity, date, time);
+            if (!(desk != null ? desk.logActivity(entry) : activityLogWriter.log(entry))) {
+                JOptionPane.showMessageDialog(this, "The activity log is busy, please try again in a moment.", "Database Error", JOptionPane.ERROR_MESSAGE);
+            }
+        } private void deleteActivityLogEntry(String regNo) {
+            AsyncBookManager.onEdt(asyncBookManager.submitSql(() -> activityLogManager.deleteByRegistration(regNo)),
+                rows -> activityLogTableModel.removeRegistration(regNo), // Drop only the affected rows
+                ex -> JOptionPane.showMessageDialog(this, "Error deleting record: " + ex.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE));
+        }
+            
+
+    private void showAdminLoginDialog() {
+        JTextField usernameField = new JTextField();
+        JPasswordField passwordField = new JPasswordField();
+        Object[] message = {
+            "Username:", usernameField,
+            "Password:", passwordField
+        };
+
+        int option = JOptionPane.showConfirmDialog(this, message, "Admin Login", JOptionPane.OK_CANCEL_OPTION);
+        if (option == JOptionPane.OK_OPTION) {
+            String username = usernameField.getText();
+            String password = new String(passwordField.getPassword());
+            if (username.equals(adminUsername) && password.equals(adminPassword)) {
+                JOptionPane.showMessageDialog(this, "Login successful!");
+                enableAllTabs();
+                logActivity("Admin Login", adminUsername);
+            } else {
+                JOptionPane.showMessageDialog(this, "Invalid username or password.");
+            }
+        }
+    }
+
+    private void logActivity(String action, String adminUsername) {
+        logActivity("Manager", adminUsername, action);
+    }
+
+
+
+    // bookId == -1 shows the paged catalog; any other id shows just that book
+    private void refreshBooksTable(int bookId) {
+        if (bookId == -1) {
+            showBooks(booksTableModel);
+            booksTableModel.reload();
+        } else {
+            AsyncBookManager.onEdt(asyncBookManager.getBook(bookId),
+                    row -> showBooks(BooksTableModel.of(Collections.singletonList(row))));
+        }
+    }
+
+    // Swaps the model under booksTable, carrying the sort and filter over to a sorter for the new model
+    private void showBooks(BooksTableModel model) {
+        BooksRowSorter previous = (BooksRowSorter) booksTable.getRowSorter();
+        if (previous != null) {
+            previous.getModel().setLoadAll(false); // stop pulling in rows nobody is looking at
+        }
+        booksTable.setRowSorter(null);
+        booksTable.setModel(model);
+        BooksRowSorter sorter = new BooksRowSorter(model);
+        if (previous != null) {
+            sorter.setFilter(previous.getFilter());
+            sorter.setSortKeys(previous.getSortKeys());
+        }
+        booksTable.setRowSorter(sorter);
+        // setModel rebuilt the columns; ids and years are served as text but still line up as numbers
+        DefaultTableCellRenderer numberRenderer = new DefaultTableCellRenderer();
+        numberRenderer.setHorizontalAlignment(SwingConstants.RIGHT);
+        booksTable.getColumnModel().getColumn(BooksTableModel.ID_COLUMN).setCellRenderer(numberRenderer);
+        booksTable.getColumnModel().getColumn(BooksTableModel.YEAR_COLUMN).setCellRenderer(numberRenderer);
+    }
+
+    private void searchBooksByText(String query) {
+        if (query.trim().isEmpty()) {
+            showBooks(booksTableModel); // back to the full catalog
+            return;
+        }
+        AsyncBookManager.onEdt(asyncBookManager.searchBooks(query, SEARCH_RESULT_LIMIT),
+                rows -> showBooks(BooksTableModel.of(rows)));
+    }
+
+    // Called on whichever thread published the change. Changes are queued and applied on the EDT a burst at a
+    // time; past MAX_CHANGES_PER_UPDATE they are no longer kept and the burst becomes a reload.
+    private void changePublished(ChangeEvent event) {
+        if (pendingChangeCount.incrementAndGet() <= MAX_CHANGES_PER_UPDATE) {
+            pendingChanges.add(event);
+        }
+        if (changesScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::applyPendingChanges);
+        }
+    }
+
+    private void applyPendingChanges() {
+        changesScheduled.set(false);
+        boolean reload = pendingChangeCount.getAndSet(0) > MAX_CHANGES_PER_UPDATE;
+        List<ChangeEvent> events = new ArrayList<>();
+        for (ChangeEvent event; (event = pendingChanges.poll()) != null; ) {
+            events.add(event);
+            reload |= event.type == ChangeEvent.Type.RESYNC;
+        }
+        if (reload) {
+            booksTableModel.reload();
+            refreshIssuedBooksTable();
+            loadActivityLog();
+            return;
+        }
+        for (ChangeEvent event : events) {
+            applyChange(event);
+        }
+        if (desk != null && !desk.isOnline()) {
+            updateDeskStatus();
+        }
+    }
+
+    // Patches the catalog, issued-books and activity tables with one change instead of reloading them
+    private void applyChange(ChangeEvent event) {
+        switch (event.type) {
+            case BOOK_ADDED:
+                booksTableModel.upsert(event.book);
+                break;
+            case BOOK_DELETED:
+                booksTableModel.removeKey(event.bookId);
+                issuedBooksTableModel.removeBook(event.bookId);
+                break;
+            case BOOK_ISSUED:
+                booksTableModel.setStatus(event.bookId, BookColumns.ISSUED);
+                issuedBooksTableModel.upsert(event.loan);
+                updateOverdueCount();
+                updatePatronLoans();
+                break;
+            case BOOK_RETURNED:
+                booksTableModel.setStatus(event.bookId, BookColumns.AVAILABLE);
+                issuedBooksTableModel.removeBook(event.bookId);
+                updateOverdueCount();
+                updatePatronLoans();
+                break;
+            case BOOK_HELD:
+                booksTableModel.setStatus(event.bookId, BookColumns.HELD);
+                break;
+            case BOOK_RELEASED:
+                booksTableModel.setStatus(event.bookId, BookColumns.AVAILABLE);
+                break;
+            case ACTIVITY_LOGGED:
+                ActivityLogWriter.ActivityEntry entry = event.activity;
+                activityLogTableModel.addPending(entry.registrationNo, entry.name, entry.activity, entry.date, entry.time);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // The loan and patron indexes and the report figures are read from the database once it has been reached: at startup, or after the
+    // first replay for a desk that started offline. The search index comes from the catalog snapshot (SnapshotSync).
+    private void buildIndexes() {
+        indexesBuilt = true;
+        OverdueEngine overdueEngine = bookManager.getOverdueEngine();
+        PatronIndex patrons = bookManager.getPatrons();
+        AsyncBookManager.onEdt(asyncBookManager.submitSql(() -> {
+            overdueEngine.build(shards);
+            return overdueEngine.size();
+        }), count -> {
+            updateOverdueCount();
+            overdueSweeper.start(0, OVERDUE_SWEEP_MILLIS); // the sweep reads the loan index, so start once it is loaded
+            holdSweeper.start(0, HOLD_SWEEP_MILLIS);
+        },
+            ex -> JOptionPane.showMessageDialog(null, "Error loading loans: " + ex.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE));
+        AsyncBookManager.onEdt(asyncBookManager.submitSql(() -> {
+            patrons.build(shards);
+            return patrons.size();
+        }), count -> updatePatronLoans(),
+            ex -> JOptionPane.showMessageDialog(null, "Error loading patrons: " + ex.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE));
+        CirculationStats stats = bookManager.getStats();
+        AsyncBookManager.onEdt(asyncBookManager.submitSql(() -> {
+            stats.build(shards, bookManager.getChanges());
+            return stats;
+        }), built -> { },
+            ex -> JOptionPane.showMessageDialog(null, "Error loading report figures: " + ex.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    // The journal has been replayed; offline changes that no longer fit are shown for the desk to sort out
+    private void backOnline(OfflineDesk.ReplayResult result) {
+        if (!indexesBuilt) {
+            buildIndexes();
+        }
+        updateDeskStatus();
+        if (!result.conflicts.isEmpty()) {
+            JTextArea text = new JTextArea(String.join("\n", result.conflicts), 10, 60);
+            text.setEditable(false);
+            JOptionPane.showMessageDialog(this, new Object[]{result.toString() + ". These offline changes were not applied:",
+                    new JScrollPane(text)}, "Offline Changes", JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
+    // The window title says which branch this is and whether the desk is working offline
+    private void updateDeskStatus() {
+        String title = "Library Management System" + (shards.isSharded() ? " - " + shards.home().name + " branch" : "");
+        if (desk != null && !desk.isOnline()) {
+            title += " - OFFLINE, " + desk.getPendingCount() + " change(s) waiting";
+        }
+        setTitle(title);
+    }
+
+    private void refreshIssuedBooksTable() {
+        issuedBooksTableModel.reload();
+        updateOverdueCount();
+    }
+
+    private void updateOverdueCount() {
+        OverdueEngine overdueEngine = bookManager.getOverdueEngine();
+        if (overdueCountLabel != null && overdueEngine.isReady()) {
+            String text = "Overdue: " + overdueEngine.getOverdueCount(overdueEngine.today());
+            if (lastSweep != null) {
+                text += "    Fines assessed on " + lastSweep.day + ": " + lastSweep.finesAssessed;
+            }
+            overdueCountLabel.setText(text);
+        }
+    }
+
+    // "Books Out" on the Issue Book tab, for the registration number being entered
+    private void updatePatronLoans() {
+        PatronIndex patrons = bookManager.getPatrons();
+        if (patronLoansLabel == null) {
+            return;
+        }
+        String registrationNumber = issueRegistrationField.getText().trim();
+        if (registrationNumber.isEmpty()) {
+            patronLoansLabel.setText("");
+        } else if (!patrons.isReady()) {
+            patronLoansLabel.setText("Loading...");
+        } else {
+            PatronIndex.Patron patron = patrons.get(registrationNumber);
+            int out = patron == null ? 0 : patron.getActiveLoans();
+            patronLoansLabel.setText(out + " of " + patrons.getLoanLimit()
+                    + (patron != null && patron.lastVisitDate != null ? "    Last visit: " + patron.lastVisitDate : ""));
+        }
+    }
+
+    // Metrics are published over JMX (lms:*) for jconsole; the client runs fine without them
+    private static void registerMetrics(DatabaseConnection db) {
+        try {
+            db.registerMBeans();
+        } catch (DatabaseException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) {
+        SwingUtilities.invokeLater(LibraryManagementSystem::new);
+    }
+}
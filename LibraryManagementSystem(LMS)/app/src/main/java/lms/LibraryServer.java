@@ -0,0 +1,102 @@
+package lms;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.sql.SQLException;
+
+// Headless entry point: runs BookManager behind the HTTP API with no Swing window, so several desks can share
+// one process. Also runs the overdue fine sweep. Metrics are at /api/metrics and over JMX under lms:*;
+// -Dlms.slowQueryMillis=N logs every statement or operation slower than N ms to stderr.
+//   java -Dlms.db.url=jdbc:mysql://... -Dlms.db.user=root -Dlms.db.password=... -cp lms-app.jar lms.LibraryServer [port]
+//   java -Dlms.storage=embedded -Dlms.db.path=library-data/library -cp lms-app.jar lms.LibraryServer [port]
+// Add -Dlms.shards (see ShardMap) to spread the catalog over several branch databases. Desktop clients started with
+// -Dlms.events.url=http://<this host>:<port>/api/events share their changes through this server (see ChangeFeed);
+// give the server and the desks the same -Dlms.events.secret when the desks run on other machines.
+// -Dlms.loanLimit=N caps the books one student can have out (PatronIndex.DEFAULT_LOAN_LIMIT by default).
+public class LibraryServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final int HTTP_THREADS = 16;
+    private static final int POOL_SIZE = 20;
+    private static final int CATALOG_CACHE_SIZE = 100000;
+    private static final long CACHE_RECONCILE_MILLIS = 5 * 60 * 1000L;
+    private static final long OVERDUE_SWEEP_MILLIS = 15 * 60 * 1000L;
+    private static final int OVERDUE_SWEEP_CHUNK = 500;
+    private static final long HOLD_SWEEP_MILLIS = 15 * 60 * 1000L;
+    private static final int HOLD_SWEEP_CHUNK = 500;
+    private static final BigDecimal FINE_PER_DAY = new BigDecimal("1.00");
+    private static final int SHUTDOWN_DELAY_SECONDS = 5;
+
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        DatabaseConnection db;
+        ShardMap shards;
+        try {
+            StorageBackend mysql = new MySqlBackend(System.getProperty("lms.db.url", MySqlBackend.DEFAULT_URL),
+                    System.getProperty("lms.db.user", "root"), System.getProperty("lms.db.password", ""));
+            db = new DatabaseConnection(StorageBackend.select(mysql), POOL_SIZE);
+            try {
+                shards = ShardMap.fromSystemProperties(db, mysql, POOL_SIZE);
+            } catch (DatabaseException e) {
+                db.closeConnection();
+                throw e;
+            }
+        } catch (DatabaseException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        try {
+            CatalogCache catalogCache = new CatalogCache(CATALOG_CACHE_SIZE);
+            catalogCache.startReconciliation(shards, CACHE_RECONCILE_MILLIS);
+            SearchIndex searchIndex = new SearchIndex();
+            OverdueEngine overdueEngine = new OverdueEngine();
+            FineLedger fineLedger = new FineLedger(shards, FINE_PER_DAY);
+            PatronIndex patrons = PatronIndex.fromSystemProperties();
+            CirculationStats stats = new CirculationStats();
+            HoldQueue holds = HoldQueue.fromSystemProperties(shards);
+            BookManager bookManager = BookManager.builder(shards).cache(catalogCache).searchIndex(searchIndex)
+                    .overdueEngine(overdueEngine).fineLedger(fineLedger).patrons(patrons).stats(stats).holds(holds).build();
+            try {
+                db.registerMBeans();
+            } catch (DatabaseException e) {
+                System.err.println(e.getMessage()); // JMX is optional; /api/metrics still works
+            }
+            // Unlike the desktop client, requests are not served until the indexes are loaded
+            searchIndex.build(shards);
+            overdueEngine.build(shards);
+            patrons.build(shards);
+            stats.build(shards, bookManager.getChanges());
+            OverdueSweeper overdueSweeper = new OverdueSweeper(shards, overdueEngine, fineLedger, OVERDUE_SWEEP_CHUNK,
+                    result -> System.out.println(result));
+            overdueSweeper.start(0, OVERDUE_SWEEP_MILLIS);
+            HoldSweeper holdSweeper = new HoldSweeper(shards, holds, overdueEngine, bookManager.getChanges(), HOLD_SWEEP_CHUNK,
+                    result -> System.out.println(result));
+            holdSweeper.start(0, HOLD_SWEEP_MILLIS);
+
+            LibraryHttpApi api = new LibraryHttpApi(db, bookManager, new InetSocketAddress(port), HTTP_THREADS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                api.stop(SHUTDOWN_DELAY_SECONDS);
+                overdueSweeper.shutdown();
+                holdSweeper.shutdown();
+                catalogCache.shutdown();
+                try {
+                    shards.close();
+                } catch (DatabaseException e) {
+                    System.err.println(e.getMessage());
+                }
+            }, "lms-shutdown"));
+            api.start();
+            System.out.println("Library API listening on port " + api.getPort()
+                    + " (" + searchIndex.size() + " books, " + overdueEngine.size() + " open loans, " + patrons.size() + " patrons, branches " + shards + ").");
+        } catch (DatabaseException | SQLException | IOException e) {
+            System.err.println("Failed to start the library server: " + e.getMessage());
+            try {
+                shards.close();
+            } catch (DatabaseException closeError) {
+                System.err.println(closeError.getMessage());
+            }
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package lms;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Publishes the pool, statement, operation and slow-query numbers of one DatabaseConnection on the platform
+// MBean server under "lms:", for jconsole, VisualVM or a JMX collector. Statements and operations registered
+// after start() are picked up as they appear.
+final class MetricsJmx {
+    static final String DOMAIN = "lms";
+
+    private final DatabaseConnection db;
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final Set<ObjectName> registered = ConcurrentHashMap.newKeySet();
+
+    MetricsJmx(DatabaseConnection db) {
+        this.db = db;
+    }
+
+    synchronized void start() throws JMException {
+        PoolMetrics pool = db.getPoolMetrics();
+        register(name("ConnectionPool", null), new MetricsMBean("Connection pool")
+                .counter("Checkouts", "Connections handed out", pool.checkouts::get)
+                .counter("Timeouts", "Checkouts that gave up waiting", pool.timeouts::get)
+                .counter("ConnectionsOpened", "Physical connections opened", pool.connectionsOpened::get)
+                .counter("ConnectFailures", "Failed connection attempts", pool.connectFailures::get)
+                .counter("ValidationFailures", "Connections found dead on checkout", pool.validationFailures::get)
+                .counter("LeaksDetected", "Checkouts held past the leak threshold", pool.leaksDetected::get)
+                .gauge("AverageWaitMillis", "Mean wait for a connection (ms)", pool::getAverageWaitMillis)
+                .gauge("MaxWaitMillis", "Longest wait for a connection (ms)", pool::getMaxWaitMillis)
+                .gauge("AverageCheckoutMillis", "Mean time a connection is held (ms)", pool::getAverageCheckoutMillis)
+                .gauge("MaxCheckoutMillis", "Longest time a connection was held (ms)", pool::getMaxCheckoutMillis));
+        SlowQueryLog slowQueryLog = db.getSlowQueryLog();
+        register(name("SlowQueryLog", null), new MetricsMBean("Slow statement and operation log")
+                .counter("ThresholdMillis", "Threshold in ms (0 = off)", slowQueryLog::getThresholdMillis)
+                .counter("Logged", "Entries written", slowQueryLog::getLoggedCount));
+        registerNew();
+        db.getStatementRegistry().setOnRegister(this::registerNewQuietly);
+        db.getOperationMetrics().setOnRegister(this::registerNewQuietly);
+    }
+
+    synchronized void stop() {
+        db.getStatementRegistry().setOnRegister(null);
+        db.getOperationMetrics().setOnRegister(null);
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (InstanceNotFoundException | MBeanRegistrationException e) {
+                // already gone
+            }
+        }
+        registered.clear();
+    }
+
+    private synchronized void registerNew() throws JMException {
+        for (Map.Entry<String, StatementRegistry.StatementStats> e : db.getStatementRegistry().getStats().entrySet()) {
+            ObjectName name = name("Statement", e.getKey());
+            if (!registered.contains(name)) {
+                StatementRegistry.StatementStats stats = e.getValue();
+                register(name, new MetricsMBean("Prepared statement " + e.getKey())
+                        .latency(stats.latency)
+                        .counter("Errors", "Executions that failed", stats.errors::get)
+                        .counter("Prepares", "Times the statement was prepared", stats.prepares::get));
+            }
+        }
+        for (Map.Entry<String, OperationMetrics.OperationStats> e : db.getOperationMetrics().getStats().entrySet()) {
+            ObjectName name = name("Operation", e.getKey());
+            if (!registered.contains(name)) {
+                OperationMetrics.OperationStats stats = e.getValue();
+                register(name, new MetricsMBean("Library operation " + e.getKey())
+                        .latency(stats.latency)
+                        .counter("Errors", "Calls that failed", stats.errors::get)
+                        .counter("Rejections", "Calls refused as invalid, not found or conflicting", stats.rejections::get)
+                        .counter("Rows", "Rows returned", stats.rows::get)
+                        .gauge("ErrorRate", "Errors per call", stats::getErrorRate));
+            }
+        }
+    }
+
+    private void registerNewQuietly() {
+        try {
+            registerNew();
+        } catch (JMException e) {
+            System.err.println("Could not publish metrics over JMX: " + e.getMessage());
+        }
+    }
+
+    // A second connection in the same JVM (or a restart without stop) takes over the name
+    private void register(ObjectName name, MetricsMBean mbean) throws JMException {
+        try {
+            server.registerMBean(mbean, name);
+        } catch (InstanceAlreadyExistsException e) {
+            server.unregisterMBean(name);
+            server.registerMBean(mbean, name);
+        }
+        registered.add(name);
+    }
+
+    private static ObjectName name(String type, String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + type + (name == null ? "" : ",name=" + ObjectName.quote(name)));
+    }
+}
@@ -0,0 +1,105 @@
+package lms;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// Read-only MBean whose attributes are read live from the metrics objects, so nothing is copied or
+// refreshed in the background. Built with counter/gauge/latency calls.
+final class MetricsMBean implements DynamicMBean {
+    private static final class Attr {
+        final MBeanAttributeInfo info;
+        final Supplier<Object> value;
+
+        Attr(MBeanAttributeInfo info, Supplier<Object> value) {
+            this.info = info;
+            this.value = value;
+        }
+    }
+
+    private final String description;
+    private final Map<String, Attr> attributes = new LinkedHashMap<>();
+
+    MetricsMBean(String description) {
+        this.description = description;
+    }
+
+    MetricsMBean counter(String name, String description, LongSupplier value) {
+        attributes.put(name, new Attr(new MBeanAttributeInfo(name, "long", description, true, false, false),
+                value::getAsLong));
+        return this;
+    }
+
+    MetricsMBean gauge(String name, String description, DoubleSupplier value) {
+        attributes.put(name, new Attr(new MBeanAttributeInfo(name, "double", description, true, false, false),
+                value::getAsDouble));
+        return this;
+    }
+
+    MetricsMBean latency(LatencyHistogram histogram) {
+        return counter("Count", "Calls recorded", histogram::getCount)
+                .gauge("MeanMillis", "Mean latency (ms)", histogram::getMeanMillis)
+                .gauge("P50Millis", "Median latency (ms, bucket upper bound)", () -> histogram.getPercentileMillis(50))
+                .gauge("P99Millis", "99th percentile latency (ms, bucket upper bound)", () -> histogram.getPercentileMillis(99))
+                .gauge("MaxMillis", "Slowest call (ms)", histogram::getMaxMillis);
+    }
+
+    @Override
+    public Object getAttribute(String name) throws AttributeNotFoundException {
+        Attr attr = attributes.get(name);
+        if (attr == null) {
+            throw new AttributeNotFoundException(name);
+        }
+        return attr.value.get();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        AttributeList list = new AttributeList();
+        for (String name : names) {
+            Attr attr = attributes.get(name);
+            if (attr != null) {
+                list.add(new Attribute(name, attr.value.get()));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList list) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature) throws MBeanException, ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(action), "Metrics MBeans have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        MBeanAttributeInfo[] infos = new MBeanAttributeInfo[attributes.size()];
+        int i = 0;
+        for (Attr attr : attributes.values()) {
+            infos[i++] = attr.info;
+        }
+        return new MBeanInfo(MetricsMBean.class.getName(), description, infos, null,
+                new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+    }
+}
@@ -0,0 +1,41 @@
+package lms;
+
+// The MySQL server. The database itself is created by hand; SchemaMigrations creates and upgrades the tables.
+class MySqlBackend implements StorageBackend {
+    static final String DEFAULT_URL = "jdbc:mysql://localhost:3306/library_management?rewriteBatchedStatements=true&useServerPrepStmts=true&connectTimeout=3000";
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    MySqlBackend(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    @Override
+    public String getName() {
+        return "MySQL";
+    }
+
+    @Override
+    public String getDriverClassName() {
+        return "com.mysql.cj.jdbc.Driver";
+    }
+
+    @Override
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public String getUser() {
+        return user;
+    }
+
+    @Override
+    public String getPassword() {
+        return password;
+    }
+}
@@ -0,0 +1,799 @@
+package lms;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+// A checkout desk that keeps working while the database cannot be reached. Online, every call goes straight to
+// BookManager. When one fails because the database is unreachable (not because of the request), the desk goes
+// offline: issues, returns, new books and activity entries are checked against the last catalog snapshot
+// (CatalogSnapshot, read in place) with the changes on the change bus since laid over it, written to the desk journal (DeskJournal) and announced
+// on the bus as usual, so the tables and patron index move on as if nothing happened. Activity entries the log
+// writer accepted while the desk was still online, but could not write, are journaled too. Every PROBE_MILLIS the desk
+// tries the database; once it answers, the journal is replayed in order through BookManager, skipping whatever
+// already reached the database and reporting what no longer fits (the book went to someone else meanwhile).
+//
+//   -Dlms.offline=false              fail instead of working offline
+//   -Dlms.journal.path=...           the journal file (default library-data/desk.journal)
+class OfflineDesk {
+    static final String ENABLED_PROPERTY = "lms.offline";
+    static final String JOURNAL_PROPERTY = "lms.journal.path";
+    static final String DEFAULT_JOURNAL = "library-data/desk.journal";
+    private static final long PROBE_MILLIS = 5000;
+    private static final int REPLAY_BATCH_SIZE = 500; // activity entries per replay transaction
+    private static final int SCAN_PAGE_SIZE = 1000;
+
+    // Told when the desk goes offline and when a replay has brought it back online, on whichever thread noticed;
+    // UI listeners hop to the EDT
+    interface Listener {
+        void wentOffline(Throwable cause);
+
+        void replayed(ReplayResult result);
+    }
+
+    // What one replay of the journal did
+    static final class ReplayResult {
+        final int applied;
+        final int skipped; // already in the database
+        final List<String> conflicts;
+        final long elapsedMillis;
+
+        ReplayResult(int applied, int skipped, List<String> conflicts, long elapsedMillis) {
+            this.applied = applied;
+            this.skipped = skipped;
+            this.conflicts = Collections.unmodifiableList(conflicts);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Replayed the desk journal: " + applied + " applied, " + skipped + " already done, "
+                    + conflicts.size() + " conflicts in " + elapsedMillis + " ms";
+        }
+    }
+
+    // Work that may fail because the database is unreachable
+    private interface DeskCall<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private enum Outcome { APPLIED, SKIPPED, CONFLICT }
+
+    private final BookManager bookManager;
+    private final ActivityLogWriter activityLog;
+    private final DeskJournal journal;
+    private final SnapshotSync snapshots; // null without a catalog snapshot
+    private final Listener listener;
+    private final ChangeBus changes;
+    private final Consumer<ChangeEvent> viewUpdater = this::applyToView;
+    // Offline writes hold the read lock, so replay can switch back online between them but never during one
+    private final ReadWriteLock modeLock = new ReentrantReadWriteLock();
+    private final Object offlineWrites = new Object(); // serialises the check and the write of book changes
+    private final AtomicInteger provisionalIds = new AtomicInteger(); // loan IDs handed out offline, negative
+    private volatile boolean online;
+    private ScheduledExecutorService scheduler;
+    // The offline view of the catalog, guarded by books: the snapshot, read in place, with the books added or
+    // deleted since laid over it (a deleted book maps to null), every open loan and every copy kept for a hold. A
+    // book's status comes from loans and held.
+    private CatalogSnapshot base;
+    private final TreeMap<Integer, BookRow> books = new TreeMap<>();
+    private final TreeMap<Integer, IssuedBookRow> loans = new TreeMap<>(); // by book ID
+    private final Map<Integer, String> held = new HashMap<>(); // registration number the copy is kept for, by book ID
+
+    // Starts online unless the database has not been reached yet or an earlier run left entries to replay
+    OfflineDesk(BookManager bookManager, ActivityLogWriter activityLog, DeskJournal journal, SnapshotSync snapshots, Listener listener) {
+        this.bookManager = bookManager;
+        this.activityLog = activityLog;
+        this.journal = journal;
+        this.snapshots = snapshots;
+        this.listener = listener;
+        this.changes = bookManager.getChanges();
+        this.online = bookManager.getShards().home().db.hasConnected() && journal.getPendingCount() == 0;
+        activityLog.setFallback(this::keepActivity);
+    }
+
+    static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+    }
+
+    // The desk configured with -Dlms.journal.path, or null with -Dlms.offline=false
+    static OfflineDesk fromSystemProperties(BookManager bookManager, ActivityLogWriter activityLog, SnapshotSync snapshots,
+                                            Listener listener) throws DatabaseException {
+        if (!isEnabled()) {
+            return null;
+        }
+        Path journalPath = Paths.get(System.getProperty(JOURNAL_PROPERTY, DEFAULT_JOURNAL));
+        try {
+            return new OfflineDesk(bookManager, activityLog, new DeskJournal(journalPath), snapshots, listener);
+        } catch (IOException e) {
+            throw new DatabaseException("Failed to open the desk journal " + journalPath + ": " + e.getMessage());
+        }
+    }
+
+    // True when the failure means the database could not be reached, as opposed to a bad request or statement
+    static boolean isOutage(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLNonTransientConnectionException || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                if (state != null && state.startsWith("08")) { // connection exception
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Starts the background reconnect probe; a desk that starts offline loads its view first
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        if (!online) {
+            offlineSince(null);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lms-offline-desk");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::probe, PROBE_MILLIS, PROBE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        changes.unsubscribe(viewUpdater);
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close the desk journal: " + e.getMessage());
+        }
+        if (journal.getPendingCount() > 0) {
+            System.out.println(journal.getPendingCount() + " offline change(s) kept in " + journal.getPath() + " for the next run.");
+        }
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    // Changes made offline and not yet in the database
+    public int getPendingCount() {
+        return journal.getPendingCount();
+    }
+
+    public BookRow addBook(int id, String title, String author, String publisher, int year) throws LibraryException {
+        return write(() -> bookManager.addBook(id, title, author, publisher, year), () -> {
+            if (!BookManager.isValidBook(id, title, author, publisher, year)) {
+                throw new LibraryException(LibraryException.Reason.INVALID, "Invalid input, please check the book details.");
+            }
+            if (bookManager.getShards().forBook(id) == null) {
+                throw new LibraryException(LibraryException.Reason.INVALID, "Book ID " + id + " is outside every branch's ID range.");
+            }
+            synchronized (offlineWrites) {
+                synchronized (books) {
+                    if (viewBook(id) != null) {
+                        throw new LibraryException(LibraryException.Reason.CONFLICT, "Error: Book with ID " + id + " already exists.");
+                    }
+                }
+                BookRow row = new BookRow(id, title, author, publisher, year, BookColumns.AVAILABLE);
+                record(ChangeEvent.bookAdded(row));
+                if (bookManager.getSearchIndex() != null) {
+                    bookManager.getSearchIndex().add(id, title, author, publisher, year);
+                }
+                changes.publish(ChangeEvent.bookAdded(row));
+                return row;
+            }
+        });
+    }
+
+    // Deleting needs the database: a book deleted here could be on loan at another desk
+    public void deleteBook(int bookId) throws LibraryException {
+        write(() -> {
+            bookManager.deleteBook(bookId);
+            return null;
+        }, () -> {
+            throw new LibraryException(LibraryException.Reason.UNAVAILABLE,
+                    "The database is unreachable; books can be deleted once it is back.");
+        });
+    }
+
+    public IssuedBookRow issueBook(int bookId, String studentName, String registrationNumber) throws LibraryException {
+        return write(() -> bookManager.issueBook(bookId, studentName, registrationNumber), () -> {
+            if (bookId <= 0 || studentName == null || studentName.trim().isEmpty()
+                    || registrationNumber == null || registrationNumber.trim().isEmpty()) {
+                throw new LibraryException(LibraryException.Reason.INVALID, "Please enter valid details for issuing the book.");
+            }
+            LocalDate today = bookManager.getOverdueEngine().today();
+            PatronIndex patrons = bookManager.getPatrons();
+            synchronized (offlineWrites) {
+                BookRow book;
+                String keptFor;
+                synchronized (books) {
+                    book = loans.containsKey(bookId) ? null : viewBook(bookId);
+                    keptFor = held.get(bookId);
+                }
+                if (book == null) {
+                    throw new LibraryException(LibraryException.Reason.CONFLICT, "Book cannot be issued (either does not exist or is already issued).");
+                }
+                // The holder collects their hold by borrowing the copy, as online; the replay removes the hold
+                if (keptFor != null && !keptFor.equals(registrationNumber)) {
+                    throw new LibraryException(LibraryException.Reason.CONFLICT, "Book " + bookId + " is being kept for " + keptFor + ".");
+                }
+                if (patrons != null && !patrons.reserveLoan(registrationNumber, studentName)) {
+                    throw new LibraryException(LibraryException.Reason.CONFLICT, "Student " + registrationNumber
+                            + " already has " + patrons.getLoanLimit() + " books out, the most allowed. Return one first.");
+                }
+                LocalDate returnDate = OverdueEngine.returnDateFor(today);
+                IssuedBookRow loan = new IssuedBookRow(provisionalIds.decrementAndGet(), bookId, book.title, studentName,
+                        registrationNumber, today, returnDate, OverdueEngine.overdueDateFor(returnDate), false);
+                try {
+                    record(ChangeEvent.bookIssued(loan));
+                } catch (LibraryException e) {
+                    if (patrons != null) {
+                        patrons.releaseLoan(registrationNumber);
+                    }
+                    throw e;
+                }
+                if (patrons != null) {
+                    patrons.loanConfirmed(registrationNumber, studentName, bookId, today);
+                }
+                changes.publish(ChangeEvent.bookIssued(loan));
+                return loan;
+            }
+        });
+    }
+
+    // Offline there is no hold queue to consult: the copy is passed on to a waiting student when the return is replayed
+    public HoldQueue.Hold returnBook(int bookId) throws LibraryException {
+        return write(() -> bookManager.returnBook(bookId), () -> {
+            synchronized (offlineWrites) {
+                IssuedBookRow loan;
+                synchronized (books) {
+                    loan = loans.get(bookId);
+                }
+                if (loan == null) {
+                    throw new LibraryException(LibraryException.Reason.CONFLICT, "Book cannot be returned (either does not exist or was not issued).");
+                }
+                record(ChangeEvent.bookReturned(loan));
+                if (bookManager.getPatrons() != null) {
+                    bookManager.getPatrons().loanClosed(bookId);
+                }
+                changes.publish(ChangeEvent.bookReturned(loan));
+                return null;
+            }
+        });
+    }
+
+    // Holds need the database: the queue lives there, next to the loans it waits on
+    public HoldQueue.Hold placeHold(int bookId, String studentName, String registrationNumber) throws LibraryException {
+        return write(() -> bookManager.placeHold(bookId, studentName, registrationNumber), () -> {
+            throw new LibraryException(LibraryException.Reason.UNAVAILABLE,
+                    "The database is unreachable; holds can be placed once it is back.");
+        });
+    }
+
+    public HoldQueue.Hold cancelHold(int bookId, String registrationNumber) throws LibraryException {
+        return write(() -> bookManager.cancelHold(bookId, registrationNumber), () -> {
+            throw new LibraryException(LibraryException.Reason.UNAVAILABLE,
+                    "The database is unreachable; holds can be cancelled once it is back.");
+        });
+    }
+
+    // Online the entry goes to the activity log writer as usual; offline it is journaled. False when neither took it.
+    public boolean logActivity(ActivityLogWriter.ActivityEntry entry) {
+        if (online) {
+            return activityLog.log(entry);
+        }
+        modeLock.readLock().lock();
+        try {
+            if (online) {
+                return activityLog.log(entry);
+            }
+            // No offlineWrites here: entries do not depend on each other, so concurrent ones share a journal fsync
+            record(ChangeEvent.activityLogged(entry));
+        } catch (LibraryException e) {
+            System.err.println(e.getMessage());
+            return false;
+        } finally {
+            modeLock.readLock().unlock();
+        }
+        changes.publish(ChangeEvent.activityLogged(entry));
+        return true;
+    }
+
+    // Entries the activity log writer took while the desk was online but could not write because the database went
+    // away: the desk goes offline and journals them, so they are not lost if the outage outlasts this run
+    private boolean keepActivity(List<ActivityLogWriter.ActivityEntry> entries, Throwable cause) {
+        offlineSince(cause);
+        modeLock.readLock().lock();
+        try {
+            if (online) {
+                return false; // back already; the writer tries the database again
+            }
+            for (ActivityLogWriter.ActivityEntry entry : entries) {
+                record(ChangeEvent.activityLogged(entry));
+            }
+        } catch (LibraryException e) {
+            System.err.println(e.getMessage());
+            return false; // any already journaled are skipped on replay once the writer gets them in
+        } finally {
+            modeLock.readLock().unlock();
+        }
+        for (ActivityLogWriter.ActivityEntry entry : entries) {
+            changes.publish(ChangeEvent.activityLogged(entry));
+        }
+        return true;
+    }
+
+    public BookRow getBook(int bookId) throws LibraryException {
+        return read(() -> bookManager.getBook(bookId), () -> {
+            BookRow book;
+            synchronized (books) {
+                book = viewBook(bookId);
+            }
+            if (book == null) {
+                throw new LibraryException(LibraryException.Reason.NOT_FOUND, "Book ID not found.");
+            }
+            return book;
+        });
+    }
+
+    public List<BookRow> getBooksPage(int afterId, int limit) throws LibraryException {
+        return read(() -> bookManager.getBooksPage(afterId, limit), () -> {
+            synchronized (books) {
+                return viewBooksPage(afterId, limit);
+            }
+        });
+    }
+
+    public List<IssuedBookRow> getIssuedBooksPage(int afterBookId, int limit) throws LibraryException {
+        return read(() -> bookManager.getIssuedBooksPage(afterBookId, limit), () -> {
+            synchronized (books) {
+                return new ArrayList<>(first(loans.tailMap(afterBookId, false).values(), limit));
+            }
+        });
+    }
+
+    // Offline the search index answers when it is loaded (books added offline go into it too), with the status
+    // taken from the view; otherwise the view is scanned for books whose ID, title, author, publisher or year
+    // contain every word
+    public List<BookRow> searchBooks(String query, int limit) throws LibraryException {
+        return read(() -> bookManager.searchBooks(query, limit), () -> {
+            List<BookRow> rows = new ArrayList<>();
+            SearchIndex searchIndex = bookManager.getSearchIndex();
+            if (searchIndex != null && searchIndex.isReady()) {
+                List<SearchIndex.Doc> hits = searchIndex.search(query, limit);
+                synchronized (books) {
+                    for (SearchIndex.Doc hit : hits) {
+                        BookRow book = viewBook(hit.id);
+                        if (book != null) {
+                            rows.add(book);
+                        }
+                    }
+                }
+                return rows;
+            }
+            String[] words = query.toLowerCase(Locale.ROOT).trim().split("\\s+");
+            synchronized (books) {
+                int after = 0;
+                List<BookRow> page;
+                do {
+                    page = viewBooksPage(after, SCAN_PAGE_SIZE);
+                    for (BookRow book : page) {
+                        String text = (book.id + " " + book.title + " " + book.author + " " + book.publisher + " " + book.year)
+                                .toLowerCase(Locale.ROOT);
+                        boolean matches = true;
+                        for (String word : words) {
+                            matches &= text.contains(word);
+                        }
+                        if (matches && rows.add(book) && rows.size() == limit) {
+                            return rows;
+                        }
+                        after = book.id;
+                    }
+                } while (page.size() == SCAN_PAGE_SIZE);
+            }
+            return rows;
+        });
+    }
+
+    // The book as the view has it, or null; called holding books
+    private BookRow viewBook(int bookId) {
+        BookRow book;
+        if (books.containsKey(bookId)) {
+            book = books.get(bookId);
+        } else {
+            int index = base == null ? -1 : base.indexOf(bookId);
+            book = index < 0 ? null : base.getBookAt(index);
+        }
+        return book == null ? null : withLoanStatus(book);
+    }
+
+    // The snapshot's books and the ones laid over them, merged in ID order; called holding books
+    private List<BookRow> viewBooksPage(int afterId, int limit) {
+        List<BookRow> page = new ArrayList<>(Math.min(limit, 1024));
+        Iterator<Map.Entry<Integer, BookRow>> changed = books.tailMap(afterId, false).entrySet().iterator();
+        Map.Entry<Integer, BookRow> change = changed.hasNext() ? changed.next() : null;
+        int next = base == null ? 0 : base.indexAfter(afterId);
+        int count = base == null ? 0 : base.getBookCount();
+        while (page.size() < limit && (next < count || change != null)) {
+            BookRow book;
+            if (next < count && (change == null || base.getBookId(next) < change.getKey())) {
+                book = base.getBookAt(next++);
+            } else {
+                if (next < count && base.getBookId(next) == change.getKey()) {
+                    next++; // replaced or deleted since the snapshot
+                }
+                book = change.getValue();
+                change = changed.hasNext() ? changed.next() : null;
+            }
+            if (book != null) {
+                page.add(withLoanStatus(book));
+            }
+        }
+        return page;
+    }
+
+    private BookRow withLoanStatus(BookRow book) {
+        return book.withStatus(loans.containsKey(book.id) ? BookColumns.ISSUED
+                : held.containsKey(book.id) ? BookColumns.HELD : BookColumns.AVAILABLE);
+    }
+
+    private <T> T write(DeskCall<T, LibraryException> onlineCall, DeskCall<T, LibraryException> offlineCall) throws LibraryException {
+        while (true) {
+            if (online) {
+                try {
+                    return onlineCall.run();
+                } catch (LibraryException e) {
+                    if (!isOutage(e)) {
+                        throw e;
+                    }
+                    offlineSince(e);
+                }
+            }
+            modeLock.readLock().lock();
+            try {
+                if (!online) {
+                    return offlineCall.run();
+                }
+            } finally {
+                modeLock.readLock().unlock();
+            }
+            // back online while waiting for the lock
+        }
+    }
+
+    private <T, E extends Exception> T read(DeskCall<T, E> onlineCall, DeskCall<T, E> offlineCall) throws E {
+        if (online) {
+            try {
+                return onlineCall.run();
+            } catch (Exception e) {
+                if (!isOutage(e)) {
+                    throw e;
+                }
+                offlineSince(e);
+            }
+        }
+        return offlineCall.run();
+    }
+
+    private void record(ChangeEvent event) throws LibraryException {
+        try {
+            journal.record(bookManager.getOverdueEngine().today(), event);
+        } catch (IOException e) {
+            throw new LibraryException(LibraryException.Reason.UNAVAILABLE,
+                    "The database is unreachable and the desk journal could not be written: " + e.getMessage(), e);
+        }
+    }
+
+    // Switches to the offline view: the snapshot, anything journaled that it misses, then every change on the bus.
+    // cause is null for a desk that starts offline.
+    private void offlineSince(Throwable cause) {
+        modeLock.writeLock().lock();
+        try {
+            if (!online && cause != null) {
+                return;
+            }
+            online = false;
+            loadView();
+        } finally {
+            modeLock.writeLock().unlock();
+        }
+        System.err.println("Working offline" + (cause == null ? "" : ": " + cause.getMessage()));
+        listener.wentOffline(cause);
+    }
+
+    private void loadView() {
+        CatalogSnapshot snapshot = snapshots == null ? null : snapshots.getSnapshot();
+        if (snapshot == null) {
+            System.err.println("No catalog snapshot to work from; only books added offline can be issued.");
+        }
+        changes.unsubscribe(viewUpdater);
+        synchronized (books) {
+            base = snapshot;
+            books.clear();
+            loans.clear();
+            held.clear();
+            if (snapshot != null) {
+                LocalDate today = bookManager.getOverdueEngine().today();
+                for (int i = 0; i < snapshot.getLoanCount(); i++) {
+                    IssuedBookRow loan = snapshot.getLoanAt(i, today);
+                    loans.put(loan.bookId, loan);
+                }
+                for (int i = 0; i < snapshot.getHeldCount(); i++) {
+                    held.put(snapshot.getHeldBookId(i), snapshot.getHeldFor(i));
+                }
+            }
+        }
+        try {
+            for (DeskJournal.Entry entry : journal.readPending()) {
+                applyToView(entry.event);
+                if (entry.event.type == ChangeEvent.Type.BOOK_ISSUED && bookManager.getPatrons() != null) {
+                    IssuedBookRow loan = entry.event.loan;
+                    bookManager.getPatrons().loanOpened(loan.registrationNumber, loan.studentName, loan.bookId, entry.day);
+                } else if (entry.event.type == ChangeEvent.Type.BOOK_RETURNED && bookManager.getPatrons() != null) {
+                    bookManager.getPatrons().loanClosed(entry.event.bookId);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot read the desk journal: " + e.getMessage());
+        }
+        // Changes made in this run after the snapshot was taken are still on the bus; an older snapshot gets none
+        boolean sameRun = snapshot != null && snapshot.origin.equals(changes.getOrigin());
+        long resumedAfter = changes.subscribe(sameRun ? snapshot.sequence : -1, viewUpdater);
+        if (sameRun && resumedAfter != snapshot.sequence) {
+            System.err.println("The catalog snapshot is missing some changes made since it was written.");
+        }
+    }
+
+    private void applyToView(ChangeEvent event) {
+        synchronized (books) {
+            switch (event.type) {
+                case BOOK_ADDED:
+                    books.put(event.bookId, event.book);
+                    break;
+                case BOOK_DELETED:
+                    books.put(event.bookId, null);
+                    loans.remove(event.bookId);
+                    held.remove(event.bookId);
+                    break;
+                case BOOK_ISSUED:
+                    loans.put(event.bookId, event.loan);
+                    held.remove(event.bookId); // collected
+                    break;
+                case BOOK_RETURNED:
+                    loans.remove(event.bookId);
+                    break;
+                case BOOK_HELD:
+                    held.put(event.bookId, event.hold.registrationNumber);
+                    break;
+                case BOOK_RELEASED:
+                    held.remove(event.bookId);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // While offline: tries the database and, once it answers, replays the journal
+    private void probe() {
+        if (online) {
+            return;
+        }
+        try {
+            // The pool validates the connection on checkout, so getting one means the database is back
+            bookManager.getShards().home().db.getConnection().close();
+        } catch (SQLException e) {
+            return;
+        }
+        try {
+            ReplayResult result = replay();
+            System.out.println(result);
+            listener.replayed(result);
+        } catch (IOException | SQLException | LibraryException e) {
+            System.err.println("Replay stopped, still offline: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Replay failed, still offline: " + e);
+        }
+    }
+
+    // Replays the journal in order and switches back online once it is empty. Each entry is checkpointed in the
+    // journal header as soon as it commits, so after a crash or a new outage only the entry in flight is looked at
+    // again, and every kind of entry checks the database first so that one is not applied twice. Activity entries
+    // go in batches of REPLAY_BATCH_SIZE, which the writer also skips when already logged.
+    private ReplayResult replay() throws IOException, SQLException, LibraryException {
+        long start = System.nanoTime();
+        int applied = 0;
+        int skipped = 0;
+        List<String> conflicts = new ArrayList<>();
+        while (true) {
+            List<DeskJournal.Entry> pending = journal.readPending();
+            if (pending.isEmpty()) {
+                modeLock.writeLock().lock();
+                try {
+                    // New entries may have been journaled during the replay; they go round again
+                    if (journal.clearIfReplayed()) {
+                        online = true;
+                        changes.unsubscribe(viewUpdater);
+                        synchronized (books) {
+                            base = null;
+                            books.clear();
+                            loans.clear();
+                            held.clear();
+                        }
+                        break;
+                    }
+                } finally {
+                    modeLock.writeLock().unlock();
+                }
+                continue;
+            }
+            List<ActivityLogWriter.ActivityEntry> activity = new ArrayList<>(REPLAY_BATCH_SIZE);
+            long activityThrough = 0;
+            for (DeskJournal.Entry entry : pending) {
+                if (entry.event.type == ChangeEvent.Type.ACTIVITY_LOGGED) {
+                    activity.add(entry.event.activity);
+                    activityThrough = entry.sequence;
+                    if (activity.size() == REPLAY_BATCH_SIZE) {
+                        int written = replayActivity(activity, activityThrough);
+                        applied += written;
+                        skipped += activity.size() - written;
+                        activity.clear();
+                    }
+                    continue;
+                }
+                // Activity journaled before this entry goes in first, so the database sees the journal's order
+                if (!activity.isEmpty()) {
+                    int written = replayActivity(activity, activityThrough);
+                    applied += written;
+                    skipped += activity.size() - written;
+                    activity.clear();
+                }
+                Outcome outcome = replay(entry, conflicts);
+                if (outcome == Outcome.APPLIED) {
+                    applied++;
+                } else if (outcome == Outcome.SKIPPED) {
+                    skipped++;
+                }
+                journal.markReplayed(entry.sequence);
+            }
+            if (!activity.isEmpty()) {
+                int written = replayActivity(activity, activityThrough);
+                applied += written;
+                skipped += activity.size() - written;
+            }
+        }
+        changes.publish(ChangeEvent.resync()); // the tables reload from the database
+        return new ReplayResult(applied, skipped, conflicts, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // One batch of activity entries, checkpointed through the last of them; returns how many were not logged already
+    private int replayActivity(List<ActivityLogWriter.ActivityEntry> activity, long through) throws IOException, SQLException {
+        int written = activityLog.replay(activity);
+        journal.markReplayed(through);
+        return written;
+    }
+
+    // One book change, made on entry.day. A failure that means the database went away again is thrown and stops the
+    // replay; any other is a conflict.
+    private Outcome replay(DeskJournal.Entry entry, List<String> conflicts) throws SQLException, LibraryException {
+        ChangeEvent event = entry.event;
+        try {
+            switch (event.type) {
+                case BOOK_ADDED: {
+                    BookRow book = event.book;
+                    try {
+                        bookManager.addBook(book.id, book.title, book.author, book.publisher, book.year);
+                        return Outcome.APPLIED;
+                    } catch (LibraryException e) {
+                        if (e.getReason() != LibraryException.Reason.CONFLICT) {
+                            throw e;
+                        }
+                        BookRow stored = bookManager.getBook(book.id);
+                        if (stored.title.equals(book.title) && stored.author.equals(book.author)
+                                && stored.publisher.equals(book.publisher) && stored.year == book.year) {
+                            return Outcome.SKIPPED;
+                        }
+                        conflicts.add("Book " + book.id + " was added offline as \"" + book.title + "\", but that ID is \""
+                                + stored.title + "\" in the database.");
+                        return Outcome.CONFLICT;
+                    }
+                }
+                case BOOK_ISSUED: {
+                    IssuedBookRow loan = event.loan;
+                    try {
+                        bookManager.issueBook(loan.bookId, loan.studentName, loan.registrationNumber, entry.day);
+                        return Outcome.APPLIED;
+                    } catch (LibraryException e) {
+                        if (e.getReason() != LibraryException.Reason.CONFLICT) {
+                            throw e;
+                        }
+                        IssuedBookRow current = bookManager.getIssuedBook(loan.bookId);
+                        if (current != null && current.registrationNumber.equals(loan.registrationNumber)
+                                && current.issueDate.equals(entry.day)) {
+                            return Outcome.SKIPPED;
+                        }
+                        conflicts.add("Book " + loan.bookId + " was issued offline to " + loan.registrationNumber + " on "
+                                + entry.day + ", but " + (current == null ? lowerFirst(e.getMessage())
+                                : "it is out to " + current.registrationNumber + " since " + current.issueDate + "."));
+                        return Outcome.CONFLICT;
+                    }
+                }
+                case BOOK_RETURNED: {
+                    IssuedBookRow current = bookManager.getIssuedBook(event.bookId);
+                    if (current == null) {
+                        return Outcome.SKIPPED; // returned already
+                    }
+                    if (event.loan != null && !current.registrationNumber.equals(event.loan.registrationNumber)) {
+                        conflicts.add("Book " + event.bookId + " was returned offline by " + event.loan.registrationNumber
+                                + " on " + entry.day + ", but it is out to " + current.registrationNumber + ".");
+                        return Outcome.CONFLICT;
+                    }
+                    try {
+                        bookManager.returnBook(event.bookId, entry.day);
+                        return Outcome.APPLIED;
+                    } catch (LibraryException e) {
+                        if (e.getReason() != LibraryException.Reason.CONFLICT) {
+                            throw e;
+                        }
+                        return Outcome.SKIPPED; // returned between the check and the return
+                    }
+                }
+                default:
+                    return Outcome.SKIPPED;
+            }
+        } catch (LibraryException e) {
+            if (isOutage(e)) {
+                throw e;
+            }
+            conflicts.add("Offline change to book " + event.bookId + " on " + entry.day + " failed: " + e.getMessage());
+            return Outcome.CONFLICT;
+        }
+    }
+
+    // A refusal's message, to follow "but" in a conflict line
+    private static String lowerFirst(String message) {
+        return message.isEmpty() ? message : Character.toLowerCase(message.charAt(0)) + message.substring(1);
+    }
+
+    private static <T> List<T> first(Iterable<T> values, int limit) {
+        List<T> page = new ArrayList<>(Math.min(limit, 1024));
+        for (T value : values) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(value);
+        }
+        return page;
+    }
+}
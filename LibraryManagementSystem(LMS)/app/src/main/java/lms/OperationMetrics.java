@@ -0,0 +1,107 @@
+package lms;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Calls, failures, rows returned and latency for each BookManager and activity-log operation, one level
+// above the per-statement numbers in StatementRegistry: an operation is what the desk asked for (issue a book,
+// load a page) and may run several statements. Recording is two nanoTime reads and a few atomic increments.
+class OperationMetrics {
+    // Statistics for one named operation
+    static final class OperationStats {
+        // Failures of the operation itself: SQL errors, an unavailable database, bugs
+        final AtomicLong errors = new AtomicLong();
+        // Requests refused for a business reason (invalid input, not found, conflict); not an error rate signal
+        final AtomicLong rejections = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        public double getErrorRate() {
+            long calls = latency.getCount();
+            return calls == 0 ? 0 : (double) errors.get() / calls;
+        }
+    }
+
+    // The body of an operation; the result is handed back unchanged
+    interface Call<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private final Map<String, OperationStats> statsByName = new ConcurrentHashMap<>();
+    private final SlowQueryLog slowQueryLog;
+    private volatile Runnable onRegister;
+
+    OperationMetrics(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    // Operations are registered up front so they show up in reports and JMX before their first call
+    public OperationStats register(String name) {
+        OperationStats stats = statsByName.get(name);
+        if (stats == null) {
+            OperationStats created = new OperationStats();
+            stats = statsByName.putIfAbsent(name, created);
+            if (stats == null) {
+                stats = created;
+                Runnable listener = onRegister;
+                if (listener != null) {
+                    listener.run();
+                }
+            }
+        }
+        return stats;
+    }
+
+    // Runs call as operation name. Rows are counted from the result: the size of a list, none for null, else one.
+    public <T, E extends Exception> T time(String name, Call<T, E> call) throws E {
+        OperationStats stats = register(name);
+        long start = System.nanoTime();
+        try {
+            T result = call.run();
+            stats.rows.addAndGet(rowsOf(result));
+            return result;
+        } catch (Exception | Error e) {
+            if (e instanceof LibraryException && ((LibraryException) e).getReason() != LibraryException.Reason.UNAVAILABLE) {
+                stats.rejections.incrementAndGet();
+            } else {
+                stats.errors.incrementAndGet();
+            }
+            throw e;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            stats.latency.record(nanos);
+            slowQueryLog.check("operation", name, nanos);
+        }
+    }
+
+    private static long rowsOf(Object result) {
+        if (result == null) {
+            return 0;
+        }
+        return result instanceof Collection ? ((Collection<?>) result).size() : 1;
+    }
+
+    public Map<String, OperationStats> getStats() {
+        return new TreeMap<>(statsByName);
+    }
+
+    // Lets the JMX exporter pick up operations registered after it started
+    void setOnRegister(Runnable onRegister) {
+        this.onRegister = onRegister;
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, OperationStats> e : getStats().entrySet()) {
+            OperationStats stats = e.getValue();
+            sb.append("operation ").append(e.getKey()).append(": ").append(stats.latency)
+              .append(" errors=").append(stats.errors.get())
+              .append(" rejected=").append(stats.rejections.get())
+              .append(" rows=").append(stats.rows.get()).append('\n');
+        }
+        return sb.toString();
+    }
+}
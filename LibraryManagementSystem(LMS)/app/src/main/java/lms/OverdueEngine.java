@@ -0,0 +1,113 @@
+package lms;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// The single place loan dates are worked out. A book is due back LOAN_DAYS after it is issued and counts as
+// overdue once GRACE_DAYS have passed after that (the "Overdue Date" column).
+// Open loans are also indexed by overdue date, so "what is overdue today" is a range lookup on the earliest
+// dates instead of a scan of every issued row. BookManager keeps the index current on issue and return.
+class OverdueEngine {
+    static final int LOAN_DAYS = 15;
+    static final int GRACE_DAYS = 7;
+    private static final String LOAD_QUERY = "SELECT book_id, return_date FROM issued_books";
+
+    private final Clock clock;
+    private final TreeMap<LocalDate, Set<Integer>> loansByOverdueDate = new TreeMap<>();
+    private final Map<Integer, LocalDate> overdueDates = new HashMap<>();
+    private volatile boolean ready;
+
+    public OverdueEngine() {
+        this(Clock.systemDefaultZone());
+    }
+
+    public OverdueEngine(Clock clock) {
+        this.clock = clock;
+    }
+
+    public LocalDate today() {
+        return LocalDate.now(clock);
+    }
+
+    static LocalDate returnDateFor(LocalDate issueDate) {
+        return issueDate.plusDays(LOAN_DAYS);
+    }
+
+    static LocalDate overdueDateFor(LocalDate returnDate) {
+        return returnDate.plusDays(GRACE_DAYS);
+    }
+
+    static boolean isOverdue(LocalDate overdueDate, LocalDate today) {
+        return today.isAfter(overdueDate);
+    }
+
+    // Reads every open loan once, from all branches in parallel; called in the background at startup
+    public void build(ShardMap shards) throws SQLException {
+        shards.scatter(shards.all(), shard -> {
+            try (Connection connection = shard.db.getConnection();
+                 Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery(LOAD_QUERY)) {
+                while (rs.next()) {
+                    loanOpened(rs.getInt("book_id"), rs.getDate("return_date").toLocalDate());
+                }
+            }
+            return null;
+        });
+        ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public synchronized void loanOpened(int bookId, LocalDate returnDate) {
+        loanClosed(bookId);
+        LocalDate overdueDate = overdueDateFor(returnDate);
+        overdueDates.put(bookId, overdueDate);
+        loansByOverdueDate.computeIfAbsent(overdueDate, d -> new LinkedHashSet<>()).add(bookId);
+    }
+
+    public synchronized void loanClosed(int bookId) {
+        LocalDate overdueDate = overdueDates.remove(bookId);
+        if (overdueDate == null) {
+            return;
+        }
+        Set<Integer> books = loansByOverdueDate.get(overdueDate);
+        books.remove(bookId);
+        if (books.isEmpty()) {
+            loansByOverdueDate.remove(overdueDate);
+        }
+    }
+
+    // Book IDs of open loans that are overdue on the given day, longest overdue first
+    public synchronized List<Integer> getOverdueBookIds(LocalDate today) {
+        List<Integer> bookIds = new ArrayList<>();
+        for (Set<Integer> books : loansByOverdueDate.headMap(today, false).values()) {
+            bookIds.addAll(books);
+        }
+        return bookIds;
+    }
+
+    public synchronized int getOverdueCount(LocalDate today) {
+        int count = 0;
+        for (Set<Integer> books : loansByOverdueDate.headMap(today, false).values()) {
+            count += books.size();
+        }
+        return count;
+    }
+
+    public synchronized int size() {
+        return overdueDates.size();
+    }
+}
@@ -0,0 +1,121 @@
+package lms;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Periodically assesses fines for every overdue loan on a background thread.
+// Overdue loans come from the OverdueEngine index rather than a scan of issued_books; they are processed in
+// chunks of chunkSize, each read by primary/unique key and written as one batch in its own short transaction,
+// so a sweep over hundreds of thousands of loans never holds more than one chunk's row locks at a time.
+// Each loan is assessed on the branch that owns the book, where its fines row lives.
+class OverdueSweeper {
+    // Outcome of one sweep, handed to the listener
+    static final class SweepResult {
+        final LocalDate day;
+        final int overdueLoans;
+        final int finesAssessed;
+        final long elapsedMillis;
+
+        SweepResult(LocalDate day, int overdueLoans, int finesAssessed, long elapsedMillis) {
+            this.day = day;
+            this.overdueLoans = overdueLoans;
+            this.finesAssessed = finesAssessed;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Overdue sweep " + day + ": " + overdueLoans + " overdue, " + finesAssessed + " fines assessed in " + elapsedMillis + " ms";
+        }
+    }
+
+    private final ShardMap shards;
+    private final OverdueEngine overdueEngine;
+    private final FineLedger fineLedger;
+    private final int chunkSize;
+    // Called on the sweeper thread; UI listeners must hop to the EDT themselves
+    private final Consumer<SweepResult> listener;
+    private ScheduledExecutorService scheduler;
+
+    OverdueSweeper(ShardMap shards, OverdueEngine overdueEngine, FineLedger fineLedger, int chunkSize,
+                   Consumer<SweepResult> listener) {
+        this.shards = shards;
+        this.overdueEngine = overdueEngine;
+        this.fineLedger = fineLedger;
+        this.chunkSize = chunkSize;
+        this.listener = listener;
+    }
+
+    public synchronized void start(long initialDelayMillis, long periodMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lms-overdue-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                SweepResult result = sweep();
+                if (result != null) {
+                    listener.accept(result);
+                }
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Overdue sweep failed: " + e.getMessage());
+            }
+        }, initialDelayMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs one sweep now; returns null when the loan index has not been loaded yet
+    public SweepResult sweep() throws SQLException {
+        if (!overdueEngine.isReady()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        LocalDate today = overdueEngine.today();
+        List<Integer> overdueBookIds = overdueEngine.getOverdueBookIds(today);
+        Map<Shard, List<Integer>> idsByShard = new LinkedHashMap<>();
+        for (Integer bookId : overdueBookIds) {
+            Shard shard = shards.forBook(bookId);
+            if (shard != null) {
+                idsByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(bookId);
+            }
+        }
+        int assessed = 0;
+        for (Map.Entry<Shard, List<Integer>> entry : idsByShard.entrySet()) {
+            List<Integer> bookIds = entry.getValue();
+            for (int from = 0; from < bookIds.size(); from += chunkSize) {
+                List<Integer> chunk = bookIds.subList(from, Math.min(from + chunkSize, bookIds.size()));
+                try (Connection connection = entry.getKey().db.getConnection()) {
+                    connection.setAutoCommit(false);
+                    try {
+                        assessed += fineLedger.assess(connection, fineLedger.readLoans(connection, chunk), today);
+                        connection.commit();
+                    } catch (SQLException | RuntimeException e) {
+                        connection.rollback();
+                        throw e;
+                    }
+                }
+            }
+        }
+        return new SweepResult(today, overdueBookIds.size(), assessed,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
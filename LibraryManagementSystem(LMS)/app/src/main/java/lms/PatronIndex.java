@@ -0,0 +1,239 @@
+package lms;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Every patron by registration number: the books they have out, how many loans and visits they have had, and when
+// they last borrowed and visited. Open loans are read from issued_books and the history from the patrons table
+// once at startup; after that BookManager and the activity log keep it current, so "what does this student have
+// out" and the loan-limit pre-check in issueBook are hash lookups instead of scans of issued_books and activity_log.
+// The pre-check only sees this process's view; the limit itself is enforced by the database (patrons.active_loans).
+class PatronIndex {
+    static final String LOAN_LIMIT_PROPERTY = "lms.loanLimit";
+    static final int DEFAULT_LOAN_LIMIT = 5;
+    private static final String LOANS_QUERY = "SELECT book_id, student_name, registration_number FROM issued_books";
+    private static final String HISTORY_QUERY = "SELECT registration_number, name, total_loans, last_issue_date, visits, last_visit_date FROM patrons";
+
+    // One patron as of the moment it was read
+    static final class Patron {
+        final String registrationNumber;
+        final String name;
+        final List<Integer> bookIds; // open loans, oldest first
+        final long totalLoans;
+        final LocalDate lastIssueDate; // null before the first loan
+        final long visits;
+        final LocalDate lastVisitDate; // null before the first visit
+
+        Patron(String registrationNumber, String name, List<Integer> bookIds, long totalLoans, LocalDate lastIssueDate,
+               long visits, LocalDate lastVisitDate) {
+            this.registrationNumber = registrationNumber;
+            this.name = name;
+            this.bookIds = Collections.unmodifiableList(bookIds);
+            this.totalLoans = totalLoans;
+            this.lastIssueDate = lastIssueDate;
+            this.visits = visits;
+            this.lastVisitDate = lastVisitDate;
+        }
+
+        int getActiveLoans() {
+            return bookIds.size();
+        }
+    }
+
+    // The live, mutable record behind a Patron; guarded by the index
+    private static final class Entry {
+        String name;
+        final List<Integer> bookIds = new ArrayList<>(2);
+        long totalLoans;
+        LocalDate lastIssueDate;
+        long visits;
+        LocalDate lastVisitDate;
+        int reserved; // loans being written by issueBook
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        Patron snapshot(String registrationNumber) {
+            return new Patron(registrationNumber, name, new ArrayList<>(bookIds), totalLoans, lastIssueDate,
+                    visits, lastVisitDate);
+        }
+    }
+
+    private final int loanLimit;
+    private final Map<String, Entry> patrons = new HashMap<>();
+    private final Map<Integer, String> borrowerByBook = new HashMap<>();
+    private volatile boolean ready;
+
+    PatronIndex(int loanLimit) {
+        if (loanLimit <= 0) {
+            throw new IllegalArgumentException("Loan limit must be positive: " + loanLimit);
+        }
+        this.loanLimit = loanLimit;
+    }
+
+    // The limit set with -Dlms.loanLimit, DEFAULT_LOAN_LIMIT books by default
+    static PatronIndex fromSystemProperties() {
+        return new PatronIndex(Integer.getInteger(LOAN_LIMIT_PROPERTY, DEFAULT_LOAN_LIMIT));
+    }
+
+    public int getLoanLimit() {
+        return loanLimit;
+    }
+
+    // Reads open loans and loan and visit history from every branch in parallel; called once at startup. Each
+    // branch holds the history of the loans made on it, so the branches' figures are added up; anything recorded
+    // here while the build ran is kept by taking the larger of that and the stored figure.
+    public void build(ShardMap shards) throws SQLException {
+        List<Map<String, Entry>> histories = shards.scatter(shards.all(), shard -> {
+            Map<String, Entry> history = new HashMap<>();
+            try (Connection connection = shard.db.getConnection();
+                 Statement stmt = connection.createStatement()) {
+                try (ResultSet rs = stmt.executeQuery(LOANS_QUERY)) {
+                    while (rs.next()) {
+                        loanOpened(rs.getString("registration_number"), rs.getString("student_name"),
+                                rs.getInt("book_id"), null);
+                    }
+                }
+                try (ResultSet rs = stmt.executeQuery(HISTORY_QUERY)) {
+                    while (rs.next()) {
+                        Entry entry = new Entry(rs.getString("name"));
+                        entry.totalLoans = rs.getLong("total_loans");
+                        entry.lastIssueDate = toLocalDate(rs.getDate("last_issue_date"));
+                        entry.visits = rs.getLong("visits");
+                        entry.lastVisitDate = toLocalDate(rs.getDate("last_visit_date"));
+                        history.put(rs.getString("registration_number"), entry);
+                    }
+                }
+            }
+            return history;
+        });
+        Map<String, Entry> stored = new HashMap<>();
+        for (Map<String, Entry> history : histories) {
+            for (Map.Entry<String, Entry> row : history.entrySet()) {
+                Entry total = stored.computeIfAbsent(row.getKey(), reg -> new Entry(row.getValue().name));
+                total.totalLoans += row.getValue().totalLoans;
+                total.lastIssueDate = later(total.lastIssueDate, row.getValue().lastIssueDate);
+                total.visits += row.getValue().visits;
+                total.lastVisitDate = later(total.lastVisitDate, row.getValue().lastVisitDate);
+            }
+        }
+        synchronized (this) {
+            for (Map.Entry<String, Entry> row : stored.entrySet()) {
+                Entry entry = entry(row.getKey(), row.getValue().name);
+                entry.totalLoans = Math.max(entry.totalLoans, row.getValue().totalLoans);
+                entry.lastIssueDate = later(entry.lastIssueDate, row.getValue().lastIssueDate);
+                entry.visits = Math.max(entry.visits, row.getValue().visits);
+                entry.lastVisitDate = later(entry.lastVisitDate, row.getValue().lastVisitDate);
+            }
+        }
+        ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // The patron as they stand now, or null for a registration number never seen
+    public synchronized Patron get(String registrationNumber) {
+        Entry entry = patrons.get(registrationNumber);
+        return entry == null ? null : entry.snapshot(registrationNumber);
+    }
+
+    public synchronized int getActiveLoans(String registrationNumber) {
+        Entry entry = patrons.get(registrationNumber);
+        return entry == null ? 0 : entry.bookIds.size();
+    }
+
+    public synchronized int size() {
+        return patrons.size();
+    }
+
+    // The loan-limit pre-check in issueBook: holds one of the patron's loanLimit places for a loan about to be written,
+    // or returns false when they already have loanLimit books out (or on the way). The place is then either taken
+    // by loanConfirmed once the loan commits or given back by releaseLoan. Until build has run, only the loans
+    // seen so far are counted.
+    public synchronized boolean reserveLoan(String registrationNumber, String name) {
+        Entry entry = entry(registrationNumber, name);
+        if (entry.bookIds.size() + entry.reserved >= loanLimit) {
+            return false;
+        }
+        entry.reserved++;
+        return true;
+    }
+
+    public synchronized void releaseLoan(String registrationNumber) {
+        Entry entry = patrons.get(registrationNumber);
+        if (entry != null && entry.reserved > 0) {
+            entry.reserved--;
+        }
+    }
+
+    // The reserved loan committed
+    public synchronized void loanConfirmed(String registrationNumber, String name, int bookId, LocalDate issueDate) {
+        releaseLoan(registrationNumber);
+        loanOpened(registrationNumber, name, bookId, issueDate);
+    }
+
+    // A loan recorded without the limit check: one made at another desk, or read from issued_books at startup.
+    // It counts towards the history only when issueDate is given (the stored history already has the others).
+    public synchronized void loanOpened(String registrationNumber, String name, int bookId, LocalDate issueDate) {
+        if (registrationNumber.equals(borrowerByBook.get(bookId))) {
+            return;
+        }
+        loanClosed(bookId);
+        Entry entry = entry(registrationNumber, name);
+        entry.name = name;
+        entry.bookIds.add(bookId);
+        borrowerByBook.put(bookId, registrationNumber);
+        if (issueDate != null) {
+            entry.totalLoans++;
+            entry.lastIssueDate = later(entry.lastIssueDate, issueDate);
+        }
+    }
+
+    // The book came back; the loan stays in the patron's history
+    public synchronized void loanClosed(int bookId) {
+        String registrationNumber = borrowerByBook.remove(bookId);
+        if (registrationNumber != null) {
+            patrons.get(registrationNumber).bookIds.remove(Integer.valueOf(bookId));
+        }
+    }
+
+    public synchronized void visited(String registrationNumber, String name, LocalDate date) {
+        Entry entry = entry(registrationNumber, name);
+        entry.name = name;
+        entry.visits++;
+        entry.lastVisitDate = later(entry.lastVisitDate, date);
+    }
+
+    // The patron's activity entries were deleted
+    public synchronized void visitsCleared(String registrationNumber) {
+        Entry entry = patrons.get(registrationNumber);
+        if (entry != null) {
+            entry.visits = 0;
+            entry.lastVisitDate = null;
+        }
+    }
+
+    private Entry entry(String registrationNumber, String name) {
+        return patrons.computeIfAbsent(registrationNumber, reg -> new Entry(name));
+    }
+
+    private static LocalDate later(LocalDate a, LocalDate b) {
+        return a == null ? b : b == null || a.isAfter(b) ? a : b;
+    }
+
+    private static LocalDate toLocalDate(Date date) {
+        return date == null ? null : date.toLocalDate();
+    }
+}
@@ -0,0 +1,56 @@
+package lms;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counters and timings for the connection pool
+class PoolMetrics {
+    final AtomicLong checkouts = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+    final AtomicLong connectionsOpened = new AtomicLong();
+    final AtomicLong connectFailures = new AtomicLong();
+    final AtomicLong validationFailures = new AtomicLong();
+    final AtomicLong leaksDetected = new AtomicLong();
+    private final AtomicLong waitNanosTotal = new AtomicLong();
+    private final AtomicLong waitNanosMax = new AtomicLong();
+    private final AtomicLong holdNanosTotal = new AtomicLong();
+    private final AtomicLong holdNanosMax = new AtomicLong();
+    private final AtomicLong holds = new AtomicLong();
+
+    void recordWait(long nanos) {
+        waitNanosTotal.addAndGet(nanos);
+        waitNanosMax.accumulateAndGet(nanos, Math::max);
+    }
+
+    void recordHold(long nanos) {
+        holds.incrementAndGet();
+        holdNanosTotal.addAndGet(nanos);
+        holdNanosMax.accumulateAndGet(nanos, Math::max);
+    }
+
+    public double getAverageWaitMillis() {
+        long n = checkouts.get();
+        return n == 0 ? 0 : waitNanosTotal.get() / 1_000_000.0 / n;
+    }
+
+    public double getMaxWaitMillis() {
+        return waitNanosMax.get() / 1_000_000.0;
+    }
+
+    public double getAverageCheckoutMillis() {
+        long n = holds.get();
+        return n == 0 ? 0 : holdNanosTotal.get() / 1_000_000.0 / n;
+    }
+
+    public double getMaxCheckoutMillis() {
+        return holdNanosMax.get() / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("checkouts=%d timeouts=%d opened=%d connectFailures=%d validationFailures=%d leaks=%d "
+                        + "wait(avg=%.2fms max=%.2fms) checkout(avg=%.2fms max=%.2fms)",
+                checkouts.get(), timeouts.get(), connectionsOpened.get(), connectFailures.get(),
+                validationFailures.get(), leaksDetected.get(), getAverageWaitMillis(), getMaxWaitMillis(),
+                getAverageCheckoutMillis(), getMaxCheckoutMillis());
+    }
+}
@@ -0,0 +1,26 @@
+package lms;
+
+import java.util.List;
+
+// Where a KeysetTableModel keeps the rows it has loaded, in model order. The default is a list of row objects;
+// a model with many rows can keep them column by column instead (see BookColumns).
+interface RowStore<R> {
+    int size();
+
+    // Builds or returns the row at index; column stores create a new object, so hot paths use keyAt/valueAt
+    R get(int index);
+
+    int keyAt(int index);
+
+    Object valueAt(int index, int column);
+
+    void add(int index, R row);
+
+    void set(int index, R row);
+
+    void remove(int index);
+
+    void addAll(List<R> page);
+
+    void clear();
+}
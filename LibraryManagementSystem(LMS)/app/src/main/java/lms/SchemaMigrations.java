@@ -0,0 +1,247 @@
+package lms;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static lms.SchemaMigrator.addColumn;
+import static lms.SchemaMigrator.columnType;
+import static lms.SchemaMigrator.foreignKey;
+import static lms.SchemaMigrator.index;
+import static lms.SchemaMigrator.primaryKey;
+import static lms.SchemaMigrator.sql;
+
+// The library schema, as versioned migrations that run at startup (DatabaseConnection) on MySQL and H2 alike.
+// Never edit a migration that has shipped; append a new one. "Database Structure.txt" shows the result.
+final class SchemaMigrations {
+    private SchemaMigrations() {
+    }
+
+    static final List<SchemaMigrator.Migration> MIGRATIONS = Arrays.asList(
+        new SchemaMigrator.Migration(1, "activity_log, books, issued_books and fines",
+            sql("CREATE TABLE IF NOT EXISTS activity_log ("
+                + " id INT NOT NULL AUTO_INCREMENT,"
+                + " registration_no VARCHAR(255) NOT NULL,"
+                + " name VARCHAR(255) NOT NULL,"
+                + " activity VARCHAR(255) NOT NULL,"
+                + " date DATE NOT NULL,"
+                + " time TIME NOT NULL,"
+                + " PRIMARY KEY (id))"),
+            sql("CREATE TABLE IF NOT EXISTS books ("
+                + " id INT NOT NULL AUTO_INCREMENT,"
+                + " title VARCHAR(100) NOT NULL,"
+                + " author VARCHAR(100) NOT NULL,"
+                + " publisher VARCHAR(100) NOT NULL,"
+                + " year INT NOT NULL,"
+                + " available BOOLEAN DEFAULT TRUE,"
+                + " PRIMARY KEY (id))"),
+            sql("CREATE TABLE IF NOT EXISTS issued_books ("
+                + " id INT NOT NULL AUTO_INCREMENT,"
+                + " book_id INT NOT NULL UNIQUE,"
+                + " student_name VARCHAR(100) NOT NULL,"
+                + " registration_number VARCHAR(50) NOT NULL,"
+                + " issue_date DATE NOT NULL,"
+                + " return_date DATE NOT NULL,"
+                + " PRIMARY KEY (id))"),
+            sql("CREATE TABLE IF NOT EXISTS fines ("
+                + " id BIGINT NOT NULL AUTO_INCREMENT,"
+                + " issued_id INT NOT NULL UNIQUE,"
+                + " book_id INT NOT NULL,"
+                + " registration_number VARCHAR(50) NOT NULL,"
+                + " days_overdue INT NOT NULL,"
+                + " amount DECIMAL(10,2) NOT NULL,"
+                + " assessed_on DATE NOT NULL,"
+                + " PRIMARY KEY (id))")),
+
+        // Early hand-made databases kept dates as strings, which sort and compare wrongly
+        new SchemaMigrator.Migration(2, "date and time columns typed DATE and TIME",
+            columnType("activity_log", "date", "DATE", "DATE NOT NULL"),
+            columnType("activity_log", "time", "TIME", "TIME NOT NULL"),
+            columnType("issued_books", "issue_date", "DATE", "DATE NOT NULL"),
+            columnType("issued_books", "return_date", "DATE", "DATE NOT NULL")),
+
+        // Older versions inserted into issued_books without clearing books.available
+        new SchemaMigrator.Migration(3, "books.available agrees with open loans",
+            sql("UPDATE books b SET available = NOT EXISTS (SELECT 1 FROM issued_books ib WHERE ib.book_id = b.id)")),
+
+        // One index per query shape. Lookups by books.id, issued_books.id/book_id and fines.issued_id use the
+        // primary keys and unique constraints from version 1.
+        new SchemaMigrator.Migration(4, "indexes for the application's queries",
+            // Activity Tracker pages (ActivityLogManager): WHERE id < ? AND <filter> ORDER BY id DESC
+            index("activity_log", "idx_activity_log_date", "date", "id"),
+            // ...and deleteByRegistration
+            index("activity_log", "idx_activity_log_reg", "registration_no", "id"),
+            index("activity_log", "idx_activity_log_activity", "activity", "id"),
+            // OverdueEngine.build reads (book_id, return_date) for every loan: covered without touching the rows
+            index("issued_books", "idx_issued_books_return", "return_date", "book_id"),
+            index("fines", "idx_fines_registration", "registration_number")),
+
+        // Deleting a lent book used to leave its loan behind, hidden from every view that joins books
+        new SchemaMigrator.Migration(5, "issued_books.book_id references books",
+            sql("DELETE FROM issued_books WHERE NOT EXISTS (SELECT 1 FROM books b WHERE b.id = issued_books.book_id)"),
+            foreignKey("issued_books", "fk_issued_books_book", "book_id", "books", "id")),
+
+        // PatronIndex reads each patron's history from one row instead of counting their loans and visits. Returned
+        // loans were never kept, so the loan history starts from the books out today; rerunning the backfill
+        // recomputes the same figures.
+        new SchemaMigrator.Migration(6, "patrons: loan and visit history per registration number",
+            sql("CREATE TABLE IF NOT EXISTS patrons ("
+                + " registration_number VARCHAR(255) NOT NULL,"
+                + " name VARCHAR(255) NOT NULL,"
+                + " total_loans BIGINT NOT NULL DEFAULT 0,"
+                + " last_issue_date DATE NULL,"
+                + " visits BIGINT NOT NULL DEFAULT 0,"
+                + " last_visit_date DATE NULL,"
+                + " PRIMARY KEY (registration_number))"),
+            sql("INSERT INTO patrons (registration_number, name, total_loans, last_issue_date)"
+                + " SELECT registration_number, MAX(student_name), COUNT(*), MAX(issue_date) FROM issued_books"
+                + " GROUP BY registration_number"
+                + " ON DUPLICATE KEY UPDATE total_loans = VALUES(total_loans), last_issue_date = VALUES(last_issue_date)"),
+            sql("INSERT INTO patrons (registration_number, name, visits, last_visit_date)"
+                + " SELECT registration_no, MAX(name), COUNT(*), MAX(date) FROM activity_log"
+                + " GROUP BY registration_no"
+                + " ON DUPLICATE KEY UPDATE visits = VALUES(visits), last_visit_date = VALUES(last_visit_date)")),
+
+        // Running totals behind the circulation reports (CirculationStats), added to by each issue, return and
+        // activity batch instead of grouping issued_books and activity_log on demand. As with patrons, returned
+        // loans were never kept, so loan figures start from the books out today; rerunning the backfill
+        // recomputes the same figures.
+        new SchemaMigrator.Migration(7, "loan_stats, title_loans and activity_hours: running totals for reports",
+            sql("CREATE TABLE IF NOT EXISTS loan_stats ("
+                + " stat_date DATE NOT NULL,"
+                + " loans BIGINT NOT NULL DEFAULT 0,"
+                + " returns BIGINT NOT NULL DEFAULT 0,"
+                + " loan_days BIGINT NOT NULL DEFAULT 0,"
+                + " late_returns BIGINT NOT NULL DEFAULT 0,"
+                + " PRIMARY KEY (stat_date))"),
+            sql("CREATE TABLE IF NOT EXISTS title_loans ("
+                + " book_id INT NOT NULL,"
+                + " title VARCHAR(100) NOT NULL,"
+                + " author VARCHAR(100) NOT NULL,"
+                + " loans BIGINT NOT NULL DEFAULT 0,"
+                + " PRIMARY KEY (book_id))"),
+            sql("CREATE TABLE IF NOT EXISTS activity_hours ("
+                + " stat_date DATE NOT NULL,"
+                + " hour_of_day INT NOT NULL,"
+                + " activity VARCHAR(255) NOT NULL,"
+                + " entries BIGINT NOT NULL DEFAULT 0,"
+                + " PRIMARY KEY (stat_date, hour_of_day, activity))"),
+            sql("INSERT INTO loan_stats (stat_date, loans)"
+                + " SELECT issue_date, COUNT(*) FROM issued_books GROUP BY issue_date"
+                + " ON DUPLICATE KEY UPDATE loans = VALUES(loans)"),
+            sql("INSERT INTO title_loans (book_id, title, author, loans)"
+                + " SELECT b.id, b.title, b.author, 1 FROM issued_books ib JOIN books b ON b.id = ib.book_id"
+                + " ON DUPLICATE KEY UPDATE loans = VALUES(loans)"),
+            sql("INSERT INTO activity_hours (stat_date, hour_of_day, activity, entries)"
+                + " SELECT date, HOUR(time), activity, COUNT(*) FROM activity_log GROUP BY date, HOUR(time), activity"
+                + " ON DUPLICATE KEY UPDATE entries = VALUES(entries)")),
+
+        // Hold queues (HoldQueue): one row per student waiting for a book, in arrival order by id. The queue index
+        // finds the head of a book's queue with one seek; the pickup index serves the expiry sweep. Deleting a book
+        // drops its holds.
+        new SchemaMigrator.Migration(8, "holds: queue of students waiting for an issued book",
+            sql("CREATE TABLE IF NOT EXISTS holds ("
+                + " id BIGINT NOT NULL AUTO_INCREMENT,"
+                + " book_id INT NOT NULL,"
+                + " registration_number VARCHAR(50) NOT NULL,"
+                + " student_name VARCHAR(100) NOT NULL,"
+                + " placed_on DATE NOT NULL,"
+                + " ready_on DATE NULL,"
+                + " pickup_by DATE NULL,"
+                + " PRIMARY KEY (id),"
+                + " UNIQUE (book_id, registration_number),"
+                + " CONSTRAINT fk_holds_book FOREIGN KEY (book_id) REFERENCES books (id) ON DELETE CASCADE)"),
+            index("holds", "idx_holds_queue", "book_id", "id"),
+            index("holds", "idx_holds_pickup", "pickup_by")),
+
+        // Change counters for the desks' catalog snapshots (SnapshotSync): every write to books bumps the version
+        // of its block of CatalogSnapshot.BLOCK_IDS IDs in the same transaction, so a sync finds the changed blocks
+        // without scanning books. The backfill starts every block that has books at a new version.
+        new SchemaMigrator.Migration(9, "catalog_blocks: change counters for catalog snapshot sync",
+            sql("CREATE TABLE IF NOT EXISTS catalog_blocks ("
+                + " block INT NOT NULL,"
+                + " version BIGINT NOT NULL DEFAULT 0,"
+                + " PRIMARY KEY (block))"),
+            sql("INSERT INTO catalog_blocks (block, version)"
+                + " SELECT FLOOR(id / " + CatalogSnapshot.BLOCK_IDS + "), 1 FROM books GROUP BY FLOOR(id / " + CatalogSnapshot.BLOCK_IDS + ")"
+                + " ON DUPLICATE KEY UPDATE version = version + 1")),
+
+        // The loan limit, enforced by the database: issueBook counts a loan in only while the patron is under the
+        // limit, in the loan's own transaction, and returnBook counts it out. Each branch counts the loans made on
+        // it. The backfill counts the loans out today and rerunning it recomputes the same figures; students with
+        // a loan but no patrons row (loans written by hand) get one.
+        new SchemaMigrator.Migration(10, "patrons.active_loans: open loans counted for the loan limit",
+            addColumn("patrons", "active_loans", "INT NOT NULL DEFAULT 0"),
+            sql("INSERT INTO patrons (registration_number, name, total_loans, last_issue_date)"
+                + " SELECT registration_number, MAX(student_name), COUNT(*), MAX(issue_date) FROM issued_books"
+                + " GROUP BY registration_number"
+                + " ON DUPLICATE KEY UPDATE name = name"),
+            sql("UPDATE patrons SET active_loans = (SELECT COUNT(*) FROM issued_books ib"
+                + " WHERE ib.registration_number = patrons.registration_number)")),
+
+        // A day's loan figures spread over stripes, one row each, so concurrent issues and returns add to different
+        // rows instead of all queueing on today's; CirculationStats adds the stripes up. Existing rows become
+        // stripe 0.
+        new SchemaMigrator.Migration(11, "loan_stats.stripe: a day's figures spread over several rows",
+            addColumn("loan_stats", "stripe", "INT NOT NULL DEFAULT 0"),
+            primaryKey("loan_stats", "stat_date", "stripe"))
+    );
+
+    // What verify() expects after the last migration
+    static final Map<String, String[]> TABLES = new LinkedHashMap<>();
+    static {
+        TABLES.put("activity_log", new String[] {"id", "registration_no", "name", "activity", "date", "time"});
+        TABLES.put("books", new String[] {"id", "title", "author", "publisher", "year", "available"});
+        TABLES.put("issued_books", new String[] {"id", "book_id", "student_name", "registration_number", "issue_date", "return_date"});
+        TABLES.put("fines", new String[] {"id", "issued_id", "book_id", "registration_number", "days_overdue", "amount", "assessed_on"});
+        TABLES.put("patrons", new String[] {"registration_number", "name", "total_loans", "last_issue_date", "visits", "last_visit_date", "active_loans"});
+        TABLES.put("loan_stats", new String[] {"stat_date", "stripe", "loans", "returns", "loan_days", "late_returns"});
+        TABLES.put("title_loans", new String[] {"book_id", "title", "author", "loans"});
+        TABLES.put("activity_hours", new String[] {"stat_date", "hour_of_day", "activity", "entries"});
+        TABLES.put("holds", new String[] {"id", "book_id", "registration_number", "student_name", "placed_on", "ready_on", "pickup_by"});
+        TABLES.put("catalog_blocks", new String[] {"block", "version"});
+    }
+
+    // table, then the leading columns of an index it must have
+    static final List<String[]> INDEXES = Arrays.asList(
+        new String[] {"activity_log", "id"},
+        new String[] {"activity_log", "date", "id"},
+        new String[] {"activity_log", "registration_no", "id"},
+        new String[] {"activity_log", "activity", "id"},
+        new String[] {"books", "id"},
+        new String[] {"issued_books", "id"},
+        new String[] {"issued_books", "book_id"},
+        new String[] {"issued_books", "return_date", "book_id"},
+        new String[] {"fines", "id"},
+        new String[] {"fines", "issued_id"},
+        new String[] {"fines", "registration_number"},
+        new String[] {"patrons", "registration_number"},
+        new String[] {"loan_stats", "stat_date", "stripe"},
+        new String[] {"title_loans", "book_id"},
+        new String[] {"activity_hours", "stat_date", "hour_of_day", "activity"},
+        new String[] {"holds", "id"},
+        new String[] {"holds", "book_id", "registration_number"},
+        new String[] {"holds", "book_id", "id"},
+        new String[] {"holds", "pickup_by"},
+        new String[] {"catalog_blocks", "block"}
+    );
+
+    // table, column, referenced table
+    static final List<String[]> FOREIGN_KEYS = Arrays.<String[]>asList(
+        new String[] {"issued_books", "book_id", "books"},
+        new String[] {"holds", "book_id", "books"}
+    );
+
+    // Migrates, then refuses to start on a schema that still differs from the expected one
+    static int apply(Connection connection) throws SQLException {
+        int version = new SchemaMigrator(MIGRATIONS).migrate(connection);
+        List<String> problems = SchemaMigrator.verify(connection, TABLES, INDEXES, FOREIGN_KEYS);
+        if (!problems.isEmpty()) {
+            throw new SQLException("Database schema check failed: " + String.join("; ", problems));
+        }
+        return version;
+    }
+}
@@ -0,0 +1,305 @@
+package lms;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Brings the database up to the schema in SchemaMigrations and then checks it. Applied versions are recorded in
+// schema_version. MySQL commits DDL as it goes, so a migration cannot be rolled back; instead every step is
+// idempotent (CREATE TABLE IF NOT EXISTS, and indexes, foreign keys and column types are checked in the
+// metadata first), which makes rerunning a half-applied migration, or two processes starting at once, safe.
+class SchemaMigrator {
+    static final String MIGRATE_PROPERTY = "lms.schema.migrate";
+    private static final String VERSION_TABLE_DDL = "CREATE TABLE IF NOT EXISTS schema_version ("
+            + " version INT NOT NULL,"
+            + " description VARCHAR(200) NOT NULL,"
+            + " applied_on TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,"
+            + " PRIMARY KEY (version))";
+    private static final String CURRENT_VERSION_QUERY = "SELECT MAX(version) FROM schema_version";
+    private static final String RECORD_VERSION_QUERY = "INSERT INTO schema_version (version, description) VALUES (?, ?)";
+
+    // One idempotent change to the schema
+    interface Step {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    static final class Migration {
+        final int version;
+        final String description;
+        final List<Step> steps;
+
+        Migration(int version, String description, Step... steps) {
+            this.version = version;
+            this.description = description;
+            this.steps = Arrays.asList(steps);
+        }
+    }
+
+    private final List<Migration> migrations;
+
+    SchemaMigrator(List<Migration> migrations) {
+        for (int i = 0; i < migrations.size(); i++) {
+            if (migrations.get(i).version != i + 1) {
+                throw new IllegalArgumentException("Migrations must be numbered 1, 2, 3...: found " + migrations.get(i).version);
+            }
+        }
+        this.migrations = migrations;
+    }
+
+    int getLatestVersion() {
+        return migrations.size();
+    }
+
+    // Applies every pending migration in order and returns the resulting version. With -Dlms.schema.migrate=false
+    // nothing is changed and an out-of-date database is an error, for installations where DDL is run by hand.
+    int migrate(Connection connection) throws SQLException {
+        boolean apply = Boolean.parseBoolean(System.getProperty(MIGRATE_PROPERTY, "true"));
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(true);
+        try {
+            if (apply) {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute(VERSION_TABLE_DDL);
+                }
+            }
+            int current = currentVersion(connection);
+            if (current > getLatestVersion()) {
+                throw new SQLException("Database schema is at version " + current + ", newer than this build ("
+                        + getLatestVersion() + "). Upgrade the application.");
+            }
+            if (current < getLatestVersion() && !apply) {
+                throw new SQLException("Database schema is at version " + current + " but this build needs "
+                        + getLatestVersion() + ", and " + MIGRATE_PROPERTY + "=false.");
+            }
+            for (Migration migration : migrations.subList(current, migrations.size())) {
+                for (Step step : migration.steps) {
+                    step.apply(connection);
+                }
+                recordVersion(connection, migration);
+                System.out.println("Schema migrated to version " + migration.version + ": " + migration.description);
+            }
+            return getLatestVersion();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static int currentVersion(Connection connection) throws SQLException {
+        if (!tableExists(connection, "schema_version")) {
+            return 0;
+        }
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(CURRENT_VERSION_QUERY)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void recordVersion(Connection connection, Migration migration) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(RECORD_VERSION_QUERY)) {
+            ps.setInt(1, migration.version);
+            ps.setString(2, migration.description);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            if (currentVersion(connection) < migration.version) {
+                throw e;
+            }
+            // another process recorded it first
+        }
+    }
+
+    static Step sql(String statement) {
+        return connection -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute(statement);
+            }
+        };
+    }
+
+    // Skipped when an index already starts with these columns, whatever it is called: databases created from
+    // the old hand-written DDL have some of them already, and unique constraints get engine-specific names.
+    static Step index(String table, String name, String... columns) {
+        return connection -> {
+            if (hasIndex(connection, table, columns)) {
+                return;
+            }
+            try {
+                sql("CREATE INDEX " + name + " ON " + table + " (" + String.join(", ", columns) + ")").apply(connection);
+            } catch (SQLException e) {
+                if (!hasIndex(connection, table, columns)) {
+                    throw e;
+                }
+            }
+        };
+    }
+
+    static Step foreignKey(String table, String name, String column, String referencedTable, String referencedColumn) {
+        return connection -> {
+            if (hasForeignKey(connection, table, column, referencedTable)) {
+                return;
+            }
+            try {
+                sql("ALTER TABLE " + table + " ADD CONSTRAINT " + name + " FOREIGN KEY (" + column + ") REFERENCES "
+                        + referencedTable + " (" + referencedColumn + ")").apply(connection);
+            } catch (SQLException e) {
+                if (!hasForeignKey(connection, table, column, referencedTable)) {
+                    throw e;
+                }
+            }
+        };
+    }
+
+    // Adds a column unless the table already has it
+    static Step addColumn(String table, String column, String definition) {
+        return connection -> {
+            if (!columnTypes(connection, table).containsKey(column)) {
+                sql("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition).apply(connection);
+            }
+        };
+    }
+
+    // Makes these columns the primary key, replacing the old one, unless they already are
+    static Step primaryKey(String table, String... columns) {
+        return connection -> {
+            List<String> wanted = Arrays.asList(columns);
+            List<String> current = primaryKeyColumns(connection, table);
+            if (current.equals(wanted)) {
+                return;
+            }
+            try {
+                if (!current.isEmpty()) {
+                    sql("ALTER TABLE " + table + " DROP PRIMARY KEY").apply(connection);
+                }
+                sql("ALTER TABLE " + table + " ADD PRIMARY KEY (" + String.join(", ", columns) + ")").apply(connection);
+            } catch (SQLException e) {
+                if (!primaryKeyColumns(connection, table).equals(wanted)) {
+                    throw e;
+                }
+            }
+        };
+    }
+
+    // Converts a column to typeName (e.g. dates kept as strings) unless it already has that type
+    static Step columnType(String table, String column, String typeName, String definition) {
+        return connection -> {
+            String current = columnTypes(connection, table).get(column);
+            if (current == null) {
+                throw new SQLException("Column " + table + "." + column + " does not exist.");
+            }
+            if (!current.equalsIgnoreCase(typeName)) {
+                sql("ALTER TABLE " + table + " MODIFY " + column + " " + definition).apply(connection);
+            }
+        };
+    }
+
+    // Lists every difference between the database and the expected schema; empty when they match
+    static List<String> verify(Connection connection, Map<String, String[]> tables, List<String[]> indexes,
+                               List<String[]> foreignKeys) throws SQLException {
+        List<String> problems = new ArrayList<>();
+        for (Map.Entry<String, String[]> table : tables.entrySet()) {
+            Map<String, String> columns = columnTypes(connection, table.getKey());
+            if (columns.isEmpty()) {
+                problems.add("missing table " + table.getKey());
+                continue;
+            }
+            for (String column : table.getValue()) {
+                if (!columns.containsKey(column)) {
+                    problems.add("missing column " + table.getKey() + "." + column);
+                }
+            }
+        }
+        for (String[] index : indexes) {
+            String[] columns = Arrays.copyOfRange(index, 1, index.length);
+            if (!hasIndex(connection, index[0], columns)) {
+                problems.add("missing index on " + index[0] + " (" + String.join(", ", columns) + ")");
+            }
+        }
+        for (String[] foreignKey : foreignKeys) {
+            if (!hasForeignKey(connection, foreignKey[0], foreignKey[1], foreignKey[2])) {
+                problems.add("missing foreign key " + foreignKey[0] + "." + foreignKey[1] + " -> " + foreignKey[2]);
+            }
+        }
+        return problems;
+    }
+
+    // H2 runs with DATABASE_TO_LOWER and the MySQL tables are created in lower case, so names compare in lower case
+
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        return !columnTypes(connection, table).isEmpty();
+    }
+
+    private static Map<String, String> columnTypes(Connection connection, String table) throws SQLException {
+        Map<String, String> types = new TreeMap<>();
+        try (ResultSet rs = connection.getMetaData().getColumns(connection.getCatalog(), null, table, null)) {
+            while (rs.next()) {
+                if (rs.getString("TABLE_NAME").equalsIgnoreCase(table)) {
+                    types.put(rs.getString("COLUMN_NAME").toLowerCase(Locale.ROOT), rs.getString("TYPE_NAME"));
+                }
+            }
+        }
+        return types;
+    }
+
+    // True when some index on the table has exactly these leading columns, in order
+    private static boolean hasIndex(Connection connection, String table, String... columns) throws SQLException {
+        Map<String, List<String>> columnsByIndex = new TreeMap<>();
+        DatabaseMetaData meta = connection.getMetaData();
+        try (ResultSet rs = meta.getIndexInfo(connection.getCatalog(), null, table, false, false)) {
+            while (rs.next()) {
+                String index = rs.getString("INDEX_NAME");
+                String column = rs.getString("COLUMN_NAME");
+                if (index == null || column == null) {
+                    continue; // table statistics row
+                }
+                List<String> indexColumns = columnsByIndex.computeIfAbsent(index, i -> new ArrayList<>());
+                int position = rs.getInt("ORDINAL_POSITION");
+                while (indexColumns.size() < position) {
+                    indexColumns.add(null);
+                }
+                indexColumns.set(position - 1, column.toLowerCase(Locale.ROOT));
+            }
+        }
+        List<String> wanted = Arrays.asList(columns);
+        for (List<String> indexColumns : columnsByIndex.values()) {
+            if (indexColumns.size() >= wanted.size() && indexColumns.subList(0, wanted.size()).equals(wanted)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> primaryKeyColumns(Connection connection, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (ResultSet rs = connection.getMetaData().getPrimaryKeys(connection.getCatalog(), null, table)) {
+            while (rs.next()) {
+                int position = rs.getInt("KEY_SEQ");
+                while (columns.size() < position) {
+                    columns.add(null);
+                }
+                columns.set(position - 1, rs.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+            }
+        }
+        return columns;
+    }
+
+    private static boolean hasForeignKey(Connection connection, String table, String column, String referencedTable)
+            throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getImportedKeys(connection.getCatalog(), null, table)) {
+            while (rs.next()) {
+                if (rs.getString("FKCOLUMN_NAME").equalsIgnoreCase(column)
+                        && rs.getString("PKTABLE_NAME").equalsIgnoreCase(referencedTable)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,240 @@
+package lms;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory inverted index over book title, author and publisher.
+// Terms are case-folded alphanumeric tokens kept in a sorted dictionary so type-ahead prefixes are a range lookup.
+// Each posting records which fields of the book contain the term; BookManager keeps it current on add and delete.
+class SearchIndex {
+    private static final String LOAD_QUERY = "SELECT id, title, author, publisher, year FROM books";
+    private static final int TITLE = 1;
+    private static final int AUTHOR = 2;
+    private static final int PUBLISHER = 4;
+    // A one-letter prefix would expand to most of the dictionary, so prefixes start at two characters
+    private static final int MIN_PREFIX_LENGTH = 2;
+
+    // Stored fields so a hit can be shown (and later removed) without going back to the database
+    static final class Doc {
+        final int id;
+        final String title;
+        final String author;
+        final String publisher;
+        final int year;
+
+        Doc(int id, String title, String author, String publisher, int year) {
+            this.id = id;
+            this.title = title;
+            this.author = author;
+            this.publisher = publisher;
+            this.year = year;
+        }
+    }
+
+    private final TreeMap<String, Map<Integer, Integer>> postings = new TreeMap<>();
+    private final Map<Integer, Doc> docs = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean ready;
+
+    // Reads every book once, from all branches in parallel; called in the background at startup
+    public void build(ShardMap shards) throws SQLException {
+        shards.scatter(shards.all(), shard -> {
+            try (Connection connection = shard.db.getConnection();
+                 Statement stmt = connection.createStatement()) {
+                stmt.setFetchSize(1000);
+                try (ResultSet rs = stmt.executeQuery(LOAD_QUERY)) {
+                    while (rs.next()) {
+                        add(rs.getInt("id"), rs.getString("title"), rs.getString("author"),
+                                rs.getString("publisher"), rs.getInt("year"));
+                    }
+                }
+            }
+            return null;
+        });
+        ready = true;
+    }
+
+    // Loads every book from the catalog snapshot on the desk's disk instead; SnapshotSync then catches it up
+    public void build(CatalogSnapshot snapshot) {
+        for (int i = 0; i < snapshot.getBookCount(); i++) {
+            BookRow book = snapshot.getBookAt(i);
+            add(book.id, book.title, book.author, book.publisher, book.year);
+        }
+        ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void add(int id, String title, String author, String publisher, int year) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            docs.put(id, new Doc(id, title, author, publisher, year));
+            addTerms(id, title, TITLE);
+            addTerms(id, author, AUTHOR);
+            addTerms(id, publisher, PUBLISHER);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The stored fields of one book, or null when it is not indexed
+    public Doc get(int id) {
+        lock.readLock().lock();
+        try {
+            return docs.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Every query token must match a term exactly or as a prefix. Matches in the title outrank author,
+    // which outranks publisher, and exact term matches count double.
+    public List<Doc> search(String query, int limit) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            Map<Integer, Integer> scores = null;
+            for (String token : tokens) {
+                Map<Integer, Integer> tokenScores = scoreToken(token);
+                if (scores == null) {
+                    scores = tokenScores;
+                } else {
+                    Map<Integer, Integer> merged = new HashMap<>();
+                    for (Map.Entry<Integer, Integer> e : scores.entrySet()) {
+                        Integer other = tokenScores.get(e.getKey());
+                        if (other != null) {
+                            merged.put(e.getKey(), e.getValue() + other);
+                        }
+                    }
+                    scores = merged;
+                }
+                if (scores.isEmpty()) {
+                    return Collections.emptyList();
+                }
+            }
+            List<Map.Entry<Integer, Integer>> ranked = new ArrayList<>(scores.entrySet());
+            ranked.sort((a, b) -> a.getValue().equals(b.getValue())
+                    ? Integer.compare(a.getKey(), b.getKey())
+                    : Integer.compare(b.getValue(), a.getValue()));
+            List<Doc> results = new ArrayList<>(Math.min(limit, ranked.size()));
+            for (int i = 0; i < ranked.size() && results.size() < limit; i++) {
+                results.add(docs.get(ranked.get(i).getKey()));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String folded = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean wordChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private Map<Integer, Integer> scoreToken(String token) {
+        Map<Integer, Integer> scores = new HashMap<>();
+        SortedMap<String, Map<Integer, Integer>> matches = token.length() >= MIN_PREFIX_LENGTH
+                ? postings.subMap(token, token + Character.MAX_VALUE)
+                : postings.subMap(token, true, token, true);
+        for (Map.Entry<String, Map<Integer, Integer>> term : matches.entrySet()) {
+            int multiplier = term.getKey().equals(token) ? 2 : 1;
+            for (Map.Entry<Integer, Integer> posting : term.getValue().entrySet()) {
+                int score = fieldWeight(posting.getValue()) * multiplier;
+                scores.merge(posting.getKey(), score, Math::max);
+            }
+        }
+        return scores;
+    }
+
+    private static int fieldWeight(int fields) {
+        int weight = 0;
+        if ((fields & TITLE) != 0) {
+            weight += 3;
+        }
+        if ((fields & AUTHOR) != 0) {
+            weight += 2;
+        }
+        if ((fields & PUBLISHER) != 0) {
+            weight += 1;
+        }
+        return weight;
+    }
+
+    private void addTerms(int id, String text, int field) {
+        for (String term : tokenize(text)) {
+            postings.computeIfAbsent(term, t -> new HashMap<>()).merge(id, field, (a, b) -> a | b);
+        }
+    }
+
+    private void removeLocked(int id) {
+        Doc doc = docs.remove(id);
+        if (doc == null) {
+            return;
+        }
+        removeTerms(id, doc.title);
+        removeTerms(id, doc.author);
+        removeTerms(id, doc.publisher);
+    }
+
+    private void removeTerms(int id, String text) {
+        for (String term : tokenize(text)) {
+            Map<Integer, Integer> docsForTerm = postings.get(term);
+            if (docsForTerm != null) {
+                docsForTerm.remove(id);
+                if (docsForTerm.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package lms;
+
+// One branch database and the book IDs it owns, firstId to lastId inclusive. The branch name is its routing key.
+final class Shard {
+    final String name;
+    final int firstId;
+    final int lastId;
+    final DatabaseConnection db;
+
+    Shard(String name, int firstId, int lastId, DatabaseConnection db) {
+        if (firstId < 1 || lastId < firstId) {
+            throw new IllegalArgumentException("Invalid ID range for branch " + name + ": " + firstId + "-" + lastId);
+        }
+        this.name = name;
+        this.firstId = firstId;
+        this.lastId = lastId;
+        this.db = db;
+    }
+
+    boolean owns(int bookId) {
+        return bookId >= firstId && bookId <= lastId;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [" + firstId + "-" + (lastId == Integer.MAX_VALUE ? "" : String.valueOf(lastId)) + "]";
+    }
+}
@@ -0,0 +1,259 @@
+package lms;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+// The branch databases the catalog is spread over, each owning a contiguous range of book IDs. Work on one book
+// (add, delete, issue, return) goes to the shard that owns it, so each branch server only carries its own desks'
+// load; catalog-wide reads are sent to every shard at once and the answers merged in ID order. A single database
+// is one shard owning every ID, and then nothing runs on extra threads.
+//
+//   -Dlms.shards=north:1-499999,south:500000-    branches and their ID ranges (an open end runs to the last ID)
+//   -Dlms.branch=north                           which of them is this process's own database (default: the first)
+//   -Dlms.shard.south.url=jdbc:mysql://...       where the other branches are, on MySQL; with -Dlms.storage=embedded
+//                                                or memory each branch gets its own local H2 database instead
+class ShardMap {
+    static final String SHARDS_PROPERTY = "lms.shards";
+    static final String BRANCH_PROPERTY = "lms.branch";
+
+    // Work done against one shard during a scatter
+    interface ShardCall<T> {
+        T run(Shard shard) throws SQLException;
+    }
+
+    private final List<Shard> shards;
+    private final Shard home;
+    private final ExecutorService scatterPool; // null with a single shard
+
+    ShardMap(List<Shard> shards, Shard home) {
+        List<Shard> sorted = new ArrayList<>(shards);
+        sorted.sort(Comparator.comparingInt(shard -> shard.firstId));
+        for (int i = 1; i < sorted.size(); i++) {
+            if (sorted.get(i).firstId <= sorted.get(i - 1).lastId) {
+                throw new IllegalArgumentException("Branches " + sorted.get(i - 1) + " and " + sorted.get(i) + " overlap");
+            }
+        }
+        if (!sorted.contains(home)) {
+            throw new IllegalArgumentException("Home branch " + home + " is not one of the shards");
+        }
+        this.shards = Collections.unmodifiableList(sorted);
+        this.home = home;
+        if (sorted.size() > 1) {
+            AtomicInteger counter = new AtomicInteger();
+            scatterPool = Executors.newFixedThreadPool(sorted.size(), r -> {
+                Thread t = new Thread(r, "lms-shard-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            scatterPool = null;
+        }
+    }
+
+    static ShardMap single(DatabaseConnection db) {
+        Shard only = new Shard("main", 1, Integer.MAX_VALUE, db);
+        return new ShardMap(Collections.singletonList(only), only);
+    }
+
+    // Opens the other branches listed in -Dlms.shards next to home, the database this process already has open.
+    // Without the property the library is a single database.
+    static ShardMap fromSystemProperties(DatabaseConnection home, StorageBackend mysql, int poolSize) throws DatabaseException {
+        String spec = System.getProperty(SHARDS_PROPERTY, "").trim();
+        if (spec.isEmpty()) {
+            return single(home);
+        }
+        List<String[]> branches = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2 || parts[0].isEmpty() || !parts[1].contains("-")) {
+                throw new DatabaseException("Bad " + SHARDS_PROPERTY + " entry '" + entry + "' (expected name:first-last)");
+            }
+            branches.add(parts);
+        }
+        String homeName = System.getProperty(BRANCH_PROPERTY, branches.get(0)[0]);
+        List<Shard> shards = new ArrayList<>();
+        Shard homeShard = null;
+        try {
+            for (String[] branch : branches) {
+                String name = branch[0];
+                int dash = branch[1].indexOf('-');
+                int firstId;
+                int lastId;
+                try {
+                    firstId = Integer.parseInt(branch[1].substring(0, dash).trim());
+                    String last = branch[1].substring(dash + 1).trim();
+                    lastId = last.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(last);
+                } catch (NumberFormatException e) {
+                    throw new DatabaseException("Bad ID range '" + branch[1] + "' for branch " + name);
+                }
+                DatabaseConnection db = name.equals(homeName) ? home
+                        : new DatabaseConnection(StorageBackend.forBranch(name, mysql), poolSize, home.isOfflineAllowed());
+                Shard shard = new Shard(name, firstId, lastId, db);
+                shards.add(shard);
+                if (db == home) {
+                    homeShard = shard;
+                }
+            }
+            if (homeShard == null) {
+                throw new DatabaseException("Branch '" + homeName + "' (" + BRANCH_PROPERTY + ") is not listed in " + SHARDS_PROPERTY);
+            }
+            return new ShardMap(shards, homeShard);
+        } catch (DatabaseException | IllegalArgumentException e) {
+            for (Shard shard : shards) {
+                if (shard.db != home) {
+                    shard.db.closeConnection();
+                }
+            }
+            if (e instanceof DatabaseException) {
+                throw (DatabaseException) e;
+            }
+            throw new DatabaseException(e.getMessage());
+        }
+    }
+
+    // In ID order
+    public List<Shard> all() {
+        return shards;
+    }
+
+    // This process's own branch; the activity log and metrics live here
+    public Shard home() {
+        return home;
+    }
+
+    public boolean isSharded() {
+        return shards.size() > 1;
+    }
+
+    // The shard owning bookId, or null when the ID is outside every branch's range
+    public Shard forBook(int bookId) {
+        for (Shard shard : shards) {
+            if (shard.owns(bookId)) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    public Shard forBranch(String name) {
+        for (Shard shard : shards) {
+            if (shard.name.equals(name)) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    // Shards that can hold IDs greater than afterId, in ID order
+    public List<Shard> after(int afterId) {
+        List<Shard> result = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            if (shard.lastId > afterId) {
+                result.add(shard);
+            }
+        }
+        return result;
+    }
+
+    // Runs call against every target in parallel and returns the results in target order. The first failure is
+    // rethrown once every call has finished, with the branch name added to the message.
+    public <T> List<T> scatter(List<Shard> targets, ShardCall<T> call) throws SQLException {
+        List<T> results = new ArrayList<>(targets.size());
+        if (scatterPool == null || targets.size() <= 1) {
+            for (Shard shard : targets) {
+                results.add(call.run(shard));
+            }
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>(targets.size());
+        for (Shard shard : targets) {
+            futures.add(scatterPool.submit(() -> call.run(shard)));
+        }
+        SQLException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (failure == null) {
+                    SQLException sqlCause = (SQLException) cause;
+                    failure = new SQLException("Branch " + targets.get(i).name + ": " + sqlCause.getMessage(),
+                            sqlCause.getSQLState(), sqlCause.getErrorCode(), sqlCause);
+                }
+                results.add(null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for branch " + targets.get(i).name, e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    // Merges per-shard lists that are each sorted by key into one sorted list of at most limit rows
+    static <T> List<T> merge(List<List<T>> parts, ToIntFunction<T> key, int limit) {
+        if (parts.size() == 1) {
+            List<T> only = parts.get(0);
+            return only.size() <= limit ? only : new ArrayList<>(only.subList(0, limit));
+        }
+        List<T> merged = new ArrayList<>(limit);
+        int[] positions = new int[parts.size()];
+        while (merged.size() < limit) {
+            int best = -1;
+            for (int i = 0; i < parts.size(); i++) {
+                List<T> part = parts.get(i);
+                if (positions[i] < part.size() && (best < 0
+                        || key.applyAsInt(part.get(positions[i])) < key.applyAsInt(parts.get(best).get(positions[best])))) {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            merged.add(parts.get(best).get(positions[best]++));
+        }
+        return merged;
+    }
+
+    // Closes every branch's connection, home included
+    public void close() throws DatabaseException {
+        if (scatterPool != null) {
+            scatterPool.shutdownNow();
+        }
+        DatabaseException failure = null;
+        for (Shard shard : shards) {
+            try {
+                shard.db.closeConnection();
+            } catch (DatabaseException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return shards.toString();
+    }
+}
@@ -0,0 +1,49 @@
+package lms;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Reports statements and operations that take longer than a threshold, one line each. Off unless
+// -Dlms.slowQueryMillis=N is set; below the threshold the cost is a single comparison.
+class SlowQueryLog {
+    static final String THRESHOLD_PROPERTY = "lms.slowQueryMillis";
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private final long thresholdNanos;
+    private final Consumer<String> sink;
+    private final AtomicLong logged = new AtomicLong();
+
+    SlowQueryLog(long thresholdMillis, Consumer<String> sink) {
+        this.thresholdNanos = thresholdMillis > 0 ? thresholdMillis * 1_000_000L : Long.MAX_VALUE;
+        this.sink = sink;
+    }
+
+    static SlowQueryLog fromSystemProperties() {
+        return new SlowQueryLog(Long.getLong(THRESHOLD_PROPERTY, 0), System.err::println);
+    }
+
+    public boolean isEnabled() {
+        return thresholdNanos != Long.MAX_VALUE;
+    }
+
+    public long getThresholdMillis() {
+        return isEnabled() ? thresholdNanos / 1_000_000L : 0;
+    }
+
+    public long getLoggedCount() {
+        return logged.get();
+    }
+
+    // kind is "statement" or "operation"; name is the registered statement or operation name
+    public void check(String kind, String name, long nanos) {
+        if (nanos < thresholdNanos) {
+            return;
+        }
+        logged.incrementAndGet();
+        sink.accept(String.format("%s SLOW %s %s took %.1fms (threshold %dms) on %s",
+                LocalDateTime.now().format(TIMESTAMP), kind, name, nanos / 1_000_000.0, getThresholdMillis(),
+                Thread.currentThread().getName()));
+    }
+}
@@ -0,0 +1,336 @@
+package lms;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Keeps the catalog snapshot (CatalogSnapshot) on the desk's disk in step with the database without reading the
+// whole catalog each time. Every write to books bumps the version of its block of CatalogSnapshot.BLOCK_IDS IDs in
+// catalog_blocks, in the same transaction (BookManager); a sync reads that small table from each branch, reads only
+// the blocks whose versions differ from the snapshot's, and copies the rest from the old snapshot. Open loans and
+// copies kept for holds are few next to the catalog and are read in full. At startup the search index is loaded
+// from the snapshot before anything is asked of the database, and the books a sync finds changed are then put
+// right in it, so the catalog crosses the network once per desk rather than once per start.
+//
+//   -Dlms.snapshot.path=...   the snapshot file (default library-data/catalog.snapshot)
+class SnapshotSync {
+    static final String PATH_PROPERTY = "lms.snapshot.path";
+    static final String DEFAULT_PATH = "library-data/catalog.snapshot";
+    private static final String VERSIONS_QUERY = "SELECT block, version FROM catalog_blocks";
+    private static final String HELD_QUERY = "SELECT book_id, registration_number FROM holds WHERE pickup_by IS NOT NULL";
+    private static final String RANGE_QUERY = "SELECT id, title, author, publisher, year FROM books WHERE id BETWEEN ? AND ? ORDER BY id";
+    private static final int RANGE_BLOCKS = 16; // changed blocks read per query, at most
+    private static final int LOAN_PAGE_SIZE = 5000;
+
+    // What one sync did
+    static final class SyncResult {
+        final int books;
+        final int loans;
+        final int blocks;
+        final int blocksRead;
+        final long elapsedMillis;
+
+        SyncResult(int books, int loans, int blocks, int blocksRead, long elapsedMillis) {
+            this.books = books;
+            this.loans = loans;
+            this.blocks = blocks;
+            this.blocksRead = blocksRead;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        // Whether the sync found any book added, changed or deleted
+        boolean foundChanges() {
+            return blocksRead > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Catalog snapshot synced: " + books + " books, " + loans + " loans; read " + blocksRead + " of "
+                    + blocks + " blocks in " + elapsedMillis + " ms";
+        }
+    }
+
+    private final BookManager bookManager;
+    private final Path path;
+    // Called on the sync thread after each periodic sync; UI listeners must hop to the EDT themselves
+    private final Consumer<SyncResult> listener;
+    private final Object syncLock = new Object(); // one sync at a time
+    private volatile CatalogSnapshot current;
+    private boolean opened; // guarded by this
+    private ScheduledExecutorService scheduler;
+
+    SnapshotSync(BookManager bookManager, Path path, Consumer<SyncResult> listener) {
+        this.bookManager = bookManager;
+        this.path = path;
+        this.listener = listener;
+    }
+
+    // The snapshot at -Dlms.snapshot.path
+    static SnapshotSync fromSystemProperties(BookManager bookManager, Consumer<SyncResult> listener) {
+        return new SnapshotSync(bookManager, Paths.get(System.getProperty(PATH_PROPERTY, DEFAULT_PATH)), listener);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // The snapshot last written, or the one on disk the first time; null when there is none or it cannot be used
+    public CatalogSnapshot getSnapshot() {
+        CatalogSnapshot snapshot = current;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (this) {
+            if (!opened) {
+                opened = true;
+                if (!Files.exists(path)) {
+                    System.err.println("No catalog snapshot at " + path + " yet.");
+                } else {
+                    try {
+                        current = CatalogSnapshot.open(path);
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("Cannot use the catalog snapshot: " + e.getMessage());
+                    }
+                }
+            }
+            return current;
+        }
+    }
+
+    // Loads the search index from the snapshot on disk, then syncs at once and every periodMillis after
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lms-snapshot-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.execute(this::loadSearchIndex);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                listener.accept(sync());
+            } catch (IOException | SQLException | LibraryException | RuntimeException e) {
+                System.err.println("Failed to sync the catalog snapshot: " + e.getMessage());
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    // Brings the snapshot up to date with the database and writes it. The change bus sequence is taken first:
+    // changes made while the sync runs may or may not be in it, and are replayed over it either way (OfflineDesk).
+    public SyncResult sync() throws SQLException, IOException, LibraryException {
+        synchronized (syncLock) {
+            long start = System.nanoTime();
+            ChangeBus changes = bookManager.getChanges();
+            long sequence = changes.getLastSequence();
+            ShardMap shards = bookManager.getShards();
+            CatalogSnapshot base = getSnapshot();
+            SearchIndex searchIndex = bookManager.getSearchIndex();
+            // The index was loaded from base, so the books that changed since are all it needs
+            boolean updateIndex = base != null && searchIndex != null && searchIndex.isReady();
+
+            // Versions only go up, so the sum over the branches sharing a block changes whenever one of them does
+            Map<Integer, Long> stored = base == null ? Collections.emptyMap() : base.getBlockVersions();
+            Map<Integer, Long> live = new HashMap<>();
+            for (Map<Integer, Long> branch : shards.scatter(shards.all(), this::readBlockVersions)) {
+                for (Map.Entry<Integer, Long> block : branch.entrySet()) {
+                    live.merge(block.getKey(), block.getValue(), Long::sum);
+                }
+            }
+            TreeSet<Integer> blocks = new TreeSet<>(stored.keySet());
+            blocks.addAll(live.keySet());
+
+            CatalogSnapshot.Writer writer = new CatalogSnapshot.Writer(changes.getOrigin(), sequence, live);
+            int blocksRead = 0;
+            long copiedFrom = 0; // first ID not yet written
+            int rangeStart = -1;
+            int rangeEnd = -1;
+            for (int block : blocks) {
+                if (Objects.equals(stored.get(block), live.get(block))) {
+                    continue;
+                }
+                blocksRead++;
+                if (rangeStart >= 0 && block == rangeEnd + 1 && block - rangeStart < RANGE_BLOCKS) {
+                    rangeEnd = block;
+                    continue;
+                }
+                if (rangeStart >= 0) {
+                    copiedFrom = readRange(base, writer, copiedFrom, rangeStart, rangeEnd, updateIndex);
+                }
+                rangeStart = block;
+                rangeEnd = block;
+            }
+            if (rangeStart >= 0) {
+                copiedFrom = readRange(base, writer, copiedFrom, rangeStart, rangeEnd, updateIndex);
+            }
+            copy(base, writer, copiedFrom, Integer.MAX_VALUE);
+
+            int loans = 0;
+            int after = 0;
+            List<IssuedBookRow> page;
+            do {
+                page = bookManager.getIssuedBooksPage(after, LOAN_PAGE_SIZE);
+                for (IssuedBookRow loan : page) {
+                    writer.addLoan(loan);
+                    after = loan.bookId;
+                }
+                loans += page.size();
+            } while (page.size() == LOAN_PAGE_SIZE);
+            Map<Integer, String> held = new TreeMap<>();
+            for (Map<Integer, String> branch : shards.scatter(shards.all(), SnapshotSync::readHeld)) {
+                held.putAll(branch);
+            }
+            for (Map.Entry<Integer, String> copy : held.entrySet()) {
+                writer.addHeld(copy.getKey(), copy.getValue());
+            }
+
+            CatalogSnapshot written = writer.write(path);
+            current = written;
+            if (searchIndex != null && !searchIndex.isReady()) {
+                searchIndex.build(written);
+            }
+            return new SyncResult(writer.getBookCount(), loans, blocks.size(), blocksRead,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private void loadSearchIndex() {
+        SearchIndex searchIndex = bookManager.getSearchIndex();
+        CatalogSnapshot snapshot = getSnapshot();
+        if (searchIndex == null || snapshot == null || searchIndex.isReady()) {
+            return;
+        }
+        long start = System.nanoTime();
+        searchIndex.build(snapshot);
+        System.out.println("Search index loaded from the catalog snapshot: " + searchIndex.size() + " books in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+    }
+
+    // Copies the unchanged books below the range, then writes the range's books as the database has them, telling
+    // the search index about every book that differs from base. Returns the first ID after the range.
+    private long readRange(CatalogSnapshot base, CatalogSnapshot.Writer writer, long copiedFrom, int firstBlock,
+                           int lastBlock, boolean updateIndex) throws SQLException {
+        long firstId = (long) firstBlock * CatalogSnapshot.BLOCK_IDS;
+        long lastId = (lastBlock + 1L) * CatalogSnapshot.BLOCK_IDS - 1;
+        copy(base, writer, copiedFrom, firstId - 1);
+        ShardMap shards = bookManager.getShards();
+        List<List<BookRow>> branches = shards.scatter(shards.all(), shard -> {
+            List<BookRow> branchRows = new ArrayList<>();
+            try (Connection connection = shard.db.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(RANGE_QUERY)) {
+                stmt.setLong(1, firstId);
+                stmt.setLong(2, lastId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        branchRows.add(new BookRow(rs.getInt("id"), rs.getString("title"), rs.getString("author"),
+                                rs.getString("publisher"), rs.getInt("year"), BookColumns.AVAILABLE));
+                    }
+                }
+            }
+            return branchRows;
+        });
+        List<BookRow> rows = ShardMap.merge(branches, row -> row.id, branches.stream().mapToInt(List::size).sum());
+        for (BookRow row : rows) {
+            writer.addBook(row);
+        }
+        if (updateIndex) {
+            updateSearchIndex(base, rows, firstId, lastId);
+        }
+        return lastId + 1;
+    }
+
+    // Walks the range in base and in the database side by side
+    private void updateSearchIndex(CatalogSnapshot base, List<BookRow> rows, long firstId, long lastId) {
+        SearchIndex searchIndex = bookManager.getSearchIndex();
+        CatalogCache cache = bookManager.getCache();
+        int stored = base.indexAfter((int) firstId - 1);
+        int end = lastId >= Integer.MAX_VALUE ? base.getBookCount() : base.indexAfter((int) lastId);
+        int fetched = 0;
+        while (stored < end || fetched < rows.size()) {
+            long storedId = stored < end ? base.getBookId(stored) : Long.MAX_VALUE;
+            BookRow row = fetched < rows.size() ? rows.get(fetched) : null;
+            if (row == null || storedId < row.id) {
+                searchIndex.remove((int) storedId);
+                if (cache != null) {
+                    cache.remove((int) storedId);
+                }
+                stored++;
+                continue;
+            }
+            if (storedId == row.id) {
+                BookRow old = base.getBookAt(stored++);
+                fetched++;
+                if (old.title.equals(row.title) && old.author.equals(row.author)
+                        && old.publisher.equals(row.publisher) && old.year == row.year) {
+                    continue;
+                }
+                if (cache != null) {
+                    cache.remove(row.id);
+                }
+            } else {
+                fetched++;
+            }
+            searchIndex.add(row.id, row.title, row.author, row.publisher, row.year);
+        }
+    }
+
+    // Copies base's books with IDs from firstId to lastId
+    private static void copy(CatalogSnapshot base, CatalogSnapshot.Writer writer, long firstId, long lastId) {
+        if (base == null || firstId > lastId || firstId > Integer.MAX_VALUE) {
+            return;
+        }
+        for (int i = base.indexAfter((int) firstId - 1); i < base.getBookCount() && base.getBookId(i) <= lastId; i++) {
+            writer.addBook(base.getBookAt(i));
+        }
+    }
+
+    // The registration number each ready hold on the branch keeps its copy for, by book ID
+    private static Map<Integer, String> readHeld(Shard shard) throws SQLException {
+        Map<Integer, String> held = new HashMap<>();
+        try (Connection connection = shard.db.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(HELD_QUERY)) {
+            while (rs.next()) {
+                held.put(rs.getInt("book_id"), rs.getString("registration_number"));
+            }
+        }
+        return held;
+    }
+
+    private Map<Integer, Long> readBlockVersions(Shard shard) throws SQLException {
+        Map<Integer, Long> versions = new HashMap<>();
+        try (Connection connection = shard.db.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(VERSIONS_QUERY)) {
+            while (rs.next()) {
+                versions.put(rs.getInt("block"), rs.getLong("version"));
+            }
+        }
+        return versions;
+    }
+}
@@ -0,0 +1,82 @@
+package lms;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Named SQL that the connection pool prepares once per physical connection and hands out again on every
+// prepareStatement(sql) or prepareStatement(sql, autoGeneratedKeys) call, along with execution counts and
+// latency for each name.
+class StatementRegistry {
+    // Execution statistics for one named statement
+    static final class StatementStats {
+        final String name;
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong prepares = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+        private final SlowQueryLog slowQueryLog;
+
+        StatementStats(String name, SlowQueryLog slowQueryLog) {
+            this.name = name;
+            this.slowQueryLog = slowQueryLog;
+        }
+
+        void recordExecution(long nanos) {
+            latency.record(nanos);
+            slowQueryLog.check("statement", name, nanos);
+        }
+    }
+
+    private final Map<String, String> namesBySql = new ConcurrentHashMap<>();
+    private final Map<String, StatementStats> statsByName = new ConcurrentHashMap<>();
+    private final SlowQueryLog slowQueryLog;
+    private volatile Runnable onRegister;
+
+    StatementRegistry(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    public void register(String name, String sql) {
+        String existing = namesBySql.putIfAbsent(sql, name);
+        if (existing != null && !existing.equals(name)) {
+            throw new IllegalArgumentException("SQL already registered as '" + existing + "': " + sql);
+        }
+        if (!statsByName.containsKey(name)) {
+            statsByName.putIfAbsent(name, new StatementStats(name, slowQueryLog));
+            Runnable listener = onRegister;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    }
+
+    // Lets the JMX exporter pick up statements registered after it started
+    void setOnRegister(Runnable onRegister) {
+        this.onRegister = onRegister;
+    }
+
+    // Name of the statement, or null when the SQL is ad hoc and should not be cached
+    public String nameOf(String sql) {
+        return namesBySql.get(sql);
+    }
+
+    public StatementStats statsFor(String name) {
+        return statsByName.get(name);
+    }
+
+    public Map<String, StatementStats> getStats() {
+        return new TreeMap<>(statsByName);
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, StatementStats> e : getStats().entrySet()) {
+            StatementStats stats = e.getValue();
+            sb.append("statement ").append(e.getKey()).append(": ").append(stats.latency)
+              .append(" errors=").append(stats.errors.get())
+              .append(" prepares=").append(stats.prepares.get()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package lms;
+
+import java.nio.file.Paths;
+
+// Where the library's tables live. DatabaseConnection opens its pool through a backend, so BookManager and the
+// rest of the JDBC code run unchanged on any of them: the MySQL server in production, or the embedded engine
+// for offline tests, benchmarks and branches without a database server.
+interface StorageBackend {
+    String getName();
+
+    String getDriverClassName();
+
+    String getUrl();
+
+    String getUser();
+
+    String getPassword();
+
+    // -Dlms.storage=mysql (the default, given by the caller), embedded (H2 files under -Dlms.db.path) or memory
+    static StorageBackend select(StorageBackend mysql) {
+        String storage = System.getProperty("lms.storage", "mysql");
+        switch (storage) {
+            case "mysql":
+                return mysql;
+            case "embedded":
+                return EmbeddedBackend.file(Paths.get(System.getProperty("lms.db.path", "library-data/library")));
+            case "memory":
+                return EmbeddedBackend.inMemory("library");
+            default:
+                throw new IllegalArgumentException("Unknown lms.storage '" + storage + "' (expected mysql, embedded or memory)");
+        }
+    }
+
+    // Another branch's database (see ShardMap), on the same kind of storage: a MySQL server named by
+    // -Dlms.shard.<branch>.url with the same credentials, or a local H2 database named after the branch
+    static StorageBackend forBranch(String branch, StorageBackend mysql) throws DatabaseException {
+        String storage = System.getProperty("lms.storage", "mysql");
+        switch (storage) {
+            case "mysql": {
+                String url = System.getProperty("lms.shard." + branch + ".url");
+                if (url == null) {
+                    throw new DatabaseException("No database for branch " + branch + ": set -Dlms.shard." + branch + ".url");
+                }
+                return new MySqlBackend(url, mysql.getUser(), mysql.getPassword());
+            }
+            case "embedded":
+                return EmbeddedBackend.file(Paths.get(System.getProperty("lms.db.path", "library-data/library") + "-" + branch));
+            case "memory":
+                return EmbeddedBackend.inMemory("library-" + branch);
+            default:
+                throw new IllegalArgumentException("Unknown lms.storage '" + storage + "' (expected mysql, embedded or memory)");
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package lms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Dictionary encoding for a string column with many repeats (authors, publishers): each distinct value is stored
+// once and rows hold its int code. Codes are handed out in first-seen order; ranks() gives their sorted order so
+// rows can be compared as ints.
+class StringPool {
+    private static final Comparator<String> ORDER =
+            Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder()));
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+    private int[] ranks = new int[0];
+
+    int code(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    // -1 when the value has never been seen
+    int indexOf(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    String get(int code) {
+        return values.get(code);
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    // ranks()[code] is the position of that value in sorted order; rebuilt only after new values arrive
+    int[] ranks() {
+        if (ranks.length != values.size()) {
+            Integer[] order = new Integer[values.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> ORDER.compare(values.get(a), values.get(b)));
+            ranks = new int[order.length];
+            for (int rank = 0; rank < order.length; rank++) {
+                ranks[order[rank]] = rank;
+            }
+        }
+        return ranks;
+    }
+
+    void clear() {
+        codes.clear();
+        values.clear();
+        ranks = new int[0];
+    }
+}
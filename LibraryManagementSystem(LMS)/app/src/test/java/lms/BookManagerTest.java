@@ -0,0 +1,232 @@
+package lms;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// BookManager against a private in-memory H2 database (EmbeddedBackend): bulk import, the loan conflicts and the
+// loan limit
+class BookManagerTest {
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    private DatabaseConnection db;
+    private BookManager bookManager;
+
+    @BeforeEach
+    void openDatabase() throws DatabaseException {
+        db = new DatabaseConnection(EmbeddedBackend.inMemory("book-manager-test-" + databases.incrementAndGet()));
+        bookManager = new BookManager(db);
+    }
+
+    @AfterEach
+    void closeDatabase() throws DatabaseException {
+        db.closeConnection();
+    }
+
+    @Test
+    void importRejectsDuplicatesAndInvalidRowsAndKeepsTheRest() throws Exception {
+        bookManager.addBook(3, "Already There", "Author", "Publisher", 2001);
+
+        ImportReport report = bookManager.addBooks(Arrays.asList(
+                book(1), book(2), new Book(2, "Second Copy", "Author", "Publisher", 2002), book(3),
+                new Book(4, "", "Author", "Publisher", 2004), book(5)), 2);
+
+        assertNull(report.getFailure());
+        assertEquals(3, report.getImported());
+        assertEquals(3, report.getRejectedCount());
+        List<String> reasons = new ArrayList<>();
+        for (ImportReport.Reject reject : report.getRejects()) {
+            reasons.add(reject.source + ": " + reject.reason);
+        }
+        // Rows are reported in the order they are found: the second batch (2, 3) is sent before row 4 is read
+        assertEquals(Arrays.asList(
+                "Book ID 2: a book with this ID already exists",
+                "Book ID 3: a book with this ID already exists",
+                "Book ID 4: missing title, author or publisher, or ID/year not positive"), reasons);
+        assertEquals("Title 2", bookManager.getBook(2).title); // the first row with an ID wins
+        assertEquals("Already There", bookManager.getBook(3).title);
+        assertEquals(Arrays.asList(1, 2, 3, 5), ids(bookManager.getBooksPage(0, 100)));
+    }
+
+    @Test
+    void importOfACleanFileTakesEveryRow() throws Exception {
+        List<Book> books = new ArrayList<>();
+        for (int id = 1; id <= 250; id++) {
+            books.add(book(id));
+        }
+
+        ImportReport report = bookManager.addBooks(books, 100);
+
+        assertNull(report.getFailure());
+        assertEquals(250, report.getImported());
+        assertEquals(0, report.getRejectedCount());
+        assertEquals(250, bookManager.getBooksPage(0, 1000).size());
+    }
+
+    @Test
+    void issuingAnIssuedBookIsAConflict() throws Exception {
+        bookManager.addBook(1, "Title 1", "Author", "Publisher", 2000);
+        IssuedBookRow loan = bookManager.issueBook(1, "Ann", "R1");
+
+        assertEquals("Title 1", loan.title);
+        assertEquals(BookColumns.ISSUED, bookManager.getBook(1).status);
+        LibraryException refused = assertThrows(LibraryException.class, () -> bookManager.issueBook(1, "Bob", "R2"));
+        assertEquals(LibraryException.Reason.CONFLICT, refused.getReason());
+        assertEquals("R1", bookManager.getIssuedBook(1).registrationNumber);
+    }
+
+    @Test
+    void issuingAMissingOrInvalidBookIsRefused() throws Exception {
+        assertEquals(LibraryException.Reason.CONFLICT,
+                assertThrows(LibraryException.class, () -> bookManager.issueBook(99, "Ann", "R1")).getReason());
+        assertEquals(LibraryException.Reason.INVALID,
+                assertThrows(LibraryException.class, () -> bookManager.issueBook(1, " ", "R1")).getReason());
+        assertTrue(bookManager.getIssuedBooksPage(0, 10).isEmpty());
+    }
+
+    @Test
+    void returningABookThatIsNotOutIsAConflict() throws Exception {
+        bookManager.addBook(1, "Title 1", "Author", "Publisher", 2000);
+        bookManager.addBook(2, "Title 2", "Author", "Publisher", 2000);
+        bookManager.issueBook(1, "Ann", "R1");
+
+        assertEquals(LibraryException.Reason.CONFLICT,
+                assertThrows(LibraryException.class, () -> bookManager.returnBook(2)).getReason());
+        bookManager.returnBook(1);
+        assertEquals(BookColumns.AVAILABLE, bookManager.getBook(1).status);
+        assertEquals(LibraryException.Reason.CONFLICT,
+                assertThrows(LibraryException.class, () -> bookManager.returnBook(1)).getReason());
+    }
+
+    @Test
+    void deletingABookOnLoanIsAConflict() throws Exception {
+        bookManager.addBook(1, "Title 1", "Author", "Publisher", 2000);
+        bookManager.issueBook(1, "Ann", "R1");
+
+        assertEquals(LibraryException.Reason.CONFLICT,
+                assertThrows(LibraryException.class, () -> bookManager.deleteBook(1)).getReason());
+        bookManager.returnBook(1);
+        bookManager.deleteBook(1);
+        assertEquals(LibraryException.Reason.NOT_FOUND,
+                assertThrows(LibraryException.class, () -> bookManager.getBook(1)).getReason());
+    }
+
+    @Test
+    void concurrentIssuesOfOneBookLendItOnce() throws Exception {
+        bookManager.addBook(1, "Title 1", "Author", "Publisher", 2000);
+        ExecutorService desks = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Boolean>> issues = new ArrayList<>();
+            for (int desk = 0; desk < 8; desk++) {
+                String registrationNumber = "R" + desk;
+                issues.add(() -> {
+                    try {
+                        bookManager.issueBook(1, "Student", registrationNumber);
+                        return true;
+                    } catch (LibraryException e) {
+                        assertEquals(LibraryException.Reason.CONFLICT, e.getReason());
+                        return false;
+                    }
+                });
+            }
+            int issued = 0;
+            for (Future<Boolean> result : desks.invokeAll(issues)) {
+                issued += result.get() ? 1 : 0;
+            }
+            assertEquals(1, issued);
+        } finally {
+            desks.shutdown();
+            desks.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        assertEquals(1, bookManager.getIssuedBooksPage(0, 10).size());
+    }
+
+    @Test
+    void theDatabaseEnforcesTheLoanLimitAcrossDesks() throws Exception {
+        for (int id = 1; id <= 4; id++) {
+            bookManager.addBook(id, "Title " + id, "Author", "Publisher", 2000);
+        }
+        // Two desks on one database, each with its own in-memory index that has not seen the other's loans
+        BookManager front = limitedTo(2);
+        BookManager back = limitedTo(2);
+        front.issueBook(1, "Ann", "R1");
+        front.issueBook(2, "Ann", "R1");
+
+        LibraryException refused = assertThrows(LibraryException.class, () -> back.issueBook(3, "Ann", "R1"));
+        assertEquals(LibraryException.Reason.CONFLICT, refused.getReason());
+        assertEquals(0, back.getPatrons().getActiveLoans("R1")); // the index let it through; the database did not
+        assertEquals(BookColumns.AVAILABLE, bookManager.getBook(3).status);
+        assertEquals(2, activeLoans("R1"));
+
+        front.returnBook(1);
+        assertEquals(1, activeLoans("R1"));
+        back.issueBook(3, "Ann", "R1");
+        assertEquals(2, activeLoans("R1"));
+    }
+
+    @Test
+    void aReplayedLoanIsCountedWithoutTheLimit() throws Exception {
+        for (int id = 1; id <= 3; id++) {
+            bookManager.addBook(id, "Title " + id, "Author", "Publisher", 2000);
+        }
+        BookManager desk = limitedTo(1);
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        desk.issueBook(1, "Ann", "R1", yesterday); // lent while the desk was offline: already in the student's hands
+        desk.issueBook(2, "Ann", "R1", yesterday);
+
+        assertEquals(2, activeLoans("R1"));
+        assertEquals(LibraryException.Reason.CONFLICT,
+                assertThrows(LibraryException.class, () -> desk.issueBook(3, "Ann", "R1")).getReason());
+        desk.returnBook(1);
+        desk.returnBook(2);
+        assertEquals(0, activeLoans("R1"));
+        desk.issueBook(3, "Ann", "R1");
+        assertEquals(1, activeLoans("R1"));
+    }
+
+    private BookManager limitedTo(int loanLimit) throws DatabaseException {
+        return BookManager.builder(db).patrons(new PatronIndex(loanLimit)).build();
+    }
+
+    private int activeLoans(String registrationNumber) throws SQLException {
+        try (Connection connection = db.getConnection();
+             PreparedStatement ps = connection.prepareStatement("SELECT active_loans FROM patrons WHERE registration_number = ?")) {
+            ps.setString(1, registrationNumber);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private static Book book(int id) {
+        return new Book(id, "Title " + id, "Author " + id % 3, "Publisher", 2000);
+    }
+
+    private static List<Integer> ids(List<BookRow> rows) {
+        List<Integer> ids = new ArrayList<>();
+        for (BookRow row : rows) {
+            ids.add(row.id);
+        }
+        return ids;
+    }
+}
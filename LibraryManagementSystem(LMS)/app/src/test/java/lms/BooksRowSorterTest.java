@@ -0,0 +1,150 @@
+package lms;
+
+import org.junit.jupiter.api.Test;
+
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The books sorter against a plain sort of the same rows: sorted once the last page is in, and kept in order
+// through single-row changes. Models are only touched on the EDT, as in the application.
+class BooksRowSorterTest {
+    private static final Comparator<BookRow> BY_TITLE =
+            Comparator.comparing((BookRow row) -> row.title, String.CASE_INSENSITIVE_ORDER).thenComparingInt(row -> row.id);
+
+    @Test
+    void pagesShowInModelOrderUntilTheLastOneArrives() throws Exception {
+        Queue<CompletableFuture<List<BookRow>>> pages = new ArrayDeque<>();
+        BooksTableModel model = new BooksTableModel((afterKey, limit) -> {
+            CompletableFuture<List<BookRow>> page = new CompletableFuture<>();
+            pages.add(page);
+            return page;
+        });
+        BooksRowSorter sorter = attach(model);
+        onEdt(() -> sorter.setSortKeys(byTitle()));
+
+        List<BookRow> first = new ArrayList<>();
+        for (int id = 1; id <= KeysetTableModel.BULK_PAGE_SIZE; id++) {
+            first.add(book(id, "Title " + (100000 - id)));
+        }
+        onEdt(() -> pages.remove().complete(first));
+        assertEquals(ids(first), viewIds(model, sorter)); // not sorted yet: the catalog is still loading
+
+        List<BookRow> all = new ArrayList<>(first);
+        all.add(book(KeysetTableModel.BULK_PAGE_SIZE + 1, "Aardvarks"));
+        onEdt(() -> pages.remove().complete(Collections.singletonList(all.get(all.size() - 1))));
+        all.sort(BY_TITLE);
+        assertEquals(ids(all), viewIds(model, sorter));
+    }
+
+    @Test
+    void rowChangesKeepTheViewSortedAndFiltered() throws Exception {
+        Random random = new Random(7);
+        List<BookRow> rows = new ArrayList<>();
+        for (int id = 1; id <= 300; id++) {
+            rows.add(book(id, "Title " + random.nextInt(100)));
+        }
+        BooksTableModel model = onEdt(() -> BooksTableModel.of(rows));
+        BooksRowSorter sorter = attach(model);
+        onEdt(() -> {
+            sorter.setSortKeys(byTitle());
+            sorter.setFilter((columns, row) -> !BookColumns.ISSUED.equals(columns.status(row)));
+        });
+
+        for (int i = 0; i < 500; i++) {
+            int id = 1 + random.nextInt(400);
+            int change = random.nextInt(3);
+            onEdt(() -> {
+                if (change == 0) {
+                    model.upsert(book(id, "Title " + random.nextInt(100)));
+                } else if (change == 1) {
+                    model.setStatus(id, random.nextBoolean() ? BookColumns.ISSUED : BookColumns.AVAILABLE);
+                } else {
+                    model.removeKey(id);
+                }
+            });
+            List<BookRow> expected = new ArrayList<>();
+            for (int row = 0; row < model.getRowCount(); row++) {
+                if (!BookColumns.ISSUED.equals(model.getRow(row).status)) {
+                    expected.add(model.getRow(row));
+                }
+            }
+            expected.sort(BY_TITLE);
+            assertEquals(ids(expected), viewIds(model, sorter), "after change " + i);
+        }
+    }
+
+    // The table is what hands model events to the sorter
+    private static BooksRowSorter attach(BooksTableModel model) throws Exception {
+        return onEdt(() -> {
+            BooksRowSorter sorter = new BooksRowSorter(model);
+            new JTable(model).setRowSorter(sorter);
+            return sorter;
+        });
+    }
+
+    private static List<RowSorter.SortKey> byTitle() {
+        return Collections.singletonList(new RowSorter.SortKey(1, SortOrder.ASCENDING));
+    }
+
+    private static BookRow book(int id, String title) {
+        return new BookRow(id, title, "Author", "Publisher", 2000, BookColumns.AVAILABLE);
+    }
+
+    private static List<Integer> ids(List<BookRow> rows) {
+        List<Integer> ids = new ArrayList<>();
+        for (BookRow row : rows) {
+            ids.add(row.id);
+        }
+        return ids;
+    }
+
+    private static List<Integer> viewIds(BooksTableModel model, BooksRowSorter sorter) throws Exception {
+        return onEdt(() -> {
+            List<Integer> ids = new ArrayList<>();
+            for (int view = 0; view < sorter.getViewRowCount(); view++) {
+                int row = sorter.convertRowIndexToModel(view);
+                assertEquals(view, sorter.convertRowIndexToView(row));
+                ids.add(model.getRow(row).id);
+            }
+            return ids;
+        });
+    }
+
+    private static void onEdt(Runnable action) throws Exception {
+        onEdt(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // Runs the action on the EDT, then lets the page deliveries it queued there run too
+    private static <T> T onEdt(Callable<T> action) throws Exception {
+        List<T> result = new ArrayList<>();
+        Exception[] failure = new Exception[1];
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                result.add(action.call());
+            } catch (Exception e) {
+                failure[0] = e;
+            }
+        });
+        SwingUtilities.invokeAndWait(() -> { });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return result.get(0);
+    }
+}
@@ -0,0 +1,127 @@
+package lms;
+
+import org.h2.api.Trigger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// CatalogCache reconciled against a private in-memory H2 database (EmbeddedBackend)
+class CatalogCacheTest {
+    private static final AtomicInteger databases = new AtomicInteger();
+    private static volatile Runnable duringPass;
+
+    private DatabaseConnection db;
+    private ShardMap shards;
+    private BookManager bookManager;
+
+    @BeforeEach
+    void openDatabase() throws Exception {
+        db = new DatabaseConnection(EmbeddedBackend.inMemory("catalog-cache-test-" + databases.incrementAndGet()));
+        shards = ShardMap.single(db);
+        bookManager = new BookManager(db);
+        for (int id = 1; id <= 3; id++) {
+            bookManager.addBook(id, "Title " + id, "Author", "Publisher", 2000);
+        }
+        bookManager.issueBook(1, "Ann", "R1");
+    }
+
+    @AfterEach
+    void closeDatabase() throws DatabaseException {
+        duringPass = null;
+        db.closeConnection();
+    }
+
+    @Test
+    void nothingIsServedUntilTheStatusIsLoaded() throws Exception {
+        CatalogCache cache = new CatalogCache(100);
+        cache.put(1, "Title 1", "Author", "Publisher", 2000);
+        assertNull(cache.get(1));
+
+        cache.reconcile(shards);
+
+        assertTrue(cache.isStatusLoaded());
+        assertEquals(BookColumns.ISSUED, cache.get(1).status);
+        assertEquals(BookColumns.AVAILABLE, cache.status(2));
+    }
+
+    @Test
+    void reconciliationRepairsDrift() throws Exception {
+        CatalogCache cache = new CatalogCache(100);
+        cache.put(1, "Stale Title", "Author", "Publisher", 2000);
+        cache.put(2, "Title 2", "Author", "Publisher", 2000);
+        cache.put(7, "Deleted Elsewhere", "Author", "Publisher", 2000);
+        cache.markIssued(3); // a loan the database never saw
+        cache.reconcile(shards);
+        cache.markIssued(3);
+
+        cache.reconcile(shards);
+
+        assertEquals("Title 1", cache.get(1).title);
+        assertNull(cache.get(7));
+        assertEquals(BookColumns.AVAILABLE, cache.status(3));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void writesMadeDuringAPassAreKeptAndThePassStillCounts() throws Exception {
+        CatalogCache cache = new CatalogCache(100);
+        cache.put(2, "Title 2", "Author", "Publisher", 2000);
+        // Another desk lends book 2 and renames it just as the pass reads the holds, after it has read the loans
+        duringPass = () -> {
+            cache.markIssued(2);
+            cache.put(2, "Renamed", "Author", "Publisher", 2000);
+        };
+        execute("CREATE TRIGGER holds_read BEFORE SELECT ON holds CALL \"" + DuringPass.class.getName() + "\"");
+
+        cache.reconcile(shards);
+
+        assertTrue(cache.isStatusLoaded());
+        assertEquals(BookColumns.ISSUED, cache.status(2));
+        assertEquals("Renamed", cache.get(2).title);
+        assertEquals(BookColumns.ISSUED, cache.status(1));
+    }
+
+    @Test
+    void aHighBookIdDoesNotSizeTheBitmapsByItsValue() throws Exception {
+        int highId = Integer.MAX_VALUE - 10;
+        bookManager.addBook(highId, "Last Shelf", "Author", "Publisher", 2000);
+        bookManager.issueBook(highId, "Bob", "R2");
+        CatalogCache cache = new CatalogCache(100);
+
+        cache.reconcile(shards);
+
+        assertEquals(BookColumns.ISSUED, cache.status(highId));
+        assertTrue(cache.toString().contains("statusBytes=16384"), cache.toString()); // one page each end
+        cache.markReturned(highId);
+        assertFalse(BookColumns.ISSUED.equals(cache.status(highId)));
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = db.getConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    // Runs duringPass, once, when its table is read
+    public static final class DuringPass implements Trigger {
+        @Override
+        public void fire(Connection connection, Object[] oldRow, Object[] newRow) {
+            Runnable write = duringPass;
+            duringPass = null;
+            if (write != null) {
+                write.run();
+            }
+        }
+    }
+}
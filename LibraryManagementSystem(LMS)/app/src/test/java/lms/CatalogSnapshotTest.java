@@ -0,0 +1,116 @@
+package lms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The catalog snapshot's file format: what a written snapshot reads back as, and the damage it refuses
+class CatalogSnapshotTest {
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 1);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void aWrittenSnapshotReadsBack() throws IOException {
+        CatalogSnapshot snapshot = write(dir.resolve("catalog.snapshot"));
+
+        assertEquals("desk-1", snapshot.origin);
+        assertEquals(42, snapshot.sequence);
+        assertEquals(3, snapshot.getBookCount());
+        assertEquals(1, snapshot.getLoanCount());
+        assertEquals(1, snapshot.indexAfter(1));
+        assertEquals(-1, snapshot.indexOf(4097));
+        BookRow issued = snapshot.getBookAt(snapshot.indexOf(2));
+        assertEquals("Title 2", issued.title);
+        assertEquals("Author", issued.author);
+        assertEquals(BookColumns.ISSUED, issued.status);
+        assertEquals(BookColumns.HELD, snapshot.getBookAt(snapshot.indexOf(4098)).status);
+        assertEquals("R2", snapshot.getHeldFor(0));
+        IssuedBookRow loan = snapshot.getLoanAt(0, DAY);
+        assertEquals(7, loan.id);
+        assertEquals("Title 2", loan.title);
+        assertEquals("R1", loan.registrationNumber);
+        assertEquals(DAY, loan.issueDate);
+        Map<Integer, Long> versions = new HashMap<>();
+        versions.put(0, 3L);
+        versions.put(1, 1L);
+        assertEquals(versions, snapshot.getBlockVersions());
+    }
+
+    @Test
+    void aFlippedByteFailsTheChecksum() throws IOException {
+        Path path = dir.resolve("catalog.snapshot");
+        write(path);
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length / 2] ^= 0x01;
+        Files.write(path, bytes);
+
+        IOException e = assertThrows(IOException.class, () -> CatalogSnapshot.open(path));
+        assertTrue(e.getMessage().contains("checksum"), e.getMessage());
+    }
+
+    @Test
+    void sectionsThatDoNotAddUpAreRefusedEvenWithAGoodChecksum() throws IOException {
+        Path path = dir.resolve("catalog.snapshot");
+        write(path);
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+        bytes.putInt(20, bytes.getInt(20) + 1); // one book more than the file holds
+        CRC32 crc = new CRC32();
+        crc.update(bytes.array(), 0, bytes.capacity() - 4);
+        bytes.putInt(bytes.capacity() - 4, (int) crc.getValue());
+        Files.write(path, bytes.array());
+
+        IOException e = assertThrows(IOException.class, () -> CatalogSnapshot.open(path));
+        assertTrue(e.getMessage().contains("sections"), e.getMessage());
+    }
+
+    @Test
+    void aFileThatIsNotASnapshotIsRefused() throws IOException {
+        Path path = dir.resolve("catalog.snapshot");
+        Files.write(path, new byte[64]);
+
+        IOException e = assertThrows(IOException.class, () -> CatalogSnapshot.open(path));
+        assertTrue(e.getMessage().contains("not a catalog snapshot"), e.getMessage());
+    }
+
+    @Test
+    void booksOutOfOrderAreRefusedByTheWriter() {
+        CatalogSnapshot.Writer writer = new CatalogSnapshot.Writer("desk-1", 0, Collections.<Integer, Long>emptyMap());
+        writer.addBook(book(2));
+
+        assertThrows(IllegalArgumentException.class, () -> writer.addBook(book(1)));
+    }
+
+    private static CatalogSnapshot write(Path path) throws IOException {
+        Map<Integer, Long> versions = new HashMap<>();
+        versions.put(0, 3L);
+        versions.put(1, 1L);
+        CatalogSnapshot.Writer writer = new CatalogSnapshot.Writer("desk-1", 42, versions);
+        writer.addBook(book(1));
+        writer.addBook(book(2));
+        writer.addBook(book(4098));
+        LocalDate returnDate = DAY.plusDays(OverdueEngine.LOAN_DAYS);
+        writer.addLoan(new IssuedBookRow(7, 2, "Title 2", "Ann", "R1", DAY, returnDate,
+                OverdueEngine.overdueDateFor(returnDate), false));
+        writer.addHeld(4098, "R2");
+        return writer.write(path);
+    }
+
+    private static BookRow book(int id) {
+        return new BookRow(id, "Title " + id, "Author", "Publisher", 2000, BookColumns.AVAILABLE);
+    }
+}
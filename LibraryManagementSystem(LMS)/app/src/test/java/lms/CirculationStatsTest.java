@@ -0,0 +1,171 @@
+package lms;
+
+import org.h2.api.Trigger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The report totals against an in-memory H2 database: what the tables hold, what a build reads back, and that the
+// figures in memory match them
+class CirculationStatsTest {
+    private static final AtomicInteger databases = new AtomicInteger();
+    private static final LocalDate TODAY = LocalDate.of(2026, 3, 2);
+    private static volatile Runnable duringBuild;
+
+    private DatabaseConnection db;
+    private ShardMap shards;
+    private OverdueEngine overdueEngine;
+    private CirculationStats stats;
+    private BookManager bookManager;
+
+    @BeforeEach
+    void openDatabase() throws Exception {
+        db = new DatabaseConnection(EmbeddedBackend.inMemory("circulation-stats-test-" + databases.incrementAndGet()));
+        shards = ShardMap.single(db);
+        overdueEngine = new OverdueEngine(Clock.fixed(TODAY.atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+        stats = new CirculationStats();
+        bookManager = BookManager.builder(shards).cache(new CatalogCache(1000)).searchIndex(new SearchIndex())
+                .overdueEngine(overdueEngine).fineLedger(new FineLedger(shards, new BigDecimal("0.50"))).stats(stats).build();
+        for (int id = 1; id <= 40; id++) {
+            bookManager.addBook(id, "Title " + id, "Author " + id % 3, "Publisher", 2000);
+        }
+        stats.build(shards, bookManager.getChanges());
+    }
+
+    @AfterEach
+    void closeDatabase() throws DatabaseException {
+        duringBuild = null;
+        db.closeConnection();
+    }
+
+    @Test
+    void aDaysLoansAreSpreadOverStripesAndAddedUpOnRead() throws Exception {
+        for (int id = 1; id <= 40; id++) {
+            bookManager.issueBook(id, "Student " + id, "R" + id);
+        }
+        for (int id = 1; id <= 5; id++) {
+            bookManager.returnBook(id);
+        }
+
+        assertTrue(number("SELECT COUNT(*) FROM loan_stats WHERE stat_date = '" + TODAY + "'") > 1);
+        assertEquals(40, number("SELECT SUM(loans) FROM loan_stats"));
+        CirculationStats.Period counted = today(stats);
+        CirculationStats rebuilt = new CirculationStats();
+        rebuilt.build(shards, new ChangeBus());
+        CirculationStats.Period stored = today(rebuilt);
+        assertEquals(40, counted.loans);
+        assertEquals(5, counted.returns);
+        assertEquals(counted.loans, stored.loans);
+        assertEquals(counted.returns, stored.returns);
+    }
+
+    @Test
+    void aLoanMadeWhileABuildReadsIsAddedToTheStoredFigures() throws Exception {
+        for (int id = 1; id <= 3; id++) {
+            bookManager.issueBook(id, "Student " + id, "R" + id);
+        }
+        // A desk starting up: its figures are empty until its build has read the tables
+        CirculationStats restarted = new CirculationStats();
+        BookManager desk = BookManager.builder(shards).searchIndex(new SearchIndex()).overdueEngine(overdueEngine).stats(restarted).build();
+        desk.getSearchIndex().build(shards);
+        // The desk lends book 10 after the build has read the loan tables, as it reads activity_hours
+        duringBuild = () -> {
+            try {
+                desk.issueBook(10, "Student 10", "R10");
+            } catch (LibraryException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        execute("CREATE TRIGGER hours_read BEFORE SELECT ON activity_hours CALL \"" + DuringBuild.class.getName() + "\"");
+
+        restarted.build(shards, desk.getChanges());
+
+        assertEquals(4, today(restarted).loans); // three stored, and the one counted while the build ran
+        CirculationStats.Report report = restarted.report(TODAY, TODAY, 10, overdueEngine);
+        long title10 = 0;
+        for (CirculationStats.Ranked title : report.titles) {
+            if (title.name.equals("Title 10")) {
+                title10 = title.loans;
+            }
+        }
+        assertEquals(1, title10);
+        desk.issueBook(11, "Student 11", "R11"); // counted as usual once the build is done
+        assertEquals(5, today(restarted).loans);
+    }
+
+    @Test
+    void deletingAStudentsActivityTakesItOutOfTheHourTotals() throws Exception {
+        ActivityLogWriter writer = new ActivityLogWriter(db, 100, 10, 20, 100, System.err::println, bookManager.getChanges());
+        writer.log(activity("R1", "09:00:00"));
+        writer.log(activity("R1", "09:30:00"));
+        writer.log(activity("R1", "10:15:00"));
+        writer.log(activity("R2", "09:45:00"));
+        writer.shutdown(1000);
+        assertEquals(3, hourTotals(stats)[9]);
+        assertEquals(1, hourTotals(stats)[10]);
+
+        assertEquals(3, new ActivityLogManager(db, null, stats).deleteByRegistration("R1"));
+
+        assertEquals(1, number("SELECT SUM(entries) FROM activity_hours"));
+        assertEquals(1, hourTotals(stats)[9]);
+        assertEquals(0, hourTotals(stats)[10]);
+        CirculationStats rebuilt = new CirculationStats();
+        rebuilt.build(shards, new ChangeBus());
+        assertEquals(1, hourTotals(rebuilt)[9]);
+        assertEquals(0, hourTotals(rebuilt)[10]);
+    }
+
+    private long[] hourTotals(CirculationStats from) {
+        return from.report(TODAY, TODAY, 10, overdueEngine).activityByHour.get("Self Study");
+    }
+
+    private static ActivityLogWriter.ActivityEntry activity(String registrationNo, String time) {
+        return new ActivityLogWriter.ActivityEntry(registrationNo, "Student " + registrationNo, "Self Study", TODAY.toString(), time);
+    }
+
+    private CirculationStats.Period today(CirculationStats from) {
+        return from.report(TODAY, TODAY, 10, overdueEngine).total;
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = db.getConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private long number(String sql) throws SQLException {
+        try (Connection connection = db.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    // Runs duringBuild, once, when its table is read
+    public static final class DuringBuild implements Trigger {
+        @Override
+        public void fire(Connection connection, Object[] oldRow, Object[] newRow) {
+            Runnable write = duringBuild;
+            duringBuild = null;
+            if (write != null) {
+                write.run();
+            }
+        }
+    }
+}
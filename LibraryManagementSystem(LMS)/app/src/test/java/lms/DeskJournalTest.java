@@ -0,0 +1,134 @@
+package lms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The desk journal's file format: what survives a reopen, a torn or corrupted tail, and the replay checkpoint
+class DeskJournalTest {
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 1);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordsSurviveAReopen() throws IOException {
+        Path path = dir.resolve("desk.journal");
+        DeskJournal journal = new DeskJournal(path);
+        assertEquals(1, journal.record(DAY, ChangeEvent.bookDeleted(1)));
+        assertEquals(2, journal.record(DAY.plusDays(1), ChangeEvent.activityLogged(
+                new ActivityLogWriter.ActivityEntry("R1", "Ann", "Self Study", "2026-03-02", "10:15:00"))));
+        journal.close();
+
+        journal = new DeskJournal(path);
+        List<DeskJournal.Entry> pending = journal.readPending();
+        assertEquals(2, journal.getPendingCount());
+        assertEquals(Arrays.asList(1L, 2L), sequences(pending));
+        assertEquals(ChangeEvent.Type.BOOK_DELETED, pending.get(0).event.type);
+        assertEquals(1, pending.get(0).event.bookId);
+        assertEquals(DAY.plusDays(1), pending.get(1).day);
+        assertEquals("10:15:00", pending.get(1).event.activity.time);
+        assertEquals(3, journal.record(DAY, ChangeEvent.bookDeleted(3))); // numbering carries on
+        journal.close();
+    }
+
+    @Test
+    void aTornRecordIsCutOffWhenTheJournalIsOpened() throws IOException {
+        Path path = dir.resolve("desk.journal");
+        DeskJournal journal = new DeskJournal(path);
+        journal.record(DAY, ChangeEvent.bookDeleted(1));
+        long firstEnd = Files.size(path);
+        journal.record(DAY, ChangeEvent.bookDeleted(2));
+        journal.close();
+        truncate(path, Files.size(path) - 3); // the crash came in the middle of the second record
+
+        journal = new DeskJournal(path);
+        assertEquals(firstEnd, Files.size(path));
+        assertEquals(1, journal.getPendingCount());
+        assertEquals(2, journal.record(DAY, ChangeEvent.bookDeleted(5)));
+        List<DeskJournal.Entry> pending = journal.readPending();
+        assertEquals(Arrays.asList(1L, 2L), sequences(pending));
+        assertEquals(5, pending.get(1).event.bookId);
+        journal.close();
+    }
+
+    @Test
+    void aCorruptedRecordEndsTheJournal() throws IOException {
+        Path path = dir.resolve("desk.journal");
+        DeskJournal journal = new DeskJournal(path);
+        journal.record(DAY, ChangeEvent.bookDeleted(1));
+        long firstEnd = Files.size(path);
+        journal.record(DAY, ChangeEvent.bookDeleted(2));
+        journal.record(DAY, ChangeEvent.bookDeleted(3));
+        journal.close();
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[(int) firstEnd + 30] ^= 0x01; // inside the second record's JSON
+        Files.write(path, bytes);
+
+        journal = new DeskJournal(path);
+        assertEquals(1, journal.getPendingCount());
+        assertEquals(Arrays.asList(1L), sequences(journal.readPending()));
+        assertEquals(firstEnd, Files.size(path));
+        journal.close();
+    }
+
+    @Test
+    void theReplayCheckpointSurvivesAReopen() throws IOException {
+        Path path = dir.resolve("desk.journal");
+        DeskJournal journal = new DeskJournal(path);
+        for (int bookId = 1; bookId <= 3; bookId++) {
+            journal.record(DAY, ChangeEvent.bookDeleted(bookId));
+        }
+        journal.markReplayed(2);
+        journal.close();
+
+        journal = new DeskJournal(path);
+        assertEquals(1, journal.getPendingCount());
+        assertEquals(Arrays.asList(3L), sequences(journal.readPending()));
+        assertFalse(journal.clearIfReplayed());
+        journal.markReplayed(1); // behind the checkpoint: ignored
+        assertEquals(1, journal.getPendingCount());
+        journal.markReplayed(3);
+        assertTrue(journal.clearIfReplayed());
+        assertEquals(0, journal.getPendingCount());
+        assertEquals(1, journal.record(DAY, ChangeEvent.bookDeleted(4)));
+        journal.close();
+    }
+
+    @Test
+    void aFileThatIsNotAJournalIsRefused() throws IOException {
+        Path path = dir.resolve("notes.txt");
+        Files.write(path, "Shelve the returns before closing.".getBytes("UTF-8"));
+
+        assertThrows(IOException.class, () -> new DeskJournal(path));
+        assertEquals("Shelve the returns before closing.", new String(Files.readAllBytes(path), "UTF-8"));
+    }
+
+    private static void truncate(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    private static List<Long> sequences(List<DeskJournal.Entry> entries) {
+        List<Long> sequences = new ArrayList<>();
+        for (DeskJournal.Entry entry : entries) {
+            sequences.add(entry.sequence);
+        }
+        return sequences;
+    }
+}
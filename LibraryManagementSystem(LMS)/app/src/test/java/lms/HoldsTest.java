@@ -0,0 +1,137 @@
+package lms;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Hold queues against an in-memory H2 database, on a fixed day: who a returned copy is kept for, who may borrow it,
+// and what cancelling or missing a pickup passes on
+class HoldsTest {
+    private static final AtomicInteger databases = new AtomicInteger();
+    private static final LocalDate TODAY = LocalDate.of(2026, 3, 1);
+    private static final int PICKUP_DAYS = 3;
+
+    private DatabaseConnection db;
+    private ShardMap shards;
+    private HoldQueue holds;
+    private BookManager bookManager;
+
+    @BeforeEach
+    void openDatabase() throws Exception {
+        db = new DatabaseConnection(EmbeddedBackend.inMemory("holds-test-" + databases.incrementAndGet()));
+        shards = ShardMap.single(db);
+        holds = new HoldQueue(shards, PICKUP_DAYS);
+        bookManager = BookManager.builder(shards).holds(holds).overdueEngine(on(TODAY)).build();
+        bookManager.addBook(1, "Title 1", "Author", "Publisher", 2000);
+        bookManager.addBook(2, "Title 2", "Author", "Publisher", 2000);
+        bookManager.issueBook(1, "Ann", "R1");
+    }
+
+    @AfterEach
+    void closeDatabase() throws DatabaseException {
+        db.closeConnection();
+    }
+
+    @Test
+    void aReturnedCopyIsKeptForTheFirstStudentInTheQueue() throws Exception {
+        bookManager.placeHold(1, "Bob", "R2");
+        bookManager.placeHold(1, "Cy", "R3");
+
+        HoldQueue.Hold promoted = bookManager.returnBook(1);
+
+        assertEquals("R2", promoted.registrationNumber);
+        assertEquals(TODAY, promoted.readyOn);
+        assertEquals(TODAY.plusDays(PICKUP_DAYS), promoted.pickupBy);
+        assertEquals(BookColumns.HELD, bookManager.getBook(1).status);
+        assertEquals(LibraryException.Reason.CONFLICT,
+                assertThrows(LibraryException.class, () -> bookManager.issueBook(1, "Cy", "R3")).getReason());
+        bookManager.issueBook(1, "Bob", "R2"); // collects the hold
+        assertEquals(BookColumns.ISSUED, bookManager.getBook(1).status);
+        assertEquals(Arrays.asList("R3"), registrations(bookManager.getHolds(1)));
+    }
+
+    @Test
+    void holdsAreOnlyTakenOnBooksThatAreOutAndOncePerStudent() throws Exception {
+        bookManager.placeHold(1, "Bob", "R2");
+
+        assertEquals(LibraryException.Reason.CONFLICT,
+                assertThrows(LibraryException.class, () -> bookManager.placeHold(1, "Bob", "R2")).getReason());
+        assertEquals(LibraryException.Reason.CONFLICT,
+                assertThrows(LibraryException.class, () -> bookManager.placeHold(1, "Ann", "R1")).getReason());
+        assertEquals(LibraryException.Reason.CONFLICT,
+                assertThrows(LibraryException.class, () -> bookManager.placeHold(2, "Bob", "R2")).getReason());
+        assertEquals(LibraryException.Reason.NOT_FOUND,
+                assertThrows(LibraryException.class, () -> bookManager.placeHold(99, "Bob", "R2")).getReason());
+        assertEquals(Arrays.asList("R2"), registrations(bookManager.getHolds(1)));
+    }
+
+    @Test
+    void cancellingAReadyHoldPassesTheCopyOn() throws Exception {
+        bookManager.placeHold(1, "Bob", "R2");
+        bookManager.placeHold(1, "Cy", "R3");
+        bookManager.placeHold(1, "Dee", "R4");
+
+        assertNull(bookManager.cancelHold(1, "R4")); // still waiting, so nothing moves
+        bookManager.returnBook(1);
+        HoldQueue.Hold next = bookManager.cancelHold(1, "R2");
+
+        assertEquals("R3", next.registrationNumber);
+        assertTrue(next.isReady());
+        assertEquals(BookColumns.HELD, bookManager.getBook(1).status);
+        assertNull(bookManager.cancelHold(1, "R3")); // nobody left: back on the shelf
+        assertEquals(BookColumns.AVAILABLE, bookManager.getBook(1).status);
+        assertEquals(LibraryException.Reason.NOT_FOUND,
+                assertThrows(LibraryException.class, () -> bookManager.cancelHold(1, "R3")).getReason());
+    }
+
+    @Test
+    void theSweepPassesOnHoldsNotCollectedInTime() throws Exception {
+        bookManager.placeHold(1, "Bob", "R2");
+        bookManager.placeHold(1, "Cy", "R3");
+        bookManager.returnBook(1);
+
+        // Still within Bob's pickup time: nothing to do
+        assertEquals(0, sweepOn(TODAY.plusDays(PICKUP_DAYS)).expired);
+        HoldSweeper.SweepResult late = sweepOn(TODAY.plusDays(PICKUP_DAYS + 1));
+
+        assertEquals(1, late.expired);
+        assertEquals(Arrays.asList("R3"), registrations(late.promoted));
+        assertEquals(TODAY.plusDays(2 * PICKUP_DAYS + 1), late.promoted.get(0).pickupBy);
+        HoldQueue.Hold waiting = bookManager.getHolds(1).get(0);
+        assertEquals("R3", waiting.registrationNumber);
+        assertTrue(waiting.isReady());
+
+        assertEquals(1, sweepOn(TODAY.plusDays(3 * PICKUP_DAYS)).expired);
+        assertEquals(0, bookManager.getHolds(1).size());
+        assertEquals(BookColumns.AVAILABLE, bookManager.getBook(1).status);
+    }
+
+    private HoldSweeper.SweepResult sweepOn(LocalDate day) throws Exception {
+        return new HoldSweeper(shards, holds, on(day), bookManager.getChanges(), 10, result -> { }).sweep();
+    }
+
+    private static OverdueEngine on(LocalDate day) {
+        return new OverdueEngine(Clock.fixed(day.atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+    }
+
+    private static List<String> registrations(List<HoldQueue.Hold> queue) {
+        List<String> result = new ArrayList<>();
+        for (HoldQueue.Hold hold : queue) {
+            result.add(hold.registrationNumber);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+package lms;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The int-keyed LRU map behind CatalogCache, and the paged ID bitmap beside it
+class IntLruMapTest {
+
+    @Test
+    void theLeastRecentlyUsedEntryMakesWay() {
+        IntLruMap<String> map = new IntLruMap<>(3);
+        assertFalse(map.put(1, "one"));
+        assertFalse(map.put(2, "two"));
+        assertFalse(map.put(3, "three"));
+        assertEquals("one", map.get(1)); // now 2 is the eldest
+
+        assertTrue(map.put(4, "four"));
+        assertNull(map.get(2));
+        assertArrayEquals(new int[] {3, 1, 4}, map.keys());
+        assertTrue(map.replace(3, "THREE")); // replacing does not count as a use
+        assertTrue(map.put(5, "five"));
+        assertFalse(map.containsKey(3));
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    void itAgreesWithAHashMapThroughRandomChanges() {
+        IntLruMap<Integer> map = new IntLruMap<>(Integer.MAX_VALUE);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            // Few distinct keys, many of them near each other and near the extremes, so probe runs collide and wrap
+            int key = random.nextBoolean() ? random.nextInt(2000) : Integer.MAX_VALUE - random.nextInt(2000);
+            switch (random.nextInt(3)) {
+                case 0:
+                    map.put(key, i);
+                    expected.put(key, i);
+                    break;
+                case 1:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(key));
+                    break;
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    void theBitmapAllocatesOnlyThePagesItUses() {
+        IdBitmap ids = new IdBitmap();
+        ids.set(3);
+        ids.set(Integer.MAX_VALUE - 1);
+
+        assertTrue(ids.get(3));
+        assertTrue(ids.get(Integer.MAX_VALUE - 1));
+        assertFalse(ids.get(4));
+        assertFalse(ids.get(-1));
+        assertEquals(2 * 8192, ids.allocatedBytes());
+        assertEquals(3, ids.nextSetBit(0));
+        assertEquals(Integer.MAX_VALUE - 1, ids.nextSetBit(4));
+        assertEquals(-1, ids.nextSetBit(Integer.MAX_VALUE));
+        ids.clear(3);
+        assertEquals(Integer.MAX_VALUE - 1, ids.nextSetBit(0));
+    }
+}
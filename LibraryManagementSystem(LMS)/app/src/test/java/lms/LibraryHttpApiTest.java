@@ -0,0 +1,406 @@
+package lms;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// LibraryHttpApi on a private in-memory H2 database (EmbeddedBackend), spoken to over one raw HTTP/1.1 socket so
+// the tests also show that the connection is kept open between requests
+class LibraryHttpApiTest {
+    private static final AtomicInteger databases = new AtomicInteger();
+    private static final LocalDate TODAY = LocalDate.of(2026, 3, 1);
+
+    private DatabaseConnection db;
+    private BookManager bookManager;
+    private LibraryHttpApi api;
+    private Client client;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        db = new DatabaseConnection(EmbeddedBackend.inMemory("library-http-api-test-" + databases.incrementAndGet()));
+        ShardMap shards = ShardMap.single(db);
+        OverdueEngine overdueEngine = new OverdueEngine(Clock.fixed(TODAY.atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+        SearchIndex searchIndex = new SearchIndex();
+        PatronIndex patrons = new PatronIndex(5);
+        CirculationStats stats = new CirculationStats();
+        bookManager = BookManager.builder(shards).cache(new CatalogCache(1000)).searchIndex(searchIndex)
+                .overdueEngine(overdueEngine).fineLedger(new FineLedger(shards, new BigDecimal("0.50"))).patrons(patrons)
+                .stats(stats).holds(new HoldQueue(shards, 3)).build();
+        overdueEngine.build(shards);
+        searchIndex.build(shards);
+        patrons.build(shards);
+        stats.build(shards, bookManager.getChanges());
+        api = start(bookManager);
+        client = new Client(api.getPort());
+    }
+
+    @AfterEach
+    void stopServer() throws Exception {
+        client.close();
+        api.stop(0);
+        db.closeConnection();
+    }
+
+    @Test
+    void booksCanBeAddedReadPagedSearchedAndDeleted() throws Exception {
+        assertEquals(201, client.send("POST", "/api/books", book(1, "Dune", "Frank Herbert")).status);
+        assertEquals(201, client.send("POST", "/api/books", book(2, "Emma", "Jane Austen")).status);
+        assertEquals(201, client.send("POST", "/api/books", book(3, "Persuasion", "Jane Austen")).status);
+
+        Response one = client.send("GET", "/api/books/1", null);
+        assertEquals(200, one.status);
+        assertTrue(one.body.contains("\"title\":\"Dune\""), one.body);
+        assertTrue(one.body.contains("\"status\":\"Available\""), one.body);
+        Response page = client.send("GET", "/api/books?after=1&limit=1", null);
+        assertEquals(200, page.status);
+        assertTrue(page.body.contains("\"id\":2") && !page.body.contains("\"id\":3"), page.body);
+        Response search = client.send("GET", "/api/books/search?q=austen", null);
+        assertEquals(200, search.status);
+        assertTrue(search.body.contains("Emma") && search.body.contains("Persuasion") && !search.body.contains("Dune"), search.body);
+
+        assertEquals(204, client.send("DELETE", "/api/books/3", null).status);
+        assertEquals(404, client.send("GET", "/api/books/3", null).status);
+        assertEquals(404, client.send("DELETE", "/api/books/3", null).status);
+    }
+
+    @Test
+    void loansAreIssuedListedAndReturned() throws Exception {
+        client.send("POST", "/api/books", book(1, "Dune", "Frank Herbert"));
+
+        Response issued = client.send("POST", "/api/loans", loan(1, "Ann", "R1"));
+        assertEquals(201, issued.status);
+        assertTrue(issued.body.contains("\"registrationNumber\":\"R1\""), issued.body);
+        assertTrue(client.send("GET", "/api/loans", null).body.contains("\"bookId\":1"));
+        assertEquals(200, client.send("GET", "/api/loans/1", null).status);
+        assertEquals(409, client.send("POST", "/api/loans", loan(1, "Bob", "R2")).status);
+        assertEquals(409, client.send("DELETE", "/api/books/1", null).status);
+
+        assertEquals(204, client.send("DELETE", "/api/loans/1", null).status);
+        assertEquals(404, client.send("GET", "/api/loans/1", null).status);
+        assertEquals(409, client.send("DELETE", "/api/loans/1", null).status);
+    }
+
+    @Test
+    void aReturnedBookIsKeptForTheFirstHold() throws Exception {
+        client.send("POST", "/api/books", book(1, "Dune", "Frank Herbert"));
+        assertEquals(409, client.send("POST", "/api/holds", loan(1, "Bob", "R2")).status); // on the shelf
+        client.send("POST", "/api/loans", loan(1, "Ann", "R1"));
+
+        assertEquals(201, client.send("POST", "/api/holds", loan(1, "Bob", "R2")).status);
+        assertEquals(201, client.send("POST", "/api/holds", loan(1, "Cy", "R3")).status);
+        assertEquals(409, client.send("POST", "/api/holds", loan(1, "Ann", "R1")).status); // already has it
+        assertEquals(404, client.send("POST", "/api/holds", loan(9, "Bob", "R2")).status);
+        Response queue = client.send("GET", "/api/holds/1", null);
+        assertEquals(200, queue.status);
+        assertTrue(queue.body.indexOf("\"R2\"") < queue.body.indexOf("\"R3\""), queue.body);
+
+        Response returned = client.send("DELETE", "/api/loans/1", null);
+        assertEquals(200, returned.status);
+        assertTrue(returned.body.contains("\"registrationNumber\":\"R2\"") && returned.body.contains("\"ready\":true"), returned.body);
+        assertTrue(client.send("GET", "/api/books/1", null).body.contains("\"status\":\"Held\""));
+
+        Response passedOn = client.send("DELETE", "/api/holds/1/R2", null);
+        assertEquals(200, passedOn.status);
+        assertTrue(passedOn.body.contains("\"registrationNumber\":\"R3\""), passedOn.body);
+        assertEquals(204, client.send("DELETE", "/api/holds/1/R3", null).status);
+        assertEquals(404, client.send("DELETE", "/api/holds/1/R3", null).status);
+        assertTrue(client.send("GET", "/api/books/1", null).body.contains("\"status\":\"Available\""));
+    }
+
+    @Test
+    void patronsAndReportsAreServed() throws Exception {
+        client.send("POST", "/api/books", book(1, "Dune", "Frank Herbert"));
+        client.send("POST", "/api/loans", loan(1, "Ann", "R1"));
+
+        Response patron = client.send("GET", "/api/patrons/R1", null);
+        assertEquals(200, patron.status);
+        assertTrue(patron.body.contains("\"activeLoans\":1") && patron.body.contains("\"loanLimit\":5"), patron.body);
+        assertEquals(404, client.send("GET", "/api/patrons/R9", null).status);
+
+        Response report = client.send("GET", "/api/reports", null);
+        assertEquals(200, report.status);
+        assertTrue(report.body.contains("\"to\":\"" + TODAY + "\""), report.body);
+        Response csv = client.send("GET", "/api/reports?from=2026-02-01&to=2026-03-01&format=csv", null);
+        assertEquals(200, csv.status);
+        assertTrue(csv.header("content-type").startsWith("text/csv"), csv.header("content-type"));
+        assertEquals(400, client.send("GET", "/api/reports?from=yesterday", null).status);
+    }
+
+    @Test
+    void badRequestsGetTheirStatus() throws Exception {
+        client.send("POST", "/api/books", book(1, "Dune", "Frank Herbert"));
+
+        assertEquals(400, client.send("GET", "/api/books?limit=0", null).status);
+        assertEquals(400, client.send("GET", "/api/books?after=first", null).status);
+        assertEquals(400, client.send("GET", "/api/books/first", null).status);
+        assertEquals(400, client.send("POST", "/api/books", "{\"id\":\"2\",\"title\":\"Emma\"}").status);
+        assertEquals(400, client.send("POST", "/api/books", "not json").status);
+        assertEquals(400, client.send("POST", "/api/loans", loan(1, " ", "R1")).status);
+        assertEquals(409, client.send("POST", "/api/books", book(1, "Dune", "Frank Herbert")).status);
+        assertEquals(404, client.send("GET", "/api/books?branch=nowhere", null).status);
+        assertEquals(404, client.send("GET", "/api/shelves", null).status);
+        assertEquals(404, client.send("PUT", "/api/books/1", book(1, "Dune", "Frank Herbert")).status);
+        Response conflict = client.send("POST", "/api/books", book(1, "Dune", "Frank Herbert"));
+        assertTrue(conflict.body.contains("\"error\":\"CONFLICT\""), conflict.body);
+    }
+
+    @Test
+    void featuresThisServerDoesNotKeepAreUnavailable() throws Exception {
+        LibraryHttpApi bare = start(new BookManager(db));
+        try (Client bareClient = new Client(bare.getPort())) {
+            bareClient.send("POST", "/api/books", book(1, "Dune", "Frank Herbert"));
+            bareClient.send("POST", "/api/loans", loan(1, "Ann", "R1"));
+
+            assertEquals(503, bareClient.send("GET", "/api/patrons/R1", null).status);
+            assertEquals(503, bareClient.send("POST", "/api/holds", loan(1, "Bob", "R2")).status);
+            assertEquals(503, bareClient.send("GET", "/api/reports", null).status);
+            Response unavailable = bareClient.send("GET", "/api/holds/1", null);
+            assertEquals(503, unavailable.status);
+            assertTrue(unavailable.body.contains("\"error\":\"UNAVAILABLE\""), unavailable.body);
+        } finally {
+            bare.stop(0);
+        }
+    }
+
+    @Test
+    void aLostDatabaseIsUnavailable() throws Exception {
+        client.send("POST", "/api/books", book(1, "Dune", "Frank Herbert"));
+        db.closeConnection();
+
+        assertEquals(503, client.send("POST", "/api/books", book(2, "Emma", "Jane Austen")).status);
+        assertEquals(503, client.send("GET", "/api/loans", null).status);
+    }
+
+    @Test
+    void eventsArePostedAndStreamed() throws Exception {
+        String foreign = "{\"sequence\":7,\"origin\":\"north-desk\",\"type\":\"BOOK_DELETED\",\"bookId\":99}";
+        Response accepted = client.send("POST", "/api/events", foreign + "\n\n" + foreign.replace("\"sequence\":7", "\"sequence\":8"));
+        assertEquals(202, accepted.status);
+        assertTrue(accepted.body.contains("\"accepted\":2"), accepted.body);
+        String local = foreign.replace("north-desk", bookManager.getChanges().getOrigin());
+        assertEquals(400, client.send("POST", "/api/events", local).status);
+        assertEquals(400, client.send("POST", "/api/events", "{\"type\":\"BOOK_BURNED\",\"bookId\":1}").status);
+
+        try (Socket stream = new Socket("localhost", api.getPort())) {
+            stream.setSoTimeout(10000);
+            stream.getOutputStream().write(("GET /api/events HTTP/1.1\r\nHost: localhost\r\nLast-Event-ID: 2\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            InputStream in = stream.getInputStream();
+            assertEquals("HTTP/1.1 200 OK", readLine(in));
+            client.send("POST", "/api/books", book(1, "Dune", "Frank Herbert"));
+            String line;
+            while (!(line = readLine(in)).startsWith("data:")) {
+                assertFalse(line.contains("north-desk"), "replayed an event before Last-Event-ID: " + line);
+            }
+            assertTrue(line.contains("\"type\":\"BOOK_ADDED\"") && line.contains("\"title\":\"Dune\""), line);
+        }
+    }
+
+    @Test
+    void postedEventsNeedTheSharedSecret() throws Exception {
+        LibraryHttpApi guarded = new LibraryHttpApi(db, bookManager, new InetSocketAddress("localhost", 0), 2, "s3cret");
+        guarded.start();
+        try (Client desk = new Client(guarded.getPort())) {
+            String forged = "{\"sequence\":7,\"origin\":\"north-desk\",\"type\":\"BOOK_DELETED\",\"bookId\":1}";
+            long before = bookManager.getChanges().getLastSequence();
+
+            Response missing = desk.send("POST", "/api/events", forged);
+            assertEquals(403, missing.status);
+            assertTrue(missing.body.contains("\"error\":\"FORBIDDEN\""), missing.body);
+            assertEquals(403, desk.send("POST", "/api/events", forged, ChangeFeed.SECRET_HEADER + ": s3cre").status);
+            assertEquals(before, bookManager.getChanges().getLastSequence()); // nothing reached the bus
+
+            assertEquals(202, desk.send("POST", "/api/events", forged, ChangeFeed.SECRET_HEADER + ": s3cret").status);
+            assertEquals(before + 1, bookManager.getChanges().getLastSequence());
+        } finally {
+            guarded.stop(0);
+        }
+    }
+
+    @Test
+    void oneConnectionServesEveryRequest() throws Exception {
+        client.send("POST", "/api/books", book(1, "Dune", "Frank Herbert"));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(201, client.send("POST", "/api/loans", loan(1, "Ann", "R1")).status);
+            assertEquals(409, client.send("POST", "/api/loans", loan(1, "Bob", "R2")).status);
+            assertEquals(204, client.send("DELETE", "/api/loans/1", null).status);
+            assertEquals(404, client.send("GET", "/api/books/" + (i + 2), null).status);
+            assertEquals(400, client.send("POST", "/api/books", "{}").status);
+        }
+        assertEquals(1, client.connects);
+        assertEquals(51, client.requests);
+    }
+
+    @Test
+    void metricsCountRequestsByRouteAndStatus() throws Exception {
+        client.send("POST", "/api/books", book(1, "Dune", "Frank Herbert"));
+        client.send("GET", "/api/books/1", null);
+        client.send("GET", "/api/books/2", null);
+        client.send("GET", "/api/books/first", null);
+        client.send("GET", "/api/shelves", null);
+
+        String metrics = awaitMetrics("status 400: 1");
+        assertTrue(metrics.contains("POST /api/books: count=1 "), metrics);
+        assertTrue(metrics.contains("GET /api/books/{id}: count=3 "), metrics);
+        assertTrue(metrics.contains("unmatched: count=1 "), metrics);
+        assertTrue(metrics.contains("status 200: 1\n"), metrics);
+        assertTrue(metrics.contains("status 201: 1\n"), metrics);
+        assertTrue(metrics.contains("status 404: 2\n"), metrics);
+        assertTrue(metrics.contains("pool: "), metrics);
+        assertTrue(metrics.contains("patrons: 0 loanLimit=5"), metrics);
+        assertTrue(metrics.contains("event streams: open=0 lastSequence=1"), metrics);
+
+        metrics = awaitMetrics("GET /api/metrics: count=1 ");
+        assertTrue(metrics.contains("status 200: 2\n"), metrics);
+    }
+
+    // Counts are recorded once the response is sent, so the last request can still be in flight
+    private String awaitMetrics(String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            Response response = client.send("GET", "/api/metrics", null);
+            assertEquals(200, response.status);
+            assertTrue(response.header("content-type").startsWith("text/plain"), response.header("content-type"));
+            if (response.body.contains(expected)) {
+                return response.body;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail("no '" + expected + "' in\n" + response.body);
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static LibraryHttpApi start(BookManager bookManager) throws IOException {
+        LibraryHttpApi api = new LibraryHttpApi(bookManager.getShards().home().db, bookManager,
+                new InetSocketAddress("localhost", 0), 4);
+        api.start();
+        return api;
+    }
+
+    private static String book(int id, String title, String author) {
+        return Json.object().put("id", id).put("title", title).put("author", author)
+                .put("publisher", "Publisher").put("year", 2000).toString();
+    }
+
+    private static String loan(int bookId, String studentName, String registrationNumber) {
+        return Json.object().put("bookId", bookId).put("studentName", studentName)
+                .put("registrationNumber", registrationNumber).toString();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("Connection closed by the server");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static final class Response {
+        final int status;
+        final Map<String, String> headers; // names in lower case
+        final String body;
+
+        Response(int status, Map<String, String> headers, String body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String header(String name) {
+            return headers.getOrDefault(name, "");
+        }
+    }
+
+    // Minimal HTTP/1.1 client that sends every request on one socket, and opens a new one only if the server closed it
+    private static final class Client implements AutoCloseable {
+        private final int port;
+        private Socket socket;
+        int connects;
+        int requests;
+
+        Client(int port) {
+            this.port = port;
+        }
+
+        // extraHeaders are whole "Name: value" lines
+        Response send(String method, String path, String body, String... extraHeaders) throws IOException {
+            if (socket == null) {
+                socket = new Socket("localhost", port);
+                socket.setSoTimeout(10000);
+                connects++;
+            }
+            requests++;
+            byte[] content = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+            // One write per request, so Nagle's algorithm does not hold the body back for the server's delayed ACK
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            StringBuilder head = new StringBuilder(method + " " + path + " HTTP/1.1\r\nHost: localhost\r\n");
+            for (String header : extraHeaders) {
+                head.append(header).append("\r\n");
+            }
+            head.append("Content-Length: ").append(content.length).append("\r\n\r\n");
+            request.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+            request.write(content);
+            OutputStream out = socket.getOutputStream();
+            request.writeTo(out);
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            String statusLine = readLine(in);
+            int status = Integer.parseInt(statusLine.split(" ")[1]);
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+            int length = status == 204 ? 0 : Integer.parseInt(headers.getOrDefault("content-length", "0"));
+            byte[] received = new byte[length];
+            for (int read = 0; read < length; ) {
+                int n = in.read(received, read, length - read);
+                if (n < 0) {
+                    throw new IOException("Connection closed in the middle of a response");
+                }
+                read += n;
+            }
+            if ("close".equalsIgnoreCase(headers.get("connection"))) {
+                close();
+            }
+            return new Response(status, headers, new String(received, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (socket != null) {
+                socket.close();
+                socket = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package lms;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Replaying a desk journal into an in-memory H2 database: a desk that finds entries left in its journal starts
+// offline and replays them at its first probe. Each test waits for that probe, a few seconds.
+class OfflineDeskTest {
+    private static final AtomicInteger databases = new AtomicInteger();
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 1);
+    private static final long REPLAY_WAIT_SECONDS = 20;
+
+    @TempDir
+    Path dir;
+
+    private DatabaseConnection db;
+    private BookManager bookManager;
+    private ActivityLogWriter activityLog;
+    private final List<OfflineDesk> desks = new ArrayList<>();
+    private final BlockingQueue<OfflineDesk.ReplayResult> replays = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void openDatabase() throws Exception {
+        db = new DatabaseConnection(EmbeddedBackend.inMemory("offline-desk-test-" + databases.incrementAndGet()));
+        bookManager = new BookManager(db);
+        activityLog = new ActivityLogWriter(db, 100, 10, 20, 100, System.err::println, bookManager.getChanges());
+        for (int id = 1; id <= 3; id++) {
+            bookManager.addBook(id, "Title " + id, "Author", "Publisher", 2000);
+        }
+    }
+
+    @AfterEach
+    void closeDatabase() throws DatabaseException {
+        for (OfflineDesk desk : desks) {
+            desk.shutdown();
+        }
+        activityLog.shutdown(1000);
+        db.closeConnection();
+    }
+
+    @Test
+    void theJournalIsReplayedInOrder() throws Exception {
+        Path path = dir.resolve("desk.journal");
+        DeskJournal journal = new DeskJournal(path);
+        journal.record(DAY, ChangeEvent.activityLogged(activity("R1", "Ann Old", "09:00:00")));
+        journal.record(DAY, ChangeEvent.bookIssued(loan(1, "Ann New", "R1")));
+        journal.record(DAY, ChangeEvent.bookAdded(new BookRow(9, "Added Offline", "Author", "Publisher", 2020, BookColumns.AVAILABLE)));
+        journal.record(DAY, ChangeEvent.activityLogged(activity("R2", "Bob", "09:05:00")));
+
+        OfflineDesk.ReplayResult result = replay(journal);
+
+        assertEquals(4, result.applied);
+        assertEquals(Collections.emptyList(), result.conflicts);
+        // The patron row takes the name of whichever change reached it last: the loan, made after the activity entry
+        assertEquals("Ann New", string("SELECT name FROM patrons WHERE registration_number = 'R1'"));
+        assertEquals("R1", bookManager.getIssuedBook(1).registrationNumber);
+        assertEquals(DAY, bookManager.getIssuedBook(1).issueDate);
+        assertEquals("Added Offline", bookManager.getBook(9).title);
+        assertEquals("2", string("SELECT COUNT(*) FROM activity_log"));
+        assertEquals(0, journal.getPendingCount());
+        assertEquals(16, Files.size(path)); // emptied down to its header
+    }
+
+    @Test
+    void replayingTheSameJournalTwiceChangesNothing() throws Exception {
+        Path path = dir.resolve("desk.journal");
+        DeskJournal journal = new DeskJournal(path);
+        journal.record(DAY, ChangeEvent.bookIssued(loan(1, "Ann", "R1")));
+        journal.record(DAY, ChangeEvent.bookReturned(loan(2, "Bob", "R2")));
+        journal.record(DAY, ChangeEvent.bookAdded(new BookRow(9, "Added Offline", "Author", "Publisher", 2020, BookColumns.AVAILABLE)));
+        journal.record(DAY, ChangeEvent.activityLogged(activity("R1", "Ann", "09:00:00")));
+        Path copy = dir.resolve("copy.journal");
+        Files.copy(path, copy);
+
+        OfflineDesk.ReplayResult first = replay(journal);
+        OfflineDesk.ReplayResult second = replay(new DeskJournal(copy));
+
+        assertEquals(3, first.applied); // book 2 was never out, so its return has nothing to do
+        assertEquals(1, first.skipped);
+        assertEquals(0, second.applied);
+        assertEquals(4, second.skipped);
+        assertEquals(Collections.emptyList(), second.conflicts);
+        assertEquals(1, bookManager.getIssuedBooksPage(0, 10).size());
+        assertEquals("1", string("SELECT COUNT(*) FROM activity_log"));
+        assertEquals("1", string("SELECT total_loans FROM patrons WHERE registration_number = 'R1'"));
+    }
+
+    @Test
+    void replayStartsAfterTheCheckpoint() throws Exception {
+        DeskJournal journal = new DeskJournal(dir.resolve("desk.journal"));
+        journal.record(DAY, ChangeEvent.bookIssued(loan(1, "Ann", "R1")));
+        journal.record(DAY, ChangeEvent.bookIssued(loan(2, "Bob", "R2")));
+        journal.record(DAY, ChangeEvent.bookIssued(loan(3, "Cy", "R3")));
+        journal.markReplayed(2); // a replay that stopped after the second entry
+
+        OfflineDesk.ReplayResult result = replay(journal);
+
+        assertEquals(1, result.applied);
+        List<IssuedBookRow> loans = bookManager.getIssuedBooksPage(0, 10);
+        assertEquals(1, loans.size());
+        assertEquals(3, loans.get(0).bookId);
+    }
+
+    @Test
+    void entriesTheWriterCannotWriteGoToItsFallback() throws Exception {
+        int port;
+        try (ServerSocket closed = new ServerSocket(0)) {
+            port = closed.getLocalPort(); // nothing listens here once it is closed
+        }
+        DatabaseConnection unreachable = new DatabaseConnection(
+                new MySqlBackend("jdbc:mysql://localhost:" + port + "/library_management", "root", ""), 1, true);
+        ActivityLogWriter writer = new ActivityLogWriter(unreachable, 100, 10, 20, 100, System.err::println);
+        BlockingQueue<List<ActivityLogWriter.ActivityEntry>> kept = new LinkedBlockingQueue<>();
+        writer.setFallback((entries, cause) -> {
+            assertTrue(OfflineDesk.isOutage(cause), String.valueOf(cause));
+            return kept.add(new ArrayList<>(entries));
+        });
+        try {
+            assertTrue(writer.log(activity("R1", "Ann", "09:00:00")));
+            assertTrue(writer.log(activity("R1", "Ann", "09:01:00")));
+
+            List<ActivityLogWriter.ActivityEntry> entries = new ArrayList<>();
+            while (entries.size() < 2) {
+                List<ActivityLogWriter.ActivityEntry> batch = kept.poll(REPLAY_WAIT_SECONDS, TimeUnit.SECONDS);
+                assertNotNull(batch, "the writer never handed its entries over");
+                entries.addAll(batch);
+            }
+            assertEquals("09:00:00", entries.get(0).time);
+            assertEquals("09:01:00", entries.get(1).time);
+            assertEquals(0, writer.getQueuedCount());
+        } finally {
+            writer.shutdown(1000);
+            unreachable.closeConnection();
+        }
+    }
+
+    // Opens a desk on the journal, which starts it offline, and waits for its first probe to replay the journal
+    private OfflineDesk.ReplayResult replay(DeskJournal journal) throws InterruptedException {
+        OfflineDesk desk = new OfflineDesk(bookManager, activityLog, journal, null, new OfflineDesk.Listener() {
+            @Override
+            public void wentOffline(Throwable cause) {
+            }
+
+            @Override
+            public void replayed(OfflineDesk.ReplayResult result) {
+                replays.add(result);
+            }
+        });
+        desks.add(desk);
+        assertFalse(desk.isOnline());
+        desk.start();
+        OfflineDesk.ReplayResult result = replays.poll(REPLAY_WAIT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(result, "the journal was not replayed");
+        assertTrue(desk.isOnline());
+        return result;
+    }
+
+    private static ActivityLogWriter.ActivityEntry activity(String registrationNo, String name, String time) {
+        return new ActivityLogWriter.ActivityEntry(registrationNo, name, "Self Study", DAY.toString(), time);
+    }
+
+    private static IssuedBookRow loan(int bookId, String studentName, String registrationNumber) {
+        LocalDate returnDate = DAY.plusDays(OverdueEngine.LOAN_DAYS);
+        return new IssuedBookRow(-bookId, bookId, "Title " + bookId, studentName, registrationNumber, DAY, returnDate,
+                OverdueEngine.overdueDateFor(returnDate), false);
+    }
+
+    private String string(String sql) throws SQLException {
+        try (Connection connection = db.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package lms;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// The overdue sweep on an in-memory H2 database, on a fixed day: which loans it fines, and that sweeping twice
+// changes nothing
+class OverdueSweeperTest {
+    private static final AtomicInteger databases = new AtomicInteger();
+    private static final LocalDate TODAY = LocalDate.of(2026, 3, 1);
+    private static final BigDecimal FINE_PER_DAY = new BigDecimal("0.50");
+
+    private DatabaseConnection db;
+    private OverdueEngine overdueEngine;
+    private FineLedger fineLedger;
+    private BookManager bookManager;
+
+    @BeforeEach
+    void openDatabase() throws Exception {
+        db = new DatabaseConnection(EmbeddedBackend.inMemory("overdue-sweeper-test-" + databases.incrementAndGet()));
+        overdueEngine = new OverdueEngine(Clock.fixed(TODAY.atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+        fineLedger = new FineLedger(db, FINE_PER_DAY);
+        bookManager = BookManager.builder(db).overdueEngine(overdueEngine).fineLedger(fineLedger).build();
+        for (int id = 1; id <= 4; id++) {
+            bookManager.addBook(id, "Title " + id, "Author", "Publisher", 2000);
+        }
+    }
+
+    @AfterEach
+    void closeDatabase() throws DatabaseException {
+        db.closeConnection();
+    }
+
+    @Test
+    void sweepFinesOnlyLoansPastTheirOverdueDate() throws Exception {
+        overdueEngine.build(bookManager.getShards());
+        LocalDate longAgo = LocalDate.of(2026, 1, 1); // due 2026-01-16, overdue after 2026-01-23
+        bookManager.issueBook(1, "Ann", "R1", longAgo);
+        bookManager.issueBook(2, "Bob", "R2", TODAY.minusDays(OverdueEngine.LOAN_DAYS + OverdueEngine.GRACE_DAYS));
+        bookManager.issueBook(3, "Cy", "R3");
+
+        OverdueSweeper.SweepResult result = sweeper().sweep();
+
+        assertEquals(TODAY, result.day);
+        assertEquals(1, result.overdueLoans);
+        assertEquals(1, result.finesAssessed);
+        assertEquals(new BigDecimal("18.50"), fine(1)); // 37 days
+        assertNull(fine(2)); // on its overdue date, not past it
+        assertNull(fine(3));
+    }
+
+    @Test
+    void sweepingTwiceOnOneDayChangesNothing() throws Exception {
+        overdueEngine.build(bookManager.getShards());
+        bookManager.issueBook(1, "Ann", "R1", LocalDate.of(2026, 1, 1));
+        OverdueSweeper sweeper = sweeper();
+
+        sweeper.sweep();
+        BigDecimal first = fine(1);
+        OverdueSweeper.SweepResult again = sweeper.sweep();
+
+        assertEquals(1, again.overdueLoans);
+        assertEquals(first, fine(1));
+        assertEquals(1, count("SELECT COUNT(*) FROM fines"));
+    }
+
+    @Test
+    void returnedLoansAreLeftOutOfTheSweep() throws Exception {
+        overdueEngine.build(bookManager.getShards());
+        bookManager.issueBook(1, "Ann", "R1", LocalDate.of(2026, 1, 1));
+        bookManager.issueBook(2, "Bob", "R2", LocalDate.of(2026, 1, 1));
+        bookManager.returnBook(2); // settles its fine in the return transaction
+
+        OverdueSweeper.SweepResult result = sweeper().sweep();
+
+        assertEquals(1, result.overdueLoans);
+        assertEquals(new BigDecimal("18.50"), fine(2));
+        assertEquals(2, count("SELECT COUNT(*) FROM fines"));
+    }
+
+    @Test
+    void loansOpenBeforeTheEngineIsBuiltAreSwept() throws Exception {
+        bookManager.issueBook(4, "Dee", "R4", LocalDate.of(2026, 1, 1));
+        OverdueSweeper sweeper = sweeper();
+        assertNull(sweeper.sweep()); // not ready yet
+
+        overdueEngine.build(bookManager.getShards());
+
+        assertEquals(1, sweeper.sweep().finesAssessed);
+        assertEquals(new BigDecimal("18.50"), fine(4));
+    }
+
+    private OverdueSweeper sweeper() {
+        return new OverdueSweeper(bookManager.getShards(), overdueEngine, fineLedger, 1, result -> { });
+    }
+
+    private BigDecimal fine(int bookId) throws SQLException {
+        try (Connection connection = db.getConnection();
+             PreparedStatement ps = connection.prepareStatement("SELECT amount FROM fines WHERE book_id = ?")) {
+            ps.setInt(1, bookId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getBigDecimal(1) : null;
+            }
+        }
+    }
+
+    private int count(String sql) throws SQLException {
+        try (Connection connection = db.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package lms;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Search ranking on a small index: which field a term is found in, exact terms over prefixes, every token required,
+// and the index following books as they change
+class SearchIndexTest {
+    private SearchIndex index;
+
+    @BeforeEach
+    void buildIndex() {
+        index = new SearchIndex();
+        index.add(1, "Winter Garden", "Ann Lee", "North Books", 2001);
+        index.add(2, "Quiet Rooms", "Winter Hale", "North Books", 2002);
+        index.add(3, "Small Hours", "Bo Park", "Winter Press", 2003);
+        index.add(4, "Wintering", "Cy Moss", "South Books", 2004);
+        index.add(5, "Winter Light", "Dee Winter", "South Books", 2005);
+    }
+
+    @Test
+    void titleMatchesOutrankAuthorWhichOutranksPublisher() {
+        // 5 has the term in title and author; 4 only starts with it, which counts half, but still outranks a publisher
+        assertEquals(Arrays.asList(5, 1, 2, 4, 3), ids(index.search("winter", 10)));
+    }
+
+    @Test
+    void everyTokenMustMatchAndScoresAddUp() {
+        assertEquals(Arrays.asList(1, 2), ids(index.search("winter north", 10)));
+        assertEquals(Collections.singletonList(2), ids(index.search("WINTER hale", 10)));
+        assertEquals(Collections.emptyList(), ids(index.search("winter nowhere", 10)));
+    }
+
+    @Test
+    void prefixesNeedTwoCharacters() {
+        assertEquals(Arrays.asList(5, 1, 4, 2, 3), ids(index.search("wi", 10))); // all prefix matches: field weight only
+        assertEquals(Collections.emptyList(), ids(index.search("w", 10)));
+        index.add(6, "W Is For Winter", "Ann Lee", "North Books", 2006);
+        assertEquals(Collections.singletonList(6), ids(index.search("w", 10))); // a one-letter term is still found whole
+    }
+
+    @Test
+    void equalScoresKeepIdOrderAndLimitCutsTheTail() {
+        assertEquals(Arrays.asList(1, 2), ids(index.search("north", 10)));
+        assertEquals(Arrays.asList(5, 1), ids(index.search("winter", 2)));
+    }
+
+    @Test
+    void changedAndRemovedBooksLeaveTheirOldTerms() {
+        index.add(1, "Spring Garden", "Ann Lee", "North Books", 2001);
+        index.remove(5);
+
+        assertEquals(Arrays.asList(2, 4, 3), ids(index.search("winter", 10)));
+        assertEquals(Collections.singletonList(1), ids(index.search("spring", 10)));
+        assertEquals(Collections.emptyList(), ids(index.search("light", 10)));
+        assertEquals(4, index.size());
+    }
+
+    private static List<Integer> ids(List<SearchIndex.Doc> docs) {
+        List<Integer> ids = new ArrayList<>();
+        for (SearchIndex.Doc doc : docs) {
+            ids.add(doc.id);
+        }
+        return ids;
+    }
+}
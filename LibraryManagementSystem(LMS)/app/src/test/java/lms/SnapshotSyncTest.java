@@ -0,0 +1,106 @@
+package lms;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// Syncing the catalog snapshot from an in-memory H2 database: only the blocks whose versions moved are read
+class SnapshotSyncTest {
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    @TempDir
+    Path dir;
+
+    private DatabaseConnection db;
+    private BookManager bookManager;
+    private SnapshotSync sync;
+
+    @BeforeEach
+    void openDatabase() throws Exception {
+        db = new DatabaseConnection(EmbeddedBackend.inMemory("snapshot-sync-test-" + databases.incrementAndGet()));
+        bookManager = new BookManager(db);
+        sync = new SnapshotSync(bookManager, dir.resolve("catalog.snapshot"), ignored -> { });
+        for (int id : new int[] {1, 2, 4097, 8193}) { // blocks 0, 0, 1 and 2
+            bookManager.addBook(id, "Title " + id, "Author", "Publisher", 2000);
+        }
+    }
+
+    @AfterEach
+    void closeDatabase() throws DatabaseException {
+        sync.shutdown();
+        db.closeConnection();
+    }
+
+    @Test
+    void theFirstSyncReadsEveryBlock() throws Exception {
+        SnapshotSync.SyncResult result = sync.sync();
+
+        assertEquals(4, result.books);
+        assertEquals(3, result.blocks);
+        assertEquals(3, result.blocksRead);
+        assertEquals(Arrays.asList(1, 2, 4097, 8193), ids(sync.getSnapshot()));
+    }
+
+    @Test
+    void onlyTheChangedBlockIsRead() throws Exception {
+        sync.sync();
+        // Bypasses BookManager, so block 0's version stays put: a sync that read block 0 would pick this up
+        execute("UPDATE books SET title = 'Renamed' WHERE id = 1");
+        bookManager.addBook(4100, "Title 4100", "Author", "Publisher", 2000);
+
+        SnapshotSync.SyncResult result = sync.sync();
+
+        assertEquals(1, result.blocksRead);
+        CatalogSnapshot snapshot = sync.getSnapshot();
+        assertEquals(Arrays.asList(1, 2, 4097, 4100, 8193), ids(snapshot));
+        assertEquals("Title 1", snapshot.getBookAt(snapshot.indexOf(1)).title);
+    }
+
+    @Test
+    void aDeletedBookLeavesTheSnapshotWithItsBlock() throws Exception {
+        sync.sync();
+        bookManager.deleteBook(8193);
+
+        SnapshotSync.SyncResult result = sync.sync();
+
+        assertEquals(1, result.blocksRead);
+        assertEquals(Arrays.asList(1, 2, 4097), ids(sync.getSnapshot()));
+    }
+
+    @Test
+    void aSyncWithNothingChangedReadsNoBlocks() throws Exception {
+        sync.sync();
+
+        SnapshotSync.SyncResult result = sync.sync();
+
+        assertFalse(result.foundChanges());
+        assertEquals(4, result.books);
+    }
+
+    private void execute(String sql) throws Exception {
+        try (Connection connection = db.getConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate(sql);
+        }
+    }
+
+    private static List<Integer> ids(CatalogSnapshot snapshot) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < snapshot.getBookCount(); i++) {
+            ids.add(snapshot.getBookId(i));
+        }
+        return ids;
+    }
+}
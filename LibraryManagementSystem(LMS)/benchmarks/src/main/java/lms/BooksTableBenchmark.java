@@ -0,0 +1,84 @@
+package lms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// The "View Books" table with the whole catalog loaded: sorting it from the column header, and rendering one cell
+// of the sorted view, which is what each visible cell adds to a repaint while scrolling. Rows come from memory so
+// only the model, sorter and renderer are measured; 2000 authors and 100 publishers, as in a real catalog.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class BooksTableBenchmark {
+    @Param({"10000", "100000"})
+    public int rows;
+
+    private JTable table;
+    private BooksRowSorter sorter;
+    private int cell;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        List<BookRow> catalog = new ArrayList<>(rows);
+        for (int id = 1; id <= rows; id++) {
+            catalog.add(new BookRow(id, "Title " + random.nextInt(rows), "Author " + random.nextInt(2000),
+                    "Publisher " + random.nextInt(100), 1900 + random.nextInt(125), id % 5 == 0 ? "Issued" : "Available"));
+        }
+        BooksTableModel model = new BooksTableModel((afterKey, limit) -> CompletableFuture.completedFuture(
+                new ArrayList<>(catalog.subList(Math.min(afterKey, rows), Math.min(afterKey + limit, rows)))));
+        sorter = new BooksRowSorter(model);
+        SwingUtilities.invokeAndWait(() -> {
+            table = new JTable(model);
+            table.setRowSorter(sorter);
+            model.reload();
+            sorter.setSortKeys(Collections.singletonList(new RowSorter.SortKey(2, SortOrder.ASCENDING)));
+        });
+        while (!model.isFullyLoaded()) {
+            SwingUtilities.invokeAndWait(() -> { }); // pages are delivered by later EDT tasks
+        }
+        if (table.getRowCount() != rows) {
+            throw new IllegalStateException("Expected " + rows + " rows, loaded " + table.getRowCount());
+        }
+    }
+
+    // Flips the author column between ascending and descending, so every call is a full sort
+    @Benchmark
+    public int sortByAuthor() {
+        sorter.toggleSortOrder(2);
+        return sorter.convertRowIndexToModel(0);
+    }
+
+    @Benchmark
+    public Component renderCell() {
+        int columns = BooksTableModel.COLUMNS.length;
+        int row = cell / columns;
+        int column = cell % columns;
+        cell = (cell + 1) % (rows * columns);
+        return table.prepareRenderer(table.getCellRenderer(row, column), row, column);
+    }
+}
@@ -0,0 +1,102 @@
+package lms;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// A populated in-memory H2 library for the benchmarks: books 1..rows (or a branch's range starting at firstId),
+// and optionally an open loan on each of the first loans books. Loans are backdated up to LOAN_SPREAD_DAYS so a share of them is overdue, as on a
+// real desk. Each fixture gets its own database, dropped again by close().
+final class LibraryFixture implements AutoCloseable {
+    static final int POOL_SIZE = 20;
+    private static final int LOAD_BATCH_SIZE = 1000;
+    private static final int LOAN_SPREAD_DAYS = 60;
+    private static int databases;
+
+    final DatabaseConnection db;
+    private final int firstId;
+
+    LibraryFixture(int rows, int loans) throws DatabaseException, SQLException {
+        this(1, rows, loans);
+    }
+
+    LibraryFixture(int firstId, int rows, int loans) throws DatabaseException, SQLException {
+        this.firstId = firstId;
+        if (loans > rows) {
+            throw new IllegalArgumentException("Cannot lend " + loans + " of " + rows + " books");
+        }
+        db = new DatabaseConnection(EmbeddedBackend.inMemory(nextDatabaseName()), POOL_SIZE);
+        BookManager loader = new BookManager(db);
+        ImportReport report = loader.addBooks(() -> books(firstId, rows), LOAD_BATCH_SIZE);
+        if (report.getImported() != rows) {
+            throw new IllegalStateException("Fixture load failed: " + report);
+        }
+        openLoans(loans);
+    }
+
+    private static synchronized String nextDatabaseName() {
+        return "bench" + (++databases);
+    }
+
+    static Iterator<Book> books(int firstId, int rows) {
+        return new Iterator<Book>() {
+            private int next = firstId;
+
+            @Override
+            public boolean hasNext() {
+                return next < firstId + rows;
+            }
+
+            @Override
+            public Book next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int id = next++;
+                return new Book(id, "Title " + id, "Author " + (id % 5000), "Publisher " + (id % 200), 1950 + id % 75);
+            }
+        };
+    }
+
+    private void openLoans(int loans) throws SQLException {
+        LocalDate today = LocalDate.now();
+        try (Connection connection = db.getConnection();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO issued_books (book_id, student_name, registration_number, issue_date, return_date)"
+                             + " VALUES (?, ?, ?, ?, ?)");
+             Statement reserve = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            for (int bookId = firstId; bookId < firstId + loans; bookId++) {
+                LocalDate issueDate = today.minusDays(bookId % LOAN_SPREAD_DAYS);
+                insert.setInt(1, bookId);
+                insert.setString(2, "Student " + bookId % 10000);
+                insert.setString(3, "REG" + bookId % 10000);
+                insert.setDate(4, java.sql.Date.valueOf(issueDate));
+                insert.setDate(5, java.sql.Date.valueOf(OverdueEngine.returnDateFor(issueDate)));
+                insert.addBatch();
+                if (bookId % LOAD_BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+            insert.executeBatch();
+            reserve.executeUpdate("UPDATE books SET available = FALSE WHERE id < " + (firstId + loans));
+            connection.commit();
+        }
+    }
+
+    // Drops the in-memory database so the next trial starts from an empty heap
+    @Override
+    public void close() throws DatabaseException, SQLException {
+        try (Connection connection = db.getConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("SHUTDOWN");
+        } finally {
+            db.closeConnection();
+        }
+    }
+}
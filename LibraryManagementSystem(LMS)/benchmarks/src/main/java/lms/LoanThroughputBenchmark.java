@@ -0,0 +1,100 @@
+package lms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// issueBook followed by returnBook, each a transaction, from several desks at once. Every caller cycles
+// through its own slice of the catalogue, so the numbers show pool and lock overhead rather than callers
+// losing the race for the same copy. The thread count is set with -t (default 4). With shards > 1 the catalogue
+// is split by ID range over that many branch databases (ShardMap) and the desks are dealt out across them.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class LoanThroughputBenchmark {
+    static final int BOOKS = 100000;
+    static final int SLICE = 1000;
+
+    @Param({"1", "2", "4"})
+    public int shards;
+
+    private final List<LibraryFixture> fixtures = new ArrayList<>();
+    private BookManager bookManager;
+    private final AtomicInteger slices = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<Shard> branches = new ArrayList<>();
+        int booksPerShard = BOOKS / shards;
+        for (int i = 0; i < shards; i++) {
+            LibraryFixture fixture = new LibraryFixture(i * booksPerShard + 1, booksPerShard, 0);
+            fixtures.add(fixture);
+            branches.add(new Shard("branch" + (i + 1), i * booksPerShard + 1, (i + 1) * booksPerShard, fixture.db));
+        }
+        ShardMap shardMap = new ShardMap(branches, branches.get(0));
+        OverdueEngine overdueEngine = new OverdueEngine();
+        overdueEngine.build(shardMap);
+        bookManager = BookManager.builder(shardMap).overdueEngine(overdueEngine)
+                .fineLedger(new FineLedger(shardMap, new BigDecimal("1.00"))).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (LibraryFixture fixture : fixtures) {
+            fixture.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Desk {
+        int first;
+        int next;
+
+        // Desk n works on branch n % shards, in that branch's (n / shards)-th slice
+        @Setup(Level.Trial)
+        public void setUp(LoanThroughputBenchmark benchmark) {
+            int slice = benchmark.slices.getAndIncrement();
+            int booksPerShard = BOOKS / benchmark.shards;
+            int sliceInShard = slice / benchmark.shards;
+            if ((sliceInShard + 1) * SLICE > booksPerShard) {
+                throw new IllegalStateException("More callers than catalogue slices: " + (slice + 1));
+            }
+            first = (slice % benchmark.shards) * booksPerShard + sliceInShard * SLICE + 1;
+            next = first;
+        }
+
+        int nextBook() {
+            int bookId = next;
+            next = next + 1 < first + SLICE ? next + 1 : first;
+            return bookId;
+        }
+    }
+
+    @Benchmark
+    public void issueAndReturn(Desk desk) throws LibraryException {
+        int bookId = desk.nextBook();
+        bookManager.issueBook(bookId, "Student " + bookId, "REG" + bookId);
+        bookManager.returnBook(bookId);
+    }
+}
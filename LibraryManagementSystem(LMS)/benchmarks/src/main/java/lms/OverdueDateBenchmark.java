@@ -0,0 +1,59 @@
+package lms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+// Per-row due date work when an issued-books page is read. OverdueEngine replaced calculateOverdueDate,
+// which parsed and formatted strings with a fresh SimpleDateFormat; legacyCalculateOverdueDate is a copy of
+// it kept as the reference point.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OverdueDateBenchmark {
+    private static final int DATES = 1024;
+
+    private final LocalDate[] returnDates = new LocalDate[DATES];
+    private final String[] returnDateStrings = new String[DATES];
+    private LocalDate today;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        today = LocalDate.now();
+        for (int i = 0; i < DATES; i++) {
+            returnDates[i] = today.minusDays(i % 60).plusDays(OverdueEngine.LOAN_DAYS);
+            returnDateStrings[i] = returnDates[i].toString();
+        }
+    }
+
+    @Benchmark
+    public boolean overdueEngine() {
+        LocalDate returnDate = returnDates[next++ & (DATES - 1)];
+        return OverdueEngine.isOverdue(OverdueEngine.overdueDateFor(returnDate), today);
+    }
+
+    @Benchmark
+    public String legacyCalculateOverdueDate() throws ParseException {
+        String returnDate = returnDateStrings[next++ & (DATES - 1)];
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        Date parsed = dateFormat.parse(returnDate);
+        return dateFormat.format(new Date(parsed.getTime() + 7L * 24 * 60 * 60 * 1000));
+    }
+}
@@ -0,0 +1,69 @@
+package lms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import java.awt.Component;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Cost of IssuedBooksTableRenderer for one cell, i.e. what each visible cell adds to a repaint. The table is
+// headless and loaded with one page of rows, about a third of them overdue.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RendererBenchmark {
+    // Less than one page, so the model knows it holds every row and rendering never triggers a fetch
+    private static final int ROWS = 256;
+
+    private JTable table;
+    private IssuedBooksTableRenderer renderer;
+    private int cell;
+
+    @Setup
+    public void setUp() throws Exception {
+        LocalDate today = LocalDate.now();
+        List<IssuedBookRow> page = new ArrayList<>(ROWS);
+        for (int i = 1; i <= ROWS; i++) {
+            LocalDate issueDate = today.minusDays(i % 30);
+            LocalDate returnDate = OverdueEngine.returnDateFor(issueDate);
+            LocalDate overdueDate = OverdueEngine.overdueDateFor(returnDate);
+            page.add(new IssuedBookRow(i, i, "Title " + i, "Student " + i, "REG" + i, issueDate, returnDate,
+                    overdueDate, OverdueEngine.isOverdue(overdueDate, today)));
+        }
+        IssuedBooksTableModel model = new IssuedBooksTableModel(
+                (afterKey, limit) -> CompletableFuture.completedFuture(afterKey == 0 ? page : new ArrayList<>()));
+        SwingUtilities.invokeAndWait(model::reload);
+        SwingUtilities.invokeAndWait(() -> { }); // the first page is delivered by a later EDT task
+        if (model.getRowCount() != ROWS) {
+            throw new IllegalStateException("Expected " + ROWS + " rows, loaded " + model.getRowCount());
+        }
+        renderer = new IssuedBooksTableRenderer();
+        table = new JTable(model);
+        table.setDefaultRenderer(Object.class, renderer);
+    }
+
+    @Benchmark
+    public Component renderCell() {
+        int row = cell / IssuedBooksTableModel.COLUMNS.length;
+        int column = cell % IssuedBooksTableModel.COLUMNS.length;
+        cell = (cell + 1) % (ROWS * IssuedBooksTableModel.COLUMNS.length);
+        return renderer.getTableCellRendererComponent(table, table.getValueAt(row, column), false, false, row, column);
+    }
+}
@@ -0,0 +1,89 @@
+package lms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Loading the "View Books" and "View Issued Books" tables. The table models fetch keyset pages of
+// KeysetTableModel.PAGE_SIZE rows through BookManager, so firstPage is what opening a tab costs and
+// fullScan is scrolling to the bottom. Every book is on loan so both tables hold rows rows.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class TableLoadBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private LibraryFixture fixture;
+    private BookManager bookManager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new LibraryFixture(rows, rows);
+        bookManager = new BookManager(fixture.db);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    public List<BookRow> booksFirstPage() throws LibraryException {
+        return bookManager.getBooksPage(0, KeysetTableModel.PAGE_SIZE);
+    }
+
+    @Benchmark
+    public int booksFullScan(Blackhole bh) throws LibraryException {
+        int loaded = 0;
+        int afterId = 0;
+        List<BookRow> page;
+        do {
+            page = bookManager.getBooksPage(afterId, KeysetTableModel.PAGE_SIZE);
+            bh.consume(page);
+            loaded += page.size();
+            if (!page.isEmpty()) {
+                afterId = page.get(page.size() - 1).id;
+            }
+        } while (page.size() == KeysetTableModel.PAGE_SIZE);
+        return loaded;
+    }
+
+    @Benchmark
+    public List<IssuedBookRow> issuedFirstPage() throws LibraryException {
+        return bookManager.getIssuedBooksPage(0, KeysetTableModel.PAGE_SIZE);
+    }
+
+    @Benchmark
+    public int issuedFullScan(Blackhole bh) throws LibraryException {
+        int loaded = 0;
+        int afterBookId = 0;
+        List<IssuedBookRow> page;
+        do {
+            page = bookManager.getIssuedBooksPage(afterBookId, KeysetTableModel.PAGE_SIZE);
+            bh.consume(page);
+            loaded += page.size();
+            if (!page.isEmpty()) {
+                afterBookId = page.get(page.size() - 1).bookId;
+            }
+        } while (page.size() == KeysetTableModel.PAGE_SIZE);
+        return loaded;
+    }
+}